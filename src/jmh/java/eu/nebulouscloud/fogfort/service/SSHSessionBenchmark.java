@@ -0,0 +1,141 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+import com.jcraft.jsch.Session;
+
+/**
+ * Compares running a script over a new SSH session, as NodeScriptRunner did
+ * before {@link SSHSessionPool}, with running it on a session that is kept
+ * connected, as a pooled lease does. Scripts run against an in-process server
+ * that exits at once, so the handshake and key parsing dominate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class SSHSessionBenchmark {
+
+	private SshServer sshServer;
+	private byte[] privateKey;
+	private Session sharedSession;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+		ByteArrayOutputStream privateKeyOutput = new ByteArrayOutputStream();
+		keyPair.writePrivateKey(privateKeyOutput);
+		privateKey = privateKeyOutput.toByteArray();
+
+		sshServer = SshServer.setUpDefaultServer();
+		sshServer.setHost("127.0.0.1");
+		sshServer.setPort(0);
+		sshServer.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+		sshServer.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+		sshServer.setCommandFactory((channel, command) -> new ExitCommand());
+		sshServer.start();
+
+		sharedSession = connect();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		sharedSession.disconnect();
+		sshServer.stop(true);
+	}
+
+	@Benchmark
+	public void sessionPerScript() throws Exception {
+		Session session = connect();
+		try {
+			exec(session);
+		} finally {
+			session.disconnect();
+		}
+	}
+
+	@Benchmark
+	public void pooledSession() throws Exception {
+		exec(sharedSession);
+	}
+
+	private Session connect() throws Exception {
+		JSch jsch = new JSch();
+		jsch.addIdentity("benchmark-key", privateKey, null, null);
+		Session session = jsch.getSession("fogfort", "127.0.0.1", sshServer.getPort());
+		Properties config = new Properties();
+		config.put("StrictHostKeyChecking", "no");
+		session.setConfig(config);
+		session.connect(30000);
+		return session;
+	}
+
+	private static void exec(Session session) throws Exception {
+		ChannelExec channel = (ChannelExec) session.openChannel("exec");
+		channel.setCommand("true");
+		channel.connect();
+		while (!channel.isClosed()) {
+			Thread.sleep(1);
+		}
+		channel.disconnect();
+	}
+
+	private static class ExitCommand implements Command {
+		private OutputStream out;
+		private ExitCallback exitCallback;
+
+		@Override
+		public void start(ChannelSession channel, Environment env) throws IOException {
+			out.write("ok\n".getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			exitCallback.onExit(0);
+		}
+
+		@Override
+		public void destroy(ChannelSession channel) {
+		}
+
+		@Override
+		public void setInputStream(InputStream in) {
+		}
+
+		@Override
+		public void setOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void setErrorStream(OutputStream err) {
+		}
+
+		@Override
+		public void setExitCallback(ExitCallback callback) {
+			this.exitCallback = callback;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package eu.nebulouscloud.fogfort.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+
+import eu.nebulouscloud.fogfort.config.FogFortApplicationConfiguration;
+
+/**
+ * Compares the cost of a task log call through {@link LogWrapper} with the
+ * previous implementation, which formatted each message twice and wrote it to
+ * the file unbuffered, debug messages included. The regular logger is a no-op
+ * so only the task log path is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+public class LogWrapperBenchmark {
+
+	private static final Logger LOGGER = NOPLogger.NOP_LOGGER;
+
+	private File directory;
+	private LogWrapper logWrapper;
+	private FileOutputStream legacyStream;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("log-wrapper-benchmark").toFile();
+		FogFortApplicationConfiguration configuration = new FogFortApplicationConfiguration();
+		configuration.setOutputLogDirectory(directory.getAbsolutePath());
+		LogFileUtils.init(configuration);
+		logWrapper = new LogWrapper(LOGGER, "wrapper.log");
+		// The previous implementation appended to a file per log
+		legacyStream = new FileOutputStream(new File(directory, "legacy.log"), true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		logWrapper.close();
+		legacyStream.close();
+		try (Stream<Path> files = Files.walk(directory.toPath())) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	@Benchmark
+	public void legacyInfo() throws IOException {
+		LOGGER.info(legacyFormat("Script {} on {} took {} ms", "install", "node-1", 1234));
+		legacyStream.write(legacyFormat("Script {} on {} took {} ms", "install", "node-1", 1234).getBytes());
+	}
+
+	@Benchmark
+	public void wrapperInfo() {
+		logWrapper.info("Script {} on {} took {} ms", "install", "node-1", 1234);
+	}
+
+	@Benchmark
+	public void legacyDebugDisabled() throws IOException {
+		LOGGER.debug(legacyFormat("Executing script ({} bytes)", 4096));
+		legacyStream.write(legacyFormat("Executing script ({} bytes)", 4096).getBytes());
+	}
+
+	@Benchmark
+	public void wrapperDebugDisabled() {
+		logWrapper.debug("Executing script ({} bytes)", 4096);
+	}
+
+	/** The previous LogWrapper formatting */
+	private static String legacyFormat(String message, Object... args) {
+		String result = message;
+		for (Object arg : args) {
+			int placeholderIndex = result.indexOf("{}");
+			if (placeholderIndex == -1) {
+				break;
+			}
+			result = result.substring(0, placeholderIndex) + arg + result.substring(placeholderIndex + 2);
+		}
+		return result + System.lineSeparator();
+	}
+}
@@ -3,8 +3,10 @@ package eu.nebulouscloud.fogfort.cloud;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -58,6 +60,11 @@ import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
 @Slf4j
 public class AWSCloudProvider implements CloudProvider {
 
+	/** Maximum number of instance ids accepted by a TerminateInstances or DescribeInstances call */
+	private static final int INSTANCE_IDS_PER_REQUEST = 1000;
+	private static final long TERMINATION_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+	private static final long TERMINATION_POLL_INTERVAL_MILLIS = 10000;
+
 	@Override
 	public CloudProviderType getType() {
 		return CloudProviderType.AWS_EC2;
@@ -270,20 +277,7 @@ public class AWSCloudProvider implements CloudProvider {
 							runningInstance.publicIpAddress(), runningInstance.privateIpAddress(), cloud.getCloudId());
 
 					// Create and populate NodeCreationDetails object
-					NodeCreationDetails nodeCreationDetails = new NodeCreationDetails();
-					nodeCreationDetails.setProviderId(instanceId);
-					nodeCreationDetails.setNodeUrl(runningInstance.publicIpAddress());
-					SSHConnectionParameters sshParams = new SSHConnectionParameters();
-					IpAddress ipAddress = new IpAddress();
-					ipAddress.setIpAddressType(IpAddressType.PUBLIC_IP);
-					ipAddress.setIpVersion(IpVersion.V4);
-					ipAddress.setValue(runningInstance.publicIpAddress());
-					sshParams.setIpAddress(ipAddress);
-					sshParams.setPort("22");
-					sshParams.setUsername(cloud.getSshCredentials().getUsername());
-					sshParams.setKeyPairName(cloud.getSshCredentials().getKeyPairName());
-					sshParams.setPrivateKey(cloud.getSshCredentials().getPrivateKey());
-					nodeCreationDetails.setSshConnectionParameters(sshParams);
+					NodeCreationDetails nodeCreationDetails = toNodeCreationDetails(cloud, runningInstance);
 
 					// Set IP address
 					/*
@@ -330,6 +324,185 @@ public class AWSCloudProvider implements CloudProvider {
 		}
 	}
 
+	private static NodeCreationDetails toNodeCreationDetails(Cloud cloud, Instance instance) {
+		NodeCreationDetails nodeCreationDetails = new NodeCreationDetails();
+		nodeCreationDetails.setProviderId(instance.instanceId());
+		nodeCreationDetails.setNodeUrl(instance.publicIpAddress());
+		SSHConnectionParameters sshParams = new SSHConnectionParameters();
+		IpAddress ipAddress = new IpAddress();
+		ipAddress.setIpAddressType(IpAddressType.PUBLIC_IP);
+		ipAddress.setIpVersion(IpVersion.V4);
+		ipAddress.setValue(instance.publicIpAddress());
+		sshParams.setIpAddress(ipAddress);
+		sshParams.setPort("22");
+		sshParams.setUsername(cloud.getSshCredentials().getUsername());
+		sshParams.setKeyPairName(cloud.getSshCredentials().getKeyPairName());
+		sshParams.setPrivateKey(cloud.getSshCredentials().getPrivateKey());
+		nodeCreationDetails.setSshConnectionParameters(sshParams);
+		return nodeCreationDetails;
+	}
+
+	@Override
+	public TaskExecutionWithResult<NodeCreationDetails> findNode(Cloud cloud, Node node) {
+		TaskExecutionWithResult<NodeCreationDetails> taskExecution = new TaskExecutionWithResult<NodeCreationDetails>(
+				new Date());
+		try (LogWrapper logWrapper = taskExecution.getLogWrapper(log)) {
+			NodeCandidate nodeCandidate = node.getNodeCandidate();
+			String nodeName = node.getName();
+			if (nodeCandidate == null || nodeCandidate.getLocation() == null
+					|| nodeCandidate.getLocation().getProviderId() == null) {
+				return taskExecution
+						.withException(new IllegalArgumentException("NodeCandidate location cannot be null"));
+			}
+			String region = nodeCandidate.getLocation().getProviderId();
+			CloudCredentials credentials = cloud.getCredentials();
+			AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(credentials.getUser(),
+					credentials.getPrivateKey());
+			try (Ec2Client ec2Client = Ec2Client.builder().region(Region.of(region))
+					.credentialsProvider(StaticCredentialsProvider.create(awsCredentials)).build()) {
+				// Match the instance id if known, else the tags set by createNode, ignoring
+				// instances on their way out
+				Filter stateFilter = Filter.builder().name("instance-state-name")
+						.values(InstanceStateName.PENDING.toString(), InstanceStateName.RUNNING.toString()).build();
+				DescribeInstancesRequest request = node.getProviderId() != null
+						? DescribeInstancesRequest.builder()
+								.filters(Filter.builder().name("instance-id").values(node.getProviderId()).build(),
+										stateFilter)
+								.build()
+						: DescribeInstancesRequest.builder()
+								.filters(Filter.builder().name("tag:Name").values(nodeName).build(),
+										Filter.builder().name("tag:CloudId").values(cloud.getCloudId()).build(),
+										Filter.builder().name("tag:NodeCandidateId").values(nodeCandidate.getId())
+												.build(),
+										stateFilter)
+								.build();
+				List<Instance> instances = ec2Client.describeInstancesPaginator(request).reservations().stream()
+						.flatMap(reservation -> reservation.instances().stream()).toList();
+				if (instances.isEmpty()) {
+					logWrapper.info("No instance found for node {} in region: {} for cloud: {}", nodeName, region,
+							cloud.getCloudId());
+					return taskExecution.withResult(null);
+				}
+				if (instances.size() > 1) {
+					logWrapper.warn("{} instances found for node {} in region: {} for cloud: {}, using the first one",
+							instances.size(), nodeName, region, cloud.getCloudId());
+				}
+				Instance instance = instances.get(0);
+				if (instance.state().name() == InstanceStateName.PENDING) {
+					waitForInstanceRunning(ec2Client, instance.instanceId(), logWrapper);
+					instance = ec2Client
+							.describeInstances(
+									DescribeInstancesRequest.builder().instanceIds(instance.instanceId()).build())
+							.reservations().get(0).instances().get(0);
+				}
+				logWrapper.info("Found instance {} for node {} in region: {} for cloud: {}", instance.instanceId(),
+						nodeName, region, cloud.getCloudId());
+				return taskExecution.withResult(toNodeCreationDetails(cloud, instance));
+			} catch (Exception ex) {
+				logWrapper.error("Exception while looking up node {} for cloud: {}", nodeName, cloud.getCloudId(), ex);
+				return taskExecution.withException(new CloudProviderException("Error looking up node", ex));
+			}
+		}
+	}
+
+	@Override
+	public TaskExecutionWithResult<Void> deleteNodes(Cloud cloud, List<Node> nodes) {
+		TaskExecutionWithResult<Void> taskExecution = new TaskExecutionWithResult<Void>(new Date());
+		try (LogWrapper logWrapper = taskExecution.getLogWrapper(log)) {
+			if (cloud == null) {
+				return taskExecution.withException(new IllegalArgumentException("Cloud cannot be null"));
+			}
+			CloudCredentials credentials = cloud.getCredentials();
+			if (credentials == null || credentials.getUser() == null || credentials.getPrivateKey() == null) {
+				logWrapper.warn("AWS credentials are missing or incomplete for cloud: {}", cloud.getCloudId());
+				return taskExecution
+						.withException(new IllegalArgumentException("AWS credentials are required to delete nodes"));
+			}
+			Map<String, List<String>> instanceIdsByRegion = new HashMap<>();
+			for (Node node : nodes) {
+				if (node.getProviderId() == null || node.getProviderId().isEmpty()) {
+					continue;
+				}
+				if (node.getNodeCandidate() == null || node.getNodeCandidate().getLocation() == null
+						|| node.getNodeCandidate().getLocation().getProviderId() == null) {
+					return taskExecution.withException(
+							new IllegalArgumentException("Node location provider ID cannot be null or empty"));
+				}
+				instanceIdsByRegion
+						.computeIfAbsent(node.getNodeCandidate().getLocation().getProviderId(), r -> new ArrayList<>())
+						.add(node.getProviderId());
+			}
+			AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(credentials.getUser(),
+					credentials.getPrivateKey());
+			Map<String, Ec2Client> clients = new HashMap<>();
+			try {
+				/* Issue every termination first, then wait for all of them */
+				for (Map.Entry<String, List<String>> entry : instanceIdsByRegion.entrySet()) {
+					Ec2Client ec2Client = Ec2Client.builder().region(Region.of(entry.getKey()))
+							.credentialsProvider(StaticCredentialsProvider.create(awsCredentials)).build();
+					clients.put(entry.getKey(), ec2Client);
+					List<String> instanceIds = entry.getValue();
+					for (int i = 0; i < instanceIds.size(); i += INSTANCE_IDS_PER_REQUEST) {
+						List<String> batch = instanceIds.subList(i,
+								Math.min(instanceIds.size(), i + INSTANCE_IDS_PER_REQUEST));
+						logWrapper.info("Terminating {} instances in region: {} for cloud: {}", batch.size(),
+								entry.getKey(), cloud.getCloudId());
+						ec2Client.terminateInstances(TerminateInstancesRequest.builder().instanceIds(batch).build());
+					}
+				}
+				for (Map.Entry<String, List<String>> entry : instanceIdsByRegion.entrySet()) {
+					waitForInstancesTerminated(clients.get(entry.getKey()), entry.getValue(), logWrapper);
+				}
+			} catch (Exception ex) {
+				logWrapper.error("Exception while deleting nodes for cloud: {}", cloud.getCloudId(), ex);
+				return taskExecution.withException(new CloudProviderException("Error deleting nodes", ex));
+			} finally {
+				clients.values().forEach(Ec2Client::close);
+			}
+			return taskExecution.withResult(null);
+		}
+	}
+
+	/**
+	 * Waits for EC2 instances to reach the terminated state, polling all of them
+	 * with batched describe calls.
+	 * 
+	 * @param ec2Client   The EC2 client of the region of the instances
+	 * @param instanceIds The instance IDs to wait for
+	 * @throws CloudProviderException If the instances are not terminated in time
+	 */
+	private void waitForInstancesTerminated(Ec2Client ec2Client, List<String> instanceIds, LogWrapper logWrapper)
+			throws CloudProviderException {
+		Set<String> remaining = new HashSet<>(instanceIds);
+		long deadline = System.currentTimeMillis() + TERMINATION_TIMEOUT_MILLIS;
+		while (true) {
+			List<String> pending = new ArrayList<>(remaining);
+			for (int i = 0; i < pending.size(); i += INSTANCE_IDS_PER_REQUEST) {
+				DescribeInstancesRequest request = DescribeInstancesRequest.builder()
+						.instanceIds(pending.subList(i, Math.min(pending.size(), i + INSTANCE_IDS_PER_REQUEST)))
+						.build();
+				ec2Client.describeInstancesPaginator(request).reservations().stream()
+						.flatMap(reservation -> reservation.instances().stream())
+						.filter(instance -> instance.state().name() == InstanceStateName.TERMINATED)
+						.forEach(instance -> remaining.remove(instance.instanceId()));
+			}
+			if (remaining.isEmpty()) {
+				logWrapper.info("{} instances terminated", instanceIds.size());
+				return;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				throw new CloudProviderException(
+						"Timeout waiting for instances " + remaining + " to reach terminated state");
+			}
+			try {
+				Thread.sleep(TERMINATION_POLL_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CloudProviderException("Interrupted while waiting for instances", e);
+			}
+		}
+	}
+
 	/**
 	 * Wait for an EC2 instance to reach the running state
 	 * 
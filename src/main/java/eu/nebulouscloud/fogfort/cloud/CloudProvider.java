@@ -1,5 +1,8 @@
 package eu.nebulouscloud.fogfort.cloud;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import eu.nebulouscloud.fogfort.dto.CloudProviderType;
@@ -83,6 +86,19 @@ public interface CloudProvider {
 	public TaskExecutionWithResult<NodeCreationDetails> createNode(Cloud cloud, NodeCandidate nodeCandidate,
 			String nodeName);
 
+	/**
+	 * Looks up the instance of a node: by its provider id if it has one, otherwise
+	 * through the tags createNode puts on it (node name, cloud id and node
+	 * candidate id). Used to reconcile nodes whose deployment was interrupted, for
+	 * instance by a restart.
+	 * 
+	 * @param cloud The cloud configuration containing provider credentials and settings
+	 * @param node  The node, with the specification it was created from
+	 * @return A TaskExecutionWithResult containing the NodeCreationDetails of the running (or
+	 *         starting) instance, or a null result if there is none
+	 */
+	public TaskExecutionWithResult<NodeCreationDetails> findNode(Cloud cloud, Node node);
+
 	/**
 	 * Terminates and removes a node from the cloud provider.
 	 * This method permanently deletes the specified compute node and releases all associated resources.
@@ -95,6 +111,30 @@ public interface CloudProvider {
 	 */
 	public TaskExecutionWithResult<Void> deleteNode(Cloud cloud, Node node);
 
+	/**
+	 * Terminates and removes several nodes from the cloud provider, and waits for
+	 * their termination. Nodes without a provider id are skipped. Providers that
+	 * can batch the termination calls should override the default, which calls
+	 * {@link #deleteNode(Cloud, Node)} once per node.
+	 * 
+	 * @param cloud The cloud configuration containing provider credentials and settings
+	 * @param nodes The nodes to terminate
+	 * @return A TaskExecutionWithResult indicating whether every node was terminated
+	 */
+	public default TaskExecutionWithResult<Void> deleteNodes(Cloud cloud, List<Node> nodes) {
+		TaskExecutionWithResult<Void> taskExecution = new TaskExecutionWithResult<Void>(new Date());
+		List<String> failed = new ArrayList<>();
+		for (Node node : nodes) {
+			if (node.getProviderId() != null && !deleteNode(cloud, node).isSuccess()) {
+				failed.add(node.getProviderId());
+			}
+		}
+		if (!failed.isEmpty()) {
+			return taskExecution.withException(new CloudProviderException("Error deleting nodes " + failed));
+		}
+		return taskExecution.withResult(null);
+	}
+
 	/**
 	 * Retrieves all available operating system images that can be used to boot nodes.
 	 * This method lists all pre-configured system images (e.g., Ubuntu, CentOS, Windows)
@@ -8,7 +8,9 @@ import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
 
 import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import eu.nebulouscloud.fogfort.util.TaskLogAppender;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -28,9 +30,27 @@ public class FogFortApplicationConfiguration {
 	@Value("${fogfort.security.disabled:false}")
 	private Boolean securityDisabled;
 
+	/** How often the task log writer appends queued messages to their files */
+	@Value("${fogfort.task-log.flush-interval-millis:50}")
+	private long taskLogFlushIntervalMillis;
+
+	/** How many task log messages can be queued before loggers wait */
+	@Value("${fogfort.task-log.ring-buffer-size:16384}")
+	private int taskLogRingBufferSize;
+
+	/** Size at which a task log segment is sealed and a new one started */
+	@Value("${fogfort.task-log.segment-size-mb:64}")
+	private long taskLogSegmentSizeMb;
+
 	@PostConstruct
 	public void init() {
 		LogFileUtils.init(this);
+		TaskLogAppender.init(this);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		TaskLogAppender.getInstance().flush();
 	}
 
 }
@@ -4,13 +4,16 @@ import java.util.Properties;
 
 import javax.sql.DataSource;
 
+import org.hibernate.cfg.AvailableSettings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.JpaVendorAdapter;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.hibernate.SpringBeanContainer;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
@@ -22,6 +25,9 @@ public class PersistenceJPAConfig {
 	@Autowired
 	private DataSource dataSource;
 
+	@Autowired
+	private ConfigurableListableBeanFactory beanFactory;
+
 	@Value("${spring.jpa.hibernate.ddl-auto:validate}") // can be set to validate, create or create-drop, update
 	private String ddlAuto;
 
@@ -39,6 +45,8 @@ public class PersistenceJPAConfig {
 		properties.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
 		properties.setProperty("hibernate.show_sql", "false");
 		em.setJpaProperties(properties);
+		// Lets entity listeners have their dependencies injected
+		em.getJpaPropertyMap().put(AvailableSettings.BEAN_CONTAINER, new SpringBeanContainer(beanFactory));
 
 		return em;
 	}
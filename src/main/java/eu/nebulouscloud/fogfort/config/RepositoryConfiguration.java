@@ -80,7 +80,9 @@ public class RepositoryConfiguration {
 
 	private DataSource createMemDataSource() {
 		EmbeddedDatabaseBuilder builder = new EmbeddedDatabaseBuilder();
-		EmbeddedDatabase db = builder.setType(EmbeddedDatabaseType.HSQL).addScript("create_text_type.sql").build();
+		// A unique name keeps test contexts with different properties from sharing one database
+		EmbeddedDatabase db = builder.setType(EmbeddedDatabaseType.HSQL).generateUniqueName(true)
+				.addScript("create_text_type.sql").build();
 		return db;
 	}
 
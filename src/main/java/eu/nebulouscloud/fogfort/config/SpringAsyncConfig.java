@@ -1,10 +1,28 @@
 package eu.nebulouscloud.fogfort.config;
 
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
 
+import eu.nebulouscloud.fogfort.service.DeploymentExecutor;
+
+/**
+ * Runs {@code @Async} methods on the deployment executor.
+ */
 @Configuration
 @EnableAsync
-public class SpringAsyncConfig {
+public class SpringAsyncConfig implements AsyncConfigurer {
+
+	@Autowired
+	@Lazy
+	private DeploymentExecutor deploymentExecutor;
 
+	@Override
+	public Executor getAsyncExecutor() {
+		return deploymentExecutor;
+	}
 }
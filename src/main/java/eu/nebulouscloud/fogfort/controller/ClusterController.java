@@ -16,9 +16,11 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import eu.nebulouscloud.fogfort.dto.ClusterApplication;
+import eu.nebulouscloud.fogfort.dto.ClusterCommand;
 import eu.nebulouscloud.fogfort.dto.ClusterDefinition;
 import eu.nebulouscloud.fogfort.dto.ClusterNodeDefinition;
 import eu.nebulouscloud.fogfort.model.Cluster;
@@ -53,11 +55,12 @@ public class ClusterController {
 	}
 
 	@RequestMapping(value = "/{clusterName}", method = RequestMethod.POST)
-	@ApiOperation(value = "Deploy a Kubernetes cluster", notes = "This endpoint enables users to configure and deploy a Kubernetes cluster. The deployment process involves cluster definition integration, workflow execution, and resource monitoring.", response = Boolean.class)
+	@ApiOperation(value = "Deploy a Kubernetes cluster", notes = "This endpoint enables users to configure and deploy a Kubernetes cluster. The deployment process involves cluster definition integration, workflow execution, and resource monitoring. The deploy cluster job is POSTed to the callback URL, if any, once it has ended.", response = Boolean.class)
 	public ResponseEntity<Boolean> deployCluster(
 			@ApiParam(value = "authentication session id", required = true) @RequestHeader(value = "sessionid") final String sessionId,
-			@ApiParam(value = "Cluster name", required = true) @PathVariable(name = "clusterName") final String clusterName) {
-		return ResponseEntity.ok(clusterService.deployCluster(sessionId, clusterName));
+			@ApiParam(value = "Cluster name", required = true) @PathVariable(name = "clusterName") final String clusterName,
+			@ApiParam(value = "URL the deploy cluster job is POSTed to once it has ended") @RequestParam(name = "callbackUrl", required = false) final String callbackUrl) {
+		return ResponseEntity.ok(clusterService.deployCluster(sessionId, clusterName, callbackUrl));
 	}
 
 	@RequestMapping(value = "/{clusterName}", method = RequestMethod.GET)
@@ -83,11 +86,11 @@ public class ClusterController {
 	}
 
 	@RequestMapping(value = "/{clusterName}/app", method = RequestMethod.POST)
-	@ApiOperation(value = "Deploy and manage applications within a Kubernetes cluster", notes = "This endpoint is used to deploy and manage applications within a specific Kubernetes cluster, utilizing kubectl, KubeVela, or Helm. Upon initiating a deployment, the endpoint generates an application deployment workflow within the designated cluster.", response = Long.class)
-	public ResponseEntity<Long> manageApplication(
+	@ApiOperation(value = "Deploy and manage applications within a Kubernetes cluster", notes = "This endpoint is used to deploy and manage applications within a specific Kubernetes cluster, utilizing kubectl, KubeVela, or Helm. Upon initiating a deployment, the endpoint generates an application deployment workflow within the designated cluster. Applications submitted together are applied in one master session, and an application identical to the last one applied under the same name is skipped. Returns the id of the job.", response = String.class)
+	public ResponseEntity<String> manageApplication(
 			@ApiParam(value = "authentication session id", required = true) @RequestHeader(value = "sessionid") final String sessionId,
 			@ApiParam(value = "Cluster name", required = true) @PathVariable(name = "clusterName") final String clusterName,
-			@ApiParam(value = "Application definition with appFile, packageManager, appName, action, and flags", required = true) @RequestBody final ClusterApplication application) {
+			@ApiParam(value = "Application definition with appFile, packageManager, appName, action, flags, and force", required = true) @RequestBody final ClusterApplication application) {
 		if (application == null) {
 			throw new IllegalArgumentException("Applications are empty");
 		}
@@ -132,4 +135,16 @@ public class ClusterController {
 		return ResponseEntity.ok(clusterService.labelNode(sessionId, clusterName, nodeLabels.get(0)));
 	}
 
+	@RequestMapping(value = "/{clusterName}/exec", method = RequestMethod.POST)
+	@ApiOperation(value = "Run a script on the nodes of a Kubernetes cluster", notes = "This endpoint runs one script on all nodes of a cluster, or on the selected ones, with bounded parallelism. The run is tracked as a job whose single task execution log aggregates the output of all nodes, each line prefixed with the node name. The call returns the id of the job at once; the job ends once the script ended on every node, with the exit status per node in its variables as exitCode.<node name>.", response = String.class)
+	public ResponseEntity<String> exec(
+			@ApiParam(value = "authentication session id", required = true) @RequestHeader(value = "sessionid") final String sessionId,
+			@ApiParam(value = "Cluster name", required = true) @PathVariable(name = "clusterName") final String clusterName,
+			@ApiParam(value = "The script, and optionally the node names, parallelism and per-node timeout", required = true) @RequestBody final ClusterCommand command) {
+		if (command == null) {
+			throw new IllegalArgumentException("Command is empty");
+		}
+		return ResponseEntity.ok(clusterService.exec(sessionId, clusterName, command));
+	}
+
 }
@@ -0,0 +1,51 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import eu.nebulouscloud.fogfort.service.PAGatewayService;
+import eu.nebulouscloud.fogfort.service.StateEventService;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+
+@RestController
+@RequestMapping(value = "/sal/events")
+@Api(tags = "State change events", produces = "text/event-stream")
+public class EventController {
+
+	@Autowired
+	private StateEventService stateEventService;
+	@Autowired
+	private PAGatewayService paGatewayService;
+
+	@GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@ApiOperation(value = "Stream of job, task, cluster, node and cloud state changes as Server-Sent Events. "
+			+ "'state' events carry a StateEvent; a 'reset' event means events were missed and the client should reload.")
+	public SseEmitter streamEvents(
+			@ApiParam(value = "The id of the last event received, sent by EventSource when it reconnects") @RequestHeader(value = "Last-Event-ID", required = false) final Long lastEventIdHeader,
+			@ApiParam(value = "The id of the last event received, for clients that cannot set headers") @RequestParam(value = "lastEventId", required = false) final Long lastEventId) {
+		return stateEventService.subscribe(lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+	}
+
+	@PostMapping("/token")
+	@ApiOperation(value = "Issue a short-lived token to open the event stream with, passed as the 'token' query "
+			+ "parameter by clients that cannot set the sessionid header", response = String.class)
+	public ResponseEntity<String> issueToken(
+			@ApiParam(value = "authentication session id", required = true) @RequestHeader(value = "sessionid", required = false) final String sessionId) {
+		return ResponseEntity.ok(paGatewayService.issueEventStreamToken(sessionId));
+	}
+}
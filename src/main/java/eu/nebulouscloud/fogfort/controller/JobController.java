@@ -6,29 +6,59 @@
 package eu.nebulouscloud.fogfort.controller;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.PagedModel;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.StreamUtils;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import eu.nebulouscloud.fogfort.dto.JobNotification;
+import eu.nebulouscloud.fogfort.dto.JobSummary;
+import eu.nebulouscloud.fogfort.dto.LogSearchHit;
 import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.JobType;
 import eu.nebulouscloud.fogfort.model.jobs.Task;
 import eu.nebulouscloud.fogfort.repository.JobRepository;
 import eu.nebulouscloud.fogfort.repository.TaskRepository;
+import eu.nebulouscloud.fogfort.service.JobArchiveService;
+import eu.nebulouscloud.fogfort.service.JobNotificationService;
+import eu.nebulouscloud.fogfort.service.LogSearchService;
 import eu.nebulouscloud.fogfort.util.LogFileUtils;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import lombok.extern.slf4j.Slf4j;
+import tools.jackson.databind.ObjectMapper;
 
 @RestController
 @RequestMapping(value = "/sal/job")
@@ -42,8 +72,44 @@ public class JobController {
 	@Autowired
 	private TaskRepository taskRepository;
 
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private JobArchiveService jobArchiveService;
+
+	@Autowired
+	private LogSearchService logSearchService;
+
+	@Autowired
+	private JobNotificationService jobNotificationService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	/** Longest a log request waits for new output */
+	@Value("${fogfort.logs.max-wait-millis:30000}")
+	private long maxLogWaitMillis;
+
+	/** Largest page of job summaries returned at once */
+	@Value("${fogfort.jobs.max-summary-page-size:200}")
+	private int maxSummaryPageSize;
+
+	/** Longest a request waits for a job to end */
+	@Value("${fogfort.jobs.max-wait-millis:300000}")
+	private long maxJobWaitMillis;
+
+	/** Most log search hits returned at once */
+	@Value("${fogfort.logs.search.max-hits:1000}")
+	private int maxSearchHits;
+
+	private static final String LOG_LENGTH_HEADER = "X-Log-Length";
+	private static final MediaType TEXT_PLAIN_UTF8 = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+	private static final Pattern BYTE_RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
 	@GetMapping
-	@ApiOperation(value = "Get all jobs with their tasks and executions", response = Job.class, responseContainer = "List")
+	@ApiOperation(value = "Get all jobs with their tasks and executions. Reads every job ever run, "
+			+ "lists should use the job summaries instead", response = Job.class, responseContainer = "List")
 	@Transactional(readOnly = true)
 	public ResponseEntity<List<Job>> getAllJobs() {
 		List<Job> jobs = jobRepository.findAll();
@@ -61,13 +127,72 @@ public class JobController {
 		return ResponseEntity.ok(jobs);
 	}
 
+	@GetMapping("/summary")
+	@ApiOperation(value = "Get a page of job summaries, newest first, with the number of tasks per status. "
+			+ "The tasks and executions of a job are read from the job itself.")
+	@Transactional(readOnly = true)
+	public ResponseEntity<PagedModel<JobSummary>> getJobSummaries(
+			@ApiParam(value = "The page number, from 0") @RequestParam(name = "page", defaultValue = "0") final int page,
+			@ApiParam(value = "The page size") @RequestParam(name = "size", defaultValue = "50") final int size,
+			@ApiParam(value = "Only jobs with this status") @RequestParam(name = "status", required = false) final JobStatus status,
+			@ApiParam(value = "Only jobs of this type") @RequestParam(name = "type", required = false) final JobType jobType,
+			@ApiParam(value = "Only jobs of this cluster") @RequestParam(name = "clusterId", required = false) final String clusterId,
+			@ApiParam(value = "Only jobs created at or after this ISO date-time") @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final Date from,
+			@ApiParam(value = "Only jobs created before this ISO date-time") @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final Date to) {
+		if (page < 0) {
+			throw new IllegalArgumentException("Page must not be negative: " + page);
+		}
+		if (size < 1 || size > maxSummaryPageSize) {
+			throw new IllegalArgumentException("Page size must be between 1 and " + maxSummaryPageSize + ": " + size);
+		}
+		Page<JobSummary> summaries = jobRepository.findSummaries(status, jobType, clusterId, from, to,
+				PageRequest.of(page, size, Sort.by(Sort.Order.desc("createdAt"), Sort.Order.asc("jobId"))));
+		if (summaries.hasContent()) {
+			Map<String, JobSummary> byJobId = new HashMap<>();
+			summaries.forEach(summary -> byJobId.put(summary.getJobId(), summary));
+			for (Object[] row : jobRepository.countTasksByStatus(byJobId.keySet())) {
+				JobSummary summary = byJobId.get((String) row[0]);
+				long count = (Long) row[2];
+				summary.setTaskCount(summary.getTaskCount() + count);
+				summary.getTaskCountsByStatus().merge(row[1] != null ? (JobStatus) row[1] : JobStatus.UNKNOWN, count,
+						Long::sum);
+			}
+		}
+		return ResponseEntity.ok(new PagedModel<>(summaries));
+	}
+
+	@GetMapping("/search")
+	@ApiOperation(value = "Search the logs of ended task executions. Returns the lines containing every word and "
+			+ "every quoted phrase of the query, newest execution first, with their job, task, node and execution, "
+			+ "and the byte offset of the line in the log.")
+	public ResponseEntity<List<LogSearchHit>> searchLogs(
+			@ApiParam(value = "Words and quoted phrases, such as kubeadm \"connection refused\"", required = true) @RequestParam(name = "q") final String query,
+			@ApiParam(value = "The largest number of hits") @RequestParam(name = "limit", defaultValue = "100") final int limit)
+			throws IOException {
+		if (limit < 1 || limit > maxSearchHits) {
+			throw new IllegalArgumentException("Limit must be between 1 and " + maxSearchHits + ": " + limit);
+		}
+		return ResponseEntity.ok(logSearchService.search(query, limit));
+	}
+
+	@GetMapping("/archive")
+	@ApiOperation(value = "Get the ids of the archived jobs, by the day they ended. Archived jobs are read "
+			+ "like the others, with the id and name of their cluster instead of the cluster.")
+	public ResponseEntity<Map<String, List<String>>> getArchivedJobIds() {
+		return ResponseEntity.ok(jobArchiveService.getArchivedJobIds());
+	}
+
 	@GetMapping("/{jobId}")
-	@ApiOperation(value = "Get a specific job with its tasks and executions", response = Job.class)
+	@ApiOperation(value = "Get a specific job with its tasks and executions, from the archive once it is archived", response = Job.class)
 	@Transactional(readOnly = true)
-	public ResponseEntity<Job> getJob(
-			@ApiParam(value = "A job identifier", required = true) @PathVariable(name = "jobId") final String jobId) {
-		Job job = jobRepository.findById(jobId)
-				.orElseThrow(() -> new IllegalArgumentException("Job not found: " + jobId));
+	public ResponseEntity<Object> getJob(
+			@ApiParam(value = "A job identifier", required = true) @PathVariable(name = "jobId") final String jobId)
+			throws IOException {
+		Job job = jobRepository.findById(jobId).orElse(null);
+		if (job == null) {
+			return ResponseEntity.ok(jobArchiveService.getArchivedJob(jobId)
+					.orElseThrow(() -> new IllegalArgumentException("Job not found: " + jobId)));
+		}
 		// Force eager loading of tasks and executions
 		if (job.getTasks() != null) {
 			job.getTasks().size(); // Force initialization
@@ -80,36 +205,244 @@ public class JobController {
 		return ResponseEntity.ok(job);
 	}
 
+	@GetMapping("/{jobId}/wait")
+	@ApiOperation(value = "Wait for a job to end. Returns the job once it has ended, or with status 202 and the job "
+			+ "as it is when the timeout elapses first", response = JobNotification.class)
+	public DeferredResult<ResponseEntity<JobNotification>> waitForJob(
+			@ApiParam(value = "A job identifier", required = true) @PathVariable(name = "jobId") final String jobId,
+			@ApiParam(value = "Milliseconds to wait for the job to end") @RequestParam(name = "timeout", defaultValue = "30000") final long timeoutMillis)
+			throws IOException {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("Timeout must not be negative: " + timeoutMillis);
+		}
+		long timeout = Math.min(timeoutMillis, maxJobWaitMillis);
+		CompletableFuture<JobNotification> ended = jobNotificationService.awaitJob(jobId);
+		JobNotification current;
+		try {
+			current = readJobNotification(jobId);
+		} catch (IOException | RuntimeException e) {
+			jobNotificationService.stopWaiting(jobId, ended);
+			throw e;
+		}
+		DeferredResult<ResponseEntity<JobNotification>> result = new DeferredResult<>(timeout);
+		if (JobNotificationService.isEnded(current.getStatus()) || timeout == 0) {
+			jobNotificationService.stopWaiting(jobId, ended);
+			result.setResult(waitResponse(current));
+			return result;
+		}
+		result.onTimeout(() -> {
+			jobNotificationService.stopWaiting(jobId, ended);
+			try {
+				result.setResult(waitResponse(readJobNotification(jobId)));
+			} catch (IOException | RuntimeException e) {
+				result.setErrorResult(e);
+			}
+		});
+		result.onError(e -> jobNotificationService.stopWaiting(jobId, ended));
+		ended.thenAccept(notification -> result.setResult(waitResponse(notification)));
+		return result;
+	}
+
+	@PostMapping("/{jobId}/callback")
+	@ApiOperation(value = "Set the URL a job is POSTed to once it has ended. A job that has already ended is POSTed "
+			+ "at once")
+	public ResponseEntity<Void> setJobCallback(
+			@ApiParam(value = "A job identifier", required = true) @PathVariable(name = "jobId") final String jobId,
+			@ApiParam(value = "An http or https URL", required = true) @RequestParam(name = "url") final String callbackUrl) {
+		jobNotificationService.validateCallbackUrl(callbackUrl);
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			Job job = jobRepository.findById(jobId)
+					.orElseThrow(() -> new IllegalArgumentException("Job not found: " + jobId));
+			job.setCallbackUrl(callbackUrl);
+			job.setUpdatedAt(new Date());
+			jobRepository.save(job);
+			// An ended job keeps its status, it is not notified by the entity listener
+			jobNotificationService.jobChanged(job);
+		});
+		return ResponseEntity.noContent().build();
+	}
+
+	/**
+	 * @return The job, read from the archive once it is archived
+	 */
+	private JobNotification readJobNotification(String jobId) throws IOException {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setReadOnly(true);
+		JobNotification notification = template
+				.execute(status -> jobRepository.findById(jobId).map(JobNotificationService::toNotification).orElse(null));
+		if (notification != null) {
+			return notification;
+		}
+		return objectMapper.treeToValue(jobArchiveService.getArchivedJob(jobId)
+				.orElseThrow(() -> new IllegalArgumentException("Job not found: " + jobId)), JobNotification.class);
+	}
+
+	private static ResponseEntity<JobNotification> waitResponse(JobNotification notification) {
+		return ResponseEntity.status(JobNotificationService.isEnded(notification.getStatus()) ? HttpStatus.OK
+				: HttpStatus.ACCEPTED).body(notification);
+	}
+
 	@GetMapping("/task/{taskId}/execution/{executionIndex}/log")
-	@ApiOperation(value = "Get execution output log for a specific task execution", response = String.class)
-	@Transactional(readOnly = true)
-	public ResponseEntity<String> getExecutionLog(
+	@ApiOperation(value = "Get execution output log for a specific task execution. Supports a single byte Range or an offset, "
+			+ "If-None-Match on the ETag of the log, and waiting for new output.", response = String.class)
+	public DeferredResult<ResponseEntity<StreamingResponseBody>> getExecutionLog(
 			@ApiParam(value = "A task identifier", required = true) @PathVariable(name = "taskId") final String taskId,
-			@ApiParam(value = "Execution index", required = true) @PathVariable(name = "executionIndex") final int executionIndex) {
+			@ApiParam(value = "Execution index", required = true) @PathVariable(name = "executionIndex") final int executionIndex,
+			@ApiParam(value = "Return the log from this byte offset, the X-Log-Length of a previous response") @RequestParam(value = "offset", required = false) final Long offset,
+			@ApiParam(value = "Milliseconds to wait for the log to grow past the offset, or to change from the If-None-Match ETag") @RequestParam(value = "wait", defaultValue = "0") final long waitMillis,
+			@RequestHeader(value = HttpHeaders.RANGE, required = false) final String range,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+		long timeout = Math.max(0, Math.min(waitMillis, maxLogWaitMillis));
+		DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>(timeout);
 		try {
-			Task task = taskRepository.findById(taskId)
-					.orElseThrow(() -> new IllegalArgumentException("Task not found: " + taskId));
-
-			if (task.getExecutions() == null || executionIndex < 0 || executionIndex >= task.getExecutions().size()) {
-				return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Execution not found");
+			if (jobArchiveService.isArchivedTask(taskId)) {
+				result.setResult(getArchivedExecutionLog(taskId, executionIndex, offset));
+				return result;
+			}
+			String logFileName = new TransactionTemplate(transactionManager).execute(status -> {
+				Task task = taskRepository.findById(taskId)
+						.orElseThrow(() -> new IllegalArgumentException("Task not found: " + taskId));
+				if (task.getExecutions() == null || executionIndex < 0
+						|| executionIndex >= task.getExecutions().size()) {
+					throw new IllegalArgumentException("Execution not found");
+				}
+				return task.getExecutions().get(executionIndex).getOutputLogFileName();
+			});
+			if (logFileName == null || logFileName.isEmpty()) {
+				result.setResult(text(HttpStatus.OK, "No output log available"));
+				return result;
 			}
 
-			Task.TaskExecution execution = task.getExecutions().get(executionIndex);
-			if (execution.getOutputLogFileName() == null || execution.getOutputLogFileName().isEmpty()) {
-				return ResponseEntity.ok("No output log available");
+			LogFileUtils logFileUtils = LogFileUtils.getInstance();
+			long length = logFileUtils.getLogLength(logFileName);
+			long from = offset != null ? Math.max(0, offset) : 0;
+			long to = length;
+			boolean partial = false;
+			if (offset == null && range != null) {
+				long[] byteRange = parseRange(range, length);
+				if (byteRange != null) {
+					if (byteRange[0] >= length || byteRange[0] > byteRange[1]) {
+						result.setResult(ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+								.header(HttpHeaders.CONTENT_RANGE, "bytes */" + length).build());
+						return result;
+					}
+					from = byteRange[0];
+					to = byteRange[1] + 1;
+					partial = true;
+				}
 			}
 
-			try (InputStream logInputStream = LogFileUtils.getInstance()
-					.getLogInputStream(execution.getOutputLogFileName())) {
-				String logContent = StreamUtils.copyToString(logInputStream, StandardCharsets.UTF_8);
-				return ResponseEntity.ok(logContent);
+			LogRequest request = new LogRequest(taskId, executionIndex, logFileName, length, from, to, partial,
+					ifNoneMatch);
+			boolean unchanged = getETag(length).equals(ifNoneMatch);
+			if (timeout == 0 || !(unchanged || (offset != null && from >= length))) {
+				result.setResult(logResponse(request, length));
+				return result;
 			}
+			// Long-poll: answer once the log grows past what the client has, without
+			// holding a request thread meanwhile
+			CompletableFuture<Void> growth = logFileUtils.awaitLogLength(logFileName, length);
+			result.onTimeout(() -> {
+				growth.cancel(false);
+				result.setResult(currentLogResponse(request));
+			});
+			result.onError(e -> growth.cancel(false));
+			// Not on the appending thread, which may be the task log writer a read flushes
+			growth.thenRunAsync(() -> result.setResult(currentLogResponse(request)));
 		} catch (IOException e) {
 			log.error("Error reading execution log for task {} execution {}", taskId, executionIndex, e);
-			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-					.body("Error reading log file: " + e.getMessage());
+			result.setResult(text(HttpStatus.INTERNAL_SERVER_ERROR, "Error reading log file: " + e.getMessage()));
 		} catch (IllegalArgumentException e) {
-			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+			result.setResult(text(HttpStatus.NOT_FOUND, e.getMessage()));
 		}
+		return result;
+	}
+
+	/**
+	 * A read of an execution log, as requested when the log had the given length.
+	 */
+	private record LogRequest(String taskId, int executionIndex, String logFileName, long length, long from,
+			long to, boolean partial, String ifNoneMatch) {
+	}
+
+	/**
+	 * @return The response to a log request once waiting for the log ended, with
+	 *         the content added meanwhile unless a byte range was requested
+	 */
+	private ResponseEntity<StreamingResponseBody> currentLogResponse(LogRequest request) {
+		try {
+			return logResponse(request, LogFileUtils.getInstance().getLogLength(request.logFileName()));
+		} catch (IOException e) {
+			log.error("Error reading execution log for task {} execution {}", request.taskId(),
+					request.executionIndex(), e);
+			return text(HttpStatus.INTERNAL_SERVER_ERROR, "Error reading log file: " + e.getMessage());
+		}
+	}
+
+	private ResponseEntity<StreamingResponseBody> logResponse(LogRequest request, long length) {
+		if (getETag(length).equals(request.ifNoneMatch())) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(getETag(length))
+					.header(LOG_LENGTH_HEADER, String.valueOf(length)).build();
+		}
+		long end = request.to() == request.length() ? length : request.to();
+		long start = Math.min(request.from(), end);
+		ResponseEntity.BodyBuilder response = ResponseEntity
+				.status(request.partial() ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK).eTag(getETag(length))
+				.header(LOG_LENGTH_HEADER, String.valueOf(length)).header(HttpHeaders.ACCEPT_RANGES, "bytes")
+				.contentType(TEXT_PLAIN_UTF8).contentLength(end - start);
+		if (request.partial()) {
+			response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+		}
+		return response.body(output -> LogFileUtils.getInstance().transferLog(request.logFileName(), start, end,
+				Channels.newChannel(output)));
+	}
+
+	/**
+	 * Archived logs do not change, they are returned from an offset only.
+	 */
+	private ResponseEntity<StreamingResponseBody> getArchivedExecutionLog(String taskId, int executionIndex,
+			Long offset) throws IOException {
+		Optional<JobArchiveService.ArchivedLog> archivedLog = jobArchiveService.getArchivedLog(taskId,
+				executionIndex);
+		if (archivedLog.isEmpty()) {
+			return text(HttpStatus.OK, "No output log available");
+		}
+		long length = archivedLog.get().length();
+		long from = offset != null ? Math.min(Math.max(0, offset), length) : 0;
+		return ResponseEntity.ok().eTag(getETag(length)).header(LOG_LENGTH_HEADER, String.valueOf(length))
+				.contentType(TEXT_PLAIN_UTF8).contentLength(length - from)
+				.body(output -> JobArchiveService.transferArchivedLog(archivedLog.get(), from, output));
+	}
+
+	/**
+	 * The log of an execution only grows, so its length identifies its content.
+	 */
+	private static String getETag(long length) {
+		return "\"" + length + "\"";
+	}
+
+	/**
+	 * @return The first and last byte of a single byte range, null if the header
+	 *         is not one, in which case the whole log is returned
+	 */
+	private static long[] parseRange(String range, long length) {
+		Matcher matcher = BYTE_RANGE_PATTERN.matcher(range.trim());
+		if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+			return null;
+		}
+		if (matcher.group(1).isEmpty()) {
+			// Suffix range: the last N bytes
+			long suffix = Long.parseLong(matcher.group(2));
+			return new long[] { Math.max(0, length - suffix), length - 1 };
+		}
+		long first = Long.parseLong(matcher.group(1));
+		long last = matcher.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(matcher.group(2)), length - 1);
+		return new long[] { first, last };
+	}
+
+	private static ResponseEntity<StreamingResponseBody> text(HttpStatus status, String message) {
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		return ResponseEntity.status(status).contentType(TEXT_PLAIN_UTF8).contentLength(bytes.length)
+				.body(output -> output.write(bytes));
 	}
 }
@@ -32,5 +32,9 @@ public class ClusterApplication {
 
     @JsonProperty("flags")
     private String flags = null;
+
+    /** Apply even if the application is unchanged since its last apply */
+    @JsonProperty("force")
+    private boolean force = false;
 }
 
@@ -0,0 +1,41 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A script to run on the nodes of a cluster.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class ClusterCommand {
+
+    /** The script to run on every selected node */
+    @JsonProperty("script")
+    private String script = null;
+
+    /** The names of the nodes to run the script on, all nodes of the cluster if empty */
+    @JsonProperty("nodeNames")
+    private List<String> nodeNames = null;
+
+    /** How many nodes run the script at the same time, the configured default if null */
+    @JsonProperty("parallelism")
+    private Integer parallelism = null;
+
+    /** Timeout of the script on each node in milliseconds, no timeout if null */
+    @JsonProperty("timeout")
+    private Long timeout = null;
+}
@@ -0,0 +1,48 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.dto;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.JobType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * The state of a job as posted to its callback URL once it has ended, and as
+ * returned to the clients waiting for it to end.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JobNotification {
+
+    @JsonProperty("jobId")
+    private String jobId = null;
+
+    @JsonProperty("jobType")
+    private JobType jobType = null;
+
+    @JsonProperty("status")
+    private JobStatus status = null;
+
+    @JsonProperty("clusterId")
+    private String clusterId = null;
+
+    @JsonProperty("createdAt")
+    private Date createdAt = null;
+
+    @JsonProperty("endedAt")
+    private Date endedAt = null;
+}
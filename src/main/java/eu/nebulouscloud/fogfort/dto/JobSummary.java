@@ -0,0 +1,74 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.dto;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.JobType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A job without its tasks, with the number of tasks per status. The tasks and
+ * their executions are read from the job itself.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class JobSummary {
+
+    @JsonProperty("jobId")
+    private String jobId = null;
+
+    @JsonProperty("jobType")
+    private JobType jobType = null;
+
+    @JsonProperty("status")
+    private JobStatus status = null;
+
+    @JsonProperty("clusterId")
+    private String clusterId = null;
+
+    @JsonProperty("clusterName")
+    private String clusterName = null;
+
+    @JsonProperty("createdAt")
+    private Date createdAt = null;
+
+    @JsonProperty("updatedAt")
+    private Date updatedAt = null;
+
+    @JsonProperty("endedAt")
+    private Date endedAt = null;
+
+    @JsonProperty("taskCount")
+    private long taskCount;
+
+    /** Number of tasks per task status, statuses without tasks left out */
+    @JsonProperty("taskCountsByStatus")
+    private Map<JobStatus, Long> taskCountsByStatus = new LinkedHashMap<>();
+
+    /** Used by the summary query, the task counts are added afterwards */
+    public JobSummary(String jobId, JobType jobType, JobStatus status, String clusterId, String clusterName,
+            Date createdAt, Date updatedAt, Date endedAt) {
+        this.jobId = jobId;
+        this.jobType = jobType;
+        this.status = status;
+        this.clusterId = clusterId;
+        this.clusterName = clusterName;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.endedAt = endedAt;
+    }
+}
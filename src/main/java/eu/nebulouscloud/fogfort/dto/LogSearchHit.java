@@ -0,0 +1,43 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A line of a task execution log matching a log search.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class LogSearchHit {
+
+    @JsonProperty("jobId")
+    private String jobId = null;
+
+    @JsonProperty("taskId")
+    private String taskId = null;
+
+    /** The node the task ran at, if any */
+    @JsonProperty("nodeId")
+    private String nodeId = null;
+
+    @JsonProperty("executionIndex")
+    private int executionIndex;
+
+    /** Byte offset of the line in the log, to read it with the log offset parameter */
+    @JsonProperty("lineOffset")
+    private long lineOffset;
+
+    @JsonProperty("line")
+    private String line = null;
+}
@@ -0,0 +1,63 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.dto;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A change of state of a job, task, cluster, node or cloud, as published on
+ * the event stream.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class StateEvent {
+
+    public enum EntityType {
+        JOB, TASK, CLUSTER, NODE, CLOUD
+    }
+
+    public enum Action {
+        CREATED, UPDATED, DELETED
+    }
+
+    /** Increasing id of the event, to resume the stream from */
+    @JsonProperty("eventId")
+    private long eventId;
+
+    @JsonProperty("type")
+    private EntityType type = null;
+
+    @JsonProperty("action")
+    private Action action = null;
+
+    /** The id of the job, task, cluster, node or cloud */
+    @JsonProperty("id")
+    private String id = null;
+
+    /** The name of the cluster or node */
+    @JsonProperty("name")
+    private String name = null;
+
+    /** The new status, with the deployment step for a node */
+    @JsonProperty("status")
+    private String status = null;
+
+    /** The job of a task */
+    @JsonProperty("jobId")
+    private String jobId = null;
+
+    @JsonProperty("timestamp")
+    private Date timestamp = null;
+}
@@ -38,6 +38,18 @@ public class SessionValidationInterceptor implements HandlerInterceptor {
 
 		// Extract sessionId from header
 		String sessionId = request.getHeader("sessionid");
+		if ((sessionId == null || sessionId.isEmpty()) && requestPath != null && requestPath.endsWith("/events")) {
+			// EventSource cannot set headers, event streams pass a short-lived token
+			// as a parameter rather than the session id, which would end up in logs
+			if (paGatewayService.isEventStreamTokenValid(request.getParameter("token"))) {
+				return true;
+			}
+			log.warn("Invalid or expired event stream token for request to: {}", requestPath);
+			response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+			response.setContentType("application/json");
+			response.getWriter().write("{\"error\": \"Invalid or expired token\"}");
+			return false;
+		}
 
 		if (sessionId == null || sessionId.isEmpty()) {
 			log.warn("Missing sessionId header in request to: {}", requestPath);
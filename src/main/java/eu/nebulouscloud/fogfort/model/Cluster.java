@@ -18,6 +18,7 @@ import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
@@ -35,6 +36,7 @@ import lombok.Setter;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
+@EntityListeners(StateChangeListener.class)
 @Table(name = "CLUSTER")
 public class Cluster {
 
@@ -68,12 +70,19 @@ public class Cluster {
 	@Convert(converter = MapToStringConverter.class)
 	private Map<String, String> envVars;
 
+	/** Content hash of the last successful apply of each application, by application name */
+	@Column(name = "APPLIED_APPLICATIONS", columnDefinition = "CLOB")
+	@JsonProperty("applied-applications")
+	@Convert(converter = MapToStringConverter.class)
+	private Map<String, String> appliedApplications;
+
 	public Node getMasterNode() {
 		return nodes.stream().filter(node -> node.getName().equals(masterNodeName)).findFirst()
 				.orElseThrow(() -> new IllegalArgumentException("Master node not found"));
 	}
 
 	public List<Node> getWorkerNodes() {
-		return nodes.stream().filter(node -> !node.getName().equals(masterNodeName)).collect(Collectors.toList());
+		return nodes.stream().filter(node -> !node.getName().equals(masterNodeName) && !node.isSpeculative())
+				.collect(Collectors.toList());
 	}
 }
@@ -5,6 +5,8 @@
  */
 package eu.nebulouscloud.fogfort.model;
 
+import org.hibernate.annotations.ColumnDefault;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
@@ -15,6 +17,7 @@ import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Embedded;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
@@ -28,12 +31,15 @@ import lombok.Setter;
 @Getter
 @Setter
 @Entity
+@EntityListeners(StateChangeListener.class)
 @Table(name = "NODE")
 public class Node {
 	public enum NodeStatus {
 		PENDING("PENDING"),
 		CREATED("CREATED"),
-		FAILED("FAILED");
+		FAILED("FAILED"),
+		/** Part of a warm pool, not assigned to any cluster yet */
+		WARM("WARM");
 		private final String value;
 
 		NodeStatus(String value) {
@@ -57,6 +63,19 @@ public class Node {
 		}
 	}
 
+	/**
+	 * Last deployment step completed on the node. Steps are persisted as they
+	 * complete so that a deployment interrupted by a restart resumes from the
+	 * last completed step.
+	 */
+	public enum DeploymentStep {
+		NONE, PROVISIONED, SSH_READY, INSTALLED, JOINED;
+
+		public boolean isAtLeast(DeploymentStep step) {
+			return compareTo(step) >= 0;
+		}
+	}
+
 	@Id
 	@GeneratedValue(generator = "system-uuid")
 	@Column(name = "ID")
@@ -91,4 +110,32 @@ public class Node {
 	@JsonProperty("nodeStatus")
 	@Enumerated(EnumType.STRING)
 	private NodeStatus status = NodeStatus.PENDING;
+
+	@Column(name = "DEPLOYMENT_STEP")
+	@ColumnDefault("'NONE'")
+	@JsonProperty("deploymentStep")
+	@Enumerated(EnumType.STRING)
+	private DeploymentStep deploymentStep = DeploymentStep.NONE;
+
+	/**
+	 * Set on a speculative spare worker that does not hold a worker definition,
+	 * and on a straggler whose definition was taken over by a spare. Such nodes
+	 * are not workers of the cluster and are discarded by the worker wave.
+	 */
+	@Column(name = "SPECULATIVE")
+	@ColumnDefault("FALSE")
+	@JsonProperty("speculative")
+	private Boolean speculative = false;
+
+	/**
+	 * @return The last deployment step completed on the node, NONE for nodes
+	 *         stored before deployment steps were recorded
+	 */
+	public DeploymentStep getDeploymentStep() {
+		return deploymentStep != null ? deploymentStep : DeploymentStep.NONE;
+	}
+
+	public boolean isSpeculative() {
+		return Boolean.TRUE.equals(speculative);
+	}
 }
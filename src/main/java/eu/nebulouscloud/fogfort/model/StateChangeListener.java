@@ -0,0 +1,90 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.model;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import eu.nebulouscloud.fogfort.dto.StateEvent;
+import eu.nebulouscloud.fogfort.dto.StateEvent.Action;
+import eu.nebulouscloud.fogfort.dto.StateEvent.EntityType;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.service.JobNotificationService;
+import eu.nebulouscloud.fogfort.service.StateEventService;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * Entity listener reporting the state changes of jobs, tasks, clusters, nodes
+ * and clouds to the {@link StateEventService}, and the ends of jobs to the
+ * {@link JobNotificationService}. A job is reported as ended when it is saved
+ * with an ended status it did not have when it was loaded. Created by Spring through the
+ * Hibernate bean container.
+ */
+public class StateChangeListener {
+
+	@Autowired
+	private StateEventService stateEventService;
+
+	@Autowired
+	private JobNotificationService jobNotificationService;
+
+	@PostLoad
+	public void postLoad(Object entity) {
+		if (entity instanceof Job job) {
+			job.setPersistedStatus(job.getStatus());
+		}
+	}
+
+	@PostPersist
+	public void postPersist(Object entity) {
+		publish(entity, Action.CREATED);
+		if (entity instanceof Job job) {
+			jobNotificationService.jobChanged(job);
+			job.setPersistedStatus(job.getStatus());
+		}
+	}
+
+	@PostUpdate
+	public void postUpdate(Object entity) {
+		publish(entity, Action.UPDATED);
+		if (entity instanceof Job job && job.getStatus() != job.getPersistedStatus()) {
+			jobNotificationService.jobChanged(job);
+			job.setPersistedStatus(job.getStatus());
+		}
+	}
+
+	@PostRemove
+	public void postRemove(Object entity) {
+		publish(entity, Action.DELETED);
+	}
+
+	private void publish(Object entity, StateEvent.Action action) {
+		if (entity instanceof Job job) {
+			stateEventService.publish(EntityType.JOB, action, job.getJobId(), null, name(job.getStatus()),
+					job.getJobId());
+		} else if (entity instanceof Task task) {
+			// The id of a lazy job proxy is available without loading it
+			stateEventService.publish(EntityType.TASK, action, task.getId(), task.getDescription(),
+					name(task.getStatus()), task.getJob() != null ? task.getJob().getJobId() : null);
+		} else if (entity instanceof Cluster cluster) {
+			stateEventService.publish(EntityType.CLUSTER, action, cluster.getClusterId(), cluster.getName(),
+					name(cluster.getStatus()), null);
+		} else if (entity instanceof Node node) {
+			stateEventService.publish(EntityType.NODE, action, node.getId(), node.getName(),
+					name(node.getStatus()) + "/" + name(node.getDeploymentStep()), null);
+		} else if (entity instanceof Cloud cloud) {
+			stateEventService.publish(EntityType.CLOUD, action, cloud.getCloudId(), cloud.getCloudId(),
+					null, null);
+		}
+	}
+
+	private static String name(Enum<?> value) {
+		return value != null ? value.name() : null;
+	}
+}
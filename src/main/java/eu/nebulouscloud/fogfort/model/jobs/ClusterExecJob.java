@@ -0,0 +1,25 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package eu.nebulouscloud.fogfort.model.jobs;
+
+import org.hibernate.annotations.DynamicUpdate;
+
+import jakarta.persistence.DiscriminatorValue;
+import jakarta.persistence.Entity;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@NoArgsConstructor
+@ToString(callSuper = true)
+@Getter
+@Setter
+@Entity
+@DynamicUpdate
+@DiscriminatorValue("CLUSTER_EXEC")
+public class ClusterExecJob extends Job {
+}
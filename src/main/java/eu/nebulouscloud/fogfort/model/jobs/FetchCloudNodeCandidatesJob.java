@@ -1,5 +1,7 @@
 package eu.nebulouscloud.fogfort.model.jobs;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
 import lombok.Getter;
@@ -12,6 +14,7 @@ import lombok.ToString;
 @Getter
 @Setter
 @Entity
+@DynamicUpdate
 @DiscriminatorValue("FETCH_CLOUD_NODE_CANDIDATES")
 public class FetchCloudNodeCandidatesJob extends Job {
 }
@@ -10,25 +10,32 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import org.hibernate.annotations.DynamicUpdate;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.hibernate.annotations.GenericGenerator;
 
 import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.StateChangeListener;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.DiscriminatorColumn;
 import jakarta.persistence.DiscriminatorType;
 import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Inheritance;
 import jakarta.persistence.InheritanceType;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -41,7 +48,9 @@ import lombok.ToString;
 @Getter
 @Setter
 @Entity
-@Table(name = "JOB")
+@DynamicUpdate
+@EntityListeners(StateChangeListener.class)
+@Table(name = "JOB", indexes = { @Index(name = "idx_job_status_created_at", columnList = "STATUS, CREATED_AT") })
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(name = "JOB_TYPE", discriminatorType = DiscriminatorType.STRING)
 public class Job implements Serializable {
@@ -76,4 +85,14 @@ public class Job implements Serializable {
 	@OneToMany(mappedBy = "job", cascade = CascadeType.ALL, orphanRemoval = true)
 	private List<Task> tasks;
 
+	/** URL the job is POSTed to once it has ended, may hold a token of the receiver */
+	@Column(name = "CALLBACK_URL", length = 2048)
+	@JsonIgnore
+	private String callbackUrl;
+
+	/** Status of the job when it was last loaded or saved, set by the entity listener */
+	@Transient
+	@JsonIgnore
+	private JobStatus persistedStatus;
+
 }
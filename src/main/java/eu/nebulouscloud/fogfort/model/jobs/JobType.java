@@ -22,6 +22,10 @@ public enum JobType {
 
 	SCALE_IN("SCALE_IN"),
 
+	CLUSTER_EXEC("CLUSTER_EXEC"),
+
+	MANAGE_APPLICATION("MANAGE_APPLICATION"),
+
 	UNKNOWN("UNKNOWN");
 
 	private final String value;
@@ -8,6 +8,8 @@ package eu.nebulouscloud.fogfort.model.jobs;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 
@@ -34,6 +36,7 @@ import lombok.ToString;
 @Getter
 @Setter
 @Entity
+@DynamicUpdate
 @Table(name = "RUN_SCRIPT_AT_NODE_TASK")
 @DiscriminatorValue("RUN_SCRIPT_AT_NODE")
 @PrimaryKeyJoinColumn(name = "TASK_ID")
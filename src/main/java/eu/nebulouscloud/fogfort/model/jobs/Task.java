@@ -8,27 +8,34 @@ package eu.nebulouscloud.fogfort.model.jobs;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.GenericGenerator;
 
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 
+import eu.nebulouscloud.fogfort.converter.MapToStringConverter;
+import eu.nebulouscloud.fogfort.model.StateChangeListener;
+import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.DiscriminatorColumn;
 import jakarta.persistence.DiscriminatorType;
-import jakarta.persistence.ElementCollection;
-import jakarta.persistence.Embeddable;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Inheritance;
 import jakarta.persistence.InheritanceType;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.OneToMany;
+import jakarta.persistence.OrderColumn;
 import jakarta.persistence.Table;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -42,22 +49,50 @@ import lombok.extern.slf4j.Slf4j;
 @Getter
 @Setter
 @Entity
-@Table(name = "TASK")
+@DynamicUpdate
+@EntityListeners(StateChangeListener.class)
+@Table(name = "TASK", indexes = { @Index(name = "idx_task_job_id", columnList = "JOB_ID") })
 @Inheritance(strategy = InheritanceType.JOINED)
 @DiscriminatorColumn(name = "TASK_TYPE", discriminatorType = DiscriminatorType.STRING)
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id", scope = Task.class)
 public class Task implements Serializable {
 
+	/**
+	 * An attempt at running a task. Executions are rows of their own, so adding
+	 * one or finishing one does not rewrite the other executions of the task.
+	 */
 	@Getter
 	@Setter
 	@NoArgsConstructor
-	@Embeddable
+	@Entity
+	@DynamicUpdate
+	@Table(name = "TASK_EXECUTION", indexes = { @Index(name = "idx_task_execution_end", columnList = "end") })
 	@ToString(callSuper = true)
 	public static class TaskExecution implements Serializable {
+		private static final MapToStringConverter SCRIPT_RESULTS_CONVERTER = new MapToStringConverter();
+
+		@Id
+		@GeneratedValue(generator = "system-uuid")
+		@GenericGenerator(name = "system-uuid", strategy = "uuid")
+		@Column(name = "EXECUTION_ID")
+		@JsonIgnore
+		private String executionId;
 		protected Date start;
 		protected Date end;
 		protected String outputLogFileName = UUID.randomUUID().toString() + ".log";
 		protected boolean success;
+		/** The script phase this execution ran, if the task runs its script in phases */
+		protected String phase;
+		/** The exit status of the script, null if it did not exit (timeout, lost connection) */
+		protected Integer exitStatus;
+		/**
+		 * Results reported by the script through !!NEB_SCRIPT_RESULT_<KEY>:<VALUE>!!
+		 * markers in its output, as JSON. Kept as a plain string so that dirty
+		 * checking compares strings rather than converted maps.
+		 */
+		@Column(name = "SCRIPT_RESULTS", columnDefinition = "CLOB")
+		@JsonIgnore
+		protected String scriptResultsJson;
 
 		public boolean terminated() {
 			return this.end != null;
@@ -67,6 +102,14 @@ public class Task implements Serializable {
 			this.start = start;
 		}
 
+		public Map<String, String> getScriptResults() {
+			return SCRIPT_RESULTS_CONVERTER.convertToEntityAttribute(scriptResultsJson);
+		}
+
+		public void setScriptResults(Map<String, String> scriptResults) {
+			this.scriptResultsJson = SCRIPT_RESULTS_CONVERTER.convertToDatabaseColumn(scriptResults);
+		}
+
 		public void updateWith(TaskExecution other) {
 			if (this.start == null)
 				this.start = other.start;
@@ -75,6 +118,10 @@ public class Task implements Serializable {
 			this.end = other.end;
 			this.outputLogFileName = other.outputLogFileName;
 			this.success = other.success;
+			if (other.phase != null)
+				this.phase = other.phase;
+			this.exitStatus = other.exitStatus;
+			this.scriptResultsJson = other.scriptResultsJson;
 		}
 
 	}
@@ -99,7 +146,13 @@ public class Task implements Serializable {
 	@JsonIgnore
 	private Job job;
 
-	@ElementCollection
+	/**
+	 * Only TaskExecution instances are stored, subclasses such as
+	 * TaskExecutionWithResult are copied with {@link TaskExecution#updateWith}.
+	 */
+	@OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
+	@JoinColumn(name = "TASK_ID", nullable = false)
+	@OrderColumn(name = "EXECUTION_INDEX")
 	private List<TaskExecution> executions;
 
 }
@@ -5,6 +5,8 @@
  */
 package eu.nebulouscloud.fogfort.model.jobs;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
 import lombok.Getter;
@@ -17,6 +19,7 @@ import lombok.ToString;
 @Getter
 @Setter
 @Entity
+@DynamicUpdate
 @DiscriminatorValue("TERMINATE_CLUSTER")
 public class TerminateClusterJob extends Job {
 }
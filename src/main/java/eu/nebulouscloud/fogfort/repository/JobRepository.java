@@ -5,11 +5,60 @@
  */
 package eu.nebulouscloud.fogfort.repository;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import eu.nebulouscloud.fogfort.dto.JobSummary;
 import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.JobType;
 
 @Repository
 public interface JobRepository extends JpaRepository<Job, String> {
+
+	public List<Job> findByJobTypeAndStatusIn(JobType jobType, Collection<JobStatus> statuses);
+
+	public List<Job> findByClusterClusterId(String clusterId);
+
+	/**
+	 * Summaries of the jobs matching the filters, a null filter matching every
+	 * job. The time range applies to the creation date, from inclusive and to
+	 * exclusive. The task counts are not set, see {@link #countTasksByStatus}.
+	 */
+	@Query(value = "select new eu.nebulouscloud.fogfort.dto.JobSummary(j.jobId, j.jobType, j.status, c.clusterId, c.name, "
+			+ "j.createdAt, j.updatedAt, j.endedAt) from Job j left join j.cluster c "
+			+ "where (:status is null or j.status = :status) and (:jobType is null or j.jobType = :jobType) "
+			+ "and (:clusterId is null or c.clusterId = :clusterId) "
+			+ "and (cast(:from as timestamp) is null or j.createdAt >= :from) "
+			+ "and (cast(:to as timestamp) is null or j.createdAt < :to)",
+			countQuery = "select count(j) from Job j left join j.cluster c "
+					+ "where (:status is null or j.status = :status) and (:jobType is null or j.jobType = :jobType) "
+					+ "and (:clusterId is null or c.clusterId = :clusterId) "
+					+ "and (cast(:from as timestamp) is null or j.createdAt >= :from) "
+					+ "and (cast(:to as timestamp) is null or j.createdAt < :to)")
+	public Page<JobSummary> findSummaries(@Param("status") JobStatus status, @Param("jobType") JobType jobType,
+			@Param("clusterId") String clusterId, @Param("from") Date from, @Param("to") Date to, Pageable pageable);
+
+	/**
+	 * @return Rows of job id, task status and number of tasks, for the given jobs
+	 */
+	@Query("select t.job.jobId, t.status, count(t) from Task t where t.job.jobId in :jobIds "
+			+ "group by t.job.jobId, t.status")
+	public List<Object[]> countTasksByStatus(@Param("jobIds") Collection<String> jobIds);
+
+	/**
+	 * @return The ids of the jobs with one of the given statuses that ended
+	 *         before the given date, oldest first
+	 */
+	@Query("select j.jobId from Job j where j.status in :statuses and j.endedAt < :before order by j.endedAt")
+	public List<String> findIdsEndedBefore(@Param("statuses") Collection<JobStatus> statuses,
+			@Param("before") Date before, Pageable pageable);
 }
@@ -5,9 +5,13 @@
  */
 package eu.nebulouscloud.fogfort.repository;
 
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import eu.nebulouscloud.fogfort.model.Node;
@@ -16,4 +20,20 @@ import eu.nebulouscloud.fogfort.model.Node;
 public interface NodeRepository extends JpaRepository<Node, String> {
 
 	public Optional<Node> findByName(String name);
+
+	public List<Node> findByStatus(Node.NodeStatus status);
+
+	@Query("SELECT n FROM Node n WHERE n.status = :status AND n.nodeCandidate.id = :nodeCandidateId")
+	public List<Node> findByStatusAndNodeCandidateId(@Param("status") Node.NodeStatus status,
+			@Param("nodeCandidateId") String nodeCandidateId);
+
+	/**
+	 * Moves a node to a new status, provided it still has the expected one.
+	 *
+	 * @return 1 if the node was updated, 0 if it no longer had the expected status
+	 */
+	@Modifying(flushAutomatically = true)
+	@Query("UPDATE Node n SET n.status = :status WHERE n.id = :id AND n.status = :expected")
+	public int compareAndSetStatus(@Param("id") String id, @Param("expected") Node.NodeStatus expected,
+			@Param("status") Node.NodeStatus status);
 }
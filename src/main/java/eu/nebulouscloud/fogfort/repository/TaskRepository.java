@@ -5,11 +5,26 @@
  */
 package eu.nebulouscloud.fogfort.repository;
 
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import eu.nebulouscloud.fogfort.model.jobs.Task;
 
 @Repository
 public interface TaskRepository extends JpaRepository<Task, String> {
+
+	/**
+	 * @return Rows of job id, task id, target node id, execution index, output log
+	 *         name and end of the executions that ended at or after the given
+	 *         date, by end
+	 */
+	@Query("select j.jobId, t.id, t.targetNodeId, index(e), e.outputLogFileName, e.end from Task t "
+			+ "left join t.job j join t.executions e where e.end >= :since order by e.end")
+	public List<Object[]> findExecutionsEndedSince(@Param("since") Date since, Pageable pageable);
 }
@@ -0,0 +1,276 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.dto.ClusterApplication;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.ManageApplicationJob;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.util.ScriptUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Applies applications to clusters as ManageApplicationJobs.
+ *
+ * Each application is identified by a hash of its content (name, package
+ * manager, action, flags and application file). An application whose hash matches the
+ * last successful apply on the cluster is skipped without connecting to the
+ * master, unless it is forced. Deploying the cluster again forgets the applies. The others are applied by a single script on the master, run over
+ * the pooled SSH session of the master; manifests are kept there under their
+ * hash, so a manifest is only written once.
+ *
+ * Applications submitted for a cluster while one of its jobs is waiting or
+ * running are batched: they all join the next job, which applies them in one
+ * master session.
+ */
+@Service("ApplicationDeploymentService")
+@Slf4j
+public class ApplicationDeploymentService {
+
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private DeploymentExecutor deploymentExecutor;
+	@Autowired
+	private DeployClusterService deployClusterService;
+	@Autowired
+	private JobSchedulerService jobSchedulerService;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/** How long a new batch waits for more applications before it is applied */
+	@Value("${fogfort.applications.batch-window-millis:200}")
+	private long batchWindowMillis;
+
+	/**
+	 * Applications waiting to be applied to a cluster, and the CREATED job that
+	 * will apply them.
+	 */
+	private static class ApplicationBatch {
+		final String jobId;
+		/** By application name, a later submission replacing an earlier one */
+		final Map<String, ClusterApplication> applications = new LinkedHashMap<>();
+
+		ApplicationBatch(String jobId) {
+			this.jobId = jobId;
+		}
+	}
+
+	/** Waiting batch per cluster id, guarded by lock */
+	private final Map<String, ApplicationBatch> pendingBatches = new HashMap<>();
+	/** Clusters whose batches are being applied, guarded by lock */
+	private final Map<String, Boolean> busyClusters = new HashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Submits an application to be applied to a cluster.
+	 *
+	 * @param clusterId   The id of the cluster
+	 * @param application The application, already validated
+	 * @return The id of the job that applies it
+	 */
+	public String submit(String clusterId, ClusterApplication application) {
+		ApplicationBatch batch;
+		boolean start;
+		lock.lock();
+		try {
+			batch = pendingBatches.get(clusterId);
+			if (batch == null) {
+				batch = new ApplicationBatch(createJob(clusterId));
+				pendingBatches.put(clusterId, batch);
+			}
+			batch.applications.put(application.getAppName(), application);
+			start = busyClusters.putIfAbsent(clusterId, Boolean.TRUE) == null;
+		} finally {
+			lock.unlock();
+		}
+		log.info("Application {} of cluster {} added to job {}", application.getAppName(), clusterId, batch.jobId);
+		if (start) {
+			deploymentExecutor.execute(() -> applyBatches(clusterId));
+		}
+		return batch.jobId;
+	}
+
+	/**
+	 * Applies the batches of a cluster one after the other until none is waiting.
+	 */
+	private void applyBatches(String clusterId) {
+		while (true) {
+			try {
+				Thread.sleep(batchWindowMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			ApplicationBatch batch;
+			lock.lock();
+			try {
+				batch = pendingBatches.remove(clusterId);
+				if (batch == null) {
+					busyClusters.remove(clusterId);
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+			try {
+				applyBatch(clusterId, batch);
+			} catch (RuntimeException e) {
+				log.error("Error applying applications of job {}: {}", batch.jobId, e.getMessage());
+				endJob(batch.jobId, false);
+			}
+		}
+	}
+
+	private void applyBatch(String clusterId, ApplicationBatch batch) {
+		log.info("Applying {} applications to cluster {} in job {}", batch.applications.size(), clusterId,
+				batch.jobId);
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		final String[] masterNodeIdW = new String[1];
+		final Map<String, String> appliedW = new HashMap<>();
+		template.execute(status -> {
+			Job job = jobRepository.findById(batch.jobId)
+					.orElseThrow(() -> new IllegalArgumentException("job not found"));
+			job.setStatus(JobStatus.IN_PROGRESS);
+			job.setUpdatedAt(new Date());
+			jobRepository.save(job);
+			Cluster cluster = clusterRepository.findById(clusterId)
+					.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+			Node master = cluster.getMasterNode();
+			if (master.getSshConnectionParameters() == null) {
+				throw new IllegalArgumentException("Master node of cluster " + cluster.getName() + " is not deployed");
+			}
+			masterNodeIdW[0] = master.getId();
+			if (cluster.getAppliedApplications() != null) {
+				appliedW.putAll(cluster.getAppliedApplications());
+			}
+			return null;
+		});
+
+		Map<String, String> outcomes = new LinkedHashMap<>();
+		Map<String, ClusterApplication> toApply = new LinkedHashMap<>();
+		for (ClusterApplication application : batch.applications.values()) {
+			String hash = getHash(application);
+			if (!application.isForce() && hash.equals(appliedW.get(application.getAppName()))) {
+				log.info("Application {} is unchanged on cluster {}, skipping", application.getAppName(), clusterId);
+				outcomes.put(application.getAppName(), "unchanged");
+			} else {
+				toApply.put(hash, application);
+			}
+		}
+
+		Map<String, String> results = new HashMap<>();
+		if (!toApply.isEmpty()) {
+			try {
+				deployClusterService.executeScriptAtNode(batch.jobId, masterNodeIdW[0],
+						"Apply " + toApply.size() + " applications", ScriptUtils.getApplyApplicationsScript(toApply))
+						.join();
+			} catch (RuntimeException e) {
+				log.warn("Applying applications of job {} failed: {}", batch.jobId, e.getMessage());
+			}
+			/* Whatever the outcome, the script reports every application it applied */
+			String taskId = template.execute(status -> {
+				Job job = jobRepository.findById(batch.jobId)
+						.orElseThrow(() -> new IllegalArgumentException("job not found"));
+				return job.getTasks().stream().max(Comparator.comparing(Task::getCreatedAt)).map(Task::getId)
+						.orElse(null);
+			});
+			if (taskId != null) {
+				List<Task.TaskExecution> executions = jobSchedulerService.getTask(taskId).getExecutions();
+				/* The last attempt is the one whose outcome counts */
+				results.putAll(executions.get(executions.size() - 1).getScriptResults());
+			}
+		}
+		for (Map.Entry<String, ClusterApplication> entry : toApply.entrySet()) {
+			String appName = entry.getValue().getAppName();
+			boolean applied = entry.getKey().equals(results.get("APPLIED_" + appName));
+			outcomes.put(appName, applied ? "applied" : "failed");
+			if (applied) {
+				appliedW.put(appName, entry.getKey());
+			}
+		}
+
+		boolean success = !outcomes.containsValue("failed");
+		template.execute(status -> {
+			Cluster cluster = clusterRepository.findById(clusterId)
+					.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+			cluster.setAppliedApplications(new HashMap<>(appliedW));
+			clusterRepository.save(cluster);
+			Job job = jobRepository.findById(batch.jobId)
+					.orElseThrow(() -> new IllegalArgumentException("job not found"));
+			outcomes.forEach((appName, outcome) -> job.getVariables().put("application." + appName, outcome));
+			jobRepository.save(job);
+			return null;
+		});
+		endJob(batch.jobId, success);
+		log.info("Applications of job {} on cluster {}: {}", batch.jobId, clusterId, outcomes);
+	}
+
+	private String createJob(String clusterId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		return template.execute(status -> {
+			Cluster cluster = clusterRepository.findById(clusterId)
+					.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+			ManageApplicationJob job = new ManageApplicationJob();
+			job.setCluster(cluster);
+			job.setCreatedAt(new Date());
+			job.setUpdatedAt(new Date());
+			job.setEndedAt(null);
+			job.setVariables(new HashMap<>());
+			job.setStatus(JobStatus.CREATED);
+			job.setTasks(new ArrayList<>());
+			return jobRepository.save(job).getJobId();
+		});
+	}
+
+	private void endJob(String jobId, boolean success) {
+		jobSchedulerService.forgetJob(jobId);
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.execute(status -> {
+			Job job = jobRepository.findById(jobId).orElseThrow(() -> new IllegalArgumentException("job not found"));
+			job.setStatus(success ? JobStatus.COMPLETED : JobStatus.FAILED);
+			job.setEndedAt(new Date());
+			job.setUpdatedAt(new Date());
+			jobRepository.save(job);
+			return null;
+		});
+	}
+
+	/**
+	 * @return The SHA-256 of everything that determines the outcome of applying
+	 *         the application
+	 */
+	static String getHash(ClusterApplication application) {
+		String content = application.getAppName() + "\0" + application.getPackageManager() + "\0" + application.getAction() + "\0"
+				+ (application.getFlags() != null ? application.getFlags() : "") + "\0" + application.getAppFile();
+		try {
+			return HexFormat.of().formatHex(
+					MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
@@ -163,7 +163,9 @@ public class CloudPopulationAsyncService {
 		task.setMaxRetries(1);
 		task.setExecutions(new LinkedList<Task.TaskExecution>());
 		TaskExecutionWithResult<Void> taskExecutionWithResult = new TaskExecutionWithResult<Void>(new Date());
-		task.getExecutions().add(taskExecutionWithResult);
+		Task.TaskExecution taskExecution = new Task.TaskExecution();
+		taskExecution.updateWith(taskExecutionWithResult);
+		task.getExecutions().add(taskExecution);
 		task = taskRepository.save(task);
 		cloudNodeCandidateListTask.put(cloud.getCloudId(), false);
 		try (LogWrapper logWrapper = taskExecutionWithResult.getLogWrapper(log)) {
@@ -253,6 +255,7 @@ public class CloudPopulationAsyncService {
 				taskExecutionWithResult.setSuccess(false);
 				taskExecutionWithResult.setEnd(new Date());
 			} finally {
+				taskExecution.updateWith(taskExecutionWithResult);
 				taskRepository.save(task);
 			}
 		}
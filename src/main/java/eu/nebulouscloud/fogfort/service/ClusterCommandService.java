@@ -0,0 +1,337 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.dto.ClusterCommand;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import eu.nebulouscloud.fogfort.model.jobs.ClusterExecJob;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.TaskRepository;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs one script on all or selected nodes of a cluster, as a ClusterExecJob
+ * with a single task. The nodes run the script with bounded parallelism, on
+ * top of the per-cluster cap of the {@link DeploymentExecutor}. The output of
+ * every node is written, line by line and prefixed with the node name, straight
+ * into the log of the single execution of the task; the exit status of every
+ * node is recorded in the job variables as {@code exitCode.<node name>}.
+ */
+@Service("ClusterCommandService")
+@Slf4j
+public class ClusterCommandService {
+
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private TaskRepository taskRepository;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private DeploymentExecutor deploymentExecutor;
+	@Autowired
+	private NodeScriptRunner nodeScriptRunner;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/** Nodes running the script at the same time when the command does not say */
+	@Value("${fogfort.cluster-exec.default-parallelism:16}")
+	private int defaultParallelism;
+
+	/**
+	 * Starts running a script on the nodes of a cluster. The job ends once the
+	 * script ended on all of them.
+	 *
+	 * @param clusterId The id of the cluster
+	 * @param command   The script and the nodes to run it on
+	 * @return The id of the job
+	 */
+	public String run(String clusterId, ClusterCommand command) {
+		if (command.getScript() == null || command.getScript().isBlank()) {
+			throw new IllegalArgumentException("The script is empty");
+		}
+		int parallelism = command.getParallelism() != null ? command.getParallelism() : defaultParallelism;
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		final String[] jobIdW = new String[1];
+		final String[] taskIdW = new String[1];
+		final String[] logFileNameW = new String[1];
+		final Map<String, SSHConnectionParameters> targetsW = new LinkedHashMap<>();
+		template.execute(status -> {
+			Cluster cluster = clusterRepository.findById(clusterId)
+					.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+			List<String> nodeNames = command.getNodeNames();
+			for (Node node : cluster.getNodes()) {
+				if (nodeNames != null && !nodeNames.isEmpty() && !nodeNames.contains(node.getName())) {
+					continue;
+				}
+				if (node.getSshConnectionParameters() == null) {
+					throw new IllegalArgumentException("Node [" + node.getName() + "] has no SSH connection.");
+				}
+				targetsW.put(node.getName(), node.getSshConnectionParameters());
+			}
+			if (nodeNames != null) {
+				for (String nodeName : nodeNames) {
+					if (!targetsW.containsKey(nodeName)) {
+						throw new IllegalArgumentException("Node with name [" + nodeName + "] not found in cluster.");
+					}
+				}
+			}
+			if (targetsW.isEmpty()) {
+				throw new IllegalArgumentException("No nodes to run the script on");
+			}
+
+			Job job = new ClusterExecJob();
+			job.setCluster(cluster);
+			job.setCreatedAt(new Date());
+			job.setUpdatedAt(new Date());
+			job.setEndedAt(null);
+			job.setVariables(new HashMap<>());
+			job.setStatus(JobStatus.IN_PROGRESS);
+			job.setTasks(new ArrayList<>());
+			job = jobRepository.save(job);
+
+			Task task = new Task();
+			task.setJob(job);
+			task.setCreatedAt(new Date());
+			task.setUpdatedAt(new Date());
+			task.setEndedAt(null);
+			task.setStatus(JobStatus.IN_PROGRESS);
+			task.setDescription("Run script on " + targetsW.size() + " nodes");
+			task.setMaxRetries(1);
+			task.setCurrentRetry(0);
+			Task.TaskExecution taskExecution = new Task.TaskExecution(new Date());
+			task.setExecutions(Collections.singletonList(taskExecution));
+			task = taskRepository.save(task);
+			job.getTasks().add(task);
+			jobRepository.save(job);
+			jobIdW[0] = job.getJobId();
+			taskIdW[0] = task.getId();
+			logFileNameW[0] = taskExecution.getOutputLogFileName();
+			return null;
+		});
+		log.info("Running script on {} nodes of cluster {}, {} at a time", targetsW.size(), clusterId, parallelism);
+
+		CompletableFuture.runAsync(() -> {
+			Map<String, Integer> exitCodes = new LinkedHashMap<>();
+			try (AggregatedLog aggregatedLog = new AggregatedLog(logFileNameW[0])) {
+				Semaphore permits = new Semaphore(parallelism);
+				Map<String, CompletableFuture<Integer>> runs = new LinkedHashMap<>();
+				for (Map.Entry<String, SSHConnectionParameters> target : targetsW.entrySet()) {
+					runs.put(target.getKey(), CompletableFuture.supplyAsync(() -> {
+						permits.acquireUninterruptibly();
+						try {
+							return runAtNode(clusterId, target.getKey(), target.getValue(), command, aggregatedLog);
+						} finally {
+							permits.release();
+						}
+					}, deploymentExecutor));
+				}
+				runs.forEach((nodeName, run) -> exitCodes.put(nodeName, run.join()));
+			} catch (IOException | RuntimeException e) {
+				log.error("Failed to run script on cluster {}", clusterId, e);
+			}
+			finish(jobIdW[0], taskIdW[0], targetsW.keySet(), exitCodes);
+		}, deploymentExecutor);
+		return jobIdW[0];
+	}
+
+	/**
+	 * Ends the task and the job, recording the exit status of every node. The job
+	 * fails unless the script exited with status 0 on all nodes.
+	 */
+	private void finish(String jobId, String taskId, Collection<String> nodeNames, Map<String, Integer> exitCodes) {
+		boolean success = nodeNames.stream().allMatch(nodeName -> Integer.valueOf(0).equals(exitCodes.get(nodeName)));
+		new TransactionTemplate(transactionManager).execute(status -> {
+			Job job = jobRepository.findById(jobId).orElseThrow(() -> new IllegalArgumentException("job not found"));
+			Task task = taskRepository.findById(taskId)
+					.orElseThrow(() -> new IllegalArgumentException("task not found"));
+			Task.TaskExecution taskExecution = task.getExecutions().get(0);
+			taskExecution.setEnd(new Date());
+			taskExecution.setSuccess(success);
+			task.setStatus(success ? JobStatus.COMPLETED : JobStatus.FAILED);
+			task.setEndedAt(taskExecution.getEnd());
+			task.setUpdatedAt(taskExecution.getEnd());
+			taskRepository.save(task);
+			for (String nodeName : nodeNames) {
+				Integer exitCode = exitCodes.get(nodeName);
+				job.getVariables().put("exitCode." + nodeName, exitCode != null ? String.valueOf(exitCode) : "none");
+			}
+			job.setStatus(success ? JobStatus.COMPLETED : JobStatus.FAILED);
+			job.setEndedAt(new Date());
+			job.setUpdatedAt(new Date());
+			jobRepository.save(job);
+			return null;
+		});
+		log.info("Script on job {} ended: {}", jobId, exitCodes);
+	}
+
+	/**
+	 * Runs the script on one node, writing its output to the aggregated log. The
+	 * connection messages of the node go to a log of its own, which is added to
+	 * the aggregated log once the script ended and deleted.
+	 *
+	 * @return The exit status of the script, null if it did not exit
+	 */
+	private Integer runAtNode(String clusterId, String nodeName, SSHConnectionParameters sshConnectionParameters,
+			ClusterCommand command, AggregatedLog aggregatedLog) {
+		Task.TaskExecution nodeExecution = new Task.TaskExecution(new Date());
+		String prefix = "[" + nodeName + "] ";
+		NodeOutput output = new NodeOutput(prefix, aggregatedLog);
+		try {
+			deploymentExecutor.runWithLimits(null, clusterId, () -> nodeScriptRunner.runScript(command.getScript(),
+					sshConnectionParameters, nodeExecution, command.getTimeout(), output)).join();
+		} catch (RuntimeException e) {
+			log.error("Error running script at node {}: {}", nodeName, e.getMessage());
+		} finally {
+			output.close();
+			String nodeLogFileName = nodeExecution.getOutputLogFileName();
+			try (InputStream input = LogFileUtils.getInstance().getLogInputStream(nodeLogFileName)) {
+				NodeOutput messages = new NodeOutput(prefix, aggregatedLog);
+				input.transferTo(messages);
+				messages.close();
+				LogFileUtils.getInstance().deleteOutputLog(nodeLogFileName);
+			} catch (IOException e) {
+				log.error("Failed to move node log {}", nodeLogFileName, e);
+			}
+			aggregatedLog.append((prefix
+					+ (nodeExecution.getExitStatus() != null ? "exited with status " + nodeExecution.getExitStatus()
+							: "did not exit")
+					+ "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return nodeExecution.getExitStatus();
+	}
+
+	/**
+	 * The log of the task, shared by all nodes. Appends are serialized so that
+	 * lines of different nodes do not interleave.
+	 */
+	private static class AggregatedLog implements AutoCloseable {
+		private final OutputStream output;
+		private final ReentrantLock lock = new ReentrantLock();
+
+		AggregatedLog(String logFileName) throws IOException {
+			this.output = LogFileUtils.getInstance().getLogOutputStream(logFileName);
+		}
+
+		void append(byte[] lines) {
+			lock.lock();
+			try {
+				output.write(lines);
+				output.flush();
+			} catch (IOException e) {
+				log.error("Failed to append to aggregated log", e);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			output.close();
+		}
+	}
+
+	/**
+	 * The output of one node. Complete lines are prefixed with the node name and
+	 * appended to the aggregated log as they are written; an incomplete last line
+	 * is appended on close.
+	 */
+	private static class NodeOutput extends OutputStream {
+		private final byte[] prefix;
+		private final AggregatedLog aggregatedLog;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+		private boolean closed;
+
+		NodeOutput(String prefix, AggregatedLog aggregatedLog) {
+			this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+			this.aggregatedLog = aggregatedLog;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			lock.lock();
+			try {
+				if (closed) {
+					return;
+				}
+				ByteArrayOutputStream lines = new ByteArrayOutputStream(len + prefix.length * 2);
+				int lineStart = off;
+				for (int i = off; i < off + len; i++) {
+					if (b[i] == '\n') {
+						lines.write(prefix);
+						partialLine.writeTo(lines);
+						partialLine.reset();
+						lines.write(b, lineStart, i + 1 - lineStart);
+						lineStart = i + 1;
+					}
+				}
+				partialLine.write(b, lineStart, off + len - lineStart);
+				if (lines.size() > 0) {
+					aggregatedLog.append(lines.toByteArray());
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() {
+			lock.lock();
+			try {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (partialLine.size() > 0) {
+					ByteArrayOutputStream line = new ByteArrayOutputStream(prefix.length + partialLine.size() + 1);
+					line.writeBytes(prefix);
+					partialLine.writeTo(line);
+					line.write('\n');
+					aggregatedLog.append(line.toByteArray());
+				}
+			} catch (IOException e) {
+				log.error("Failed to append to aggregated log", e);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
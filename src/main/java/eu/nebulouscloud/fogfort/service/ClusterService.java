@@ -14,8 +14,11 @@ import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import eu.nebulouscloud.fogfort.dto.ClusterApplication;
+import eu.nebulouscloud.fogfort.dto.ClusterCommand;
 import eu.nebulouscloud.fogfort.dto.ClusterDefinition;
 import eu.nebulouscloud.fogfort.dto.ClusterNodeDefinition;
 import eu.nebulouscloud.fogfort.model.Cluster;
@@ -35,6 +38,9 @@ public class ClusterService {
 	@Autowired
 	private ClusterRepository clusterRepository;
 
+	@Autowired
+	private JobNotificationService jobNotificationService;
+
 	@Autowired
 	private NodeRepository nodeRepository;
 
@@ -47,6 +53,18 @@ public class ClusterService {
 	@Autowired
 	private DeployClusterService deployClusterService;
 
+	@Autowired
+	private WarmPoolService warmPoolService;
+
+	@Autowired
+	private ClusterTeardownService clusterTeardownService;
+
+	@Autowired
+	private ClusterCommandService clusterCommandService;
+
+	@Autowired
+	private ApplicationDeploymentService applicationDeploymentService;
+
 	/**
 	 * Validates cluster name format (lowercase letters, numbers, and hyphens only)
 	 */
@@ -187,11 +205,16 @@ public class ClusterService {
 	 * 
 	 * @param sessionId   A valid session id
 	 * @param clusterName Cluster name
+	 * @param callbackUrl URL the deploy cluster job is POSTed to once it has
+	 *                    ended, null for none
 	 * @return true if successful
 	 */
 	@Transactional
-	public boolean deployCluster(String sessionId, String clusterName) {
+	public boolean deployCluster(String sessionId, String clusterName, String callbackUrl) {
 		Validate.notNull(clusterName, "The received clusterName is empty. Nothing to be deployed.");
+		if (callbackUrl != null) {
+			jobNotificationService.validateCallbackUrl(callbackUrl);
+		}
 
 		if (!paGatewayService.isConnectionActive(sessionId)) {
 			throw new IllegalArgumentException("Invalid or inactive session ID");
@@ -216,7 +239,7 @@ public class ClusterService {
 		cluster = clusterRepository.save(cluster);
 		clusterRepository.flush();
 
-		deployClusterService.deployCluster(cluster.getClusterId());
+		deployClusterService.deployCluster(cluster.getClusterId(), callbackUrl);
 
 		log.info("Cluster [{}] deployment initiated", clusterName);
 		return true;
@@ -261,8 +284,7 @@ public class ClusterService {
 	 * @param application Application definition
 	 * @return Job ID
 	 */
-	@Transactional
-	public Long manageApplication(String sessionId, String clusterName, ClusterApplication application) {
+	public String manageApplication(String sessionId, String clusterName, ClusterApplication application) {
 		Validate.notNull(clusterName, "Cluster name cannot be null");
 		Validate.notNull(application, "Application definition cannot be null");
 
@@ -286,21 +308,22 @@ public class ClusterService {
 			throw new IllegalArgumentException("Invalid packageManager. Must be one of: kubectl, kubevela, helm");
 		}
 
+		// Validate application name, also used as the helm release name
+		if (application.getAppName() == null || !application.getAppName().matches("^[a-z0-9]([-a-z0-9]*[a-z0-9])?$")) {
+			throw new IllegalArgumentException("Invalid appName [" + application.getAppName()
+					+ "]. Must contain only lowercase letters, numbers, and hyphens.");
+		}
+
+		if (application.getAppFile() == null || application.getAppFile().isBlank()) {
+			throw new IllegalArgumentException("The appFile is empty");
+		}
+
 		// Validate action
 		if (application.getAction() == null || !application.getAction().equals("apply")) {
 			throw new IllegalArgumentException("Invalid action. Currently only 'apply' is supported.");
 		}
 
-		// TODO: create and submit application deployment
-		// workflow
-		// This would involve:
-		// 1. Creating a  workflow for application deployment
-		// 2. Using the specified package manager (kubectl/kubevela/helm)
-		// 3. Submitting the workflow to scheduler
-		// 4. Returning the submitted job ID
-
-		// For now, return a placeholder job ID
-		long jobId = System.currentTimeMillis(); // Placeholder
+		String jobId = applicationDeploymentService.submit(clusterOpt.get().getClusterId(), application);
 		log.info("Application [{}] deployment initiated for cluster [{}] with job ID: {}", application.getAppName(),
 				clusterName, jobId);
 
@@ -332,16 +355,16 @@ public class ClusterService {
 
 		Cluster cluster = clusterOpt.get();
 
-		
-		if (cluster.getNodes() != null) {
-			for (Node node : cluster.getNodes()) {
-				nodeRepository.delete(node);
+		// Terminate the nodes and delete the cluster once the request is committed
+		String clusterId = cluster.getClusterId();
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				clusterTeardownService.deleteCluster(clusterId);
 			}
-		}
-		// Delete cluster
-		clusterRepository.delete(cluster);
+		});
 
-		log.info("Cluster [{}] deleted successfully", clusterName);
+		log.info("Cluster [{}] deletion initiated", clusterName);
 		return true;
 	}
 
@@ -387,6 +410,7 @@ public class ClusterService {
 		clusterRepository.save(cluster);
 
 		// Save new node definitions
+		List<String> newNodeIds = new ArrayList<>();
 		for (ClusterNodeDefinition nodeDef : newNodes) {
 			Optional<NodeCandidate> nodeCandidate = nodeCandidateRepository.findById(nodeDef.getNodeCandidateId());
 			if (nodeCandidate.isEmpty()) {
@@ -395,9 +419,22 @@ public class ClusterService {
 			Node modelNode = new Node();
 			modelNode.setName(nodeDef.getNodeName());
 			modelNode.setNodeCandidate(nodeCandidate.get());
+			// A node claimed from the warm pool only needs to join the cluster
+			warmPoolService.claimInto(modelNode);
+			modelNode = nodeRepository.save(modelNode);
 			cluster.getNodes().add(modelNode);
+			newNodeIds.add(modelNode.getId());
 		}
-		
+		clusterRepository.save(cluster);
+
+		// Start the scale-out once the new nodes are committed
+		String clusterId = cluster.getClusterId();
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				deployClusterService.scaleOut(clusterId, newNodeIds);
+			}
+		});
 
 		log.info("Scale out initiated for cluster [{}] with {} new nodes", clusterName, newNodes.size());
 		return cluster;
@@ -430,19 +467,29 @@ public class ClusterService {
 		Cluster cluster = clusterOpt.get();
 
 		// Validate that nodes exist and are not master node
+		List<String> nodeIds = new ArrayList<>();
 		for (String nodeName : nodeNames) {
 			if (nodeName.equals(cluster.getMasterNodeName())) {
 				throw new IllegalArgumentException("Cannot remove master node [" + nodeName + "].");
 			}
 			Node node = cluster.getNodes().stream().filter(n -> n.getName().equals(nodeName)).findFirst().orElseThrow(
 					() -> new IllegalArgumentException("Node with name [" + nodeName + "] not found in cluster."));
-			nodeRepository.delete(node); // TODO really need to delete the node?
+			nodeIds.add(node.getId());
 		}
 
 		// Update cluster status
 		cluster.setStatus(ClusterStatus.SCALING);
 		clusterRepository.save(cluster);
 
+		// Drain, terminate and delete the nodes once the request is committed
+		String clusterId = cluster.getClusterId();
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				clusterTeardownService.scaleIn(clusterId, nodeIds);
+			}
+		});
+
 		log.info("Scale in initiated for cluster [{}] to remove {} nodes", clusterName, nodeNames.size());
 		return cluster;
 	}
@@ -486,4 +533,30 @@ public class ClusterService {
 
 		return jobId;
 	}
+
+	/**
+	 * Run a script on all or selected nodes of a Kubernetes cluster
+	 * 
+	 * @param sessionId   A valid session id
+	 * @param clusterName Cluster name
+	 * @param command     The script and the nodes to run it on
+	 * @return The id of the job
+	 */
+	public String exec(String sessionId, String clusterName, ClusterCommand command) {
+		Validate.notNull(clusterName, "Cluster name cannot be null");
+		Validate.notNull(command, "Command cannot be null");
+
+		if (!paGatewayService.isConnectionActive(sessionId)) {
+			throw new IllegalArgumentException("Invalid or inactive session ID");
+		}
+
+		log.info("exec endpoint is called for cluster [{}]", clusterName);
+
+		Optional<Cluster> clusterOpt = clusterRepository.findByName(clusterName);
+		if (clusterOpt.isEmpty()) {
+			throw new IllegalArgumentException("Cluster with name [" + clusterName + "] not found.");
+		}
+
+		return clusterCommandService.run(clusterOpt.get().getClusterId(), command);
+	}
 }
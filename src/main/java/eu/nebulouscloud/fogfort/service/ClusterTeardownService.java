@@ -0,0 +1,208 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.cloud.CloudManager;
+import eu.nebulouscloud.fogfort.cloud.CloudProvider;
+import eu.nebulouscloud.fogfort.model.Cloud;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.ClusterStatus;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.ScaleInJob;
+import eu.nebulouscloud.fogfort.model.jobs.TerminateClusterJob;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.util.ScriptUtils;
+import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tears down cluster nodes, for scale-in and cluster deletion, as a ScaleInJob
+ * or TerminateClusterJob. On scale-in, the removed workers are first drained
+ * and deleted from Kubernetes by a single script on the master. The instances
+ * of all removed nodes are then terminated with one batched
+ * {@link CloudProvider#deleteNodes(Cloud, List)} call per cloud, the clouds in
+ * parallel. Nodes whose termination failed are kept, so the teardown can be
+ * retried.
+ */
+@Service("ClusterTeardownService")
+@Slf4j
+public class ClusterTeardownService {
+
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private CloudManager cloudManager;
+	@Autowired
+	private DeploymentExecutor deploymentExecutor;
+	@Autowired
+	private DeployClusterService deployClusterService;
+	@Autowired
+	private JobSchedulerService jobSchedulerService;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * Removes worker nodes from a cluster: drains them, terminates their
+	 * instances and deletes them. Runs on the deployment executor.
+	 *
+	 * @param clusterId The id of the cluster
+	 * @param nodeIds   The ids of the worker nodes to remove
+	 */
+	public void scaleIn(String clusterId, List<String> nodeIds) {
+		log.info("Scaling in cluster {} by {} nodes", clusterId, nodeIds.size());
+		deploymentExecutor.execute(() -> runTeardown(clusterId, nodeIds));
+	}
+
+	/**
+	 * Deletes a cluster: terminates the instances of all its nodes, then deletes
+	 * the nodes and the cluster. Runs on the deployment executor.
+	 *
+	 * @param clusterId The id of the cluster
+	 */
+	public void deleteCluster(String clusterId) {
+		log.info("Deleting cluster {}", clusterId);
+		deployClusterService.evictKubeadmJoinCommand(clusterId);
+		deploymentExecutor.execute(() -> runTeardown(clusterId, null));
+	}
+
+	/**
+	 * @param nodeIds The ids of the worker nodes to remove, or null to delete the
+	 *                whole cluster
+	 * @return The id of the teardown job
+	 */
+	String runTeardown(String clusterId, List<String> nodeIds) {
+		boolean deleteCluster = nodeIds == null;
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		final String[] masterNodeIdW = new String[1];
+		final Map<String, String> drainTargetsW = new LinkedHashMap<>();
+		final List<Node> nodesW = new ArrayList<>();
+		String jobId = template.execute(status -> {
+			Cluster cluster = clusterRepository.findById(clusterId)
+					.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+			Job job = deleteCluster ? new TerminateClusterJob() : new ScaleInJob();
+			job.setCluster(cluster);
+			job.setCreatedAt(new Date());
+			job.setUpdatedAt(new Date());
+			job.setEndedAt(null);
+			job.setVariables(new HashMap<>());
+			job.setStatus(JobStatus.IN_PROGRESS);
+			job.setTasks(new ArrayList<>());
+			job = jobRepository.save(job);
+
+			for (Node node : cluster.getNodes()) {
+				if (!deleteCluster && !nodeIds.contains(node.getId())) {
+					continue;
+				}
+				node.getNodeCandidate().getCloud().getCredentials();
+				node.getNodeCandidate().getLocation();
+				nodesW.add(node);
+				if (!deleteCluster && node.getDeploymentStep() == DeploymentStep.JOINED && !node.isSpeculative()) {
+					drainTargetsW.put(node.getName(), node.getSshConnectionParameters() != null
+							&& node.getSshConnectionParameters().getIpAddress() != null
+									? node.getSshConnectionParameters().getIpAddress().getValue()
+									: null);
+				}
+			}
+			Node master = cluster.getNodes().stream().filter(n -> n.getName().equals(cluster.getMasterNodeName()))
+					.findFirst().orElse(null);
+			masterNodeIdW[0] = master != null && master.getDeploymentStep() == DeploymentStep.JOINED ? master.getId()
+					: null;
+			return job.getJobId();
+		});
+
+		try {
+			/* Drain and delete the workers from Kubernetes in one master session */
+			if (!drainTargetsW.isEmpty() && masterNodeIdW[0] != null) {
+				try {
+					deployClusterService.executeScriptAtNode(jobId, masterNodeIdW[0], "Drain and remove nodes",
+							ScriptUtils.getDrainNodesScript(drainTargetsW)).join();
+				} catch (RuntimeException e) {
+					log.warn("Draining nodes of cluster {} failed, terminating them anyway: {}", clusterId,
+							e.getMessage());
+				}
+			}
+
+			/* Terminate the instances, one batched call per cloud */
+			Map<String, List<Node>> nodesByCloud = nodesW.stream()
+					.collect(Collectors.groupingBy(node -> node.getNodeCandidate().getCloud().getCloudId()));
+			Map<String, CompletableFuture<TaskExecutionWithResult<Void>>> terminations = new HashMap<>();
+			for (Map.Entry<String, List<Node>> entry : nodesByCloud.entrySet()) {
+				Cloud cloud = entry.getValue().get(0).getNodeCandidate().getCloud();
+				CloudProvider cloudProvider = cloudManager.getCloudProvider(cloud.getCloudProvider());
+				terminations.put(entry.getKey(), CompletableFuture.supplyAsync(() -> deploymentExecutor
+						.callWithLimits(entry.getKey(), null, () -> cloudProvider.deleteNodes(cloud, entry.getValue())),
+						deploymentExecutor));
+			}
+			Set<String> removedNodeIds = new HashSet<>();
+			for (Map.Entry<String, CompletableFuture<TaskExecutionWithResult<Void>>> entry : terminations
+					.entrySet()) {
+				TaskExecutionWithResult<Void> result = entry.getValue().join();
+				if (result.isSuccess()) {
+					nodesByCloud.get(entry.getKey()).forEach(node -> removedNodeIds.add(node.getId()));
+				} else {
+					log.error("Failed to terminate the nodes of cluster {} in cloud {}, see {}", clusterId,
+							entry.getKey(), result.getOutputLogFileName());
+				}
+			}
+			boolean success = removedNodeIds.size() == nodesW.size();
+
+			jobSchedulerService.forgetJob(jobId);
+			template.execute(status -> {
+				Cluster cluster = clusterRepository.findById(clusterId)
+						.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+				Job job = jobRepository.findById(jobId).orElseThrow(() -> new IllegalArgumentException("job not found"));
+				job.setStatus(success ? JobStatus.COMPLETED : JobStatus.FAILED);
+				job.setEndedAt(new Date());
+				job.setUpdatedAt(new Date());
+				if (deleteCluster && success) {
+					/* Keep the jobs of the cluster, without the reference to it */
+					for (Job clusterJob : jobRepository.findByClusterClusterId(clusterId)) {
+						clusterJob.getVariables().put("clusterName", cluster.getName());
+						clusterJob.setCluster(null);
+						jobRepository.save(clusterJob);
+					}
+					cluster.getNodes().clear();
+					clusterRepository.delete(cluster);
+				} else {
+					cluster.getNodes().removeIf(node -> removedNodeIds.contains(node.getId()));
+					cluster.setStatus(success ? ClusterStatus.DEPLOYED : ClusterStatus.FAILED);
+					clusterRepository.save(cluster);
+				}
+				jobRepository.save(job);
+				return null;
+			});
+			log.info("{} of cluster {} done: {} of {} nodes removed", deleteCluster ? "Deletion" : "Scale-in",
+					clusterId, removedNodeIds.size(), nodesW.size());
+		} catch (RuntimeException e) {
+			log.error("Error tearing down nodes of cluster {}: {}", clusterId, e.getMessage());
+			template.execute(status -> {
+				Job job = jobRepository.findById(jobId).orElseThrow(() -> new IllegalArgumentException("job not found"));
+				job.setStatus(JobStatus.FAILED);
+				job.setEndedAt(new Date());
+				jobRepository.save(job);
+				return null;
+			});
+		}
+		return jobId;
+	}
+}
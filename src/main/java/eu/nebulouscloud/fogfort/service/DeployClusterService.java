@@ -6,12 +6,17 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.util.Pair;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
@@ -22,17 +27,22 @@ import eu.nebulouscloud.fogfort.cloud.CloudManager;
 import eu.nebulouscloud.fogfort.cloud.CloudProvider;
 import eu.nebulouscloud.fogfort.cloud.CloudProvider.NodeCreationDetails;
 import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.ClusterStatus;
 import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.NodeCandidate;
 import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
 import eu.nebulouscloud.fogfort.model.jobs.DeployClusterJob;
 import eu.nebulouscloud.fogfort.model.jobs.Job;
 import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.ScaleOutJob;
 import eu.nebulouscloud.fogfort.model.jobs.Task;
 import eu.nebulouscloud.fogfort.repository.ClusterRepository;
 import eu.nebulouscloud.fogfort.repository.JobRepository;
 import eu.nebulouscloud.fogfort.repository.NodeRepository;
 import eu.nebulouscloud.fogfort.repository.TaskRepository;
 import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import eu.nebulouscloud.fogfort.util.ScriptPhase;
 import eu.nebulouscloud.fogfort.util.ScriptUtils;
 import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
 import lombok.Getter;
@@ -49,7 +59,8 @@ public class DeployClusterService {
 	@Autowired
 	private CloudManager cloudManager;
 
-	private final ExecutorService executorService = Executors.newCachedThreadPool();
+	@Autowired
+	private DeploymentExecutor deploymentExecutor;
 	@Autowired
 	private PlatformTransactionManager transactionManager;
 	@Autowired
@@ -60,6 +71,49 @@ public class DeployClusterService {
 	private TaskRepository taskRepository;
 	@Autowired
 	private NodeScriptRunner nodeScriptRunner;
+	@Autowired
+	private JobSchedulerService jobSchedulerService;
+
+	/** How many times a failed install script phase is retried */
+	@Value("${fogfort.deployment.script-phase-max-retries:2}")
+	private int scriptPhaseMaxRetries;
+	@Value("${fogfort.deployment.script-phase-retry-delay-millis:10000}")
+	private long scriptPhaseRetryDelayMillis;
+
+	/**
+	 * Spare workers launched on top of the requested ones in each worker wave, 0
+	 * to disable speculative provisioning
+	 */
+	@Value("${fogfort.deployment.speculative-spare-workers:0}")
+	private int speculativeSpareWorkers;
+	/** Time after which a worker that is not installed yet is replaced by a spare */
+	@Value("${fogfort.deployment.straggler-deadline-millis:600000}")
+	private long stragglerDeadlineMillis;
+
+	/**
+	 * The kubeadm token created by create_kubeadm_token.sh is valid for one hour
+	 * (--ttl=1h). A cached join command is only handed out while enough of that
+	 * TTL is left for a worker to run its install scripts before joining.
+	 */
+	private static final long KUBEADM_TOKEN_TTL_MILLIS = 60 * 60 * 1000L;
+	private static final long KUBEADM_TOKEN_MIN_REMAINING_MILLIS = 20 * 60 * 1000L;
+
+	/**
+	 * A kubeadm join command obtained from the master of a cluster, together with
+	 * the moment its token expires.
+	 */
+	private record KubeadmJoinCommand(String command, long expiresAt) {
+		boolean isReusable() {
+			return System.currentTimeMillis() + KUBEADM_TOKEN_MIN_REMAINING_MILLIS < expiresAt;
+		}
+	}
+
+	/**
+	 * Join commands per cluster id. Holding the future (rather than the value)
+	 * makes concurrent callers of the same deploy or scale-out wave share a single
+	 * master session.
+	 */
+	private final Map<String, CompletableFuture<KubeadmJoinCommand>> kubeadmJoinCommands = new ConcurrentHashMap<>();
 
 	@Getter
 	@Setter
@@ -69,11 +123,47 @@ public class DeployClusterService {
 		public TaskExecutionWithResult<NodeCreationDetails> taskExecutionWithResult;
 	}
 
+	/**
+	 * Reads the last deployment step persisted for a node.
+	 * 
+	 * @param nodeId The id of the node
+	 * @return The last deployment step completed on the node
+	 */
+	private DeploymentStep getDeploymentStep(String nodeId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		return template.execute(status -> nodeRepository.findById(nodeId)
+				.orElseThrow(() -> new IllegalArgumentException("node not found")).getDeploymentStep());
+	}
+
+	/**
+	 * Persists a deployment step completed on a node, so that an interrupted
+	 * deployment can resume after it.
+	 * 
+	 * @param nodeId The id of the node
+	 * @param step   The deployment step completed
+	 */
+	private void setDeploymentStep(String nodeId, DeploymentStep step) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.execute(status -> {
+			Node node = nodeRepository.findById(nodeId)
+					.orElseThrow(() -> new IllegalArgumentException("node not found"));
+			node.setDeploymentStep(step);
+			nodeRepository.save(node);
+			return null;
+		});
+		log.info("Node {} reached deployment step {}", nodeId, step);
+	}
+
 	private CompletableFuture<Void> createClusterNode(String jobId, String nodeId) {
 
 		return CompletableFuture.supplyAsync(() -> {
+			if (getDeploymentStep(nodeId).isAtLeast(DeploymentStep.PROVISIONED)) {
+				log.info("Node {} already provisioned, skipping creation", nodeId);
+				return null;
+			}
 
 			final String[] createNodeTaskId = new String[1];
+			final String[] clusterIdW = new String[1];
 			log.info("Creating cluster node");
 			TransactionTemplate template = new TransactionTemplate(transactionManager);
 			final Node[] nodeWrapper = new Node[1];
@@ -89,6 +179,7 @@ public class DeployClusterService {
 				if (cluster == null) {
 					throw new IllegalArgumentException("Cluster not found in job");
 				}
+				clusterIdW[0] = cluster.getClusterId();
 				nodeWrapper[0] = cluster.getNodes().stream().filter(n -> n.getId().equals(nodeId)).findFirst()
 						.orElseThrow(() -> new IllegalArgumentException("Node not found"));
 
@@ -108,7 +199,7 @@ public class DeployClusterService {
 				createNodeTask.getExecutions().add(new Task.TaskExecution(new Date()));
 				createNodeTask = taskRepository.save(createNodeTask);
 				createNodeTaskId[0] = createNodeTask.getId();
-				createNodeJob.getTasks().add(createNodeTask);
+				jobSchedulerService.track(createNodeTask);
 				return null;
 			});
 			/*
@@ -118,31 +209,30 @@ public class DeployClusterService {
 			 */
 			CloudProvider cloudProvider = cloudManager
 					.getCloudProvider(nodeWrapper[0].getNodeCandidate().getCloud().getCloudProvider());
-			TaskExecutionWithResult<NodeCreationDetails> nodeCreationResult = cloudProvider.createNode(
-					nodeWrapper[0].getNodeCandidate().getCloud(), nodeWrapper[0].getNodeCandidate(),
-					nodeWrapper[0].getName());
+			TaskExecutionWithResult<NodeCreationDetails> nodeCreationResult = deploymentExecutor.callWithLimits(
+					nodeWrapper[0].getNodeCandidate().getCloud().getCloudId(), clusterIdW[0],
+					() -> cloudProvider.createNode(nodeWrapper[0].getNodeCandidate().getCloud(),
+							nodeWrapper[0].getNodeCandidate(), nodeWrapper[0].getName()));
 			/*
-			 * Transactionally update the node creation task with the result of the node
-			 * creation
+			 * Update the node creation task with the result of the node creation, and
+			 * transactionally record it on the node
 			 */
-			template.execute(status -> {
-				Task createNodeTask = taskRepository.findById(createNodeTaskId[0])
-						.orElseThrow(() -> new IllegalArgumentException("task not found"));
-				Task.TaskExecution taskExecution = createNodeTask.getExecutions().get(0);
-				Cluster cluster = createNodeTask.getJob().getCluster();
-				Node node = cluster.getNodes().stream().filter(n -> n.getId().equals(nodeId)).findFirst()
-						.orElseThrow(() -> new IllegalArgumentException("Node not found"));
+			jobSchedulerService.updateTask(createNodeTaskId[0], createNodeTask -> {
 				createNodeTask.getExecutions().get(0).updateWith(nodeCreationResult);
 				createNodeTask.setStatus(nodeCreationResult.isSuccess() ? JobStatus.COMPLETED : JobStatus.FAILED);
 				createNodeTask.setEndedAt(nodeCreationResult.getEnd());
 				createNodeTask.setUpdatedAt(nodeCreationResult.getEnd());
-				createNodeTask = taskRepository.save(createNodeTask);
+			});
+			template.execute(status -> {
+				Node node = nodeRepository.findById(nodeId)
+						.orElseThrow(() -> new IllegalArgumentException("Node not found"));
 
 				if (nodeCreationResult.isSuccess()) {
 					node.setProviderId(nodeCreationResult.getResult().getProviderId());
 					node.setStatus(Node.NodeStatus.CREATED);
 					node.setNodeUrl(nodeCreationResult.getResult().getNodeUrl());
 					node.setSshConnectionParameters(nodeCreationResult.getResult().getSshConnectionParameters());
+					node.setDeploymentStep(DeploymentStep.PROVISIONED);
 					node = nodeRepository.save(node);
 				} else {
 					node.setStatus(Node.NodeStatus.FAILED);
@@ -152,7 +242,7 @@ public class DeployClusterService {
 				return null;
 			});
 			return null;
-		}, executorService);
+		}, deploymentExecutor);
 	}
 
 	/**
@@ -166,7 +256,7 @@ public class DeployClusterService {
 	 * @param script     The script to be executed
 	 * @return The id of the script execution task
 	 */
-	private CompletableFuture<String> executeScriptAtNode(String jobId, String nodeId, String decription,
+	CompletableFuture<String> executeScriptAtNode(String jobId, String nodeId, String decription,
 			String script) {
 		log.info("Executing script at node: {}", nodeId);
 		return CompletableFuture.supplyAsync(() -> {
@@ -177,16 +267,15 @@ public class DeployClusterService {
 			TransactionTemplate template = new TransactionTemplate(transactionManager);
 
 			final String[] taskIdW = new String[1];
+			final String[] clusterIdW = new String[1];
 			final Task.TaskExecution[] taskExecutionW = new Task.TaskExecution[1];
 			final SSHConnectionParameters[] sshConnectionParametersW = new SSHConnectionParameters[1];
+			clusterIdW[0] = jobSchedulerService.getClusterId(jobId);
 			template.execute(status -> {
-				Job job = jobRepository.findById(jobId)
-						.orElseThrow(() -> new IllegalArgumentException("job not found"));
-
 				Node node = nodeRepository.findById(nodeId)
 						.orElseThrow(() -> new IllegalArgumentException("node not found"));
 				Task runScriptTask = new Task();
-				runScriptTask.setJob(job);
+				runScriptTask.setJob(jobRepository.getReferenceById(jobId));
 				runScriptTask.setCreatedAt(new Date());
 				runScriptTask.setUpdatedAt(new Date());
 				runScriptTask.setEndedAt(null);
@@ -201,8 +290,7 @@ public class DeployClusterService {
 				taskExecution.setSuccess(false);
 				runScriptTask.setExecutions(Collections.singletonList(taskExecution));
 				runScriptTask = taskRepository.save(runScriptTask);
-				job.getTasks().add(runScriptTask);
-				job = jobRepository.save(job);
+				jobSchedulerService.track(runScriptTask);
 				taskIdW[0] = runScriptTask.getId();
 				taskExecutionW[0] = taskExecution;
 				sshConnectionParametersW[0] = node.getSshConnectionParameters();
@@ -213,19 +301,15 @@ public class DeployClusterService {
 			 * Execute the script at the node and update the task execution status. Throw an
 			 * exception if the script execution fails.
 			 */
-			nodeScriptRunner.runScript(script, sshConnectionParametersW[0], taskExecutionW[0], null)
+			deploymentExecutor.runWithLimits(null, clusterIdW[0],
+					() -> nodeScriptRunner.runScript(script, sshConnectionParametersW[0], taskExecutionW[0], null))
 					.whenComplete((result, e) -> {
-						TransactionTemplate template2 = new TransactionTemplate(transactionManager);
-						template.execute((status2) -> {
-							Task task = taskRepository.findById(taskIdW[0])
-									.orElseThrow(() -> new IllegalArgumentException("task not found"));
+						jobSchedulerService.updateTask(taskIdW[0], task -> {
 							Task.TaskExecution taskExecution = task.getExecutions().get(0);
 							taskExecution.updateWith(taskExecutionW[0]);
 							task.setStatus(taskExecution.isSuccess() ? JobStatus.COMPLETED : JobStatus.FAILED);
 							task.setEndedAt(taskExecution.getEnd());
 							task.setUpdatedAt(taskExecution.getEnd());
-							task = taskRepository.save(task);
-							return null;
 						});
 
 						if (!taskExecutionW[0].isSuccess()) {
@@ -236,7 +320,209 @@ public class DeployClusterService {
 						}
 					}).join();
 			return taskIdW[0];
-		});
+		}, deploymentExecutor);
+	}
+
+	/**
+	 * Waits until a provisioned node accepts SSH connections and records it as
+	 * SSH_READY. Does nothing if the node already reached that step.
+	 * 
+	 * @param jobId  The id of the job to which the check task is associated
+	 * @param nodeId The id of the node
+	 * @return A CompletableFuture that completes when the node is reachable.
+	 *         Throws an exception if it is not.
+	 */
+	private CompletableFuture<Void> waitForNodeSsh(String jobId, String nodeId) {
+		if (getDeploymentStep(nodeId).isAtLeast(DeploymentStep.SSH_READY)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return executeScriptAtNode(jobId, nodeId, "Check SSH connectivity", "echo ssh-ready")
+				.thenRun(() -> setDeploymentStep(nodeId, DeploymentStep.SSH_READY));
+	}
+
+	/**
+	 * Executes a script made of phases at a node. Creates a single task for the
+	 * provided jobId and nodeId and records every phase run as its own execution
+	 * of it. A failed phase is retried, up to the task's maxRetries, without
+	 * rerunning the phases before it; on the node, phases whose completion marker
+	 * matches their input hash are skipped as well. The node is recorded as
+	 * INSTALLED once every phase but the last one has completed, and as JOINED
+	 * once the last one, which starts or joins the cluster, has. If a phase
+	 * cannot be run at all, the task is marked FAILED as well.
+	 * 
+	 * Each phase runs in a shell of its own, so variables set by a phase are lost
+	 * when it ends. Settings shared by phases go to ~/.profile, which every
+	 * install phase sources, as the WORKER_ENV phase does.
+	 * 
+	 * @param jobId       The id of the job to which the task is associated
+	 * @param nodeId      The id of the node at which the phases are to be executed
+	 * @param description The description of the task
+	 * @param phases      The phases to execute, in order
+	 * @return The id of the task. Throws an exception if a phase still fails after
+	 *         the last retry.
+	 */
+	CompletableFuture<String> executeScriptPhasesAtNode(String jobId, String nodeId, String description,
+			List<ScriptPhase> phases) {
+		return executeScriptPhasesAtNode(jobId, nodeId, description, phases, 0, phases.size());
+	}
+
+	/**
+	 * Executes the phases from fromPhase (inclusive) to toPhase (exclusive) of a
+	 * script made of phases at a node. Deployment steps are recorded relative to
+	 * the whole list, as in
+	 * {@link #executeScriptPhasesAtNode(String, String, String, List)}.
+	 */
+	private CompletableFuture<String> executeScriptPhasesAtNode(String jobId, String nodeId, String description,
+			List<ScriptPhase> phases, int fromPhase, int toPhase) {
+		log.info("Executing {} script phases at node: {}", toPhase - fromPhase, nodeId);
+		return CompletableFuture.supplyAsync(() -> {
+			TransactionTemplate template = new TransactionTemplate(transactionManager);
+
+			final String[] taskIdW = new String[1];
+			final String[] clusterIdW = new String[1];
+			final SSHConnectionParameters[] sshConnectionParametersW = new SSHConnectionParameters[1];
+			clusterIdW[0] = jobSchedulerService.getClusterId(jobId);
+			template.execute(status -> {
+				Node node = nodeRepository.findById(nodeId)
+						.orElseThrow(() -> new IllegalArgumentException("node not found"));
+				Task runScriptTask = new Task();
+				runScriptTask.setJob(jobRepository.getReferenceById(jobId));
+				runScriptTask.setCreatedAt(new Date());
+				runScriptTask.setUpdatedAt(new Date());
+				runScriptTask.setEndedAt(null);
+				runScriptTask.setStatus(JobStatus.IN_PROGRESS);
+				runScriptTask.setTargetNodeId(nodeId);
+				runScriptTask.setDescription(description);
+				runScriptTask.setMaxRetries(scriptPhaseMaxRetries);
+				runScriptTask.setCurrentRetry(0);
+				runScriptTask.setExecutions(new ArrayList<>());
+				runScriptTask = taskRepository.save(runScriptTask);
+				jobSchedulerService.track(runScriptTask);
+				taskIdW[0] = runScriptTask.getId();
+				sshConnectionParametersW[0] = node.getSshConnectionParameters();
+				return null;
+			});
+
+			/* The retries a task allows are shared by its phases */
+			final int[] retryW = new int[1];
+			final boolean[] endedW = new boolean[1];
+			try {
+				for (int phaseIndex = fromPhase; phaseIndex < toPhase; phaseIndex++) {
+					ScriptPhase phase = phases.get(phaseIndex);
+					final boolean lastPhase = phaseIndex == toPhase - 1;
+					Task.TaskExecution phaseExecution = runScriptPhase(nodeId, clusterIdW[0],
+							sshConnectionParametersW[0], phase, retryW[0], new PhaseAttemptListener() {
+								@Override
+								public void attemptStarted(Task.TaskExecution execution) {
+									jobSchedulerService.updateTask(taskIdW[0], task -> {
+										Task.TaskExecution taskExecution = new Task.TaskExecution();
+										taskExecution.updateWith(execution);
+										task.getExecutions().add(taskExecution);
+										task.setUpdatedAt(new Date());
+									});
+								}
+
+								@Override
+								public void attemptEnded(Task.TaskExecution execution, int retry, boolean lastAttempt) {
+									final boolean completed = execution.isSuccess() && lastPhase;
+									jobSchedulerService.updateTask(taskIdW[0], task -> {
+										task.getExecutions().stream()
+												.filter(e -> e.getOutputLogFileName()
+														.equals(execution.getOutputLogFileName()))
+												.findFirst().ifPresent(e -> e.updateWith(execution));
+										task.setCurrentRetry(retry);
+										task.setUpdatedAt(execution.getEnd());
+										if (completed || lastAttempt) {
+											task.setStatus(completed ? JobStatus.COMPLETED : JobStatus.FAILED);
+											task.setEndedAt(execution.getEnd());
+										}
+									});
+									retryW[0] = retry;
+									endedW[0] = completed || lastAttempt;
+								}
+							});
+					if (!phaseExecution.isSuccess()) {
+						throw new RuntimeException("Script phase " + phase.name() + " failed");
+					}
+					if (phaseIndex == phases.size() - 2) {
+						setDeploymentStep(nodeId, DeploymentStep.INSTALLED);
+					} else if (phaseIndex == phases.size() - 1) {
+						setDeploymentStep(nodeId, DeploymentStep.JOINED);
+					}
+				}
+			} finally {
+				if (!endedW[0]) {
+					// The phase could not be run, or the thread was interrupted
+					jobSchedulerService.updateTask(taskIdW[0], task -> {
+						Date now = new Date();
+						task.getExecutions().stream().filter(e -> e.getEnd() == null).forEach(e -> e.setEnd(now));
+						task.setStatus(JobStatus.FAILED);
+						task.setEndedAt(now);
+						task.setUpdatedAt(now);
+					});
+				}
+			}
+			return taskIdW[0];
+		}, deploymentExecutor);
+	}
+
+	/**
+	 * Told about the attempts of a script phase run by
+	 * {@link DeployClusterService#runScriptPhase}.
+	 */
+	interface PhaseAttemptListener {
+		/**
+		 * @param execution The execution of the attempt, about to run
+		 */
+		default void attemptStarted(Task.TaskExecution execution) {
+		}
+
+		/**
+		 * @param execution   The execution of the attempt, ended
+		 * @param retry       The number of retries before this attempt
+		 * @param lastAttempt True if the attempt failed and no retry is left
+		 */
+		default void attemptEnded(Task.TaskExecution execution, int retry, boolean lastAttempt) {
+		}
+	}
+
+	/**
+	 * Runs a script phase at a node, retrying it while it fails up to
+	 * fogfort.deployment.script-phase-max-retries times, with
+	 * fogfort.deployment.script-phase-retry-delay-millis between attempts.
+	 * 
+	 * @param nodeName  The node the phase runs at, for logging
+	 * @param clusterId The cluster the node belongs to, null if it has none
+	 * @param ssh       The SSH connection parameters of the node
+	 * @param phase     The phase to run
+	 * @param retry     The number of retries already used
+	 * @param listener  Told about every attempt
+	 * @return The execution of the last attempt. Throws an exception if the phase
+	 *         could not be run at all.
+	 */
+	Task.TaskExecution runScriptPhase(String nodeName, String clusterId, SSHConnectionParameters ssh,
+			ScriptPhase phase, int retry, PhaseAttemptListener listener) {
+		while (true) {
+			Task.TaskExecution execution = new Task.TaskExecution(new Date());
+			execution.setPhase(phase.name());
+			listener.attemptStarted(execution);
+			deploymentExecutor.runWithLimits(null, clusterId,
+					() -> nodeScriptRunner.runScript(ScriptUtils.getPhaseScript(phase), ssh, execution, null)).join();
+			final boolean lastAttempt = !execution.isSuccess() && retry >= scriptPhaseMaxRetries;
+			listener.attemptEnded(execution, retry, lastAttempt);
+			if (execution.isSuccess() || lastAttempt) {
+				return execution;
+			}
+			retry++;
+			log.warn("Script phase {} failed at node {}, retrying ({}/{})", phase.name(), nodeName, retry,
+					scriptPhaseMaxRetries);
+			try {
+				Thread.sleep(scriptPhaseRetryDelayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting to retry script phase", e);
+			}
+		}
 	}
 
 	/**
@@ -252,53 +538,59 @@ public class DeployClusterService {
 			TransactionTemplate template = new TransactionTemplate(transactionManager);
 
 			final String[] masterNodeIdW = new String[1];
+			final DeploymentStep[] stepW = new DeploymentStep[1];
 			template.execute(status -> {
 				Job deployClusterJob = jobRepository.findById(deployClusterJobId)
 						.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
 				Cluster cluster = deployClusterJob.getCluster();
 				masterNodeIdW[0] = cluster.getMasterNode().getId();
+				stepW[0] = cluster.getMasterNode().getDeploymentStep();
 				return null;
 			});
+			if (stepW[0] == DeploymentStep.JOINED) {
+				log.info("Master node {} already deployed", masterNodeIdW[0]);
+				return null;
+			}
 
-			createClusterNode(deployClusterJobId, masterNodeIdW[0]).exceptionally(ex -> {
-				log.error("Error creating master node: {}", ex.getMessage());
-				throw new RuntimeException("Error creating master node", ex);
-			}).join();
+			createClusterNode(deployClusterJobId, masterNodeIdW[0])
+					.thenCompose(v -> waitForNodeSsh(deployClusterJobId, masterNodeIdW[0])).exceptionally(ex -> {
+						log.error("Error creating master node: {}", ex.getMessage());
+						throw new RuntimeException("Error creating master node", ex);
+					}).join();
 
-			final String[] scriptW = new String[1];
+			final List<ScriptPhase> phasesW = new ArrayList<>();
 			template.execute(status -> {
 				Job deployClusterJob = jobRepository.findById(deployClusterJobId)
 						.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
 				Cluster cluster = deployClusterJob.getCluster();
-				scriptW[0] = ScriptUtils.getMasterInstallScripts(
-						cluster.getMasterNode().getSshConnectionParameters().getUsername(), cluster.getEnvVars());
+				phasesW.addAll(ScriptUtils.getMasterInstallPhases(
+						cluster.getMasterNode().getSshConnectionParameters().getUsername(), cluster.getEnvVars()));
 				masterNodeIdW[0] = cluster.getMasterNode().getId();
 				return null;
 			});
 
-			executeScriptAtNode(deployClusterJobId, masterNodeIdW[0], "Run master install scripts", scriptW[0])
+			executeScriptPhasesAtNode(deployClusterJobId, masterNodeIdW[0], "Run master install scripts", phasesW)
 					.exceptionally(ex -> {
 						log.error("Error running master install scripts: {}", ex.getMessage());
 						// TODO: delete the master node
 						throw new RuntimeException("Error running master install scripts", ex);
 					}).join();
 			return null;
-		});
+		}, deploymentExecutor);
 	}
 
 	/**
-	 * Creates a kubeadm join token for a node by executing a script at the master
-	 * node. The script creates a kubeadm join token and returns it as a script
-	 * result.
+	 * Creates a kubeadm join token by executing a script at the master node. The
+	 * script creates a kubeadm join token and returns it as a script result.
 	 * 
 	 * @param deployClusterJobId The id of the deploy cluster job
-	 * @param nodeName           The name of the node for which the kubeadm join
-	 *                           token is to be created
+	 * @param description        The description of the script execution task
 	 * @return The kubeadm join token Throws an exception if the kubeadm join token
 	 *         creation fails.
 	 */
-	private CompletableFuture<String> createKubeadmJoinCommandForNode(String deployClusterJobId, String nodeName) {
-		log.info("Creating kubeadm join token for node: {}", nodeName);
+	private CompletableFuture<KubeadmJoinCommand> createKubeadmJoinCommand(String deployClusterJobId,
+			String description) {
+		log.info("Creating kubeadm join token for job: {}", deployClusterJobId);
 		return CompletableFuture.supplyAsync(() -> {
 			TransactionTemplate template = new TransactionTemplate(transactionManager);
 			final String[] nodeIdW = new String[1];
@@ -310,106 +602,573 @@ public class DeployClusterService {
 				return null;
 			});
 			String script = ScriptUtils.getKubeadmJoinCommandScript();
+			long requestedAt = System.currentTimeMillis();
+			String taskId = executeScriptAtNode(deployClusterJobId, nodeIdW[0], description, script).join();
 
-			String taskId = executeScriptAtNode(deployClusterJobId, nodeIdW[0],
-					"Create kubeadm join token for node: " + nodeName, script).join();
-
-			@SuppressWarnings("unchecked")
-			final Map<String, String>[] resultsW = (Map<String, String>[]) new HashMap[1];
-			template.execute(status -> {
-				Task task = taskRepository.findById(taskId)
-						.orElseThrow(() -> new IllegalArgumentException("task not found"));
-				resultsW[0] = nodeScriptRunner.extractScriptResults(task.getExecutions().get(0));
-				return null;
-			});
-			if (resultsW[0] == null || !resultsW[0].containsKey("KUBERNETES_JOIN_TOKEN")) {
+			Map<String, String> results = jobSchedulerService.getTask(taskId).getExecutions().get(0).getScriptResults();
+			if (results == null || !results.containsKey("KUBERNETES_JOIN_TOKEN")) {
 				throw new RuntimeException("Kubeadm join token not found");
 			}
-			return resultsW[0].get("KUBERNETES_JOIN_TOKEN");
+			return new KubeadmJoinCommand(results.get("KUBERNETES_JOIN_TOKEN"),
+					requestedAt + KUBEADM_TOKEN_TTL_MILLIS);
+		}, deploymentExecutor);
+	}
+
+	/**
+	 * Gets the kubeadm join command for the cluster of the given job. The command
+	 * is created once through the master node and then cached for as long as its
+	 * token remains valid, so all workers of a deploy wave, and later scale-out
+	 * waves within the token TTL, share it.
+	 * 
+	 * @param deployClusterJobId The id of the deploy cluster job
+	 * @return The kubeadm join command. Throws an exception if the kubeadm join
+	 *         command creation fails.
+	 */
+	CompletableFuture<String> getKubeadmJoinCommand(String deployClusterJobId) {
+		String clusterId = jobSchedulerService.getClusterId(deployClusterJobId);
+		CompletableFuture<KubeadmJoinCommand> joinCommand = kubeadmJoinCommands.compute(clusterId,
+				(id, cached) -> {
+					if (cached != null && (!cached.isDone()
+							|| (!cached.isCompletedExceptionally() && cached.join().isReusable()))) {
+						log.info("Reusing kubeadm join command for cluster: {}", clusterId);
+						return cached;
+					}
+					return createKubeadmJoinCommand(deployClusterJobId, "Create kubeadm join token");
+				});
+		return joinCommand.whenComplete((command, e) -> {
+			if (e != null) {
+				kubeadmJoinCommands.remove(clusterId, joinCommand);
+			}
+		}).thenApply(KubeadmJoinCommand::command);
+	}
+
+	/**
+	 * Forgets the cached kubeadm join command of a cluster. Its token belongs to
+	 * the current master, so it must not be handed out once the cluster is
+	 * redeployed or deleted.
+	 */
+	void evictKubeadmJoinCommand(String clusterId) {
+		if (kubeadmJoinCommands.remove(clusterId) != null) {
+			log.info("Evicted the kubeadm join command of cluster: {}", clusterId);
+		}
+	}
+
+	/**
+	 * Builds the worker install phases for the cluster of the given job. The last
+	 * phase joins the cluster; it needs the join command, given through
+	 * {@link ScriptUtils#withJoinCommand(List, String)}, while the phases before it
+	 * do not.
+	 * 
+	 * @param deployClusterJobId The id of the deploy cluster job
+	 * @return The worker install phases, the last of which joins the cluster
+	 */
+	List<ScriptPhase> getWorkerInstallPhases(String deployClusterJobId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		return template.execute(status -> {
+			Job deployClusterJob = jobRepository.findById(deployClusterJobId)
+					.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
+			Cluster cluster = deployClusterJob.getCluster();
+			Map<String, String> envVars = new HashMap<String, String>();
+			envVars.putAll(cluster.getEnvVars());
+			return ScriptUtils.getWorkerInstallPhases(cluster.getMasterNode().getSshConnectionParameters().getUsername(),
+					envVars);
 		});
 	}
 
 	/**
-	 * Tries to create a worker node, get a kubeadm join token from the master and
-	 * connect the worker to the cluster. If the process fails, the node is deleted
-	 * but not exception is thrown.
+	 * Tries to create a worker node and connect it to the cluster using the given
+	 * kubeadm join command. If the process fails, the node is deleted but not
+	 * exception is thrown.
 	 * 
 	 * @param deployClusterJobId
 	 * @param nodeId
+	 * @param kubeJoinCommand    The join command shared by all workers of the wave
 	 * @return
 	 */
-	private CompletableFuture<Void> createWorkerNode(String deployClusterJobId, String nodeId) {
+	private CompletableFuture<Void> createWorkerNode(String deployClusterJobId, String nodeId,
+			CompletableFuture<String> kubeJoinCommand) {
 		log.info("Creating worker node: {}", nodeId);
 		return CompletableFuture.runAsync(() -> {
-			TransactionTemplate template = new TransactionTemplate(transactionManager);
 			try {
+				if (getDeploymentStep(nodeId) == DeploymentStep.JOINED) {
+					log.info("Worker node {} already deployed", nodeId);
+					return;
+				}
 				/* Create the worker node */
 				createClusterNode(deployClusterJobId, nodeId).join();
-				/* Get the kubeadm join token from the master */
-				String kubeJoinCommand = createKubeadmJoinCommandForNode(deployClusterJobId, nodeId).join();
+				waitForNodeSsh(deployClusterJobId, nodeId).join();
 				/*
-				 * Prepare the worker install script. Add the join command to the script env
-				 * vars so the worker can connect to the cluster
+				 * Prepare the worker install script. Add the join command to the join phase
+				 * so the worker can connect to the cluster
 				 */
-				final String[] scriptW = new String[1];
-				template.execute(status -> {
-					Job deployClusterJob = jobRepository.findById(deployClusterJobId)
-							.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
-					Cluster cluster = deployClusterJob.getCluster();					
-					Map<String, String> envVars = new HashMap<String, String>();
-					envVars.putAll(cluster.getEnvVars());
-					envVars.put("variables_kubeCommand", kubeJoinCommand);
-					scriptW[0] = ScriptUtils.getWorkerInstallScripts(
-							cluster.getMasterNode().getSshConnectionParameters().getUsername(), envVars);
-					return null;
-				});
+				List<ScriptPhase> phases = ScriptUtils.withJoinCommand(getWorkerInstallPhases(deployClusterJobId),
+						kubeJoinCommand.join());
 				/* Execute the worker install script */
-				executeScriptAtNode(deployClusterJobId, nodeId, "Create worker node", scriptW[0]).join();
+				executeScriptPhasesAtNode(deployClusterJobId, nodeId, "Create worker node", phases).join();
 				return;
 			} catch (RuntimeException e) {
 				log.error("Error creating worker node: {}", e);
 				// TODO: delete the node
 			}
+		}, deploymentExecutor);
+	}
+
+	/**
+	 * Terminates the instance of a node, if it has one, and clears its provider id
+	 * so it is not terminated twice.
+	 * 
+	 * @param nodeId The id of the node
+	 */
+	private void terminateNodeInstance(String nodeId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		Node node = template.execute(status -> {
+			Node n = nodeRepository.findById(nodeId).orElse(null);
+			if (n != null) {
+				n.getNodeCandidate().getCloud().getCredentials();
+				n.getNodeCandidate().getLocation();
+			}
+			return n;
 		});
+		if (node == null || node.getProviderId() == null) {
+			return;
+		}
+		CloudProvider cloudProvider = cloudManager.getCloudProvider(node.getNodeCandidate().getCloud().getCloudProvider());
+		TaskExecutionWithResult<Void> deleteResult = cloudProvider.deleteNode(node.getNodeCandidate().getCloud(), node);
+		if (!deleteResult.isSuccess()) {
+			log.error("Failed to terminate instance {} of node {}", node.getProviderId(), node.getName());
+			return;
+		}
+		template.execute(status -> {
+			nodeRepository.findById(nodeId).ifPresent(n -> {
+				n.setProviderId(null);
+				nodeRepository.save(n);
+			});
+			return null;
+		});
+	}
+
+	/**
+	 * Terminates the instance of a worker node and removes the node from the
+	 * cluster of the given job.
+	 * 
+	 * @param deployClusterJobId The id of the job whose cluster the node belongs to
+	 * @param nodeId             The id of the node
+	 */
+	private void discardWorkerNode(String deployClusterJobId, String nodeId) {
+		terminateNodeInstance(nodeId);
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.execute(status -> {
+			Job job = jobRepository.findById(deployClusterJobId)
+					.orElseThrow(() -> new IllegalArgumentException("job not found"));
+			Cluster cluster = job.getCluster();
+			cluster.getNodes().removeIf(n -> n.getId().equals(nodeId));
+			clusterRepository.save(cluster);
+			return null;
+		});
+		log.info("Discarded worker node {}", nodeId);
+	}
+
+	/**
+	 * A worker wave run with speculative spare workers, to keep a few slow
+	 * instances from setting the deploy time of the whole cluster. The requested
+	 * workers and the spares are provisioned and installed in parallel, up to but
+	 * not including the phase that joins the cluster. A requested worker joins as
+	 * soon as it is installed. Once the straggler deadline has passed, or as soon
+	 * as the requested worker failed, the first spare installed from the same node
+	 * candidate takes over its definition (name) and joins in its place. The wave
+	 * is done when every definition has joined or failed; stragglers and unused
+	 * spares are then terminated. The latency saved by each replacement is logged
+	 * and recorded in the job variables.
+	 */
+	private class SpeculativeWorkerWave {
+
+		private class Slot {
+			final String nodeId;
+			final String name;
+			final String nodeCandidateId;
+			/** Candidate whose node currently holds the definition */
+			Candidate holder;
+			boolean claimed;
+			boolean originalFailed;
+			boolean resolved;
+			/** When a spare took over, null if it did not */
+			Long replacedAt;
+			boolean savingRecorded;
+
+			Slot(String nodeId, String name, String nodeCandidateId) {
+				this.nodeId = nodeId;
+				this.name = name;
+				this.nodeCandidateId = nodeCandidateId;
+			}
+		}
+
+		private class Candidate {
+			final String nodeId;
+			final String nodeCandidateId;
+			/** The definition of a requested worker, null for a spare */
+			final Slot ownSlot;
+			Slot held;
+			boolean ended;
+			boolean discardStarted;
+			volatile boolean discarded;
+
+			Candidate(String nodeId, String nodeCandidateId, Slot ownSlot) {
+				this.nodeId = nodeId;
+				this.nodeCandidateId = nodeCandidateId;
+				this.ownSlot = ownSlot;
+				this.held = ownSlot;
+			}
+		}
+
+		private final String jobId;
+		private final List<String> workerNodeIds;
+		private final CompletableFuture<String> kubeJoinCommand;
+		private final List<Slot> slots = new ArrayList<>();
+		private final List<Candidate> candidates = new ArrayList<>();
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+		/* A lock rather than a monitor: waiting spares must not pin virtual thread carriers */
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+		private long start;
+		private long deadline;
+		private boolean finished;
+		private long savedMillis;
+		private int replaced;
+
+		SpeculativeWorkerWave(String jobId, List<String> workerNodeIds, CompletableFuture<String> kubeJoinCommand) {
+			this.jobId = jobId;
+			this.workerNodeIds = workerNodeIds;
+			this.kubeJoinCommand = kubeJoinCommand;
+		}
+
+		CompletableFuture<Void> run() {
+			start = System.currentTimeMillis();
+			deadline = start + stragglerDeadlineMillis;
+			createSpares();
+			log.info("Speculative worker wave for job {}: {} workers, {} spares, straggler deadline {} ms", jobId,
+					slots.size(), candidates.size() - slots.size(), stragglerDeadlineMillis);
+			for (Candidate candidate : candidates) {
+				CompletableFuture.runAsync(() -> runCandidate(candidate), deploymentExecutor);
+			}
+			return done;
+		}
+
+		private void createSpares() {
+			TransactionTemplate template = new TransactionTemplate(transactionManager);
+			template.execute(status -> {
+				Job job = jobRepository.findById(jobId).orElseThrow(() -> new IllegalArgumentException("job not found"));
+				Cluster cluster = job.getCluster();
+				List<NodeCandidate> nodeCandidates = new ArrayList<>();
+				for (String nodeId : workerNodeIds) {
+					Node node = cluster.getNodes().stream().filter(n -> n.getId().equals(nodeId)).findFirst()
+							.orElseThrow(() -> new IllegalArgumentException("Node not found"));
+					Slot slot = new Slot(nodeId, node.getName(), node.getNodeCandidate().getId());
+					Candidate candidate = new Candidate(nodeId, slot.nodeCandidateId, slot);
+					slot.holder = candidate;
+					slots.add(slot);
+					candidates.add(candidate);
+					if (nodeCandidates.stream().noneMatch(c -> c.getId().equals(slot.nodeCandidateId))) {
+						nodeCandidates.add(node.getNodeCandidate());
+					}
+				}
+				/* Spread the spares over the node candidates of the requested workers */
+				for (int i = 0; i < speculativeSpareWorkers; i++) {
+					NodeCandidate nodeCandidate = nodeCandidates.get(i % nodeCandidates.size());
+					Node spare = new Node();
+					spare.setName(cluster.getName() + "-spare-" + UUID.randomUUID().toString().substring(0, 8));
+					spare.setNodeCandidate(nodeCandidate);
+					spare.setSpeculative(true);
+					spare = nodeRepository.save(spare);
+					cluster.getNodes().add(spare);
+					candidates.add(new Candidate(spare.getId(), nodeCandidate.getId(), null));
+				}
+				clusterRepository.save(cluster);
+				return null;
+			});
+		}
+
+		private void checkDiscarded(Candidate candidate) {
+			if (candidate.discarded) {
+				throw new CancellationException("Worker node " + candidate.nodeId + " discarded");
+			}
+		}
+
+		private void runCandidate(Candidate candidate) {
+			List<ScriptPhase> phases;
+			try {
+				/* The join command is only needed by the join phase, created meanwhile */
+				createClusterNode(jobId, candidate.nodeId).join();
+				checkDiscarded(candidate);
+				waitForNodeSsh(jobId, candidate.nodeId).join();
+				checkDiscarded(candidate);
+				phases = getWorkerInstallPhases(jobId);
+				executeScriptPhasesAtNode(jobId, candidate.nodeId, "Install worker node", phases, 0,
+						phases.size() - 1).join();
+			} catch (RuntimeException e) {
+				if (!candidate.discarded) {
+					log.error("Error installing worker node {}: {}", candidate.nodeId, e.getMessage());
+				}
+				end(candidate, false);
+				return;
+			}
+			Slot slot = claim(candidate);
+			if (slot == null) {
+				end(candidate, true);
+				return;
+			}
+			boolean joined = false;
+			try {
+				if (candidate.ownSlot != slot) {
+					takeOverDefinition(candidate, slot);
+				}
+				List<ScriptPhase> joinPhases = ScriptUtils.withJoinCommand(phases, kubeJoinCommand.join());
+				executeScriptPhasesAtNode(jobId, candidate.nodeId, "Join worker node " + slot.name, joinPhases,
+						joinPhases.size() - 1, joinPhases.size()).join();
+				joined = true;
+			} catch (RuntimeException e) {
+				log.error("Error joining worker node {}: {}", slot.name, e.getMessage());
+			}
+			lock.lock();
+			try {
+				slot.resolved = true;
+				log.info("Worker {} {}", slot.name, joined ? "joined" : "failed to join");
+			} finally {
+				lock.unlock();
+			}
+			end(candidate, true);
+		}
+
+		/**
+		 * Waits for a definition this installed candidate can take. A requested
+		 * worker can only take its own, unless a spare already took it over. A spare
+		 * can take one of the same node candidate whose worker failed, or that is not
+		 * installed by the straggler deadline.
+		 * 
+		 * @return The definition taken, or null if the candidate is not needed
+		 */
+		private Slot claim(Candidate candidate) {
+			lock.lock();
+			try {
+				while (true) {
+					if (candidate.ownSlot != null) {
+						Slot slot = candidate.ownSlot;
+						if (slot.holder == candidate && !slot.claimed) {
+							slot.claimed = true;
+							return slot;
+						}
+						if (slot.replacedAt != null && !slot.savingRecorded) {
+							recordSaving(slot, System.currentTimeMillis() - slot.replacedAt, false);
+						}
+						return null;
+					}
+					if (finished) {
+						return null;
+					}
+					long now = System.currentTimeMillis();
+					Slot open = slots.stream()
+							.filter(s -> !s.claimed && s.nodeCandidateId.equals(candidate.nodeCandidateId)
+									&& (s.originalFailed || now >= deadline))
+							.findFirst().orElse(null);
+					if (open != null) {
+						open.claimed = true;
+						open.holder.held = null;
+						open.holder = candidate;
+						open.replacedAt = now;
+						candidate.held = open;
+						replaced++;
+						return open;
+					}
+					if (slots.stream()
+							.noneMatch(s -> !s.claimed && s.nodeCandidateId.equals(candidate.nodeCandidateId))) {
+						return null;
+					}
+					changed.await(Math.max(1, deadline - now), TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Moves the definition name from the node of the straggling or failed
+		 * requested worker to the node of the spare replacing it.
+		 */
+		private void takeOverDefinition(Candidate spare, Slot slot) {
+			log.info("Spare node {} replaces worker {}", spare.nodeId, slot.name);
+			TransactionTemplate template = new TransactionTemplate(transactionManager);
+			template.execute(status -> {
+				Node straggler = nodeRepository.findById(slot.nodeId)
+						.orElseThrow(() -> new IllegalArgumentException("Node not found"));
+				straggler.setName(slot.name + "-straggler");
+				straggler.setSpeculative(true);
+				nodeRepository.save(straggler);
+				Node node = nodeRepository.findById(spare.nodeId)
+						.orElseThrow(() -> new IllegalArgumentException("Node not found"));
+				node.setName(slot.name);
+				node.setSpeculative(false);
+				nodeRepository.save(node);
+				return null;
+			});
+		}
+
+		private void recordSaving(Slot slot, long millis, boolean lowerBound) {
+			slot.savingRecorded = true;
+			savedMillis += millis;
+			log.info("Replacing worker {} saved {}{} ms", slot.name, lowerBound ? "at least " : "", millis);
+		}
+
+		/**
+		 * Marks a candidate as ended and settles what follows from it: its node is
+		 * discarded if it does not hold a definition, a failed requested worker opens
+		 * its definition to the spares, and the wave finishes once every definition
+		 * is resolved.
+		 */
+		private void end(Candidate candidate, boolean installed) {
+			List<Candidate> toDiscard = new ArrayList<>();
+			List<Candidate> toTerminate = new ArrayList<>();
+			boolean finishNow = false;
+			lock.lock();
+			try {
+				candidate.ended = true;
+				if (!installed && candidate.ownSlot != null && candidate.ownSlot.holder == candidate) {
+					candidate.ownSlot.originalFailed = true;
+				}
+				/* Definitions nobody can fill anymore */
+				for (Slot slot : slots) {
+					if (!slot.resolved && !slot.claimed && slot.originalFailed
+							&& candidates.stream().noneMatch(c -> c.ownSlot == null && !c.ended && c.held == null
+									&& c.nodeCandidateId.equals(slot.nodeCandidateId))) {
+						slot.resolved = true;
+						log.warn("Worker {} failed and no spare is left to replace it", slot.name);
+					}
+				}
+				if (!finished && slots.stream().allMatch(s -> s.resolved)) {
+					finished = true;
+					finishNow = true;
+					long now = System.currentTimeMillis();
+					for (Candidate c : candidates) {
+						if (c.held == null && !c.ended) {
+							c.discarded = true;
+							toTerminate.add(c);
+						}
+					}
+					for (Slot slot : slots) {
+						if (slot.replacedAt != null && !slot.savingRecorded) {
+							// The straggler is still not installed
+							recordSaving(slot, now - slot.replacedAt, true);
+						}
+					}
+				}
+				for (Candidate c : candidates) {
+					if (c.ended && c.held == null && !c.discardStarted) {
+						c.discardStarted = true;
+						toDiscard.add(c);
+					}
+				}
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			for (Candidate c : toTerminate) {
+				terminateNodeInstance(c.nodeId);
+			}
+			for (Candidate c : toDiscard) {
+				try {
+					discardWorkerNode(jobId, c.nodeId);
+				} catch (RuntimeException e) {
+					log.error("Error discarding worker node {}: {}", c.nodeId, e.getMessage());
+				}
+			}
+			if (finishNow) {
+				report();
+				done.complete(null);
+			}
+		}
+
+		private void report() {
+			long elapsed = System.currentTimeMillis() - start;
+			log.info("Speculative worker wave for job {} done in {} ms: {} of {} workers replaced by spares, saved {} ms",
+					jobId, elapsed, replaced, slots.size(), savedMillis);
+			TransactionTemplate template = new TransactionTemplate(transactionManager);
+			template.execute(status -> {
+				Job job = jobRepository.findById(jobId).orElseThrow(() -> new IllegalArgumentException("job not found"));
+				job.getVariables().merge("speculativeSparesUsed", String.valueOf(replaced),
+						(a, b) -> String.valueOf(Long.parseLong(a) + Long.parseLong(b)));
+				job.getVariables().merge("speculativeLatencySavedMillis", String.valueOf(savedMillis),
+						(a, b) -> String.valueOf(Long.parseLong(a) + Long.parseLong(b)));
+				jobRepository.save(job);
+				return null;
+			});
+		}
 	}
 
 	/**
-	 * Creates all worker nodes for a cluster.
+	 * Creates all worker nodes for a cluster. The worker VMs are provisioned in
+	 * parallel while a single kubeadm join command is obtained from the master,
+	 * which is then fanned out to every worker. Workers that already joined the
+	 * cluster, as recorded before a restart, are left alone. With speculative spare
+	 * workers enabled, the wave is run by a {@link SpeculativeWorkerWave}. Spares
+	 * and stragglers left by a wave interrupted by a restart are discarded first.
 	 * 
 	 * @param deployClusterJobId The id of the deploy cluster job
 	 * @return A CompletableFuture that completes when all worker nodes are created.
 	 *         Does not throw an exception if any worker node creation fails.
 	 */
-	private CompletableFuture<Void> createWorkerNodes(String deployClusterJobId) {
+	CompletableFuture<Void> createWorkerNodes(String deployClusterJobId) {
 		log.info("Creating worker nodes");
 		TransactionTemplate template = new TransactionTemplate(transactionManager);
 		final List<Pair<String, String>> nodeIdsAndNamesW = new ArrayList<>();
+		final List<String> speculativeNodeIdsW = new ArrayList<>();
 		template.execute(status -> {
 			Job deployClusterJob = jobRepository.findById(deployClusterJobId)
 					.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
 			Cluster cluster = deployClusterJob.getCluster();
-			nodeIdsAndNamesW.addAll(
-					cluster.getWorkerNodes().stream().map(node -> Pair.of(node.getId(), node.getName())).toList());
+			nodeIdsAndNamesW.addAll(cluster.getWorkerNodes().stream()
+					.filter(node -> node.getDeploymentStep() != DeploymentStep.JOINED)
+					.map(node -> Pair.of(node.getId(), node.getName())).toList());
+			speculativeNodeIdsW
+					.addAll(cluster.getNodes().stream().filter(Node::isSpeculative).map(Node::getId).toList());
 			return null;
 		});
+		for (String nodeId : speculativeNodeIdsW) {
+			try {
+				discardWorkerNode(deployClusterJobId, nodeId);
+			} catch (RuntimeException e) {
+				log.error("Error discarding worker node {}: {}", nodeId, e.getMessage());
+			}
+		}
+		if (nodeIdsAndNamesW.isEmpty()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<String> kubeJoinCommand = getKubeadmJoinCommand(deployClusterJobId);
+		if (speculativeSpareWorkers > 0) {
+			return new SpeculativeWorkerWave(deployClusterJobId,
+					nodeIdsAndNamesW.stream().map(Pair::getFirst).toList(), kubeJoinCommand).run();
+		}
 		return CompletableFuture.allOf(nodeIdsAndNamesW.stream()
-				.map(nodeIdAndName -> createWorkerNode(deployClusterJobId, nodeIdAndName.getFirst()))
+				.map(nodeIdAndName -> createWorkerNode(deployClusterJobId, nodeIdAndName.getFirst(), kubeJoinCommand))
 				.toArray(CompletableFuture[]::new));
 	}
 
 	@Async
-	public void deployCluster(String clusterId) {
+	public void deployCluster(String clusterId, String callbackUrl) {
 		log.info("Deploying cluster: {}", clusterId);
+		// A new master issues new tokens
+		evictKubeadmJoinCommand(clusterId);
 		TransactionTemplate template = new TransactionTemplate(transactionManager);
 		/*
 		 * Transactionally create the deploy cluster job associated with the provided
 		 * clusterId.
 		 */
-		final String[] masterNodeIdW = new String[1];
-		final String[][] workerNodeIdsW = new String[1][];
 		String deployClusterJobId = template.execute(status -> {
 			Cluster cluster = clusterRepository.findById(clusterId)
 					.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+			// The applications applied to a previous master are not on the new one
+			cluster.setAppliedApplications(new HashMap<>());
+			clusterRepository.save(cluster);
 			DeployClusterJob deployClusterJob = new DeployClusterJob();
 			deployClusterJob.setCluster(cluster);
 			deployClusterJob.setCreatedAt(new Date());
@@ -418,16 +1177,41 @@ public class DeployClusterService {
 			deployClusterJob.setVariables(new HashMap<>());
 			deployClusterJob.setStatus(JobStatus.CREATED);
 			deployClusterJob.setTasks(new ArrayList<>());
+			deployClusterJob.setCallbackUrl(callbackUrl);
 			deployClusterJob = jobRepository.save(deployClusterJob);
-			masterNodeIdW[0] = deployClusterJob.getCluster().getMasterNode().getId();
-			workerNodeIdsW[0] = deployClusterJob.getCluster().getWorkerNodes().stream().map(Node::getId)
-					.toArray(String[]::new);
 			return deployClusterJob.getJobId();
 		});
+		runDeployment(deployClusterJobId);
+	}
+
+	/**
+	 * Resumes a deploy cluster job that was interrupted, for instance by a restart.
+	 * Nodes continue from the last deployment step persisted for them; see
+	 * {@link DeploymentRecoveryService}.
+	 * 
+	 * @param deployClusterJobId The id of the deploy cluster job
+	 * @return A CompletableFuture that completes when the deployment has ended,
+	 *         successfully or not
+	 */
+	public CompletableFuture<Void> resumeDeployment(String deployClusterJobId) {
+		log.info("Resuming deploy cluster job: {}", deployClusterJobId);
+		return CompletableFuture.runAsync(() -> runDeployment(deployClusterJobId), deploymentExecutor);
+	}
+
+	private void runDeployment(String deployClusterJobId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.execute(status -> {
+			Job deployClusterJob = jobRepository.findById(deployClusterJobId)
+					.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
+			deployClusterJob.setStatus(JobStatus.IN_PROGRESS);
+			deployClusterJob.setUpdatedAt(new Date());
+			jobRepository.save(deployClusterJob);
+			return null;
+		});
 		try {
 			/* Create the master node and, if successful, create all worker nodes. */
-			//createMasterNode(deployClusterJobId).thenAccept(v -> createWorkerNodes(deployClusterJobId)).join();
-			createWorkerNodes(deployClusterJobId);
+			createMasterNode(deployClusterJobId).thenCompose(v -> createWorkerNodes(deployClusterJobId)).join();
+			jobSchedulerService.forgetJob(deployClusterJobId);
 			/* Update the deploy cluster job status to COMPLETED. */
 			template.execute(status -> {
 				Job deployClusterJob = jobRepository.findById(deployClusterJobId)
@@ -435,18 +1219,204 @@ public class DeployClusterService {
 				deployClusterJob.setStatus(JobStatus.COMPLETED);
 				deployClusterJob.setEndedAt(new Date());
 				deployClusterJob = jobRepository.save(deployClusterJob);
+				deployClusterJob.getCluster().setStatus(ClusterStatus.DEPLOYED);
+				clusterRepository.save(deployClusterJob.getCluster());
 				return null;
 			});
 
 		} catch (Exception e) {
 			log.error("Error deploying cluster: {}", e.getMessage());
-			Job deployClusterJob = jobRepository.findById(deployClusterJobId)
-					.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
-			deployClusterJob.setStatus(JobStatus.FAILED);
-			deployClusterJob.setEndedAt(new Date());
-			deployClusterJob = jobRepository.save(deployClusterJob);
+			jobSchedulerService.forgetJob(deployClusterJobId);
+			template.execute(status -> {
+				Job deployClusterJob = jobRepository.findById(deployClusterJobId)
+						.orElseThrow(() -> new IllegalArgumentException("DeployClusterJob not found"));
+				deployClusterJob.setStatus(JobStatus.FAILED);
+				deployClusterJob.setEndedAt(new Date());
+				deployClusterJob = jobRepository.save(deployClusterJob);
+				deployClusterJob.getCluster().setStatus(ClusterStatus.FAILED);
+				clusterRepository.save(deployClusterJob.getCluster());
+				return null;
+			});
 			// TODO: delete the master node and all worker nodes
 		}
 
 	}
+
+	/**
+	 * A scale-out wave of a cluster, run as one ScaleOutJob. The nodes of scale-out
+	 * requests arriving while a wave is running are merged into it: they start at
+	 * once and share its job instead of waiting for it to end.
+	 */
+	private class ScaleOutWave {
+		final String clusterId;
+		/** Completed with the id of the job of the wave, created outside scaleOutLock */
+		final CompletableFuture<String> jobId = new CompletableFuture<>();
+		final List<String> nodeIds = new ArrayList<>();
+		int pending;
+
+		ScaleOutWave(String clusterId) {
+			this.clusterId = clusterId;
+		}
+	}
+
+	/** Running scale-out wave per cluster id, guarded by scaleOutLock */
+	private final Map<String, ScaleOutWave> scaleOutWaves = new HashMap<>();
+	private final ReentrantLock scaleOutLock = new ReentrantLock();
+
+	/**
+	 * Scales out a cluster with the given worker nodes, already added to it. The
+	 * workers are provisioned in parallel, share a kubeadm join command obtained
+	 * once through the master and join concurrently. Once every worker of the wave
+	 * is done, the cluster is set back to DEPLOYED, or FAILED if a worker did not
+	 * join.
+	 * 
+	 * The request is handed over to the deployment executor, so this can be called
+	 * from a transaction synchronization.
+	 * 
+	 * @param clusterId The id of the cluster
+	 * @param nodeIds   The ids of the new worker nodes
+	 */
+	public void scaleOut(String clusterId, List<String> nodeIds) {
+		log.info("Scaling out cluster {} with {} nodes", clusterId, nodeIds.size());
+		deploymentExecutor.execute(() -> addToScaleOutWave(clusterId, null, nodeIds));
+	}
+
+	/**
+	 * Resumes a scale-out job that was interrupted, for instance by a restart,
+	 * with the workers of its cluster that have not joined yet.
+	 * 
+	 * @param scaleOutJobId The id of the scale-out job
+	 */
+	public void resumeScaleOut(String scaleOutJobId) {
+		log.info("Resuming scale-out job: {}", scaleOutJobId);
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		final String[] clusterIdW = new String[1];
+		final List<String> nodeIdsW = new ArrayList<>();
+		template.execute(status -> {
+			Job scaleOutJob = jobRepository.findById(scaleOutJobId)
+					.orElseThrow(() -> new IllegalArgumentException("ScaleOutJob not found"));
+			Cluster cluster = scaleOutJob.getCluster();
+			clusterIdW[0] = cluster.getClusterId();
+			nodeIdsW.addAll(cluster.getWorkerNodes().stream()
+					.filter(node -> node.getDeploymentStep() != DeploymentStep.JOINED).map(Node::getId).toList());
+			return null;
+		});
+		addToScaleOutWave(clusterIdW[0], scaleOutJobId, nodeIdsW);
+	}
+
+	/**
+	 * Adds workers to the running scale-out wave of a cluster, or starts a wave
+	 * with them. The job of a new wave is created once the wave is registered and
+	 * scaleOutLock released; requests merged into the wave meanwhile wait for it.
+	 * 
+	 * @param clusterId     The id of the cluster
+	 * @param scaleOutJobId The job to run a new wave as, null to create one
+	 * @param nodeIds       The ids of the workers
+	 * @return The id of the job of the wave
+	 */
+	String addToScaleOutWave(String clusterId, String scaleOutJobId, List<String> nodeIds) {
+		ScaleOutWave wave;
+		boolean started = false;
+		scaleOutLock.lock();
+		try {
+			wave = scaleOutWaves.get(clusterId);
+			if (wave == null) {
+				wave = new ScaleOutWave(clusterId);
+				scaleOutWaves.put(clusterId, wave);
+				started = true;
+			}
+			wave.nodeIds.addAll(nodeIds);
+			wave.pending += nodeIds.size();
+		} finally {
+			scaleOutLock.unlock();
+		}
+		final ScaleOutWave waveW = wave;
+		if (started) {
+			try {
+				wave.jobId.complete(scaleOutJobId != null ? scaleOutJobId : createScaleOutJob(clusterId));
+			} catch (RuntimeException e) {
+				wave.jobId.completeExceptionally(e);
+				scaleOutLock.lock();
+				try {
+					scaleOutWaves.remove(clusterId, wave);
+				} finally {
+					scaleOutLock.unlock();
+				}
+				throw e;
+			}
+			log.info("Starting scale-out wave {} of cluster {} with {} nodes", wave.jobId.join(), clusterId,
+					nodeIds.size());
+		} else {
+			log.info("Merging {} nodes into the running scale-out wave {} of cluster {}", nodeIds.size(),
+					wave.jobId.join(), clusterId);
+		}
+		String jobId = wave.jobId.join();
+		if (nodeIds.isEmpty()) {
+			deploymentExecutor.execute(() -> workerDone(waveW, 0));
+			return jobId;
+		}
+		/* Reuses the join command of the wave while its token is valid */
+		CompletableFuture<String> kubeJoinCommand = getKubeadmJoinCommand(jobId);
+		for (String nodeId : nodeIds) {
+			createWorkerNode(jobId, nodeId, kubeJoinCommand).whenComplete((v, e) -> workerDone(waveW, 1));
+		}
+		return jobId;
+	}
+
+	private String createScaleOutJob(String clusterId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		return template.execute(status -> {
+			Cluster cluster = clusterRepository.findById(clusterId)
+					.orElseThrow(() -> new IllegalArgumentException("Cluster not found"));
+			ScaleOutJob scaleOutJob = new ScaleOutJob();
+			scaleOutJob.setCluster(cluster);
+			scaleOutJob.setCreatedAt(new Date());
+			scaleOutJob.setUpdatedAt(new Date());
+			scaleOutJob.setEndedAt(null);
+			scaleOutJob.setVariables(new HashMap<>());
+			scaleOutJob.setStatus(JobStatus.IN_PROGRESS);
+			scaleOutJob.setTasks(new ArrayList<>());
+			scaleOutJob = jobRepository.save(scaleOutJob);
+			return scaleOutJob.getJobId();
+		});
+	}
+
+	/**
+	 * Counts done workers of a scale-out wave and, once none is pending anymore,
+	 * ends the wave: updates its job and sets the cluster back to DEPLOYED, or to
+	 * FAILED if a worker did not join.
+	 */
+	private void workerDone(ScaleOutWave wave, int done) {
+		scaleOutLock.lock();
+		try {
+			wave.pending -= done;
+			if (wave.pending > 0) {
+				return;
+			}
+			scaleOutWaves.remove(wave.clusterId, wave);
+		} finally {
+			scaleOutLock.unlock();
+		}
+		String jobId = wave.jobId.join();
+		jobSchedulerService.forgetJob(jobId);
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.execute(status -> {
+			Job scaleOutJob = jobRepository.findById(jobId)
+					.orElseThrow(() -> new IllegalArgumentException("ScaleOutJob not found"));
+			Cluster cluster = scaleOutJob.getCluster();
+			long failed = cluster.getNodes().stream()
+					.filter(node -> wave.nodeIds.contains(node.getId())
+							&& node.getDeploymentStep() != DeploymentStep.JOINED)
+					.count();
+			scaleOutJob.setStatus(failed == 0 ? JobStatus.COMPLETED : JobStatus.FAILED);
+			scaleOutJob.setEndedAt(new Date());
+			scaleOutJob.setUpdatedAt(new Date());
+			jobRepository.save(scaleOutJob);
+			cluster.setStatus(failed == 0 ? ClusterStatus.DEPLOYED : ClusterStatus.FAILED);
+			clusterRepository.save(cluster);
+			log.info("Scale-out wave {} of cluster {} done: {} of {} nodes joined", jobId, wave.clusterId,
+					wave.nodeIds.size() - failed, wave.nodeIds.size());
+			return null;
+		});
+	}
 }
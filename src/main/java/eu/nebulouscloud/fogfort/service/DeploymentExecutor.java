@@ -0,0 +1,155 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Executor for deployment work. Every task runs on its own virtual thread, so
+ * orchestration steps can block on each other without starving a shared pool.
+ *
+ * Operations that load a cloud account or a cluster (creating nodes, running
+ * scripts) are additionally bounded by a concurrency cap per cloud account and
+ * per cluster. Tasks waiting for a permit are reported as queued, those holding
+ * one as active.
+ */
+@Service("DeploymentExecutor")
+public class DeploymentExecutor implements Executor {
+
+	@Value("${fogfort.deployment.max-concurrent-per-cloud:32}")
+	private int maxConcurrentPerCloud;
+
+	@Value("${fogfort.deployment.max-concurrent-per-cluster:16}")
+	private int maxConcurrentPerCluster;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	private final ExecutorService executorService = Executors
+			.newThreadPerTaskExecutor(Thread.ofVirtual().name("deployment-", 0).factory());
+	private final Map<String, Semaphore> cloudPermits = new ConcurrentHashMap<>();
+	private final Map<String, Semaphore> clusterPermits = new ConcurrentHashMap<>();
+	private final AtomicInteger activeTasks = new AtomicInteger();
+	private final AtomicInteger queuedTasks = new AtomicInteger();
+
+	@PostConstruct
+	public void init() {
+		Gauge.builder("fogfort.deployment.tasks.active", activeTasks, AtomicInteger::get)
+				.description("Deployment operations currently running").register(meterRegistry);
+		Gauge.builder("fogfort.deployment.tasks.queued", queuedTasks, AtomicInteger::get)
+				.description("Deployment operations waiting for a cloud or cluster permit").register(meterRegistry);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executorService.shutdownNow();
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		executorService.execute(command);
+	}
+
+	/**
+	 * Runs a blocking operation in the calling thread once a permit for the given
+	 * cloud account and cluster is available.
+	 *
+	 * @param cloudId   The cloud account the operation loads, or null
+	 * @param clusterId The cluster the operation belongs to, or null
+	 * @param operation The operation to run
+	 * @return The result of the operation
+	 */
+	public <T> T callWithLimits(String cloudId, String clusterId, Supplier<T> operation) {
+		acquire(cloudId, clusterId);
+		try {
+			return operation.get();
+		} finally {
+			release(cloudId, clusterId);
+		}
+	}
+
+	/**
+	 * Starts an asynchronous operation once a permit for the given cloud account
+	 * and cluster is available. The permit is held until the returned future
+	 * completes.
+	 *
+	 * @param cloudId   The cloud account the operation loads, or null
+	 * @param clusterId The cluster the operation belongs to, or null
+	 * @param operation Starts the operation and returns its completion
+	 * @return The completion of the operation
+	 */
+	public <T> CompletableFuture<T> runWithLimits(String cloudId, String clusterId,
+			Supplier<CompletableFuture<T>> operation) {
+		acquire(cloudId, clusterId);
+		CompletableFuture<T> completion;
+		try {
+			completion = operation.get();
+		} catch (RuntimeException e) {
+			release(cloudId, clusterId);
+			throw e;
+		}
+		return completion.whenComplete((result, e) -> release(cloudId, clusterId));
+	}
+
+	private void acquire(String cloudId, String clusterId) {
+		queuedTasks.incrementAndGet();
+		Semaphore clusterPermit = permit(clusterPermits, clusterId, maxConcurrentPerCluster);
+		Semaphore cloudPermit = permit(cloudPermits, cloudId, maxConcurrentPerCloud);
+		try {
+			/* Always acquire cluster before cloud so waiting tasks can't deadlock */
+			if (clusterPermit != null) {
+				clusterPermit.acquire();
+			}
+			if (cloudPermit != null) {
+				try {
+					cloudPermit.acquire();
+				} catch (InterruptedException e) {
+					if (clusterPermit != null) {
+						clusterPermit.release();
+					}
+					throw e;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a deployment permit", e);
+		} finally {
+			queuedTasks.decrementAndGet();
+		}
+		activeTasks.incrementAndGet();
+	}
+
+	private void release(String cloudId, String clusterId) {
+		activeTasks.decrementAndGet();
+		Semaphore cloudPermit = permit(cloudPermits, cloudId, maxConcurrentPerCloud);
+		if (cloudPermit != null) {
+			cloudPermit.release();
+		}
+		Semaphore clusterPermit = permit(clusterPermits, clusterId, maxConcurrentPerCluster);
+		if (clusterPermit != null) {
+			clusterPermit.release();
+		}
+	}
+
+	private static Semaphore permit(Map<String, Semaphore> permits, String key, int maxConcurrent) {
+		if (key == null) {
+			return null;
+		}
+		return permits.computeIfAbsent(key, k -> new Semaphore(maxConcurrent, true));
+	}
+}
@@ -0,0 +1,143 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.cloud.CloudManager;
+import eu.nebulouscloud.fogfort.cloud.CloudProvider;
+import eu.nebulouscloud.fogfort.cloud.CloudProvider.NodeCreationDetails;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.JobType;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resumes the cluster deployments and scale-outs that were interrupted by a
+ * restart of FogFort. Before a deployment is resumed, the persisted state of its nodes is
+ * reconciled with the cloud: a node whose instance was launched but not yet
+ * recorded is adopted, and a node whose recorded instance no longer exists is
+ * provisioned again.
+ */
+@Service("DeploymentRecoveryService")
+@Slf4j
+public class DeploymentRecoveryService {
+
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private NodeRepository nodeRepository;
+	@Autowired
+	private CloudManager cloudManager;
+	@Autowired
+	private DeployClusterService deployClusterService;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${fogfort.deployment.resume-on-startup:true}")
+	private boolean resumeOnStartup;
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumeInterruptedDeployments() {
+		if (!resumeOnStartup) {
+			return;
+		}
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		final List<String> jobIdsW = new ArrayList<>();
+		final List<String> scaleOutJobIdsW = new ArrayList<>();
+		final List<String> nodeIdsW = new ArrayList<>();
+		template.execute(status -> {
+			List<Job> jobs = new ArrayList<>();
+			jobs.addAll(jobRepository.findByJobTypeAndStatusIn(JobType.DEPLOY_CLUSTER,
+					List.of(JobStatus.CREATED, JobStatus.IN_PROGRESS)));
+			jobs.addAll(jobRepository.findByJobTypeAndStatusIn(JobType.SCALE_OUT,
+					List.of(JobStatus.CREATED, JobStatus.IN_PROGRESS)));
+			for (Job job : jobs) {
+				if (job.getCluster() == null) {
+					continue;
+				}
+				(job.getJobType() == JobType.SCALE_OUT ? scaleOutJobIdsW : jobIdsW).add(job.getJobId());
+				job.getCluster().getNodes().stream().filter(node -> node.getDeploymentStep() != DeploymentStep.JOINED)
+						.map(Node::getId).forEach(nodeIdsW::add);
+			}
+			return null;
+		});
+		if (jobIdsW.isEmpty() && scaleOutJobIdsW.isEmpty()) {
+			return;
+		}
+		log.info("Resuming {} interrupted cluster deployments and {} scale-outs", jobIdsW.size(),
+				scaleOutJobIdsW.size());
+		for (String nodeId : nodeIdsW) {
+			try {
+				reconcileNode(nodeId);
+			} catch (RuntimeException e) {
+				log.error("Error reconciling node {}: {}", nodeId, e.getMessage());
+			}
+		}
+		for (String jobId : jobIdsW) {
+			deployClusterService.resumeDeployment(jobId);
+		}
+		for (String jobId : scaleOutJobIdsW) {
+			deployClusterService.resumeScaleOut(jobId);
+		}
+	}
+
+	/**
+	 * Reconciles the persisted state of a node with the instance the cloud
+	 * provider has for it.
+	 *
+	 * @param nodeId The id of the node
+	 */
+	void reconcileNode(String nodeId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		Node node = template.execute(status -> {
+			Node n = nodeRepository.findById(nodeId).orElseThrow(() -> new IllegalArgumentException("node not found"));
+			n.getNodeCandidate().getCloud().getCredentials();
+			n.getNodeCandidate().getCloud().getSshCredentials();
+			n.getNodeCandidate().getLocation();
+			return n;
+		});
+		CloudProvider cloudProvider = cloudManager
+				.getCloudProvider(node.getNodeCandidate().getCloud().getCloudProvider());
+		TaskExecutionWithResult<NodeCreationDetails> found = cloudProvider.findNode(node.getNodeCandidate().getCloud(),
+				node);
+		if (!found.isSuccess()) {
+			throw new RuntimeException("Failed to look up instance of node " + node.getName());
+		}
+		NodeCreationDetails details = found.getResult();
+		template.execute(status -> {
+			Node n = nodeRepository.findById(nodeId).orElseThrow(() -> new IllegalArgumentException("node not found"));
+			if (details != null && n.getDeploymentStep() == DeploymentStep.NONE) {
+				log.info("Adopting instance {} for node {}", details.getProviderId(), n.getName());
+				n.setProviderId(details.getProviderId());
+				n.setNodeUrl(details.getNodeUrl());
+				n.setSshConnectionParameters(details.getSshConnectionParameters());
+				n.setStatus(Node.NodeStatus.CREATED);
+				n.setDeploymentStep(DeploymentStep.PROVISIONED);
+				nodeRepository.save(n);
+			} else if (details == null && n.getDeploymentStep() != DeploymentStep.NONE) {
+				log.info("Instance {} of node {} no longer exists, provisioning it again", n.getProviderId(),
+						n.getName());
+				n.setProviderId(null);
+				n.setNodeUrl(null);
+				n.setSshConnectionParameters(null);
+				n.setStatus(Node.NodeStatus.PENDING);
+				n.setDeploymentStep(DeploymentStep.NONE);
+				nodeRepository.save(n);
+			}
+			return null;
+		});
+	}
+}
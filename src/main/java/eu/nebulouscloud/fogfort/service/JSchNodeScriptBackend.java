@@ -0,0 +1,288 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import eu.nebulouscloud.fogfort.model.jobs.Task.TaskExecution;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import eu.nebulouscloud.fogfort.util.LogWrapper;
+import eu.nebulouscloud.fogfort.util.ScriptOutputPump;
+import eu.nebulouscloud.fogfort.util.StagedScript;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs scripts over JSch. Sessions are leased from the {@link SSHSessionPool}
+ * and output is pushed by the JSch transport threads, one per session.
+ */
+@Service("JSchNodeScriptBackend")
+@ConditionalOnProperty(name = "fogfort.ssh.backend", havingValue = "jsch", matchIfMissing = true)
+@Slf4j
+public class JSchNodeScriptBackend implements NodeScriptBackend {
+
+	/** How often the output of running scripts is flushed to their task log */
+	private static final long OUTPUT_FLUSH_INTERVAL_MILLIS = 1000;
+	/** How long to wait for the exit status once the script output reached EOF */
+	private static final long EXIT_STATUS_WAIT_MILLIS = 10000;
+	private static final long EXIT_STATUS_POLL_MILLIS = 10;
+
+	@Autowired
+	private SSHSessionPool sshSessionPool;
+
+	@Autowired
+	private DeploymentExecutor deploymentExecutor;
+
+	@Value("${fogfort.ssh.script-staging:false}")
+	private boolean scriptStaging;
+
+	/**
+	 * Shared scheduler enforcing timeouts and flushing output for all running
+	 * scripts, so that no thread is held while a script runs
+	 */
+	private ScheduledExecutorService scheduler;
+
+	@PostConstruct
+	public void init() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "node-script-runner-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Override
+	public CompletableFuture<Void> runScript(String script, SSHConnectionParameters sshConnectionParameters,
+			TaskExecution result, Long timeout, OutputStream output) {
+		ScriptExecution execution = new ScriptExecution(result, output);
+		CompletableFuture.runAsync(() -> execution.start(script, sshConnectionParameters, timeout), deploymentExecutor);
+		return execution.completion;
+	}
+
+	/**
+	 * The state of a single script execution. Output is pushed by the SSH
+	 * transport into a {@link ScriptOutputPump}; the execution finishes on EOF
+	 * and exit status, on timeout, or when the session is lost.
+	 */
+	private class ScriptExecution {
+		private final TaskExecution result;
+		private final OutputStream output;
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final List<ScheduledFuture<?>> timers = new CopyOnWriteArrayList<>();
+		private LogWrapper logWrapper;
+		private SSHSessionPool.Lease lease;
+		private ChannelExec channel;
+		private ScriptOutputPump outputPump;
+		private String target;
+		private long eofAt;
+
+		ScriptExecution(TaskExecution result, OutputStream output) {
+			this.result = result;
+			this.output = output;
+		}
+
+		void start(String script, SSHConnectionParameters sshConnectionParameters, Long timeout) {
+			try {
+				logWrapper = new LogWrapper(log, result.getOutputLogFileName());
+				logWrapper.info("Starting script execution at " + new Date());
+				target = NodeScriptBackend.validate(sshConnectionParameters);
+
+				logWrapper.info("Connecting to {} via SSH", target);
+				result.setStart(new Date());
+
+				// Lease a connected session from the pool
+				lease = sshSessionPool.lease(sshConnectionParameters);
+				logWrapper.info("SSH connection established to {}", target);
+
+				String command = script;
+				if (scriptStaging) {
+					StagedScript stagedScript = new StagedScript(script);
+					boolean uploaded = stageScript(stagedScript);
+					logWrapper.info(uploaded ? "Staged script {} ({} bytes, {} compressed)"
+							: "Script {} ({} bytes, {} compressed) already staged", stagedScript.getHash(),
+							stagedScript.getSize(), stagedScript.getCompressed().length);
+					command = stagedScript.getRunCommand(uploaded);
+				}
+
+				outputPump = new ScriptOutputPump(output != null ? output
+						: LogFileUtils.getInstance().getLogOutputStream(result.getOutputLogFileName()),
+						() -> scheduler.execute(this::onEof));
+				channel = (ChannelExec) lease.getSession().openChannel("exec");
+				// The transport closes stdout on EOF, which signals the pump
+				channel.setOutputStream(outputPump.getStdout(), false);
+				channel.setErrStream(outputPump.getStderr(), true);
+
+				logWrapper.debug("Executing script ({} bytes)", script.length());
+				channel.setCommand(command);
+				logWrapper.debug("Connecting to channel");
+				channel.connect();
+				logWrapper.debug("Channel connected");
+
+				if (timeout != null) {
+					timers.add(scheduler.schedule(() -> {
+						logWrapper.error("Script execution timed out after " + timeout + "ms");
+						finish(-1, false);
+					}, timeout, TimeUnit.MILLISECONDS));
+				}
+				timers.add(scheduler.scheduleWithFixedDelay(this::checkProgress, OUTPUT_FLUSH_INTERVAL_MILLIS,
+						OUTPUT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+				if (finished.get()) {
+					// The script ended before the timers were armed
+					timers.forEach(timer -> timer.cancel(false));
+				}
+			} catch (JSchException e) {
+				logError("SSH connection error", e);
+				finish(-1, true);
+			} catch (Exception e) {
+				logError("Error executing script via SSH", e);
+				finish(-1, false);
+			}
+		}
+
+		/**
+		 * Uploads the compressed script over SFTP unless the node already holds a
+		 * script with the same hash.
+		 * 
+		 * @return Whether the script was uploaded
+		 */
+		private boolean stageScript(StagedScript stagedScript) throws JSchException, SftpException {
+			ChannelSftp sftp = (ChannelSftp) lease.getSession().openChannel("sftp");
+			sftp.connect();
+			try {
+				if (exists(sftp, stagedScript.getScriptPath())) {
+					return false;
+				}
+				String directory = "";
+				for (String segment : StagedScript.STAGING_DIRECTORY.split("/")) {
+					directory = directory.isEmpty() ? segment : directory + "/" + segment;
+					if (!exists(sftp, directory)) {
+						sftp.mkdir(directory);
+					}
+				}
+				sftp.put(new ByteArrayInputStream(stagedScript.getCompressed()), stagedScript.getUploadPath());
+				return true;
+			} finally {
+				sftp.disconnect();
+			}
+		}
+
+		private boolean exists(ChannelSftp sftp, String path) throws SftpException {
+			try {
+				sftp.stat(path);
+				return true;
+			} catch (SftpException e) {
+				if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					return false;
+				}
+				throw e;
+			}
+		}
+
+		/**
+		 * Called once the script output reached EOF. The exit status normally
+		 * arrives together with the EOF; it is awaited briefly otherwise.
+		 */
+		private void onEof() {
+			if (eofAt == 0) {
+				eofAt = System.currentTimeMillis();
+			}
+			if (channel.isClosed() || channel.getExitStatus() != -1) {
+				finish(channel.getExitStatus(), false);
+			} else if (System.currentTimeMillis() - eofAt > EXIT_STATUS_WAIT_MILLIS) {
+				logWrapper.warn("No exit status received from {} after end of output", target);
+				finish(-1, false);
+			} else {
+				scheduler.schedule(this::onEof, EXIT_STATUS_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * Periodic task flushing the output to the log and detecting channels or
+		 * sessions that closed without an EOF.
+		 */
+		private void checkProgress() {
+			outputPump.flush();
+			if (!lease.getSession().isConnected()) {
+				logWrapper.error("SSH session to {} was lost", target);
+				finish(-1, true);
+			} else if (channel.isClosed()) {
+				finish(channel.getExitStatus(), false);
+			}
+		}
+
+		private void logError(String message, Exception e) {
+			if (logWrapper != null) {
+				logWrapper.error(message, e);
+			} else {
+				log.error(message, e);
+			}
+		}
+
+		private void finish(int exitStatus, boolean sessionBroken) {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				timers.forEach(timer -> timer.cancel(false));
+				// Clean up resources
+				if (channel != null && channel.isConnected()) {
+					channel.disconnect();
+				}
+				if (outputPump != null) {
+					outputPump.close();
+					result.setScriptResults(outputPump.getScriptResults());
+				}
+				if (lease != null) {
+					if (sessionBroken) {
+						lease.invalidate();
+					}
+					lease.close();
+				}
+				// Record end time
+				result.setEnd(new Date());
+				result.setSuccess(exitStatus == 0);
+				result.setExitStatus(exitStatus >= 0 ? exitStatus : null);
+				if (logWrapper != null) {
+					logWrapper.info("Script execution ended at " + new Date());
+					if (exitStatus != 0) {
+						logWrapper.warn("Script execution failed with exit status {} on {}", exitStatus, target);
+					} else {
+						logWrapper.info("Script executed successfully on {}", target);
+					}
+					logWrapper.close();
+				}
+			} catch (Exception e) {
+				log.error("Error finishing script execution on {}", target, e);
+				result.setSuccess(false);
+			} finally {
+				completion.complete(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,420 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+/**
+ * Moves ended jobs out of the database and the log store into compressed
+ * archives.
+ *
+ * Jobs that ended more than fogfort.jobs.retention-days ago are archived a
+ * batch at a time, then deleted together with their tasks and execution logs.
+ * Each batch is written to one ZIP archive per day its jobs ended,
+ * jobs-yyyy-MM-dd-&lt;n&gt;.zip under fogfort.jobs.archive-directory, so
+ * archiving never rewrites earlier archives. A job archived again after its
+ * delete failed is read from the last archive holding it. In an archive, each job has a &lt;jobId&gt;/job.json entry and
+ * the log of each execution a &lt;jobId&gt;/tasks/&lt;taskId&gt;/&lt;index&gt;.log
+ * entry. Entries are compressed separately, so reading an archived job or log
+ * only inflates that entry. Archived jobs and tasks are found through an index
+ * of entry names, read from the archives on startup.
+ */
+@Service("JobArchiveService")
+@Slf4j
+public class JobArchiveService {
+
+	private static final List<JobStatus> ENDED_STATUSES = List.of(JobStatus.COMPLETED, JobStatus.FAILED,
+			JobStatus.CANCELLED);
+	private static final int ARCHIVE_BATCH_SIZE = 100;
+	private static final String ARCHIVE_PREFIX = "jobs-";
+	private static final String ARCHIVE_SUFFIX = ".zip";
+	private static final String JOB_ENTRY = "job.json";
+
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	/** Days after its end a job is archived, 0 to keep jobs in the database */
+	@Value("${fogfort.jobs.retention-days:30}")
+	private int retentionDays;
+
+	@Value("${fogfort.jobs.archive-interval-millis:3600000}")
+	private long archiveIntervalMillis;
+
+	@Value("${fogfort.jobs.archive-directory:${fogfort.data.home:data}/archive}")
+	private String archiveDirectory;
+
+	/** The archive of each archived job */
+	private final Map<String, Path> archivedJobs = new ConcurrentHashMap<>();
+
+	private record ArchivedTask(Path archive, String jobId) {
+	}
+
+	/** The archive of each task of an archived job */
+	private final Map<String, ArchivedTask> archivedTasks = new ConcurrentHashMap<>();
+	/** Keeps archive runs from writing the same archive at once */
+	private final ReentrantLock archiveLock = new ReentrantLock();
+	/** Number of the last archive of each day, guarded by archiveLock */
+	private final Map<LocalDate, Integer> lastArchiveNumbers = new HashMap<>();
+	private ScheduledExecutorService archiver;
+
+	@PostConstruct
+	public void init() throws IOException {
+		Path directory = Path.of(archiveDirectory);
+		Files.createDirectories(directory);
+		List<Path> archives = new ArrayList<>();
+		try (DirectoryStream<Path> found = Files.newDirectoryStream(directory, ARCHIVE_PREFIX + "*" + ARCHIVE_SUFFIX)) {
+			for (Path archive : found) {
+				try {
+					lastArchiveNumbers.merge(getArchiveDay(archive), getArchiveNumber(archive), Math::max);
+					archives.add(archive);
+				} catch (RuntimeException e) {
+					log.error("Skipping job archive {} with an unexpected name", archive);
+				}
+			}
+		}
+		// Later archives of a day win for jobs archived twice
+		archives.sort(Comparator.comparing(JobArchiveService::getArchiveDay)
+				.thenComparing(JobArchiveService::getArchiveNumber));
+		for (Path archive : archives) {
+			try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+				indexEntries(archive, zipFile);
+			} catch (IOException e) {
+				log.error("Skipping unreadable job archive {}: {}", archive, e.getMessage());
+			}
+		}
+		log.info("{} archived jobs in {}", archivedJobs.size(), directory.toAbsolutePath());
+		if (retentionDays > 0) {
+			archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "job-archiver");
+				thread.setDaemon(true);
+				return thread;
+			});
+			archiver.scheduleWithFixedDelay(() -> {
+				try {
+					archiveJobs(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays)));
+				} catch (RuntimeException | IOException e) {
+					log.error("Failed to archive jobs: {}", e.getMessage());
+				}
+			}, archiveIntervalMillis, archiveIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (archiver != null) {
+			archiver.shutdownNow();
+		}
+	}
+
+	/**
+	 * Archives and deletes the jobs that ended before the given date, a batch at a
+	 * time.
+	 *
+	 * @return The number of jobs archived
+	 */
+	public int archiveJobs(Date endedBefore) throws IOException {
+		archiveLock.lock();
+		try {
+			TransactionTemplate template = new TransactionTemplate(transactionManager);
+			int archived = 0;
+			List<String> jobIds;
+			do {
+				jobIds = template.execute(status -> jobRepository.findIdsEndedBefore(ENDED_STATUSES, endedBefore,
+						PageRequest.of(0, ARCHIVE_BATCH_SIZE)));
+				if (!jobIds.isEmpty()) {
+					archiveBatch(jobIds);
+					archived += jobIds.size();
+				}
+			} while (jobIds.size() == ARCHIVE_BATCH_SIZE);
+			if (archived > 0) {
+				log.info("Archived {} jobs ended before {}", archived, endedBefore);
+			}
+			return archived;
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+	private void archiveBatch(List<String> jobIds) throws IOException {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		Map<String, String[]> clusters = new HashMap<>();
+		List<Job> jobs = template.execute(status -> {
+			List<Job> found = jobRepository.findAllById(jobIds);
+			// Load what is archived with the job before it is detached
+			for (Job job : found) {
+				if (job.getCluster() != null) {
+					clusters.put(job.getJobId(),
+							new String[] { job.getCluster().getClusterId(), job.getCluster().getName() });
+				}
+				if (job.getVariables() != null) {
+					job.getVariables().size();
+				}
+				if (job.getTasks() != null) {
+					for (Task task : job.getTasks()) {
+						if (task.getExecutions() != null) {
+							task.getExecutions().size();
+						}
+					}
+				}
+			}
+			return found;
+		});
+
+		Map<LocalDate, List<Job>> jobsByDay = new TreeMap<>();
+		for (Job job : jobs) {
+			// The cluster may be gone by the time the job is read, only its identity is kept
+			job.setCluster(null);
+			jobsByDay.computeIfAbsent(LocalDate.ofInstant(job.getEndedAt().toInstant(), ZoneOffset.UTC),
+					day -> new ArrayList<>()).add(job);
+		}
+		for (Map.Entry<LocalDate, List<Job>> entry : jobsByDay.entrySet()) {
+			writeArchive(entry.getKey(), entry.getValue(), clusters);
+		}
+
+		/* Only delete what is safely archived */
+		List<String> logNames = new ArrayList<>();
+		template.execute(status -> {
+			for (Job job : jobRepository.findAllById(jobIds)) {
+				if (job.getTasks() != null) {
+					for (Task task : job.getTasks()) {
+						if (task.getExecutions() != null) {
+							task.getExecutions().forEach(execution -> logNames.add(execution.getOutputLogFileName()));
+						}
+					}
+				}
+				jobRepository.delete(job);
+			}
+			return null;
+		});
+		for (String logName : logNames) {
+			if (logName == null || logName.isEmpty()) {
+				continue;
+			}
+			try {
+				LogFileUtils.getInstance().deleteOutputLog(logName);
+			} catch (IOException e) {
+				log.warn("Failed to delete archived log {}: {}", logName, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Writes jobs that ended on the given day to a new archive. The archive is
+	 * written to a temporary file and moved in place, so readers always see a
+	 * complete archive.
+	 */
+	private void writeArchive(LocalDate day, List<Job> jobs, Map<String, String[]> clusters) throws IOException {
+		int number = lastArchiveNumbers.merge(day, 1, Integer::sum);
+		Path archive = Path.of(archiveDirectory, ARCHIVE_PREFIX + day + "-" + number + ARCHIVE_SUFFIX);
+		Path temporary = archive.resolveSibling(archive.getFileName() + ".tmp");
+		try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(temporary))) {
+			for (Job job : jobs) {
+				writeJob(output, job, clusters.get(job.getJobId()));
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		Files.move(temporary, archive, StandardCopyOption.ATOMIC_MOVE);
+		try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+			indexEntries(archive, zipFile);
+		}
+	}
+
+	/**
+	 * @param cluster The id and name of the cluster of the job, null if it has
+	 *                none
+	 */
+	private void writeJob(ZipOutputStream output, Job job, String[] cluster) throws IOException {
+		ObjectNode node = objectMapper.valueToTree(job);
+		node.remove("cluster");
+		node.put("clusterId", cluster != null ? cluster[0] : null);
+		node.put("clusterName", cluster != null ? cluster[1] : null);
+		output.putNextEntry(new ZipEntry(job.getJobId() + "/" + JOB_ENTRY));
+		output.write(objectMapper.writeValueAsBytes(node));
+		output.closeEntry();
+
+		if (job.getTasks() == null) {
+			return;
+		}
+		LogFileUtils logFileUtils = LogFileUtils.getInstance();
+		for (Task task : job.getTasks()) {
+			if (task.getExecutions() == null) {
+				continue;
+			}
+			for (int i = 0; i < task.getExecutions().size(); i++) {
+				String logName = task.getExecutions().get(i).getOutputLogFileName();
+				if (logName == null || logName.isEmpty() || logFileUtils.getLogLength(logName) == 0) {
+					continue;
+				}
+				output.putNextEntry(new ZipEntry(job.getJobId() + "/tasks/" + task.getId() + "/" + i + ".log"));
+				try (InputStream input = logFileUtils.getLogInputStream(logName)) {
+					input.transferTo(output);
+				}
+				output.closeEntry();
+			}
+		}
+	}
+
+	private void indexEntries(Path archive, ZipFile zipFile) {
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while (entries.hasMoreElements()) {
+			String[] parts = entries.nextElement().getName().split("/");
+			if (parts.length == 2 && JOB_ENTRY.equals(parts[1])) {
+				archivedJobs.put(parts[0], archive);
+			} else if (parts.length == 4 && "tasks".equals(parts[1])) {
+				archivedTasks.put(parts[2], new ArchivedTask(archive, parts[0]));
+			}
+		}
+	}
+
+	/**
+	 * @return The day of an archive named jobs-yyyy-MM-dd[-n].zip
+	 */
+	private static LocalDate getArchiveDay(Path archive) {
+		String fileName = archive.getFileName().toString();
+		return LocalDate.parse(fileName.substring(ARCHIVE_PREFIX.length(), ARCHIVE_PREFIX.length() + 10));
+	}
+
+	/**
+	 * @return The number of an archive named jobs-yyyy-MM-dd[-n].zip, 0 for
+	 *         archives of a day written as a single file
+	 */
+	private static int getArchiveNumber(Path archive) {
+		String fileName = archive.getFileName().toString();
+		String number = fileName.substring(ARCHIVE_PREFIX.length() + 10, fileName.length() - ARCHIVE_SUFFIX.length());
+		return number.isEmpty() ? 0 : Integer.parseInt(number.substring(1));
+	}
+
+	/**
+	 * @return The archived jobs by the day they ended
+	 */
+	public Map<String, List<String>> getArchivedJobIds() {
+		Map<String, List<String>> jobIdsByDay = new TreeMap<>();
+		archivedJobs.forEach((jobId, archive) -> jobIdsByDay
+				.computeIfAbsent(getArchiveDay(archive).toString(), d -> new ArrayList<>()).add(jobId));
+		jobIdsByDay.values().forEach(jobIds -> jobIds.sort(null));
+		return jobIdsByDay;
+	}
+
+	/**
+	 * @return An archived job as it was returned by the job API, with the id and
+	 *         name of its cluster instead of the cluster
+	 */
+	public Optional<JsonNode> getArchivedJob(String jobId) throws IOException {
+		Path archive = archivedJobs.get(jobId);
+		if (archive == null) {
+			return Optional.empty();
+		}
+		try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+			ZipEntry entry = zipFile.getEntry(jobId + "/" + JOB_ENTRY);
+			if (entry == null) {
+				return Optional.empty();
+			}
+			try (InputStream input = zipFile.getInputStream(entry)) {
+				return Optional.of(objectMapper.readTree(input));
+			}
+		}
+	}
+
+	public boolean isArchivedTask(String taskId) {
+		return archivedTasks.containsKey(taskId);
+	}
+
+	/**
+	 * The log of an execution of an archived task.
+	 */
+	public record ArchivedLog(long length, InputStream content) {
+	}
+
+	/**
+	 * @return The log of an execution of an archived task, empty if it has no
+	 *         output. Closing the content closes the archive.
+	 */
+	public Optional<ArchivedLog> getArchivedLog(String taskId, int executionIndex) throws IOException {
+		ArchivedTask archivedTask = archivedTasks.get(taskId);
+		if (archivedTask == null) {
+			return Optional.empty();
+		}
+		ZipFile zipFile = new ZipFile(archivedTask.archive().toFile());
+		try {
+			ZipEntry entry = zipFile.getEntry(archivedTask.jobId() + "/tasks/" + taskId + "/" + executionIndex + ".log");
+			if (entry == null) {
+				zipFile.close();
+				return Optional.empty();
+			}
+			return Optional.of(new ArchivedLog(entry.getSize(), new FilterInputStream(zipFile.getInputStream(entry)) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						zipFile.close();
+					}
+				}
+			}));
+		} catch (IOException | RuntimeException e) {
+			zipFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Copies the log of an execution of an archived task from a byte offset.
+	 */
+	public static void transferArchivedLog(ArchivedLog archivedLog, long offset, OutputStream output)
+			throws IOException {
+		try (InputStream input = archivedLog.content()) {
+			input.skipNBytes(Math.min(offset, archivedLog.length()));
+			input.transferTo(output);
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import eu.nebulouscloud.fogfort.dto.JobNotification;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.JobType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.DiscriminatorValue;
+import lombok.extern.slf4j.Slf4j;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Tells the clients waiting for a job, and the callback URL of the job, that
+ * the job has ended.
+ *
+ * Ends reported by the entity listener are handled once their transaction
+ * commits. Callbacks are POSTed asynchronously with the {@link JobNotification}
+ * of the job as body, signed with the configured secret, and retried with an
+ * exponential backoff until the receiver answers with a 2xx status. Callback
+ * URLs are refused while no secret is configured, so callbacks are never sent
+ * unsigned. At most queue-size deliveries are pending at once, further ones are
+ * dropped. A job is notified when its status changes to an ended one, and again
+ * when a callback URL is set on it once it has ended, so receivers may get a
+ * job more than once.
+ */
+@Service("JobNotificationService")
+@Slf4j
+public class JobNotificationService {
+
+	/** HMAC-SHA256 of the body, as sha256=&lt;hex&gt; */
+	public static final String SIGNATURE_HEADER = "X-Fogfort-Signature";
+	private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	/** Key the callback bodies are signed with, callbacks are refused when empty */
+	@Value("${fogfort.webhooks.secret:}")
+	private String secret;
+
+	/** Number of deliveries queued or waiting for a retry before further ones are dropped */
+	@Value("${fogfort.webhooks.queue-size:1000}")
+	private int queueSize;
+
+	@Value("${fogfort.webhooks.max-attempts:8}")
+	private int maxAttempts;
+
+	/** Delay before the first retry, doubled for each further one */
+	@Value("${fogfort.webhooks.initial-backoff-millis:1000}")
+	private long initialBackoffMillis;
+
+	@Value("${fogfort.webhooks.max-backoff-millis:300000}")
+	private long maxBackoffMillis;
+
+	@Value("${fogfort.webhooks.timeout-millis:10000}")
+	private long timeoutMillis;
+
+	private record Delivery(String jobId, URI url, byte[] body, int attempt) {
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Futures of the requests waiting for each job, guarded by lock */
+	private final Map<String, List<CompletableFuture<JobNotification>>> waiters = new HashMap<>();
+	/** Deliveries queued, being sent or waiting for a retry */
+	private final AtomicInteger pendingDeliveries = new AtomicInteger();
+	private HttpClient httpClient;
+	private ScheduledExecutorService deliveryQueue;
+
+	@PostConstruct
+	public void init() {
+		httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(timeoutMillis)).build();
+		deliveryQueue = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "job-webhooks");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		deliveryQueue.shutdownNow();
+		httpClient.shutdownNow();
+		if (pendingDeliveries.get() > 0) {
+			log.warn("{} job callbacks were not delivered before shutdown", pendingDeliveries.get());
+		}
+	}
+
+	/**
+	 * @return The URL, if it is an absolute http or https URL
+	 * @throws IllegalArgumentException Otherwise, or if no secret is configured to
+	 *                                  sign callbacks with
+	 */
+	public URI validateCallbackUrl(String callbackUrl) {
+		if (secret.isEmpty()) {
+			throw new IllegalArgumentException("Job callbacks are disabled, fogfort.webhooks.secret is not set");
+		}
+		try {
+			URI url = new URI(callbackUrl);
+			if (!"http".equalsIgnoreCase(url.getScheme()) && !"https".equalsIgnoreCase(url.getScheme())
+					|| url.getHost() == null) {
+				throw new IllegalArgumentException("Callback URL must be an absolute http or https URL: " + callbackUrl);
+			}
+			return url;
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid callback URL: " + callbackUrl);
+		}
+	}
+
+	public static JobNotification toNotification(Job job) {
+		JobType jobType = job.getJobType();
+		if (jobType == null) {
+			// Only read from the discriminator column once the job is loaded
+			DiscriminatorValue discriminator = Hibernate.getClass(job).getAnnotation(DiscriminatorValue.class);
+			jobType = discriminator != null ? JobType.fromValue(discriminator.value()) : JobType.UNKNOWN;
+		}
+		// The id of a lazy cluster proxy is available without loading it
+		return new JobNotification(job.getJobId(), jobType, job.getStatus(),
+				job.getCluster() != null ? job.getCluster().getClusterId() : null, job.getCreatedAt(),
+				job.getEndedAt());
+	}
+
+	public static boolean isEnded(JobStatus status) {
+		return status == JobStatus.COMPLETED || status == JobStatus.FAILED || status == JobStatus.CANCELLED;
+	}
+
+	/**
+	 * Called by the entity listener when a job is saved with a new status, and when
+	 * a callback URL is set on a job. Notifies the end of the job, if it has
+	 * ended, once the current transaction commits.
+	 */
+	public void jobChanged(Job job) {
+		if (job.getJobId() == null || !isEnded(job.getStatus())) {
+			return;
+		}
+		JobNotification notification = toNotification(job);
+		String callbackUrl = job.getCallbackUrl();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					jobEnded(notification, callbackUrl);
+				}
+			});
+		} else {
+			jobEnded(notification, callbackUrl);
+		}
+	}
+
+	/**
+	 * Registers a client waiting for a job to end. Registering before reading the
+	 * job makes sure an end in between is not missed.
+	 *
+	 * @return A future completed when the job ends, to be passed to
+	 *         {@link #stopWaiting} if the client stops waiting first
+	 */
+	public CompletableFuture<JobNotification> awaitJob(String jobId) {
+		CompletableFuture<JobNotification> future = new CompletableFuture<>();
+		lock.lock();
+		try {
+			waiters.computeIfAbsent(jobId, id -> new ArrayList<>()).add(future);
+		} finally {
+			lock.unlock();
+		}
+		return future;
+	}
+
+	public void stopWaiting(String jobId, CompletableFuture<JobNotification> future) {
+		lock.lock();
+		try {
+			List<CompletableFuture<JobNotification>> futures = waiters.get(jobId);
+			if (futures != null && futures.remove(future) && futures.isEmpty()) {
+				waiters.remove(jobId);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void jobEnded(JobNotification notification, String callbackUrl) {
+		List<CompletableFuture<JobNotification>> futures;
+		lock.lock();
+		try {
+			futures = waiters.remove(notification.getJobId());
+		} finally {
+			lock.unlock();
+		}
+		if (futures != null) {
+			futures.forEach(future -> future.complete(notification));
+		}
+		if (callbackUrl != null && !callbackUrl.isEmpty()) {
+			if (secret.isEmpty()) {
+				log.error("Not sending the callback of job {}, fogfort.webhooks.secret is not set",
+						notification.getJobId());
+				return;
+			}
+			byte[] body = objectMapper.writeValueAsBytes(notification);
+			if (pendingDeliveries.incrementAndGet() > queueSize) {
+				pendingDeliveries.decrementAndGet();
+				log.error("Job callback queue is full, dropping the callback of job {}", notification.getJobId());
+				return;
+			}
+			schedule(new Delivery(notification.getJobId(), URI.create(callbackUrl), body, 1), 0);
+		}
+	}
+
+	private void schedule(Delivery delivery, long delayMillis) {
+		try {
+			deliveryQueue.schedule(() -> send(delivery), delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			pendingDeliveries.decrementAndGet();
+		}
+	}
+
+	private void send(Delivery delivery) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(delivery.url()).timeout(Duration.ofMillis(timeoutMillis))
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(delivery.body()))
+				.header(SIGNATURE_HEADER, sign(delivery.body()));
+		httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+			if (e == null && response.statusCode() / 100 == 2) {
+				pendingDeliveries.decrementAndGet();
+				log.debug("Delivered the callback of job {} to {}", delivery.jobId(), delivery.url());
+				return;
+			}
+			String failure = e != null ? String.valueOf(e.getMessage()) : "status " + response.statusCode();
+			// Other client errors are not going to change with a retry
+			boolean retry = e != null || response.statusCode() / 100 != 4 || response.statusCode() == 408
+					|| response.statusCode() == 429;
+			if (!retry || delivery.attempt() >= maxAttempts) {
+				pendingDeliveries.decrementAndGet();
+				log.error("Giving up the callback of job {} to {} after {} attempts: {}", delivery.jobId(),
+						delivery.url(), delivery.attempt(), failure);
+				return;
+			}
+			long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(delivery.attempt() - 1, 30));
+			log.warn("Callback of job {} to {} failed ({}), retrying in {} ms", delivery.jobId(), delivery.url(),
+					failure, backoff);
+			schedule(new Delivery(delivery.jobId(), delivery.url(), delivery.body(), delivery.attempt() + 1), backoff);
+		});
+	}
+
+	/**
+	 * @return The value of the signature header of a body
+	 */
+	public String sign(byte[] body) {
+		try {
+			Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+			mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), SIGNATURE_ALGORITHM));
+			return "sha256=" + HexFormat.of().formatHex(mac.doFinal(body));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot sign the callback body", e);
+		}
+	}
+}
@@ -1,15 +1,308 @@
 package eu.nebulouscloud.fogfort.service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.TaskRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 
-@Service
+/**
+ * In-memory state of the tasks of running jobs, written to the database behind
+ * the deployment.
+ *
+ * Task state transitions (status, retries, executions) are applied to the
+ * in-memory copy of the task and read from it. A background flusher writes the
+ * tasks changed since its last run in one transaction, at most
+ * fogfort.jobs.state-flush-interval-millis after the change, so a task changed
+ * several times in between is written once. Tasks are still created in the
+ * database right away, as their ids are generated there, and jobs are written
+ * directly since their status goes with the status of their cluster.
+ */
+@Service("JobSchedulerService")
 @Slf4j
 public class JobSchedulerService {
-	Map<String, Job> jobs = new HashMap();
+
+	/** Tasks not changed for this long are dropped from memory once written */
+	private static final long IDLE_EVICTION_MILLIS = 10 * 60 * 1000L;
+
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private TaskRepository taskRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/** Longest time a task state change stays in memory only */
+	@Value("${fogfort.jobs.state-flush-interval-millis:200}")
+	private long flushIntervalMillis;
+
+	private static class TaskState {
+		/** Not attached to any persistence context, guarded by lock */
+		final Task task;
+		long version;
+		long flushedVersion;
+		long lastChange = System.currentTimeMillis();
+
+		TaskState(Task task) {
+			this.task = task;
+		}
+	}
+
+	/** The cluster id of each running job, which does not change */
+	Map<String, String> jobs = new ConcurrentHashMap<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Guarded by lock */
+	private final Map<String, TaskState> tasks = new HashMap<>();
+	/** Keeps an explicit flush from running alongside the scheduled one */
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private ScheduledExecutorService flusher;
+
+	@PostConstruct
+	public void init() {
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "job-state-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		flusher.shutdownNow();
+		flushQuietly();
+	}
+
+	/**
+	 * @return The id of the cluster of a job, read from the database once
+	 */
+	public String getClusterId(String jobId) {
+		return jobs.computeIfAbsent(jobId, id -> new TransactionTemplate(transactionManager).execute(status -> {
+			Job job = jobRepository.findById(id).orElseThrow(() -> new IllegalArgumentException("job not found"));
+			return job.getCluster() != null ? job.getCluster().getClusterId() : null;
+		}));
+	}
+
+	/**
+	 * Writes the pending task state changes and drops what is kept about a job
+	 * that ended. Called before the final status of the job is written, so the
+	 * job is never seen ended with tasks still running.
+	 */
+	public void forgetJob(String jobId) {
+		flush();
+		jobs.remove(jobId);
+	}
+
+	/**
+	 * Keeps a task just created in memory, so that its state changes are not read
+	 * back from the database. Called with the task as saved, in the transaction
+	 * that created it.
+	 */
+	public void track(Task task) {
+		Task copy = copy(task);
+		lock.lock();
+		try {
+			tasks.putIfAbsent(task.getId(), new TaskState(copy));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Applies a state change to a task. The change is visible to
+	 * {@link #getTask} at once and written to the database by the next flush.
+	 * Only the status, retry count, dates and executions of the task are written.
+	 */
+	public void updateTask(String taskId, Consumer<Task> change) {
+		TaskState state = getState(taskId);
+		lock.lock();
+		try {
+			// Put back if a flush dropped it in between
+			TaskState current = tasks.putIfAbsent(taskId, state);
+			if (current != null) {
+				state = current;
+			}
+			change.accept(state.task);
+			state.version++;
+			state.lastChange = System.currentTimeMillis();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return A copy of the current state of a task, including changes not
+	 *         written yet
+	 */
+	public Task getTask(String taskId) {
+		TaskState state = getState(taskId);
+		lock.lock();
+		try {
+			return copy(state.task);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private TaskState getState(String taskId) {
+		lock.lock();
+		try {
+			TaskState state = tasks.get(taskId);
+			if (state != null) {
+				return state;
+			}
+		} finally {
+			lock.unlock();
+		}
+		Task loaded = new TransactionTemplate(transactionManager).execute(status -> copy(
+				taskRepository.findById(taskId).orElseThrow(() -> new IllegalArgumentException("task not found"))));
+		lock.lock();
+		try {
+			return tasks.computeIfAbsent(taskId, id -> new TaskState(loaded));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the task state changes made so far to the database.
+	 */
+	public void flush() {
+		flushLock.lock();
+		try {
+			Map<String, Task> snapshots = new HashMap<>();
+			Map<String, Long> versions = new HashMap<>();
+			lock.lock();
+			try {
+				tasks.forEach((taskId, state) -> {
+					if (state.version != state.flushedVersion) {
+						snapshots.put(taskId, copy(state.task));
+						versions.put(taskId, state.version);
+					}
+				});
+			} finally {
+				lock.unlock();
+			}
+			if (!snapshots.isEmpty()) {
+				List<String> missing = new ArrayList<>();
+				new TransactionTemplate(transactionManager).execute(status -> {
+					Map<String, Task> found = new HashMap<>();
+					taskRepository.findAllById(snapshots.keySet()).forEach(task -> found.put(task.getId(), task));
+					snapshots.forEach((taskId, snapshot) -> {
+						Task task = found.get(taskId);
+						if (task == null) {
+							missing.add(taskId);
+						} else {
+							applyState(snapshot, task);
+						}
+					});
+					return null;
+				});
+				if (!missing.isEmpty()) {
+					log.warn("Dropping state changes of deleted tasks {}", missing);
+				}
+			}
+			long now = System.currentTimeMillis();
+			lock.lock();
+			try {
+				versions.forEach((taskId, version) -> {
+					TaskState state = tasks.get(taskId);
+					if (state != null) {
+						state.flushedVersion = Math.max(state.flushedVersion, version);
+					}
+				});
+				// Ended tasks are not changed any more, their state is read from the database
+				tasks.values().removeIf(state -> state.version == state.flushedVersion
+						&& (state.task.getEndedAt() != null || now - state.lastChange > IDLE_EVICTION_MILLIS));
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			log.warn("Failed to write task state changes, retrying: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Copies the state owned by this service onto a task of the persistence
+	 * context. Executions are matched by position, new ones are appended.
+	 */
+	private static void applyState(Task from, Task to) {
+		to.setStatus(from.getStatus());
+		to.setCurrentRetry(from.getCurrentRetry());
+		to.setUpdatedAt(from.getUpdatedAt());
+		to.setEndedAt(from.getEndedAt());
+		if (from.getExecutions() == null) {
+			return;
+		}
+		if (to.getExecutions() == null) {
+			to.setExecutions(new ArrayList<>());
+		}
+		List<Task.TaskExecution> executions = to.getExecutions();
+		for (int i = 0; i < from.getExecutions().size(); i++) {
+			if (i < executions.size()) {
+				executions.get(i).updateWith(from.getExecutions().get(i));
+			} else {
+				Task.TaskExecution execution = new Task.TaskExecution();
+				execution.updateWith(from.getExecutions().get(i));
+				executions.add(execution);
+			}
+		}
+	}
+
+	/**
+	 * @return A task holding the fields of another, not attached to any
+	 *         persistence context. Must be called in a transaction for a managed
+	 *         task, to load its executions.
+	 */
+	private static Task copy(Task task) {
+		Task copy = new Task();
+		copy.setId(task.getId());
+		copy.setTargetNodeId(task.getTargetNodeId());
+		copy.setDescription(task.getDescription());
+		copy.setMaxRetries(task.getMaxRetries());
+		copy.setCurrentRetry(task.getCurrentRetry());
+		copy.setCreatedAt(task.getCreatedAt());
+		copy.setUpdatedAt(task.getUpdatedAt());
+		copy.setEndedAt(task.getEndedAt());
+		copy.setStatus(task.getStatus());
+		if (task.getExecutions() != null) {
+			List<Task.TaskExecution> executions = new ArrayList<>();
+			for (Task.TaskExecution execution : task.getExecutions()) {
+				Task.TaskExecution executionCopy = new Task.TaskExecution();
+				executionCopy.updateWith(execution);
+				executions.add(executionCopy);
+			}
+			copy.setExecutions(executions);
+		}
+		return copy;
+	}
 }
@@ -0,0 +1,330 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.dto.LogSearchHit;
+import eu.nebulouscloud.fogfort.repository.TaskRepository;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import eu.nebulouscloud.fogfort.util.LogIndex;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Searches the lines of task execution logs through a {@link LogIndex}.
+ *
+ * The log of an execution is indexed once the execution has ended, as it does
+ * not change any more. The indexer regularly reads the executions that ended
+ * since the last one it indexed, going back a few minutes so that executions
+ * written late are not missed. A search matches the lines that contain every
+ * term and every quoted phrase of the query. It reads the postings of the terms
+ * newest first, checks the phrases on the lines as it goes, and stops once it
+ * has as many hits as asked for. Searches do not wait for the indexer, which only briefly locks the index
+ * to publish what it committed.
+ */
+@Service("LogSearchService")
+@Slf4j
+public class LogSearchService {
+
+	/** How far back the indexer looks before the end of the last indexed execution */
+	private static final long INDEX_OVERLAP_MILLIS = 5 * 60 * 1000L;
+	private static final int INDEX_BATCH_SIZE = 500;
+	/** Longest part of a line returned with a hit */
+	private static final int MAX_LINE_BYTES = 4096;
+	private static final Pattern QUERY_PATTERN = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+	@Autowired
+	private TaskRepository taskRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${fogfort.logs.index.enabled:true}")
+	private boolean enabled;
+
+	@Value("${fogfort.logs.index.directory:${fogfort.data.home:data}/log-index}")
+	private String indexDirectory;
+
+	@Value("${fogfort.logs.index.interval-millis:10000}")
+	private long indexIntervalMillis;
+
+	/** Number of postings kept in memory before they are written to disk */
+	@Value("${fogfort.logs.index.max-buffered-postings:200000}")
+	private int maxBufferedPostings;
+
+	/** Serializes indexer runs, searches read the index without it */
+	private final ReentrantLock lock = new ReentrantLock();
+	private LogIndex index;
+	/** End of each log indexed within the overlap, guarded by lock */
+	private final Map<String, Long> recentlyIndexed = new HashMap<>();
+	/** End of the last indexed execution, guarded by lock */
+	private long lastIndexedEnd;
+	private ScheduledExecutorService indexer;
+
+	@PostConstruct
+	public void init() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		index = new LogIndex(Path.of(indexDirectory), maxBufferedPostings, document -> {
+			try {
+				return LogFileUtils.getInstance().getLogLength(document.logName()) > 0;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		index.forEachDocument(document -> {
+			lastIndexedEnd = Math.max(lastIndexedEnd, document.end());
+			if (document.end() >= lastIndexedEnd - INDEX_OVERLAP_MILLIS) {
+				recentlyIndexed.put(document.logName(), document.end());
+			}
+		});
+		recentlyIndexed.values().removeIf(end -> end < lastIndexedEnd - INDEX_OVERLAP_MILLIS);
+		indexer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "log-indexer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		indexer.scheduleWithFixedDelay(() -> {
+			try {
+				indexEndedExecutions();
+			} catch (RuntimeException | IOException e) {
+				log.error("Failed to index execution logs: {}", e.getMessage());
+			}
+		}, indexIntervalMillis, indexIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() throws IOException {
+		if (indexer != null) {
+			indexer.shutdownNow();
+		}
+		lock.lock();
+		try {
+			if (index != null) {
+				index.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Indexes the logs of the executions that ended since the last indexed one.
+	 *
+	 * @return The number of logs indexed
+	 */
+	public int indexEndedExecutions() throws IOException {
+		if (!enabled) {
+			return 0;
+		}
+		lock.lock();
+		try {
+			TransactionTemplate template = new TransactionTemplate(transactionManager);
+			Date since = new Date(lastIndexedEnd - INDEX_OVERLAP_MILLIS);
+			LogFileUtils logFileUtils = LogFileUtils.getInstance();
+			int indexed = 0;
+			int page = 0;
+			List<Object[]> rows;
+			do {
+				final int pageNumber = page++;
+				rows = template.execute(
+						status -> taskRepository.findExecutionsEndedSince(since, PageRequest.of(pageNumber, INDEX_BATCH_SIZE)));
+				for (Object[] row : rows) {
+					String logName = (String) row[4];
+					long end = ((Date) row[5]).getTime();
+					if (logName == null || logName.isEmpty() || recentlyIndexed.containsKey(logName)) {
+						continue;
+					}
+					LogIndex.Document document = new LogIndex.Document((String) row[0], (String) row[1],
+							(String) row[2], ((Number) row[3]).intValue(), logName, end);
+					try (InputStream content = logFileUtils.getLogInputStream(logName)) {
+						index.add(document, content);
+					}
+					recentlyIndexed.put(logName, end);
+					lastIndexedEnd = Math.max(lastIndexedEnd, end);
+					indexed++;
+				}
+			} while (rows.size() == INDEX_BATCH_SIZE);
+			index.commit();
+			recentlyIndexed.values().removeIf(end -> end < lastIndexedEnd - INDEX_OVERLAP_MILLIS);
+			if (indexed > 0) {
+				log.debug("Indexed {} execution logs", indexed);
+			}
+			return indexed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Finds the log lines containing every term and quoted phrase of a query,
+	 * newest execution first. Terms are words made of letters and digits, matched
+	 * regardless of case.
+	 */
+	public List<LogSearchHit> search(String query, int limit) throws IOException {
+		if (!enabled) {
+			throw new IllegalArgumentException("Log search is disabled");
+		}
+		List<List<String>> phrases = new ArrayList<>();
+		Set<String> terms = new LinkedHashSet<>();
+		Matcher matcher = QUERY_PATTERN.matcher(query != null ? query : "");
+		while (matcher.find()) {
+			List<String> words = LogIndex.tokenize(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+			terms.addAll(words);
+			if (matcher.group(1) != null && words.size() > 1) {
+				phrases.add(words);
+			}
+		}
+		if (terms.isEmpty()) {
+			throw new IllegalArgumentException("The search query has no words");
+		}
+
+		/* Lines holding every term, found in the index, read until enough hold the phrases */
+		HitCollector collector = new HitCollector(phrases, limit);
+		try {
+			index.forEachLine(terms, collector);
+			collector.readGroup();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return collector.hits;
+	}
+
+	/**
+	 * Collects the hits of a search from the lines holding every term. The lines
+	 * of a document come one after the other, newest first; they are read a group
+	 * at a time through one stream of the log, no larger than the number of hits
+	 * still missing.
+	 */
+	private class HitCollector implements Predicate<LogIndex.Posting> {
+		private final List<List<String>> phrases;
+		private final int limit;
+		private final List<LogSearchHit> hits = new ArrayList<>();
+		private final List<LogIndex.Posting> group = new ArrayList<>();
+		/** Number of the document whose log was looked up last, -1 if none */
+		private int documentNumber = -1;
+		private LogIndex.Document document;
+		private long logLength;
+
+		HitCollector(List<List<String>> phrases, int limit) {
+			this.phrases = phrases;
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean test(LogIndex.Posting candidate) {
+			if (hits.size() >= limit) {
+				return false;
+			}
+			try {
+				if (!group.isEmpty() && (group.get(0).document() != candidate.document()
+						|| group.size() >= limit - hits.size())) {
+					readGroup();
+					if (hits.size() >= limit) {
+						return false;
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			group.add(candidate);
+			return true;
+		}
+
+		/**
+		 * Reads the lines of the group, keeping those holding every phrase.
+		 */
+		void readGroup() throws IOException {
+			if (group.isEmpty()) {
+				return;
+			}
+			if (group.get(0).document() != documentNumber) {
+				documentNumber = group.get(0).document();
+				document = index.getDocument(documentNumber);
+				logLength = LogFileUtils.getInstance().getLogLength(document.logName());
+			}
+			String[] lines = readLines(document.logName(), logLength, group);
+			for (int i = 0; i < lines.length && hits.size() < limit; i++) {
+				if (lines[i] == null) {
+					// The log was deleted or archived
+					continue;
+				}
+				List<String> lineTerms = LogIndex.tokenize(lines[i]);
+				if (phrases.stream().allMatch(phrase -> Collections.indexOfSubList(lineTerms, phrase) >= 0)) {
+					hits.add(new LogSearchHit(document.jobId(), document.taskId(), document.nodeId(),
+							document.executionIndex(), group.get(i).lineOffset(), lines[i]));
+				}
+			}
+			group.clear();
+		}
+	}
+
+	/**
+	 * Reads lines of a log through one stream, from the lowest offset up.
+	 *
+	 * @param lines The lines of the log, by decreasing offset
+	 * @return The text of each line, null for the lines the log no longer has
+	 */
+	private static String[] readLines(String logName, long logLength, List<LogIndex.Posting> lines)
+			throws IOException {
+		String[] read = new String[lines.size()];
+		long position = lines.get(lines.size() - 1).lineOffset();
+		if (position >= logLength) {
+			return read;
+		}
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		try (InputStream input = new BufferedInputStream(
+				LogFileUtils.getInstance().getLogInputStream(logName, position))) {
+			for (int i = lines.size() - 1; i >= 0; i--) {
+				long offset = lines.get(i).lineOffset();
+				if (offset >= logLength) {
+					break;
+				}
+				input.skipNBytes(offset - position);
+				position = offset;
+				line.reset();
+				int b;
+				while (line.size() < MAX_LINE_BYTES && (b = input.read()) >= 0) {
+					position++;
+					if (b == '\n') {
+						break;
+					}
+					line.write(b);
+				}
+				read[i] = line.toString(StandardCharsets.UTF_8).stripTrailing();
+			}
+		} catch (EOFException e) {
+			// The log was deleted or archived meanwhile
+		}
+		return read;
+	}
+}
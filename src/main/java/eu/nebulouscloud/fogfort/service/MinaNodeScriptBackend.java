@@ -0,0 +1,473 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.util.security.SecurityUtils;
+import org.apache.sshd.core.CoreModuleProperties;
+import org.apache.sshd.sftp.client.SftpClient;
+import org.apache.sshd.sftp.client.SftpClientFactory;
+import org.apache.sshd.sftp.common.SftpConstants;
+import org.apache.sshd.sftp.common.SftpException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import eu.nebulouscloud.fogfort.model.jobs.Task.TaskExecution;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import eu.nebulouscloud.fogfort.util.LogWrapper;
+import eu.nebulouscloud.fogfort.util.ScriptOutputPump;
+import eu.nebulouscloud.fogfort.util.StagedScript;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs scripts over the asynchronous Apache MINA SSHD client. Connecting,
+ * authenticating, opening the exec channel and receiving its output are all
+ * driven by completion listeners on a small, fixed set of NIO threads, so no
+ * thread is held per session or per running script.
+ *
+ * Sessions are shared between scripts on the same node the same way as in
+ * {@link SSHSessionPool}, honouring the same {@code fogfort.ssh.pool.*}
+ * settings.
+ */
+@Service("MinaNodeScriptBackend")
+@ConditionalOnProperty(name = "fogfort.ssh.backend", havingValue = "mina")
+@Slf4j
+public class MinaNodeScriptBackend implements NodeScriptBackend {
+
+	private static final int CONNECT_RETRIES = 3;
+	private static final long CONNECT_RETRY_INTERVAL_MILLIS = 5000;
+	/** How often the output of running scripts is flushed to their task log */
+	private static final long OUTPUT_FLUSH_INTERVAL_MILLIS = 1000;
+
+	@Value("${fogfort.ssh.mina.io-threads:4}")
+	private int ioThreads;
+
+	@Value("${fogfort.ssh.pool.max-channels-per-session:8}")
+	private int maxChannelsPerSession;
+
+	@Value("${fogfort.ssh.pool.idle-timeout-millis:300000}")
+	private long idleTimeoutMillis;
+
+	@Value("${fogfort.ssh.pool.health-check-interval-millis:60000}")
+	private long healthCheckIntervalMillis;
+
+	@Value("${fogfort.ssh.connect-timeout-millis:30000}")
+	private int connectTimeoutMillis;
+
+	@Value("${fogfort.ssh.script-staging:false}")
+	private boolean scriptStaging;
+
+	/** Runs the blocking SFTP uploads of script staging off the NIO threads */
+	@Autowired
+	private DeploymentExecutor deploymentExecutor;
+
+	private static class PooledSession {
+		final CompletableFuture<ClientSession> session = new CompletableFuture<>();
+		final AtomicInteger channels = new AtomicInteger();
+		volatile long lastUsed = System.currentTimeMillis();
+
+		boolean isUsable() {
+			return !session.isCompletedExceptionally() && (!session.isDone() || session.join().isOpen());
+		}
+	}
+
+	private SshClient client;
+	/** Parsed identities, per key fingerprint */
+	private final Map<String, KeyPair> identities = new ConcurrentHashMap<>();
+	/** Sessions per user@host:port and key fingerprint */
+	private final Map<String, List<PooledSession>> sessions = new ConcurrentHashMap<>();
+	/**
+	 * Shared scheduler for timeouts, output flushes, connection retries and idle
+	 * session eviction
+	 */
+	private ScheduledExecutorService scheduler;
+
+	@PostConstruct
+	public void init() {
+		client = SshClient.setUpDefaultClient();
+		// Disable strict host key checking, as the JSch backend does
+		client.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
+		CoreModuleProperties.NIO_WORKERS.set(client, ioThreads);
+		CoreModuleProperties.IO_CONNECT_TIMEOUT.set(client, Duration.ofMillis(connectTimeoutMillis));
+		client.start();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "mina-script-backend-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::evictIdleSessions, healthCheckIntervalMillis,
+				healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+		client.stop();
+	}
+
+	@Override
+	public CompletableFuture<Void> runScript(String script, SSHConnectionParameters sshConnectionParameters,
+			TaskExecution result, Long timeout, OutputStream output) {
+		ScriptExecution execution = new ScriptExecution(result, output);
+		execution.start(script, sshConnectionParameters, timeout);
+		return execution.completion;
+	}
+
+	/**
+	 * @return The number of sessions currently held by the backend
+	 */
+	public int getSessionCount() {
+		return sessions.values().stream().mapToInt(List::size).sum();
+	}
+
+	private PooledSession lease(String target, SSHConnectionParameters sshConnectionParameters) {
+		String fingerprint = SSHSessionPool.fingerprint(sshConnectionParameters.getPrivateKey());
+		KeyPair identity = identities.computeIfAbsent(fingerprint,
+				f -> parseIdentity(sshConnectionParameters.getPrivateKey()));
+		List<PooledSession> pooledSessions = sessions.computeIfAbsent(target + "#" + fingerprint,
+				k -> new ArrayList<>());
+		synchronized (pooledSessions) {
+			Iterator<PooledSession> iterator = pooledSessions.iterator();
+			while (iterator.hasNext()) {
+				PooledSession pooledSession = iterator.next();
+				if (!pooledSession.isUsable()) {
+					iterator.remove();
+					continue;
+				}
+				if (pooledSession.channels.get() < maxChannelsPerSession) {
+					pooledSession.channels.incrementAndGet();
+					pooledSession.lastUsed = System.currentTimeMillis();
+					return pooledSession;
+				}
+			}
+			/*
+			 * The pending session is pooled right away so concurrent callers for the same
+			 * node share it instead of connecting one each.
+			 */
+			PooledSession pooledSession = new PooledSession();
+			pooledSession.channels.incrementAndGet();
+			pooledSessions.add(pooledSession);
+			connect(target, sshConnectionParameters, identity, pooledSession.session, 0);
+			return pooledSession;
+		}
+	}
+
+	private void release(PooledSession pooledSession, boolean sessionBroken) {
+		pooledSession.lastUsed = System.currentTimeMillis();
+		pooledSession.channels.decrementAndGet();
+		if (sessionBroken) {
+			pooledSession.session.thenAccept(session -> session.close(true));
+		}
+	}
+
+	private void connect(String target, SSHConnectionParameters sshConnectionParameters, KeyPair identity,
+			CompletableFuture<ClientSession> session, int attempt) {
+		try {
+			client.connect(sshConnectionParameters.getUsername(), sshConnectionParameters.getIpAddress().getValue(),
+					NodeScriptBackend.getPort(sshConnectionParameters)).addListener(connectFuture -> {
+						if (!connectFuture.isConnected()) {
+							retryConnect(target, sshConnectionParameters, identity, session, attempt,
+									connectFuture.getException());
+							return;
+						}
+						ClientSession clientSession = connectFuture.getSession();
+						clientSession.addPublicKeyIdentity(identity);
+						try {
+							clientSession.auth().addListener(authFuture -> {
+								if (authFuture.isSuccess()) {
+									log.info("SSH session established to {}", target);
+									session.complete(clientSession);
+								} else {
+									clientSession.close(true);
+									retryConnect(target, sshConnectionParameters, identity, session, attempt,
+											authFuture.getException());
+								}
+							});
+						} catch (Exception e) {
+							clientSession.close(true);
+							retryConnect(target, sshConnectionParameters, identity, session, attempt, e);
+						}
+					});
+		} catch (Exception e) {
+			retryConnect(target, sshConnectionParameters, identity, session, attempt, e);
+		}
+	}
+
+	private void retryConnect(String target, SSHConnectionParameters sshConnectionParameters, KeyPair identity,
+			CompletableFuture<ClientSession> session, int attempt, Throwable cause) {
+		if (attempt + 1 >= CONNECT_RETRIES) {
+			session.completeExceptionally(cause);
+			return;
+		}
+		log.error("Error connecting to {} via SSH, retrying in 5 seconds... ({}/{})", target, attempt + 1,
+				CONNECT_RETRIES, cause);
+		scheduler.schedule(() -> connect(target, sshConnectionParameters, identity, session, attempt + 1),
+				CONNECT_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static KeyPair parseIdentity(String privateKey) {
+		try {
+			Iterable<KeyPair> keyPairs = SecurityUtils.loadKeyPairIdentities(null, NamedResource.ofName("fogfort"),
+					new ByteArrayInputStream(privateKey.getBytes(StandardCharsets.UTF_8)), null);
+			if (keyPairs == null || !keyPairs.iterator().hasNext()) {
+				throw new IllegalArgumentException("Invalid SSH private key");
+			}
+			return keyPairs.iterator().next();
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Invalid SSH private key", e);
+		}
+	}
+
+	/**
+	 * Closes sessions that have carried no channel for longer than the idle
+	 * timeout.
+	 */
+	private void evictIdleSessions() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, List<PooledSession>> entry : sessions.entrySet()) {
+			List<PooledSession> pooledSessions = entry.getValue();
+			synchronized (pooledSessions) {
+				Iterator<PooledSession> iterator = pooledSessions.iterator();
+				while (iterator.hasNext()) {
+					PooledSession pooledSession = iterator.next();
+					if (!pooledSession.isUsable()) {
+						iterator.remove();
+					} else if (pooledSession.channels.get() == 0 && pooledSession.session.isDone()
+							&& now - pooledSession.lastUsed > idleTimeoutMillis) {
+						log.debug("Evicting idle SSH session to {}", entry.getKey());
+						iterator.remove();
+						pooledSession.session.join().close(false);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The state of a single script execution. Every step continues from a
+	 * completion listener of the previous one; the execution finishes when the
+	 * channel closes, on timeout, or when connecting fails.
+	 */
+	private class ScriptExecution {
+		private final TaskExecution result;
+		private final OutputStream output;
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final List<ScheduledFuture<?>> timers = new CopyOnWriteArrayList<>();
+		private LogWrapper logWrapper;
+		private PooledSession pooledSession;
+		private volatile ChannelExec channel;
+		private ScriptOutputPump outputPump;
+		private String target;
+
+		ScriptExecution(TaskExecution result, OutputStream output) {
+			this.result = result;
+			this.output = output;
+		}
+
+		void start(String script, SSHConnectionParameters sshConnectionParameters, Long timeout) {
+			try {
+				logWrapper = new LogWrapper(log, result.getOutputLogFileName());
+				logWrapper.info("Starting script execution at " + new Date());
+				target = NodeScriptBackend.validate(sshConnectionParameters);
+
+				logWrapper.info("Connecting to {} via SSH", target);
+				result.setStart(new Date());
+				if (timeout != null) {
+					timers.add(scheduler.schedule(() -> {
+						logWrapper.error("Script execution timed out after " + timeout + "ms");
+						finish(-1, false);
+					}, timeout, TimeUnit.MILLISECONDS));
+				}
+
+				pooledSession = lease(target, sshConnectionParameters);
+				pooledSession.session.whenComplete((session, e) -> {
+					if (e != null) {
+						logError("SSH connection error", e);
+						finish(-1, false);
+					} else if (scriptStaging) {
+						stageScript(session, script);
+					} else {
+						openChannel(session, script);
+					}
+				});
+			} catch (Exception e) {
+				logError("Error executing script via SSH", e);
+				finish(-1, false);
+			}
+		}
+
+		/**
+		 * Uploads the compressed script over SFTP unless the node already holds a
+		 * script with the same hash, then runs it by path.
+		 */
+		private void stageScript(ClientSession session, String script) {
+			StagedScript stagedScript = new StagedScript(script);
+			CompletableFuture.supplyAsync(() -> {
+				try (SftpClient sftp = SftpClientFactory.instance().createSftpClient(session)) {
+					if (exists(sftp, stagedScript.getScriptPath())) {
+						return false;
+					}
+					String directory = "";
+					for (String segment : StagedScript.STAGING_DIRECTORY.split("/")) {
+						directory = directory.isEmpty() ? segment : directory + "/" + segment;
+						if (!exists(sftp, directory)) {
+							sftp.mkdir(directory);
+						}
+					}
+					try (OutputStream output = sftp.write(stagedScript.getUploadPath())) {
+						output.write(stagedScript.getCompressed());
+					}
+					return true;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, deploymentExecutor).whenComplete((uploaded, e) -> {
+				if (e != null) {
+					logError("Error staging script via SFTP", e);
+					finish(-1, !session.isOpen());
+					return;
+				}
+				logWrapper.info(uploaded ? "Staged script {} ({} bytes, {} compressed)"
+						: "Script {} ({} bytes, {} compressed) already staged", stagedScript.getHash(),
+						stagedScript.getSize(), stagedScript.getCompressed().length);
+				openChannel(session, stagedScript.getRunCommand(uploaded));
+			});
+		}
+
+		private boolean exists(SftpClient sftp, String path) throws IOException {
+			try {
+				sftp.stat(path);
+				return true;
+			} catch (SftpException e) {
+				if (e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_FILE) {
+					return false;
+				}
+				throw e;
+			}
+		}
+
+		private void openChannel(ClientSession session, String command) {
+			try {
+				logWrapper.info("SSH connection established to {}", target);
+				if (finished.get()) {
+					// Timed out while connecting
+					return;
+				}
+				outputPump = new ScriptOutputPump(output != null ? output
+						: LogFileUtils.getInstance().getLogOutputStream(result.getOutputLogFileName()), () -> {
+						});
+				logWrapper.debug("Executing command ({} bytes)", command.length());
+				ChannelExec channelExec = session.createExecChannel(command);
+				// Output is pushed into the pump from the NIO threads as it arrives
+				channelExec.setOut(outputPump.getStdout());
+				channelExec.setErr(outputPump.getStderr());
+				channelExec.addCloseFutureListener(closeFuture -> {
+					Integer exitStatus = channelExec.getExitStatus();
+					if (exitStatus == null && !session.isOpen()) {
+						logWrapper.error("SSH session to {} was lost", target);
+						finish(-1, true);
+					} else {
+						finish(exitStatus != null ? exitStatus : -1, false);
+					}
+				});
+				channel = channelExec;
+				if (finished.get()) {
+					// Ended while the channel was set up, finish may have missed the pump
+					channelExec.close(true);
+					outputPump.close();
+					return;
+				}
+				channelExec.open().addListener(openFuture -> {
+					if (!openFuture.isOpened()) {
+						logError("Error opening SSH channel", openFuture.getException());
+						finish(-1, !session.isOpen());
+					}
+				});
+				timers.add(scheduler.scheduleWithFixedDelay(outputPump::flush, OUTPUT_FLUSH_INTERVAL_MILLIS,
+						OUTPUT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+				if (finished.get()) {
+					timers.forEach(timer -> timer.cancel(false));
+				}
+			} catch (Exception e) {
+				logError("Error executing script via SSH", e);
+				finish(-1, !session.isOpen());
+			}
+		}
+
+		private void logError(String message, Throwable e) {
+			if (logWrapper != null) {
+				logWrapper.error(message, e);
+			} else {
+				log.error(message, e);
+			}
+		}
+
+		private void finish(int exitStatus, boolean sessionBroken) {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				timers.forEach(timer -> timer.cancel(false));
+				if (channel != null && !channel.isClosed()) {
+					channel.close(true);
+				}
+				if (outputPump != null) {
+					outputPump.close();
+					result.setScriptResults(outputPump.getScriptResults());
+				}
+				if (pooledSession != null) {
+					release(pooledSession, sessionBroken);
+				}
+				result.setEnd(new Date());
+				result.setSuccess(exitStatus == 0);
+				result.setExitStatus(exitStatus >= 0 ? exitStatus : null);
+				if (logWrapper != null) {
+					logWrapper.info("Script execution ended at " + new Date());
+					if (exitStatus != 0) {
+						logWrapper.warn("Script execution failed with exit status {} on {}", exitStatus, target);
+					} else {
+						logWrapper.info("Script executed successfully on {}", target);
+					}
+					logWrapper.close();
+				}
+			} catch (Exception e) {
+				log.error("Error finishing script execution on {}", target, e);
+				result.setSuccess(false);
+			} finally {
+				completion.complete(null);
+			}
+		}
+	}
+}
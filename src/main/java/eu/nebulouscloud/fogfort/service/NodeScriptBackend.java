@@ -0,0 +1,80 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import eu.nebulouscloud.fogfort.model.jobs.Task.TaskExecution;
+
+/**
+ * SSH transport used by {@link NodeScriptRunner} to run scripts on nodes. The
+ * implementation is selected with the {@code fogfort.ssh.backend} property:
+ * {@code jsch} (default) or {@code mina}.
+ */
+public interface NodeScriptBackend {
+
+	/**
+	 * Runs a script on a node over SSH. The returned future completes once the
+	 * script exits, times out or the connection fails; the outcome is recorded in
+	 * the given task execution rather than by completing the future exceptionally.
+	 *
+	 * @param script                  The script to run
+	 * @param sshConnectionParameters The parameters to connect to the node
+	 * @param result                  The task execution the output and outcome
+	 *                                are recorded in
+	 * @param timeout                 The timeout in milliseconds, or null to wait
+	 *                                indefinitely
+	 * @return A future completed when the script execution has ended
+	 */
+	default CompletableFuture<Void> runScript(String script, SSHConnectionParameters sshConnectionParameters,
+			TaskExecution result, Long timeout) {
+		return runScript(script, sshConnectionParameters, result, timeout, null);
+	}
+
+	/**
+	 * Runs a script on a node over SSH, writing the output of the script to the
+	 * given stream instead of the log of the task execution. Connection messages
+	 * still go to the log of the task execution. The stream is closed once the
+	 * script ended.
+	 *
+	 * @param output The stream the output of the script is written to, or null
+	 *               for the log of the task execution
+	 * @see #runScript(String, SSHConnectionParameters, TaskExecution, Long)
+	 */
+	CompletableFuture<Void> runScript(String script, SSHConnectionParameters sshConnectionParameters,
+			TaskExecution result, Long timeout, OutputStream output);
+
+	/**
+	 * Checks that the given parameters are enough to open an SSH connection.
+	 *
+	 * @param sshConnectionParameters The parameters to check
+	 * @return The connection target, as user@host:port
+	 * @throws IllegalArgumentException If a parameter is missing
+	 */
+	static String validate(SSHConnectionParameters sshConnectionParameters) {
+		if (sshConnectionParameters == null) {
+			throw new IllegalArgumentException("SSH connection parameters cannot be null");
+		}
+
+		if (sshConnectionParameters.getIpAddress() == null
+				|| sshConnectionParameters.getIpAddress().getValue() == null) {
+			throw new IllegalArgumentException("IP address is required for SSH connection");
+		}
+
+		if (sshConnectionParameters.getUsername() == null || sshConnectionParameters.getUsername().isEmpty()) {
+			throw new IllegalArgumentException("Username is required for SSH connection");
+		}
+
+		if (sshConnectionParameters.getPrivateKey() == null || sshConnectionParameters.getPrivateKey().isEmpty()) {
+			throw new IllegalArgumentException("Private key is required for SSH connection");
+		}
+		return sshConnectionParameters.getUsername() + "@" + sshConnectionParameters.getIpAddress().getValue() + ":"
+				+ getPort(sshConnectionParameters);
+	}
+
+	static int getPort(SSHConnectionParameters sshConnectionParameters) {
+		return sshConnectionParameters.getPort() != null && !sshConnectionParameters.getPort().isEmpty()
+				? Integer.parseInt(sshConnectionParameters.getPort())
+				: 22;
+	}
+}
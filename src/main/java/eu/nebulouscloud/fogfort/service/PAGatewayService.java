@@ -10,6 +10,7 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import eu.nebulouscloud.fogfort.config.FogFortApplicationConfiguration;
@@ -27,6 +28,16 @@ public class PAGatewayService {
 	// management solution
 	private final Map<String, String> activeSessions = new ConcurrentHashMap<>();
 
+	/** How long a token opening an event stream stays valid */
+	@Value("${fogfort.events.token-ttl-millis:60000}")
+	private long eventStreamTokenTtlMillis;
+
+	private record EventStreamToken(String sessionId, long expiresAt) {
+	}
+
+	/** Tokens opening event streams, by token */
+	private final Map<String, EventStreamToken> eventStreamTokens = new ConcurrentHashMap<>();
+
 	/**
 	 * Establish connection to server
 	 * 
@@ -97,4 +108,35 @@ public class PAGatewayService {
 		return sessionId != null && activeSessions.containsKey(sessionId);
 	}
 
+	/**
+	 * Issues a short-lived token for opening an event stream. Browsers cannot set
+	 * headers on event streams and pass it in the URL instead of the session id,
+	 * so that access logs do not record the session id.
+	 * 
+	 * @param sessionId A valid session id
+	 * @return The token, valid for the configured time while the session is active
+	 */
+	public String issueEventStreamToken(String sessionId) {
+		if (!isConnectionActive(sessionId)) {
+			throw new IllegalArgumentException("Invalid or inactive session ID");
+		}
+		long now = System.currentTimeMillis();
+		eventStreamTokens.values().removeIf(token -> token.expiresAt() < now);
+		String token = UUID.randomUUID().toString();
+		eventStreamTokens.put(token, new EventStreamToken(sessionId, now + eventStreamTokenTtlMillis));
+		return token;
+	}
+
+	/**
+	 * @param token A token issued by {@link #issueEventStreamToken(String)}
+	 * @return true if the token has not expired and its session is active
+	 */
+	public boolean isEventStreamTokenValid(String token) {
+		if (fogFortApplicationConfiguration.getSecurityDisabled())
+			return true;
+		EventStreamToken eventStreamToken = token != null ? eventStreamTokens.get(token) : null;
+		return eventStreamToken != null && eventStreamToken.expiresAt() >= System.currentTimeMillis()
+				&& isConnectionActive(eventStreamToken.sessionId());
+	}
+
 }
@@ -0,0 +1,385 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool of authenticated SSH sessions. Sessions are keyed by (host, port, user,
+ * private key fingerprint) and shared between concurrent script executions,
+ * each of which opens its own exec channel on the leased session. Parsed
+ * private keys are cached per fingerprint so they are only decoded once.
+ *
+ * Idle sessions are health checked with keep-alive messages and evicted once
+ * they have not been used for the configured idle timeout.
+ *
+ * New sessions are connected outside the lock of their key, so that returning
+ * or health checking the other sessions of a node does not wait for the
+ * connection attempts. Callers needing a session while one is being connected
+ * to the same node wait for it instead of opening one each.
+ */
+@Service("SSHSessionPool")
+@Slf4j
+public class SSHSessionPool {
+
+	private static final int CONNECT_RETRIES = 3;
+	private static final long CONNECT_RETRY_INTERVAL_MILLIS = 5000;
+
+	@Value("${fogfort.ssh.pool.max-channels-per-session:8}")
+	private int maxChannelsPerSession;
+
+	@Value("${fogfort.ssh.pool.idle-timeout-millis:300000}")
+	private long idleTimeoutMillis;
+
+	@Value("${fogfort.ssh.pool.health-check-interval-millis:60000}")
+	private long healthCheckIntervalMillis;
+
+	@Value("${fogfort.ssh.connect-timeout-millis:30000}")
+	private int connectTimeoutMillis;
+
+	private record SessionKey(String host, int port, String username, String keyFingerprint) {
+		@Override
+		public String toString() {
+			return username + "@" + host + ":" + port;
+		}
+	}
+
+	private static class PooledSession {
+		final Session session;
+		int leases;
+		long lastUsed = System.currentTimeMillis();
+
+		PooledSession(Session session) {
+			this.session = session;
+		}
+	}
+
+	/**
+	 * The sessions of one key. Guarded by a ReentrantLock rather than a monitor:
+	 * leases are taken from virtual threads, and a virtual thread that blocks
+	 * while holding a monitor (connecting, logging) pins its carrier, which can
+	 * leave no carrier for the threads it waits on.
+	 */
+	private static class SessionGroup {
+		final List<PooledSession> sessions = new ArrayList<>();
+		final ReentrantLock lock = new ReentrantLock();
+		/** The session being connected, null if none, guarded by lock */
+		CompletableFuture<PooledSession> connecting;
+	}
+
+	/**
+	 * A session leased from the pool. Closing the lease returns the session to the
+	 * pool; it is not disconnected.
+	 */
+	public class Lease implements AutoCloseable {
+		private final SessionKey key;
+		private final PooledSession pooledSession;
+		private boolean released;
+
+		private Lease(SessionKey key, PooledSession pooledSession) {
+			this.key = key;
+			this.pooledSession = pooledSession;
+		}
+
+		public Session getSession() {
+			return pooledSession.session;
+		}
+
+		/**
+		 * Marks the session as broken so it is disconnected instead of being reused.
+		 */
+		public void invalidate() {
+			discard(key, pooledSession);
+		}
+
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			release(key, pooledSession);
+		}
+	}
+
+	/** JSch instances holding an already parsed identity, per key fingerprint */
+	private final Map<String, JSch> identities = new ConcurrentHashMap<>();
+	private final Map<SessionKey, SessionGroup> sessions = new ConcurrentHashMap<>();
+	private ScheduledExecutorService healthCheckScheduler;
+
+	@PostConstruct
+	public void init() {
+		healthCheckScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "ssh-session-pool-health-check");
+			thread.setDaemon(true);
+			return thread;
+		});
+		healthCheckScheduler.scheduleWithFixedDelay(this::checkIdleSessions, healthCheckIntervalMillis,
+				healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (healthCheckScheduler != null) {
+			healthCheckScheduler.shutdownNow();
+		}
+		for (SessionGroup group : sessions.values()) {
+			group.lock.lock();
+			try {
+				group.sessions.forEach(pooledSession -> pooledSession.session.disconnect());
+				group.sessions.clear();
+			} finally {
+				group.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Leases a connected session for the given connection parameters, reusing a
+	 * pooled session with free channel capacity if there is one.
+	 *
+	 * @param sshConnectionParameters The parameters of the node to connect to
+	 * @return A lease on a connected session. Must be closed once the channels
+	 *         opened on it are disconnected.
+	 * @throws JSchException If a new session can't be established
+	 */
+	public Lease lease(SSHConnectionParameters sshConnectionParameters) throws JSchException {
+		SessionKey key = toSessionKey(sshConnectionParameters);
+		SessionGroup group = sessions.computeIfAbsent(key, k -> new SessionGroup());
+		while (true) {
+			CompletableFuture<PooledSession> connecting;
+			boolean connectHere = false;
+			group.lock.lock();
+			try {
+				Iterator<PooledSession> iterator = group.sessions.iterator();
+				while (iterator.hasNext()) {
+					PooledSession pooledSession = iterator.next();
+					if (!pooledSession.session.isConnected()) {
+						log.debug("Dropping disconnected SSH session to {}", key);
+						iterator.remove();
+						continue;
+					}
+					if (pooledSession.leases < maxChannelsPerSession) {
+						pooledSession.leases++;
+						pooledSession.lastUsed = System.currentTimeMillis();
+						return new Lease(key, pooledSession);
+					}
+				}
+				if (group.connecting == null) {
+					group.connecting = new CompletableFuture<>();
+					connectHere = true;
+				}
+				connecting = group.connecting;
+			} finally {
+				group.lock.unlock();
+			}
+
+			if (connectHere) {
+				return new Lease(key, connectInto(group, key, sshConnectionParameters.getPrivateKey(), connecting));
+			}
+			// Another caller is connecting, take a lease on its session once it is pooled
+			try {
+				connecting.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JSchException("Interrupted while waiting for SSH connection", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof JSchException jschException) {
+					throw new JSchException(jschException.getMessage(), jschException);
+				}
+				throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException
+						: new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Connects a session and pools it with one lease taken, completing the future
+	 * other callers wait on.
+	 */
+	private PooledSession connectInto(SessionGroup group, SessionKey key, String privateKey,
+			CompletableFuture<PooledSession> connecting) throws JSchException {
+		PooledSession pooledSession;
+		try {
+			pooledSession = new PooledSession(connect(key, privateKey));
+		} catch (JSchException | RuntimeException e) {
+			group.lock.lock();
+			try {
+				group.connecting = null;
+			} finally {
+				group.lock.unlock();
+			}
+			connecting.completeExceptionally(e);
+			throw e;
+		}
+		group.lock.lock();
+		try {
+			pooledSession.leases++;
+			group.sessions.add(pooledSession);
+			group.connecting = null;
+		} finally {
+			group.lock.unlock();
+		}
+		connecting.complete(pooledSession);
+		return pooledSession;
+	}
+
+	/**
+	 * @return The number of sessions currently held by the pool
+	 */
+	public int getSessionCount() {
+		return sessions.values().stream().mapToInt(group -> group.sessions.size()).sum();
+	}
+
+	private Session connect(SessionKey key, String privateKey) throws JSchException {
+		JSch jsch = identities.computeIfAbsent(key.keyFingerprint(), fingerprint -> {
+			JSch newJsch = new JSch();
+			try {
+				newJsch.addIdentity("fogfort-" + fingerprint, privateKey.getBytes(StandardCharsets.UTF_8), null, null);
+			} catch (JSchException e) {
+				throw new IllegalArgumentException("Invalid SSH private key", e);
+			}
+			return newJsch;
+		});
+		Session session = jsch.getSession(key.username(), key.host(), key.port());
+		// Disable strict host key checking (for development - consider using
+		// known_hosts in production)
+		Properties config = new Properties();
+		config.put("StrictHostKeyChecking", "no");
+		session.setConfig(config);
+		session.setTimeout(connectTimeoutMillis);
+
+		JSchException lastException = null;
+		for (int retryCount = 0; retryCount < CONNECT_RETRIES; retryCount++) {
+			try {
+				session.connect();
+				log.info("SSH session established to {}", key);
+				return session;
+			} catch (JSchException e) {
+				lastException = e;
+				if (retryCount == CONNECT_RETRIES - 1) {
+					log.error("Error connecting to {} via SSH, giving up ({}/{})", key, retryCount + 1,
+							CONNECT_RETRIES, e);
+					break;
+				}
+				log.error("Error connecting to {} via SSH, retrying in 5 seconds... ({}/{})", key, retryCount + 1,
+						CONNECT_RETRIES, e);
+				try {
+					Thread.sleep(CONNECT_RETRY_INTERVAL_MILLIS);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					throw new JSchException("Interrupted while waiting for SSH connection", e1);
+				}
+			}
+		}
+		throw lastException;
+	}
+
+	private void release(SessionKey key, PooledSession pooledSession) {
+		SessionGroup group = sessions.get(key);
+		if (group == null) {
+			return;
+		}
+		group.lock.lock();
+		try {
+			pooledSession.leases--;
+			pooledSession.lastUsed = System.currentTimeMillis();
+		} finally {
+			group.lock.unlock();
+		}
+	}
+
+	private void discard(SessionKey key, PooledSession pooledSession) {
+		SessionGroup group = sessions.get(key);
+		if (group != null) {
+			group.lock.lock();
+			try {
+				group.sessions.remove(pooledSession);
+			} finally {
+				group.lock.unlock();
+			}
+		}
+		pooledSession.session.disconnect();
+	}
+
+	/**
+	 * Evicts sessions that have been idle for longer than the idle timeout and
+	 * sends a keep-alive on the remaining idle ones, dropping those that fail.
+	 */
+	private void checkIdleSessions() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<SessionKey, SessionGroup> entry : sessions.entrySet()) {
+			SessionGroup group = entry.getValue();
+			group.lock.lock();
+			try {
+				Iterator<PooledSession> iterator = group.sessions.iterator();
+				while (iterator.hasNext()) {
+					PooledSession pooledSession = iterator.next();
+					if (pooledSession.leases > 0) {
+						continue;
+					}
+					if (now - pooledSession.lastUsed > idleTimeoutMillis) {
+						log.debug("Evicting idle SSH session to {}", entry.getKey());
+						iterator.remove();
+						pooledSession.session.disconnect();
+						continue;
+					}
+					try {
+						pooledSession.session.sendKeepAliveMsg();
+					} catch (Exception e) {
+						log.warn("SSH session to {} failed its health check, evicting it", entry.getKey());
+						iterator.remove();
+						pooledSession.session.disconnect();
+					}
+				}
+			} finally {
+				group.lock.unlock();
+			}
+		}
+	}
+
+	private static SessionKey toSessionKey(SSHConnectionParameters sshConnectionParameters) {
+		String host = sshConnectionParameters.getIpAddress().getValue();
+		int port = sshConnectionParameters.getPort() != null && !sshConnectionParameters.getPort().isEmpty()
+				? Integer.parseInt(sshConnectionParameters.getPort())
+				: 22;
+		return new SessionKey(host, port, sshConnectionParameters.getUsername(),
+				fingerprint(sshConnectionParameters.getPrivateKey()));
+	}
+
+	static String fingerprint(String privateKey) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(privateKey.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
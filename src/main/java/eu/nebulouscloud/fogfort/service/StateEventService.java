@@ -0,0 +1,299 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import eu.nebulouscloud.fogfort.dto.StateEvent;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes state changes of jobs, tasks, clusters, nodes and clouds to
+ * Server-Sent Events subscribers.
+ *
+ * Changes reported by the entity listener are published once their
+ * transaction commits, and only when the status actually changed. The last
+ * published status of a job and of its tasks is forgotten once the job ends or
+ * is deleted, so a later save of an ended job publishes it again. The last
+ * events are kept so a reconnecting subscriber resumes after its Last-Event-ID.
+ * Each subscriber has a bounded buffer; a subscriber that falls behind, or
+ * resumes from an event that is no longer kept, gets a reset event telling it
+ * to reload everything.
+ */
+@Service("StateEventService")
+@Slf4j
+public class StateEventService {
+
+	static final String STATE_EVENT = "state";
+	static final String RESET_EVENT = "reset";
+
+	/** Number of past events kept for resuming subscribers */
+	@Value("${fogfort.events.history-size:1000}")
+	private int historySize;
+
+	/** Number of events buffered per subscriber before it is reset */
+	@Value("${fogfort.events.subscriber-buffer-size:256}")
+	private int subscriberBufferSize;
+
+	/** How long a stream stays open before the client reconnects */
+	@Value("${fogfort.events.stream-timeout-millis:1800000}")
+	private long streamTimeoutMillis;
+
+	@Value("${fogfort.events.heartbeat-interval-millis:30000}")
+	private long heartbeatIntervalMillis;
+
+	private class Subscriber {
+		final SseEmitter emitter;
+		final BlockingQueue<StateEvent> buffer = new ArrayBlockingQueue<>(subscriberBufferSize);
+		final AtomicBoolean draining = new AtomicBoolean();
+		/** Set when events were dropped, the reset is sent before the next ones */
+		volatile boolean reset;
+		volatile boolean closed;
+
+		Subscriber(SseEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		/** Called with the lock held */
+		void offer(StateEvent event) {
+			if (!buffer.offer(event)) {
+				buffer.clear();
+				reset = true;
+			}
+		}
+
+		void drain() {
+			if (!draining.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				while (!closed) {
+					if (reset) {
+						reset = false;
+						emitter.send(SseEmitter.event().name(RESET_EVENT).id(String.valueOf(lastEventId)).data(""));
+					}
+					StateEvent event = buffer.poll();
+					if (event == null) {
+						break;
+					}
+					emitter.send(SseEmitter.event().name(STATE_EVENT).id(String.valueOf(event.getEventId()))
+							.data(event, MediaType.APPLICATION_JSON));
+				}
+			} catch (IOException | IllegalStateException e) {
+				close();
+			} finally {
+				draining.set(false);
+			}
+			// Events offered while the flag was being cleared
+			if (!closed && (reset || !buffer.isEmpty())) {
+				sender.execute(this::drain);
+			}
+		}
+
+		void close() {
+			closed = true;
+			lock.lock();
+			try {
+				subscribers.remove(this);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Guarded by lock */
+	private final Deque<StateEvent> history = new ArrayDeque<>();
+	/** Guarded by lock */
+	private final List<Subscriber> subscribers = new ArrayList<>();
+	/** Last published status per entity, guarded by lock */
+	private final Map<String, String> lastStatus = new HashMap<>();
+	/** Keys of the tasks in lastStatus, by job id, guarded by lock */
+	private final Map<String, Set<String>> taskKeysByJob = new HashMap<>();
+	/** Written with the lock held */
+	private volatile long lastEventId;
+	private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+	private ScheduledExecutorService heartbeat;
+
+	@PostConstruct
+	public void init() {
+		heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "state-event-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, heartbeatIntervalMillis, heartbeatIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		heartbeat.shutdownNow();
+		lock.lock();
+		try {
+			subscribers.forEach(subscriber -> subscriber.emitter.complete());
+			subscribers.clear();
+		} finally {
+			lock.unlock();
+		}
+		sender.shutdownNow();
+	}
+
+	/**
+	 * Opens an event stream.
+	 *
+	 * @param lastEventId The id of the last event the client received, null for a
+	 *                    new stream
+	 */
+	public SseEmitter subscribe(Long lastEventId) {
+		SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+		Subscriber subscriber = new Subscriber(emitter);
+		emitter.onCompletion(subscriber::close);
+		emitter.onTimeout(subscriber::close);
+		emitter.onError(e -> subscriber.close());
+		lock.lock();
+		try {
+			if (lastEventId != null) {
+				long oldestKept = history.isEmpty() ? this.lastEventId + 1 : history.peekFirst().getEventId();
+				if (lastEventId > this.lastEventId || lastEventId < oldestKept - 1) {
+					// Events were missed, or the ids are from before a restart
+					subscriber.reset = true;
+				} else {
+					history.stream().filter(event -> event.getEventId() > lastEventId).forEach(subscriber::offer);
+				}
+			}
+			subscribers.add(subscriber);
+		} finally {
+			lock.unlock();
+		}
+		log.debug("Event stream opened, resuming after {}", lastEventId);
+		sender.execute(subscriber::drain);
+		return emitter;
+	}
+
+	/**
+	 * Publishes a change once the current transaction commits, if the status
+	 * changed since the last published event of the entity.
+	 */
+	public void publish(StateEvent.EntityType type, StateEvent.Action action, String id, String name, String status,
+			String jobId) {
+		if (id == null) {
+			return;
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					doPublish(type, action, id, name, status, jobId);
+				}
+			});
+		} else {
+			doPublish(type, action, id, name, status, jobId);
+		}
+	}
+
+	private void doPublish(StateEvent.EntityType type, StateEvent.Action action, String id, String name,
+			String status, String jobId) {
+		List<Subscriber> targets;
+		lock.lock();
+		try {
+			String key = type + ":" + id;
+			if (action == StateEvent.Action.DELETED) {
+				lastStatus.remove(key);
+				if (type == StateEvent.EntityType.TASK && jobId != null) {
+					Set<String> taskKeys = taskKeysByJob.get(jobId);
+					if (taskKeys != null) {
+						taskKeys.remove(key);
+					}
+				}
+			} else {
+				// Entities without a status, such as clouds, publish every update
+				String previous = status != null ? lastStatus.put(key, status) : null;
+				if (type == StateEvent.EntityType.TASK && status != null && jobId != null) {
+					taskKeysByJob.computeIfAbsent(jobId, k -> new HashSet<>()).add(key);
+				}
+				if (action == StateEvent.Action.UPDATED && status != null && status.equals(previous)) {
+					return;
+				}
+			}
+			if (type == StateEvent.EntityType.JOB && (action == StateEvent.Action.DELETED || isEnded(status))) {
+				lastStatus.remove(key);
+				Set<String> taskKeys = taskKeysByJob.remove(id);
+				if (taskKeys != null) {
+					taskKeys.forEach(lastStatus::remove);
+				}
+			}
+			StateEvent event = new StateEvent(++lastEventId, type, action, id, name, status, jobId, new Date());
+			history.addLast(event);
+			while (history.size() > historySize) {
+				history.removeFirst();
+			}
+			subscribers.forEach(subscriber -> subscriber.offer(event));
+			targets = new ArrayList<>(subscribers);
+		} finally {
+			lock.unlock();
+		}
+		targets.forEach(subscriber -> sender.execute(subscriber::drain));
+	}
+
+	private static boolean isEnded(String status) {
+		return JobStatus.COMPLETED.name().equals(status) || JobStatus.FAILED.name().equals(status)
+				|| JobStatus.CANCELLED.name().equals(status);
+	}
+
+	/**
+	 * @return The number of entities whose last published status is kept
+	 */
+	int getTrackedStatusCount() {
+		lock.lock();
+		try {
+			return lastStatus.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void sendHeartbeat() {
+		List<Subscriber> targets;
+		lock.lock();
+		try {
+			targets = new ArrayList<>(subscribers);
+		} finally {
+			lock.unlock();
+		}
+		for (Subscriber subscriber : targets) {
+			sender.execute(() -> {
+				try {
+					subscriber.emitter.send(SseEmitter.event().comment("heartbeat"));
+				} catch (IOException | IllegalStateException e) {
+					subscriber.close();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.cloud.CloudManager;
+import eu.nebulouscloud.fogfort.cloud.CloudProvider;
+import eu.nebulouscloud.fogfort.cloud.CloudProvider.NodeCreationDetails;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.Node.NodeStatus;
+import eu.nebulouscloud.fogfort.model.NodeCandidate;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.NodeCandidateRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.ScriptPhase;
+import eu.nebulouscloud.fogfort.util.ScriptUtils;
+import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps a pool of running worker nodes per node candidate, provisioned and with
+ * the cluster independent worker install phases already run, so that scale-out
+ * only has to join them to the cluster.
+ *
+ * Pool nodes are {@link Node} rows with status {@link NodeStatus#WARM} that
+ * belong to no cluster; they are ready once their deployment step is
+ * INSTALLED. A claimed node hands its instance over to the cluster node that
+ * claims it. The pool is replenished in the background, after every claim and
+ * periodically, up to the size configured for each node candidate.
+ */
+@Service("WarmPoolService")
+@Slf4j
+public class WarmPoolService {
+
+	private static final String WARM_NODE_NAME_PREFIX = "warm-";
+
+	/**
+	 * Pool size per node candidate id, e.g.
+	 * <code>{'&lt;nodeCandidateId&gt;': 2}</code>. Empty disables the pool.
+	 */
+	@Value("#{${fogfort.warm-pool.sizes:{:}}}")
+	private Map<String, Integer> poolSizes;
+
+	@Value("${fogfort.warm-pool.replenish-interval-millis:60000}")
+	private long replenishIntervalMillis;
+
+	@Autowired
+	private NodeRepository nodeRepository;
+	@Autowired
+	private NodeCandidateRepository nodeCandidateRepository;
+	@Autowired
+	private CloudManager cloudManager;
+	@Autowired
+	private DeployClusterService deployClusterService;
+	@Autowired
+	private DeploymentExecutor deploymentExecutor;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	/** Pool nodes being provisioned or installed by this instance */
+	private final Set<String> warmingUp = ConcurrentHashMap.newKeySet();
+	private ScheduledExecutorService replenishScheduler;
+	private Counter hits;
+	private Counter misses;
+	private Timer claimLatency;
+
+	@PostConstruct
+	public void init() {
+		hits = Counter.builder("fogfort.warmpool.claims").tag("result", "hit")
+				.description("Warm pool claims served by a ready node").register(meterRegistry);
+		misses = Counter.builder("fogfort.warmpool.claims").tag("result", "miss")
+				.description("Warm pool claims that found no ready node").register(meterRegistry);
+		Gauge.builder("fogfort.warmpool.hit.ratio", this, pool -> {
+			double total = pool.hits.count() + pool.misses.count();
+			return total == 0 ? 0 : pool.hits.count() / total;
+		}).description("Share of warm pool claims served by a ready node").register(meterRegistry);
+		claimLatency = Timer.builder("fogfort.warmpool.claim.latency")
+				.description("Time to claim a node from the warm pool").register(meterRegistry);
+		if (poolSizes == null || poolSizes.isEmpty()) {
+			return;
+		}
+		replenishScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "warm-pool-replenish");
+			thread.setDaemon(true);
+			return thread;
+		});
+		replenishScheduler.scheduleWithFixedDelay(this::replenish, 0, replenishIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (replenishScheduler != null) {
+			replenishScheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Hands a ready pool node over to a cluster node: the cluster node takes its
+	 * instance, connection details and deployment step, and the pool node is
+	 * removed. To be called within the transaction that saves the cluster node.
+	 * A pool node is taken by moving it out of the WARM status with a conditional
+	 * update, so concurrent claims, and discards, never take the same node.
+	 *
+	 * @param node The cluster node, not provisioned yet
+	 * @return True if a pool node was claimed, false if none was ready
+	 */
+	public boolean claimInto(Node node) {
+		if (node.getNodeCandidate() == null || poolSizes == null
+				|| !poolSizes.containsKey(node.getNodeCandidate().getId())) {
+			return false;
+		}
+		long start = System.nanoTime();
+		Optional<Node> claimed = Optional.empty();
+		for (Node warmNode : nodeRepository.findByStatusAndNodeCandidateId(NodeStatus.WARM,
+				node.getNodeCandidate().getId())) {
+			/* Another claim, or a discard, may have taken the node since it was read */
+			if (warmNode.getDeploymentStep() == DeploymentStep.INSTALLED
+					&& nodeRepository.compareAndSetStatus(warmNode.getId(), NodeStatus.WARM, NodeStatus.CREATED) == 1) {
+				claimed = Optional.of(warmNode);
+				break;
+			}
+		}
+		claimed.ifPresent(warmNode -> {
+			node.setProviderId(warmNode.getProviderId());
+			node.setNodeUrl(warmNode.getNodeUrl());
+			node.setSshConnectionParameters(warmNode.getSshConnectionParameters());
+			node.setStatus(NodeStatus.CREATED);
+			node.setDeploymentStep(DeploymentStep.INSTALLED);
+			nodeRepository.delete(warmNode);
+			nodeRepository.flush();
+		});
+		claimLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		if (claimed.isEmpty()) {
+			misses.increment();
+			log.info("Warm pool miss for node {} (node candidate {})", node.getName(), node.getNodeCandidate().getId());
+			return false;
+		}
+		hits.increment();
+		log.info("Node {} claimed warm pool instance {}", node.getName(), node.getProviderId());
+		if (replenishScheduler != null) {
+			/* The claimed node leaves the pool once the claim is committed */
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					replenishScheduler.execute(WarmPoolService.this::replenish);
+				}
+			});
+		}
+		return true;
+	}
+
+	/**
+	 * Starts warming up nodes for every node candidate whose pool is below its
+	 * configured size, and discards pool nodes left half warmed up by a previous
+	 * run or beyond the configured size.
+	 */
+	void replenish() {
+		try {
+			TransactionTemplate template = new TransactionTemplate(transactionManager);
+			List<Node> poolNodes = template.execute(status -> {
+				List<Node> nodes = nodeRepository.findByStatus(NodeStatus.WARM);
+				nodes.forEach(n -> n.getNodeCandidate().getId());
+				return nodes;
+			});
+			for (Node node : poolNodes) {
+				if (node.getDeploymentStep() != DeploymentStep.INSTALLED && !warmingUp.contains(node.getId())) {
+					log.info("Discarding interrupted warm pool node {}", node.getName());
+					deploymentExecutor.execute(() -> discard(node.getId()));
+				}
+			}
+			for (Map.Entry<String, Integer> poolSize : poolSizes.entrySet()) {
+				List<Node> candidateNodes = poolNodes.stream()
+						.filter(n -> n.getNodeCandidate().getId().equals(poolSize.getKey())
+								&& (n.getDeploymentStep() == DeploymentStep.INSTALLED || warmingUp.contains(n.getId())))
+						.toList();
+				int missing = poolSize.getValue() - candidateNodes.size();
+				for (int i = 0; i < missing; i++) {
+					String nodeId = createPoolNode(poolSize.getKey());
+					if (nodeId == null) {
+						break;
+					}
+					warmingUp.add(nodeId);
+					deploymentExecutor.execute(() -> warmUp(nodeId));
+				}
+				for (int i = 0; i < -missing; i++) {
+					Node excess = candidateNodes.get(i);
+					if (excess.getDeploymentStep() == DeploymentStep.INSTALLED) {
+						deploymentExecutor.execute(() -> discard(excess.getId()));
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			log.error("Error replenishing warm pool: {}", e.getMessage(), e);
+		}
+	}
+
+	private String createPoolNode(String nodeCandidateId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		return template.execute(status -> {
+			Optional<NodeCandidate> nodeCandidate = nodeCandidateRepository.findById(nodeCandidateId);
+			if (nodeCandidate.isEmpty()) {
+				log.warn("Warm pool configured for unknown node candidate {}", nodeCandidateId);
+				return null;
+			}
+			Node node = new Node();
+			node.setName(WARM_NODE_NAME_PREFIX + UUID.randomUUID().toString().substring(0, 8));
+			node.setNodeCandidate(nodeCandidate.get());
+			node.setStatus(NodeStatus.WARM);
+			return nodeRepository.save(node).getId();
+		});
+	}
+
+	/**
+	 * Provisions a pool node and runs the warm-up phases on it. A node that fails
+	 * is discarded and replaced on the next replenishment.
+	 */
+	private void warmUp(String nodeId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		try {
+			Node node = template.execute(status -> {
+				Node n = nodeRepository.findById(nodeId)
+						.orElseThrow(() -> new IllegalArgumentException("node not found"));
+				n.getNodeCandidate().getCloud().getCredentials();
+				n.getNodeCandidate().getCloud().getSshCredentials();
+				n.getNodeCandidate().getLocation();
+				return n;
+			});
+			log.info("Warming up pool node {}", node.getName());
+			CloudProvider cloudProvider = cloudManager
+					.getCloudProvider(node.getNodeCandidate().getCloud().getCloudProvider());
+			TaskExecutionWithResult<NodeCreationDetails> creation = deploymentExecutor.callWithLimits(
+					node.getNodeCandidate().getCloud().getCloudId(), null, () -> cloudProvider
+							.createNode(node.getNodeCandidate().getCloud(), node.getNodeCandidate(), node.getName()));
+			if (!creation.isSuccess()) {
+				throw new RuntimeException("Node creation failed, see " + creation.getOutputLogFileName());
+			}
+			NodeCreationDetails details = creation.getResult();
+			template.execute(status -> {
+				Node n = nodeRepository.findById(nodeId)
+						.orElseThrow(() -> new IllegalArgumentException("node not found"));
+				n.setProviderId(details.getProviderId());
+				n.setNodeUrl(details.getNodeUrl());
+				n.setSshConnectionParameters(details.getSshConnectionParameters());
+				n.setDeploymentStep(DeploymentStep.PROVISIONED);
+				nodeRepository.save(n);
+				return null;
+			});
+
+			for (ScriptPhase phase : ScriptUtils
+					.getWorkerWarmUpPhases(details.getSshConnectionParameters().getUsername())) {
+				Task.TaskExecution execution = deployClusterService.runScriptPhase(node.getName(), null,
+						details.getSshConnectionParameters(), phase, 0, new DeployClusterService.PhaseAttemptListener() {
+						});
+				if (!execution.isSuccess()) {
+					throw new RuntimeException(
+							"Phase " + phase.name() + " failed, see " + execution.getOutputLogFileName());
+				}
+			}
+			template.execute(status -> {
+				Node n = nodeRepository.findById(nodeId)
+						.orElseThrow(() -> new IllegalArgumentException("node not found"));
+				n.setDeploymentStep(DeploymentStep.INSTALLED);
+				nodeRepository.save(n);
+				return null;
+			});
+			log.info("Pool node {} is ready", node.getName());
+		} catch (RuntimeException e) {
+			log.error("Error warming up pool node {}: {}", nodeId, e.getMessage());
+			discard(nodeId);
+		} finally {
+			warmingUp.remove(nodeId);
+		}
+	}
+
+	/**
+	 * Takes a node out of the pool, terminates its instance, if it has one, and
+	 * removes the node. A node claimed meanwhile is left alone.
+	 */
+	void discard(String nodeId) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		/* Leave the pool through the same conditional update as a claim */
+		Node node = template.execute(status -> {
+			if (nodeRepository.compareAndSetStatus(nodeId, NodeStatus.WARM, NodeStatus.FAILED) == 0) {
+				return null;
+			}
+			Node n = nodeRepository.findById(nodeId).orElseThrow(() -> new IllegalArgumentException("node not found"));
+			n.getNodeCandidate().getCloud().getCredentials();
+			n.getNodeCandidate().getLocation();
+			return n;
+		});
+		if (node == null) {
+			return;
+		}
+		if (node.getProviderId() != null) {
+			CloudProvider cloudProvider = cloudManager
+					.getCloudProvider(node.getNodeCandidate().getCloud().getCloudProvider());
+			if (!cloudProvider.deleteNode(node.getNodeCandidate().getCloud(), node).isSuccess()) {
+				log.error("Failed to terminate instance {} of pool node {}", node.getProviderId(), node.getName());
+				return;
+			}
+		}
+		template.execute(status -> {
+			nodeRepository.findById(nodeId).ifPresent(nodeRepository::delete);
+			return null;
+		});
+	}
+}
@@ -3,20 +3,32 @@ package eu.nebulouscloud.fogfort.util;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-
-import org.springframework.util.StreamUtils;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 import eu.nebulouscloud.fogfort.config.FogFortApplicationConfiguration;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Access to the output logs of task executions, by log name.
+ *
+ * Logs are kept in a {@link SegmentedLogStore} under the segments directory of
+ * the output log directory. Logs written as separate files by earlier versions
+ * are still read from the output log directory.
+ */
 @Slf4j
 public class LogFileUtils {
 
+	private static final String SEGMENTS_DIRECTORY = "segments";
+
 	private static LogFileUtils instance;
 
 	public static LogFileUtils getInstance() {
@@ -34,60 +46,159 @@ public class LogFileUtils {
 	}
 
 	private FogFortApplicationConfiguration fogFortApplicationConfiguration;
+	private SegmentedLogStore store;
+	private Path storeDirectory;
 
 	public String getOutputFilePath(String fileName) {
 		return fogFortApplicationConfiguration.getOutputFilePath(fileName);
 	}
 
+	/**
+	 * @return The log store of the configured output log directory, opened on
+	 *         first use
+	 */
+	private synchronized SegmentedLogStore getStore() throws IOException {
+		Path directory = Path.of(getOutputFilePath(SEGMENTS_DIRECTORY)).toAbsolutePath().normalize();
+		if (store == null || !directory.equals(storeDirectory)) {
+			if (store != null) {
+				store.close();
+			}
+			store = new SegmentedLogStore(directory,
+					Math.min(Integer.MAX_VALUE, fogFortApplicationConfiguration.getTaskLogSegmentSizeMb() * 1024L * 1024L));
+			storeDirectory = directory;
+		}
+		return store;
+	}
+
 	public void appendLineToOutputLog(String line, String outputLogFileName) throws IOException {
 		appendOutputLog(line + "\n", outputLogFileName);
 	}
 
 	public void appendOutputLog(String output, String outputLogFileName) throws IOException {
-		createOutputLogFile(outputLogFileName);
-		File logFile = new File(fogFortApplicationConfiguration.getOutputFilePath(outputLogFileName));
-		try (FileOutputStream outputLog = new FileOutputStream(logFile, true)) {
-			outputLog.write(output.getBytes());
-		}
+		TaskLogAppender.getInstance().flush();
+		writeOutputLog(output, outputLogFileName);
+	}
+
+	/**
+	 * Appends to an output log without waiting for the messages queued by the
+	 * {@link TaskLogAppender}, which calls it.
+	 */
+	void writeOutputLog(String output, String outputLogFileName) throws IOException {
+		checkName(outputLogFileName);
+		byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+		getStore().append(outputLogFileName, bytes, 0, bytes.length);
 	}
 
-	private void createOutputLogFile(String outputLogFileName) throws IOException {
+	private void checkName(String outputLogFileName) throws FileNotFoundException {
 		if (outputLogFileName == null || outputLogFileName.isEmpty())
 			throw new FileNotFoundException("Output log file path is null or empty");
-		File logFile = new File(fogFortApplicationConfiguration.getOutputFilePath(outputLogFileName));
-		if (!logFile.exists()) {
-			try {
-				File parentDir = logFile.getParentFile();
-				if (parentDir != null && !parentDir.exists()) {
-					parentDir.mkdirs();
-				}
-				logFile.createNewFile();
-			} catch (IOException e) {
-				throw new FileNotFoundException("Failed to create output log file on path: " + logFile.getAbsolutePath()
-						+ " : " + e.getMessage());
+	}
+
+	public InputStream getLogInputStream(String outputLogFileName) throws IOException {
+		return getLogInputStream(outputLogFileName, 0);
+	}
+
+	/**
+	 * @return The content of an output log from the given offset, as it is at the
+	 *         time of the call. Empty if the log does not exist.
+	 */
+	public InputStream getLogInputStream(String outputLogFileName, long offset) throws IOException {
+		TaskLogAppender.getInstance().flush();
+		checkName(outputLogFileName);
+		importLegacyLog(outputLogFileName);
+		return getStore().read(outputLogFileName, offset);
+	}
+
+	/**
+	 * @return The length in bytes of an output log, 0 if it does not exist
+	 */
+	public long getLogLength(String outputLogFileName) throws IOException {
+		TaskLogAppender.getInstance().flush();
+		checkName(outputLogFileName);
+		importLegacyLog(outputLogFileName);
+		return getStore().length(outputLogFileName);
+	}
+
+	/**
+	 * Writes a byte range of an output log straight from the mapped segments,
+	 * without copying it to the heap as a whole.
+	 *
+	 * @param from The first byte written
+	 * @param to   The byte after the last byte written
+	 */
+	public void transferLog(String outputLogFileName, long from, long to, WritableByteChannel target)
+			throws IOException {
+		checkName(outputLogFileName);
+		for (ByteBuffer slice : getStore().slices(outputLogFileName, from, to)) {
+			while (slice.hasRemaining()) {
+				target.write(slice);
 			}
 		}
 	}
 
-	public FileInputStream getLogInputStream(String outputLogFileName) throws IOException {
-		createOutputLogFile(outputLogFileName);
-		return new FileInputStream(fogFortApplicationConfiguration.getOutputFilePath(outputLogFileName));
+	/**
+	 * @return A future completed once the output log is longer than the given
+	 *         length. Cancelling it stops the wait.
+	 */
+	public CompletableFuture<Void> awaitLogLength(String outputLogFileName, long length) throws IOException {
+		checkName(outputLogFileName);
+		return getStore().awaitLength(outputLogFileName, length);
 	}
 
-	public FileOutputStream getLogOutputStream(String outputLogFileName) throws IOException {
-		createOutputLogFile(outputLogFileName);
-		return new FileOutputStream(fogFortApplicationConfiguration.getOutputFilePath(outputLogFileName), true);
+	/**
+	 * @return A stream appending to an output log. Each write is a separate
+	 *         append, so callers should buffer small writes.
+	 */
+	public OutputStream getLogOutputStream(String outputLogFileName) throws IOException {
+		TaskLogAppender.getInstance().flush();
+		checkName(outputLogFileName);
+		SegmentedLogStore logStore = getStore();
+		logStore.append(outputLogFileName, new byte[0], 0, 0);
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				logStore.append(outputLogFileName, b, off, len);
+			}
+		};
 	}
 
+	/**
+	 * Appends an output log to another and deletes it. The content is linked,
+	 * not copied.
+	 */
 	public void mergeLogs(String sourceLogFileName, String destinationLogFileName) throws IOException {
-		try (InputStream logInputStream = getLogInputStream(sourceLogFileName)) {
-			String logContent = StreamUtils.copyToString(logInputStream, StandardCharsets.UTF_8);
-			appendLineToOutputLog(System.lineSeparator() + logContent, destinationLogFileName);
+		TaskLogAppender.getInstance().flush();
+		checkName(sourceLogFileName);
+		importLegacyLog(sourceLogFileName);
+		writeOutputLog(System.lineSeparator(), destinationLogFileName);
+		getStore().link(sourceLogFileName, destinationLogFileName);
+		writeOutputLog("\n", destinationLogFileName);
+	}
+
+	public void deleteOutputLog(String outputLogFileName) throws IOException {
+		checkName(outputLogFileName);
+		getStore().delete(outputLogFileName);
+		Files.deleteIfExists(Path.of(getOutputFilePath(outputLogFileName)));
+	}
+
+	/**
+	 * Moves a log written as a separate file by an earlier version into the store.
+	 */
+	private void importLegacyLog(String outputLogFileName) throws IOException {
+		File legacyFile = new File(getOutputFilePath(outputLogFileName));
+		if (!legacyFile.isFile() || getStore().contains(outputLogFileName)) {
+			return;
 		}
-		File logFile = new File(fogFortApplicationConfiguration.getOutputFilePath(sourceLogFileName));
-		if (logFile.exists()) {
-			logFile.delete();
+		try (InputStream input = new FileInputStream(legacyFile)) {
+			byte[] bytes = input.readAllBytes();
+			getStore().append(outputLogFileName, bytes, 0, bytes.length);
 		}
+		legacyFile.delete();
 	}
 
 	@PostConstruct
@@ -101,4 +212,4 @@ public class LogFileUtils {
 		}
 	}
 
-}
\ No newline at end of file
+}
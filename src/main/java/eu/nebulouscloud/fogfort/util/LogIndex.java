@@ -0,0 +1,819 @@
+package eu.nebulouscloud.fogfort.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An inverted index of the lines of task output logs, kept on disk.
+ *
+ * Each indexed log is a document, numbered in the order it was added, whose
+ * job, task, node and execution are kept in a table of fixed size records. Each
+ * term maps to postings (document, byte offset of the line), sorted by document
+ * then offset. Postings of the documents added since the last commit are
+ * buffered in memory. A commit writes them, sorted by term, to a new postings
+ * file and only then records the documents, so that documents are indexed
+ * again after a crash rather than lost. Lookups go through a sparse in-memory
+ * index holding every 64th term of each postings file. Postings files are
+ * merged into one once there are too many of them, dropping the postings of
+ * documents that are no longer live.
+ *
+ * Documents are added and committed by one thread at a time. Lookups may run
+ * concurrently with it: files are read at explicit positions, and committed
+ * files and documents are only published, and merged files only removed, under
+ * a short write lock.
+ */
+@Slf4j
+public class LogIndex implements AutoCloseable {
+
+	private static final String DOCUMENTS = "documents.dat";
+	private static final String POSTINGS_PREFIX = "postings-";
+	private static final String POSTINGS_SUFFIX = ".idx";
+	private static final int FIELD_BYTES = 64;
+	private static final int RECORD_BYTES = 4 * (2 + FIELD_BYTES) + 4 + 8;
+	private static final int SPARSE_INTERVAL = 64;
+	private static final int MAX_POSTINGS_FILES = 8;
+	private static final int MAX_TERM_LENGTH = 64;
+	/** Size of the header of a postings file, max document and replaced generation */
+	private static final int HEADER_BYTES = 4 + 4;
+	/** Size of a posting in a postings file, document and line offset */
+	private static final int POSTING_BYTES = 4 + 8;
+	/** Number of postings a cursor reads at once */
+	private static final int CURSOR_CHUNK_POSTINGS = 256;
+
+	/**
+	 * An indexed log: the log of an execution of a task.
+	 *
+	 * @param end The end of the execution, in milliseconds
+	 */
+	public record Document(String jobId, String taskId, String nodeId, int executionIndex, String logName,
+			long end) {
+	}
+
+	/**
+	 * A line of a document containing a term.
+	 */
+	public record Posting(int document, long lineOffset) {
+	}
+
+	private static class PostingsFile {
+		final Path path;
+		final int generation;
+		final FileChannel channel;
+		int termCount;
+		int maxDocument;
+		int replacesUpTo;
+		final List<String> sparseTerms = new ArrayList<>();
+		final List<Long> sparseOffsets = new ArrayList<>();
+
+		PostingsFile(Path path, int generation) throws IOException {
+			this.path = path;
+			this.generation = generation;
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		}
+	}
+
+	/** The postings of a term in a postings file */
+	private record Block(FileChannel channel, long offset, int count) {
+	}
+
+	/**
+	 * Reads the postings of a term newest first, a chunk at a time, from the
+	 * newest postings file to the oldest.
+	 */
+	private static class PostingCursor {
+		private final Iterator<Block> blocks;
+		private final ByteBuffer chunk = ByteBuffer.allocate(CURSOR_CHUNK_POSTINGS * POSTING_BYTES);
+		private Block block;
+		/** Postings of the block before the chunk, not read yet */
+		private int remaining;
+		/** Postings of the chunk not returned yet */
+		private int chunkIndex;
+		Posting current;
+
+		PostingCursor(List<Block> blocks) {
+			this.blocks = blocks.iterator();
+		}
+
+		/**
+		 * @return false once every posting has been read
+		 */
+		boolean advance() throws IOException {
+			while (chunkIndex == 0) {
+				if (block == null || remaining == 0) {
+					if (!blocks.hasNext()) {
+						current = null;
+						return false;
+					}
+					block = blocks.next();
+					remaining = block.count();
+					continue;
+				}
+				int count = Math.min(remaining, CURSOR_CHUNK_POSTINGS);
+				remaining -= count;
+				chunk.clear().limit(count * POSTING_BYTES);
+				readFully(block.channel(), chunk, block.offset() + (long) remaining * POSTING_BYTES);
+				chunkIndex = count;
+			}
+			chunkIndex--;
+			int position = chunkIndex * POSTING_BYTES;
+			current = new Posting(chunk.getInt(position), chunk.getLong(position + 4));
+			return true;
+		}
+	}
+
+	/**
+	 * Reads a channel from a position without moving the position of the channel,
+	 * so that several readers can share it.
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final FileChannel channel;
+		private long position;
+
+		ChannelInputStream(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = Math.max(0, Math.min(n, channel.size() - position));
+			position += skipped;
+			return skipped;
+		}
+	}
+
+	/** Counts the bytes written, to record the offsets of terms */
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/** Guards the publication of postings files and documents to lookups */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Path directory;
+	private final int maxBufferedPostings;
+	private final Predicate<Document> live;
+	/** Postings files, oldest first, changed under the write lock */
+	private final List<PostingsFile> postingsFiles = new ArrayList<>();
+	private final Map<String, List<Posting>> bufferedPostings = new HashMap<>();
+	private int bufferedPostingCount;
+	private final List<Document> pendingDocuments = new ArrayList<>();
+	private final FileChannel documents;
+	/** Number of committed documents, changed under the write lock */
+	private int documentCount;
+	private int lastGeneration;
+
+	/**
+	 * @param maxBufferedPostings Number of postings buffered in memory before they
+	 *                            are committed
+	 * @param live                Whether a document still exists, its postings
+	 *                            are dropped when postings files are merged
+	 *                            otherwise
+	 */
+	public LogIndex(Path directory, int maxBufferedPostings, Predicate<Document> live) throws IOException {
+		this.directory = directory;
+		this.maxBufferedPostings = maxBufferedPostings;
+		this.live = live;
+		Files.createDirectories(directory);
+		documents = FileChannel.open(directory.resolve(DOCUMENTS), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		// A record cut short by a crash is dropped
+		documentCount = (int) (documents.size() / RECORD_BYTES);
+		documents.truncate((long) documentCount * RECORD_BYTES);
+
+		TreeMap<Integer, Path> files = new TreeMap<>();
+		try (var list = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) list::iterator) {
+				Integer generation = getGeneration(file);
+				if (generation != null) {
+					files.put(generation, file);
+				}
+			}
+		}
+		for (Map.Entry<Integer, Path> entry : files.entrySet()) {
+			lastGeneration = Math.max(lastGeneration, entry.getKey());
+			PostingsFile postingsFile;
+			try {
+				postingsFile = openPostingsFile(entry.getValue(), entry.getKey());
+			} catch (IOException e) {
+				log.warn("Deleting unreadable log index file {}: {}", entry.getValue(), e.getMessage());
+				Files.delete(entry.getValue());
+				continue;
+			}
+			if (postingsFile.maxDocument >= documentCount) {
+				// Written before a crash, its documents are indexed again
+				deletePostingsFile(postingsFile);
+			} else {
+				postingsFiles.add(postingsFile);
+			}
+		}
+		// Files left behind by a merge interrupted before it deleted them
+		for (PostingsFile merged : new ArrayList<>(postingsFiles)) {
+			for (PostingsFile replaced : new ArrayList<>(postingsFiles)) {
+				if (replaced.generation <= merged.replacesUpTo) {
+					deletePostingsFile(replaced);
+					postingsFiles.remove(replaced);
+				}
+			}
+		}
+		log.info("Opened log index {} with {} documents in {} files", directory, documentCount,
+				postingsFiles.size());
+	}
+
+	/**
+	 * @return The lowercase words of a text, made of letters and digits
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> terms = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (wordChar && start < 0) {
+				start = i;
+			} else if (!wordChar && start >= 0) {
+				if (i - start <= MAX_TERM_LENGTH) {
+					terms.add(text.substring(start, i).toLowerCase());
+				}
+				start = -1;
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Indexes the lines of a log. The document is searchable once committed,
+	 * which happens by itself when the buffer is full.
+	 *
+	 * @return The number of the document
+	 */
+	public int add(Document document, InputStream content) throws IOException {
+		int number = documentCount + pendingDocuments.size();
+		pendingDocuments.add(document);
+		InputStream input = new BufferedInputStream(content);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long offset = 0;
+		long lineOffset = 0;
+		int b;
+		do {
+			b = input.read();
+			if (b == '\n' || (b < 0 && line.size() > 0)) {
+				indexLine(number, lineOffset, line.toString(StandardCharsets.UTF_8));
+				line.reset();
+				lineOffset = offset + 1;
+			} else if (b >= 0) {
+				line.write(b);
+			}
+			offset++;
+		} while (b >= 0);
+		if (bufferedPostingCount >= maxBufferedPostings) {
+			commit();
+		}
+		return number;
+	}
+
+	private void indexLine(int document, long lineOffset, String line) {
+		for (String term : new LinkedHashSet<>(tokenize(line))) {
+			bufferedPostings.computeIfAbsent(term, t -> new ArrayList<>()).add(new Posting(document, lineOffset));
+			bufferedPostingCount++;
+		}
+	}
+
+	/**
+	 * Writes the buffered postings and records the documents added since the last
+	 * commit.
+	 */
+	public void commit() throws IOException {
+		if (pendingDocuments.isEmpty()) {
+			return;
+		}
+		PostingsFile postingsFile = null;
+		if (!bufferedPostings.isEmpty()) {
+			TreeMap<String, List<Posting>> sorted = new TreeMap<>(bufferedPostings);
+			postingsFile = writePostingsFile(sorted.entrySet().iterator(), documentCount + pendingDocuments.size() - 1,
+					-1);
+		}
+		ByteBuffer records = ByteBuffer.allocate(pendingDocuments.size() * RECORD_BYTES);
+		for (Document document : pendingDocuments) {
+			putField(records, document.jobId());
+			putField(records, document.taskId());
+			putField(records, document.nodeId());
+			putField(records, document.logName());
+			records.putInt(document.executionIndex());
+			records.putLong(document.end());
+		}
+		records.flip();
+		long position = (long) documentCount * RECORD_BYTES;
+		while (records.hasRemaining()) {
+			position += documents.write(records, position);
+		}
+		documents.force(false);
+		lock.writeLock().lock();
+		try {
+			if (postingsFile != null) {
+				postingsFiles.add(postingsFile);
+			}
+			documentCount += pendingDocuments.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		pendingDocuments.clear();
+		bufferedPostings.clear();
+		bufferedPostingCount = 0;
+		if (postingsFiles.size() > MAX_POSTINGS_FILES) {
+			merge();
+		}
+	}
+
+	/**
+	 * @return The committed postings of a term, sorted by document then line
+	 *         offset
+	 */
+	public List<Posting> lookup(String term) throws IOException {
+		lock.readLock().lock();
+		try {
+			List<Posting> postings = new ArrayList<>();
+			for (Block block : findBlocks(term)) {
+				DataInputStream input = openAt(block.channel(), block.offset());
+				for (int p = 0; p < block.count(); p++) {
+					postings.add(new Posting(input.readInt(), input.readLong()));
+				}
+			}
+			return postings;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the lines containing every term, reading the postings of the terms
+	 * newest first and only as far as needed.
+	 *
+	 * @return The committed postings of the lines, newest document and line first,
+	 *         from at most maxDocuments documents
+	 */
+	public List<Posting> findLines(Collection<String> terms, int maxDocuments) throws IOException {
+		List<Posting> lines = new ArrayList<>();
+		if (maxDocuments <= 0) {
+			return lines;
+		}
+		int[] documentsFound = new int[1];
+		forEachLine(terms, line -> {
+			if (lines.isEmpty() || lines.get(lines.size() - 1).document() != line.document()) {
+				if (documentsFound[0] == maxDocuments) {
+					return false;
+				}
+				documentsFound[0]++;
+			}
+			lines.add(line);
+			return true;
+		});
+		return lines;
+	}
+
+	/**
+	 * Visits the lines containing every term, newest document and line first,
+	 * reading the postings of the terms only as far as the visitor goes.
+	 *
+	 * @param visitor Called with the committed posting of each line, returns false
+	 *                to stop
+	 */
+	public void forEachLine(Collection<String> terms, Predicate<Posting> visitor) throws IOException {
+		if (terms.isEmpty()) {
+			return;
+		}
+		lock.readLock().lock();
+		try {
+			List<PostingCursor> cursors = new ArrayList<>();
+			for (String term : terms) {
+				PostingCursor cursor = new PostingCursor(findBlocks(term).reversed());
+				if (!cursor.advance()) {
+					return;
+				}
+				cursors.add(cursor);
+			}
+			Posting target = cursors.get(0).current;
+			search: while (true) {
+				boolean matched = true;
+				for (PostingCursor cursor : cursors) {
+					while (compare(cursor.current, target) > 0) {
+						if (!cursor.advance()) {
+							break search;
+						}
+					}
+					if (compare(cursor.current, target) < 0) {
+						target = cursor.current;
+						matched = false;
+					}
+				}
+				if (!matched) {
+					continue;
+				}
+				if (!visitor.test(target) || !cursors.get(0).advance()) {
+					break;
+				}
+				target = cursors.get(0).current;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static int compare(Posting a, Posting b) {
+		return a.document() != b.document() ? Integer.compare(a.document(), b.document())
+				: Long.compare(a.lineOffset(), b.lineOffset());
+	}
+
+	/**
+	 * @return The postings of a term in each postings file, oldest file first
+	 */
+	private List<Block> findBlocks(String term) throws IOException {
+		List<Block> blocks = new ArrayList<>();
+		for (PostingsFile postingsFile : postingsFiles) {
+			int sparse = Collections.binarySearch(postingsFile.sparseTerms, term);
+			if (sparse < 0) {
+				sparse = -sparse - 2;
+			}
+			if (sparse < 0) {
+				continue;
+			}
+			long position = postingsFile.sparseOffsets.get(sparse);
+			DataInputStream input = openAt(postingsFile.channel, position);
+			int last = Math.min(postingsFile.termCount, (sparse + 1) * SPARSE_INTERVAL);
+			for (int i = sparse * SPARSE_INTERVAL; i < last; i++) {
+				String found = input.readUTF();
+				int count = input.readInt();
+				position += 2 + utfLength(found) + 4;
+				int comparison = found.compareTo(term);
+				if (comparison == 0) {
+					blocks.add(new Block(postingsFile.channel, position, count));
+					break;
+				}
+				if (comparison > 0) {
+					break;
+				}
+				input.skipNBytes((long) count * POSTING_BYTES);
+				position += (long) count * POSTING_BYTES;
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * @return The length of a string written with writeUTF, without its length
+	 */
+	private static int utfLength(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			length += c >= 1 && c <= 0x7f ? 1 : c <= 0x7ff ? 2 : 3;
+		}
+		return length;
+	}
+
+	public int getDocumentCount() {
+		lock.readLock().lock();
+		try {
+			return documentCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Document getDocument(int number) throws IOException {
+		if (number < 0 || number >= getDocumentCount()) {
+			throw new IllegalArgumentException("Unknown log index document " + number);
+		}
+		ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+		long position = (long) number * RECORD_BYTES;
+		while (record.hasRemaining()) {
+			if (documents.read(record, position + record.position()) < 0) {
+				throw new IOException("Log index document table cut short");
+			}
+		}
+		record.flip();
+		String jobId = getField(record);
+		String taskId = getField(record);
+		String nodeId = getField(record);
+		String logName = getField(record);
+		return new Document(jobId, taskId, nodeId, record.getInt(), logName, record.getLong());
+	}
+
+	/**
+	 * Reads the committed documents in order.
+	 */
+	public void forEachDocument(Consumer<Document> consumer) throws IOException {
+		int count = getDocumentCount();
+		for (int i = 0; i < count; i++) {
+			consumer.accept(getDocument(i));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			for (PostingsFile postingsFile : postingsFiles) {
+				postingsFile.channel.close();
+			}
+			documents.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Merges every postings file into one, keeping the postings of live documents
+	 * only.
+	 */
+	private void merge() throws IOException {
+		List<PostingsFile> merged = new ArrayList<>(postingsFiles);
+		BitSet checked = new BitSet();
+		BitSet dead = new BitSet();
+		Predicate<Posting> keep = posting -> {
+			if (!checked.get(posting.document())) {
+				checked.set(posting.document());
+				try {
+					if (!live.test(getDocument(posting.document()))) {
+						dead.set(posting.document());
+					}
+				} catch (IOException e) {
+					log.warn("Keeping postings of unreadable log index document {}", posting.document());
+				}
+			}
+			return !dead.get(posting.document());
+		};
+
+		/* One cursor per file, advanced term by term in term order */
+		List<DataInputStream> inputs = new ArrayList<>();
+		List<Integer> remaining = new ArrayList<>();
+		TreeMap<String, List<Integer>> heads = new TreeMap<>();
+		for (int i = 0; i < merged.size(); i++) {
+			PostingsFile postingsFile = merged.get(i);
+			inputs.add(openAt(postingsFile.channel, HEADER_BYTES));
+			remaining.add(postingsFile.termCount);
+		}
+		String[] pendingTerms = new String[merged.size()];
+		for (int i = 0; i < merged.size(); i++) {
+			advance(inputs, remaining, pendingTerms, heads, i);
+		}
+		Iterator<Map.Entry<String, List<Posting>>> terms = new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			@Override
+			public Map.Entry<String, List<Posting>> next() {
+				Map.Entry<String, List<Integer>> head = heads.pollFirstEntry();
+				List<Integer> files = new ArrayList<>(head.getValue());
+				// Older files hold older documents, so their postings come first
+				Collections.sort(files);
+				List<Posting> postings = new ArrayList<>();
+				try {
+					for (int file : files) {
+						int count = inputs.get(file).readInt();
+						for (int p = 0; p < count; p++) {
+							Posting posting = new Posting(inputs.get(file).readInt(), inputs.get(file).readLong());
+							if (keep.test(posting)) {
+								postings.add(posting);
+							}
+						}
+						advance(inputs, remaining, pendingTerms, heads, file);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return Map.entry(head.getKey(), postings);
+			}
+		};
+		PostingsFile result;
+		try {
+			result = writePostingsFile(terms, merged.get(merged.size() - 1).maxDocument,
+					merged.get(merged.size() - 1).generation);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		lock.writeLock().lock();
+		try {
+			postingsFiles.clear();
+			postingsFiles.add(result);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		// Lookups that read the merged files are over
+		for (PostingsFile postingsFile : merged) {
+			deletePostingsFile(postingsFile);
+		}
+		log.info("Merged {} log index files, dropped the postings of {} documents", merged.size(),
+				dead.cardinality());
+	}
+
+	/**
+	 * Reads the next term of a file being merged, leaving its postings count and
+	 * postings unread.
+	 */
+	private static void advance(List<DataInputStream> inputs, List<Integer> remaining, String[] pendingTerms,
+			TreeMap<String, List<Integer>> heads, int file) throws IOException {
+		if (remaining.get(file) == 0) {
+			return;
+		}
+		remaining.set(file, remaining.get(file) - 1);
+		pendingTerms[file] = inputs.get(file).readUTF();
+		heads.computeIfAbsent(pendingTerms[file], t -> new ArrayList<>()).add(file);
+	}
+
+	/**
+	 * Writes terms with their postings, in term order, to a new postings file.
+	 * Terms without postings are left out. The sparse index is written after the
+	 * terms, followed by its offset.
+	 *
+	 * @param replacesUpTo The generation of the last file replaced by this one, -1
+	 *                     if none
+	 */
+	private PostingsFile writePostingsFile(Iterator<Map.Entry<String, List<Posting>>> terms, int maxDocument,
+			int replacesUpTo) throws IOException {
+		int generation = ++lastGeneration;
+		Path path = directory.resolve(String.format("%s%06d%s", POSTINGS_PREFIX, generation, POSTINGS_SUFFIX));
+		Path temporary = directory.resolve(path.getFileName() + ".tmp");
+		List<String> sparseTerms = new ArrayList<>();
+		List<Long> sparseOffsets = new ArrayList<>();
+		int termCount = 0;
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			CountingOutputStream counter = new CountingOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)));
+			DataOutputStream output = new DataOutputStream(counter);
+			output.writeInt(maxDocument);
+			output.writeInt(replacesUpTo);
+			while (terms.hasNext()) {
+				Map.Entry<String, List<Posting>> term = terms.next();
+				if (term.getValue().isEmpty()) {
+					continue;
+				}
+				if (termCount % SPARSE_INTERVAL == 0) {
+					sparseTerms.add(term.getKey());
+					sparseOffsets.add(counter.count);
+				}
+				termCount++;
+				output.writeUTF(term.getKey());
+				output.writeInt(term.getValue().size());
+				for (Posting posting : term.getValue()) {
+					output.writeInt(posting.document());
+					output.writeLong(posting.lineOffset());
+				}
+			}
+			long sparseOffset = counter.count;
+			output.writeInt(termCount);
+			output.writeInt(sparseTerms.size());
+			for (int i = 0; i < sparseTerms.size(); i++) {
+				output.writeUTF(sparseTerms.get(i));
+				output.writeLong(sparseOffsets.get(i));
+			}
+			output.writeLong(sparseOffset);
+			output.flush();
+			channel.force(false);
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return openPostingsFile(path, generation);
+	}
+
+	private PostingsFile openPostingsFile(Path path, int generation) throws IOException {
+		PostingsFile postingsFile = new PostingsFile(path, generation);
+		try {
+			FileChannel channel = postingsFile.channel;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			channel.read(header, 0);
+			header.flip();
+			postingsFile.maxDocument = header.getInt();
+			postingsFile.replacesUpTo = header.getInt();
+			ByteBuffer footer = ByteBuffer.allocate(8);
+			channel.read(footer, channel.size() - 8);
+			footer.flip();
+			DataInputStream input = openAt(channel, footer.getLong());
+			postingsFile.termCount = input.readInt();
+			int sparseCount = input.readInt();
+			for (int i = 0; i < sparseCount; i++) {
+				postingsFile.sparseTerms.add(input.readUTF());
+				postingsFile.sparseOffsets.add(input.readLong());
+			}
+			return postingsFile;
+		} catch (IOException | RuntimeException e) {
+			postingsFile.channel.close();
+			throw e instanceof IOException io ? io : new IOException(e);
+		}
+	}
+
+	private void deletePostingsFile(PostingsFile postingsFile) throws IOException {
+		postingsFile.channel.close();
+		Files.deleteIfExists(postingsFile.path);
+	}
+
+	private static DataInputStream openAt(FileChannel channel, long offset) {
+		return new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel, offset)));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Log index file cut short");
+			}
+			position += read;
+		}
+	}
+
+	private static void putField(ByteBuffer record, String value) {
+		byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		if (bytes.length > FIELD_BYTES) {
+			throw new IllegalArgumentException("Log index field longer than " + FIELD_BYTES + " bytes: " + value);
+		}
+		record.putShort(value != null ? (short) bytes.length : -1);
+		record.put(bytes);
+		record.position(record.position() + FIELD_BYTES - bytes.length);
+	}
+
+	private static String getField(ByteBuffer record) {
+		short length = record.getShort();
+		String value = length >= 0 ? new String(record.array(), record.position(), length, StandardCharsets.UTF_8)
+				: null;
+		record.position(record.position() + FIELD_BYTES);
+		return value;
+	}
+
+	private static Integer getGeneration(Path file) {
+		String fileName = file.getFileName().toString();
+		if (!fileName.startsWith(POSTINGS_PREFIX) || !fileName.endsWith(POSTINGS_SUFFIX)) {
+			return null;
+		}
+		try {
+			return Integer.parseInt(
+					fileName.substring(POSTINGS_PREFIX.length(), fileName.length() - POSTINGS_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
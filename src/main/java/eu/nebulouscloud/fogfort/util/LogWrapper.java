@@ -1,175 +1,136 @@
 package eu.nebulouscloud.fogfort.util;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
 import org.slf4j.Logger;
 
+/**
+ * Logs messages to both a regular logger and a task output log file.
+ *
+ * Each message is formatted once, in a per-thread reusable buffer, and the
+ * result is handed to the logger and enqueued to the {@link TaskLogAppender},
+ * which writes it to the file in the background. Debug messages are skipped
+ * altogether, file included, unless debug is enabled on the logger.
+ */
 public class LogWrapper implements AutoCloseable {
 
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+	/** Buffers that grew larger than this are not kept */
+	private static final int MAX_RETAINED_BUFFER = 16384;
+
 	Logger baseLogger;
-	String outputLogFilePath;
-	FileOutputStream outputLogFileStream;
+	String outputLogFileName;
+	TaskLogAppender appender;
 
 	public LogWrapper(Logger baseLogger, String outputLogFileName) {
 		this.baseLogger = baseLogger;
-		try {
-			this.outputLogFileStream = LogFileUtils.getInstance().getLogOutputStream(outputLogFileName);
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to create output log file: " + outputLogFilePath, e);
+		this.outputLogFileName = outputLogFileName;
+		this.appender = TaskLogAppender.getInstance();
+		if (outputLogFileName == null || outputLogFileName.isEmpty()) {
+			throw new RuntimeException("Failed to create output log file: " + outputLogFileName);
 		}
 	}
 
+	/**
+	 * Waits until the messages logged so far are written to the output log file.
+	 */
 	@Override
 	public void close() {
-		if (outputLogFileStream != null) {
-			try {
-				outputLogFileStream.close();
-			} catch (IOException e) {
-
-			}
-		}
+		flush();
 	}
 
 	public void flush() {
-		try {
-			if (outputLogFileStream != null) {
-				outputLogFileStream.flush();
-			}
-		} catch (IOException e) {
-
-		}
+		appender.flush();
 	}
 
 	/**
 	 * Logs a message to both the regular logger and the taskExecution output log
-	 * file (if available).
-	 * 
-	 * @param taskExecution The task execution to log to (may be null)
-	 * @param message       The log message with optional placeholders
-	 * @param args          Optional arguments for message formatting
+	 * file.
+	 *
+	 * @param message The log message with optional placeholders
+	 * @param args    Optional arguments for message formatting
 	 */
 	public void info(String message, Object... args) {
-		// Log to regular logger
-		baseLogger.info(formatMessage(message, args));
-
-		// Log to taskExecution output log file if available
-		try {
-			// Format message with arguments
-			String formattedMessage = formatMessage(message, args);
-			outputLogFileStream.write(formattedMessage.getBytes());
-		} catch (Exception e) {
-			// Don't fail the operation if logging to file fails
-			baseLogger.error(
-					"Failed to write to taskExecution output log file: " + outputLogFilePath + " : " + e.getMessage());
-			throw new RuntimeException("Failed to write to taskExecution output log file: " + outputLogFilePath, e);
-		}
+		String formattedMessage = formatMessage(message, args);
+		baseLogger.info(formattedMessage);
+		appender.append(outputLogFileName, formattedMessage);
 	}
 
 	/**
 	 * Logs a message to both the regular logger and the taskExecution output log
-	 * file (if available).
-	 * 
-	 * @param taskExecution The task execution to log to (may be null)
-	 * @param message       The log message with optional placeholders
-	 * @param args          Optional arguments for message formatting
+	 * file, if debug is enabled on the regular logger.
+	 *
+	 * @param message The log message with optional placeholders
+	 * @param args    Optional arguments for message formatting
 	 */
 	public void debug(String message, Object... args) {
-		// Log to regular logger
-		baseLogger.debug(formatMessage(message, args));
-
-		// Log to taskExecution output log file if available
-		try {
-			// Format message with arguments
-			String formattedMessage = formatMessage(message, args);
-			outputLogFileStream.write(formattedMessage.getBytes());
-		} catch (Exception e) {
-			// Don't fail the operation if logging to file fails
-			baseLogger.error(
-					"Failed to write to taskExecution output log file: " + outputLogFilePath + " : " + e.getMessage());
-			throw new RuntimeException("Failed to write to taskExecution output log file: " + outputLogFilePath, e);
+		if (!baseLogger.isDebugEnabled()) {
+			return;
 		}
+		String formattedMessage = formatMessage(message, args);
+		baseLogger.debug(formattedMessage);
+		appender.append(outputLogFileName, formattedMessage);
 	}
 
 	public void warn(String message, Object... args) {
-		baseLogger.warn(formatMessage(message, args));
-		try {
-			String formattedMessage = formatMessage(message, args);
-			outputLogFileStream.write(formattedMessage.getBytes());
-		} catch (Exception e) {
-			baseLogger.error(
-					"Failed to write to taskExecution output log file: " + outputLogFilePath + " : " + e.getMessage());
-			throw new RuntimeException("Failed to write to taskExecution output log file: " + outputLogFilePath, e);
-		}
+		String formattedMessage = formatMessage(message, args);
+		baseLogger.warn(formattedMessage);
+		appender.append(outputLogFileName, formattedMessage);
 	}
 
 	public void error(String message, Object... args) {
-		baseLogger.error(formatMessage(message, args));
-		try {
-			String formattedMessage = formatMessage(message, args);
-			outputLogFileStream.write(formattedMessage.getBytes());
-		} catch (Exception e) {
-			baseLogger.error(
-					"Failed to write to taskExecution output log file: " + outputLogFilePath + " : " + e.getMessage());
-			throw new RuntimeException("Failed to write to taskExecution output log file: " + outputLogFilePath, e);
-		}
+		String formattedMessage = formatMessage(message, args);
+		baseLogger.error(formattedMessage);
+		appender.append(outputLogFileName, formattedMessage);
 	}
 
-	private String formatMessage(String message, Object... args) {
+	/**
+	 * Replaces each {} placeholder with the next argument, appending the
+	 * arguments left over. Exceptions are rendered with their stack trace.
+	 */
+	static String formatMessage(String message, Object... args) {
 		if (args == null || args.length == 0) {
-			return message + System.lineSeparator();
+			return message;
 		}
-
-		String result = message;
+		StringBuilder sb = BUFFER.get();
+		sb.setLength(0);
+		int from = 0;
 		int consumedCount = 0;
-		for (Object arg : args) {
-			int placeholderIndex = result.indexOf("{}");
-			if (placeholderIndex != -1) {
-				String argString;
-				if (arg == null) {
-					argString = "null";
-				} else if (arg instanceof Exception || arg instanceof RuntimeException) {
-					// Handle exceptions with stacktrace
-					Exception ex = (Exception) arg;
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					ex.printStackTrace(pw);
-					argString = sw.toString();
-				} else {
-					argString = arg.toString();
-				}
-				// Replace only the first {} placeholder at the specific position
-				// This prevents issues when argString itself contains {}
-				result = result.substring(0, placeholderIndex) + argString + result.substring(placeholderIndex + 2);
-				consumedCount++;
-			} else {
+		while (consumedCount < args.length) {
+			int placeholderIndex = message.indexOf("{}", from);
+			if (placeholderIndex == -1) {
 				break;
 			}
+			// Arguments are not searched for placeholders, even if they contain {}
+			sb.append(message, from, placeholderIndex);
+			appendArgument(sb, args[consumedCount++]);
+			from = placeholderIndex + 2;
 		}
+		sb.append(message, from, message.length());
 
 		// Append unconsumed arguments to the end
-		if (consumedCount < args.length) {
-			StringBuilder sb = new StringBuilder(result);
-			for (int i = consumedCount; i < args.length; i++) {
-				if (args[i] == null) {
-					sb.append(" null");
-				} else if (args[i] instanceof Exception || args[i] instanceof RuntimeException) {
-					// Handle exceptions with stacktrace
-					Exception ex = (Exception) args[i];
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					ex.printStackTrace(pw);
-					sb.append(" ").append(sw.toString());
-				} else {
-					sb.append(" ").append(args[i].toString());
-				}
-			}
-			result = sb.toString();
+		for (int i = consumedCount; i < args.length; i++) {
+			sb.append(' ');
+			appendArgument(sb, args[i]);
 		}
 
-		return result + System.lineSeparator();
+		String result = sb.toString();
+		if (sb.capacity() > MAX_RETAINED_BUFFER) {
+			BUFFER.remove();
+		}
+		return result;
+	}
+
+	private static void appendArgument(StringBuilder sb, Object arg) {
+		if (arg instanceof Exception ex) {
+			// Handle exceptions with stacktrace
+			StringWriter sw = new StringWriter();
+			ex.printStackTrace(new PrintWriter(sw));
+			sb.append(sw);
+		} else {
+			sb.append(arg);
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,197 @@
+package eu.nebulouscloud.fogfort.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Receives the stdout and stderr of a remote script as the SSH transport
+ * delivers it and appends it to a buffered task log. The transport pushes data
+ * into {@link #getStdout()} and {@link #getStderr()}; closing the stdout stream
+ * (which the transport does on end of file) notifies the end-of-file callback.
+ *
+ * The log is only flushed when {@link #flush()} is called, so callers are
+ * expected to flush periodically while the script runs.
+ *
+ * Script results, reported as {@code !!NEB_SCRIPT_RESULT_<KEY>:<VALUE>!!}
+ * markers, are recognized line by line as the output passes through and are
+ * available from {@link #getScriptResults()} once the pump is closed.
+ */
+@Slf4j
+public class ScriptOutputPump implements AutoCloseable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Lines longer than this are not scanned for result markers */
+	private static final int MAX_SCANNED_LINE_LENGTH = 64 * 1024;
+	private static final byte[] RESULT_MARKER = "!!NEB_SCRIPT_RESULT_".getBytes(StandardCharsets.US_ASCII);
+	// Pattern to match !!NEB_SCRIPT_RESULT_<KEY>:<VALUE>!!
+	private static final Pattern RESULT_PATTERN = Pattern.compile("!!NEB_SCRIPT_RESULT_([^:]+):([^!]+)!!");
+
+	private final OutputStream logOutput;
+	private final Runnable onEof;
+	private final OutputStream stdout = new PumpStream(true);
+	private final OutputStream stderr = new PumpStream(false);
+	private final Map<String, String> scriptResults = new HashMap<>();
+	private boolean eof;
+	private boolean closed;
+
+	/**
+	 * @param logOutput The stream of the task log the output is appended to
+	 * @param onEof     Called once when the stdout stream reaches end of file
+	 */
+	public ScriptOutputPump(OutputStream logOutput, Runnable onEof) {
+		this.logOutput = new BufferedOutputStream(logOutput, BUFFER_SIZE);
+		this.onEof = onEof;
+	}
+
+	public OutputStream getStdout() {
+		return stdout;
+	}
+
+	public OutputStream getStderr() {
+		return stderr;
+	}
+
+	/**
+	 * @return The script results found in the output so far, by key
+	 */
+	public synchronized Map<String, String> getScriptResults() {
+		return new HashMap<>(scriptResults);
+	}
+
+	private synchronized void append(PumpStream stream, byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			return;
+		}
+		logOutput.write(b, off, len);
+		stream.scan(b, off, len);
+	}
+
+	private void signalEof() {
+		synchronized (this) {
+			if (eof) {
+				return;
+			}
+			eof = true;
+		}
+		onEof.run();
+	}
+
+	public synchronized void flush() {
+		if (closed) {
+			return;
+		}
+		try {
+			logOutput.flush();
+		} catch (IOException e) {
+			log.error("Failed to flush script output", e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// The last line may not end with a newline
+		((PumpStream) stdout).scanLine();
+		((PumpStream) stderr).scanLine();
+		try {
+			logOutput.close();
+		} catch (IOException e) {
+			log.error("Failed to close script output", e);
+		}
+	}
+
+	private class PumpStream extends OutputStream {
+		private final boolean signalsEof;
+		/** The current line, kept separately per stream so markers are not split */
+		private byte[] line = new byte[256];
+		private int lineLength;
+		private boolean lineTooLong;
+
+		PumpStream(boolean signalsEof) {
+			this.signalsEof = signalsEof;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			append(this, b, off, len);
+		}
+
+		/**
+		 * Collects the given output into lines and scans every completed line for
+		 * result markers.
+		 */
+		void scan(byte[] b, int off, int len) {
+			int lineStart = off;
+			for (int i = off; i < off + len; i++) {
+				if (b[i] == '\n') {
+					addToLine(b, lineStart, i - lineStart);
+					scanLine();
+					lineStart = i + 1;
+				}
+			}
+			addToLine(b, lineStart, off + len - lineStart);
+		}
+
+		private void addToLine(byte[] b, int off, int len) {
+			if (lineTooLong || len == 0) {
+				return;
+			}
+			if (lineLength + len > MAX_SCANNED_LINE_LENGTH) {
+				lineTooLong = true;
+				return;
+			}
+			if (lineLength + len > line.length) {
+				line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + len));
+			}
+			System.arraycopy(b, off, line, lineLength, len);
+			lineLength += len;
+		}
+
+		void scanLine() {
+			if (!lineTooLong && containsResultMarker()) {
+				Matcher matcher = RESULT_PATTERN.matcher(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+				while (matcher.find()) {
+					scriptResults.put(matcher.group(1), matcher.group(2));
+				}
+			}
+			lineLength = 0;
+			lineTooLong = false;
+		}
+
+		private boolean containsResultMarker() {
+			outer: for (int i = 0; i <= lineLength - RESULT_MARKER.length; i++) {
+				for (int j = 0; j < RESULT_MARKER.length; j++) {
+					if (line[i + j] != RESULT_MARKER[j]) {
+						continue outer;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void close() {
+			if (signalsEof) {
+				signalEof();
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package eu.nebulouscloud.fogfort.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * A named step of a node installation, such as MASTER_INSTALL or WORKER_START.
+ * 
+ * @param name   The phase name, used for its completion marker on the node
+ * @param script The phase body
+ */
+public record ScriptPhase(String name, String script) {
+
+	/**
+	 * @return The SHA-256 of the phase name and body. A completed phase is only
+	 *         skipped while this hash is unchanged.
+	 */
+	public String getInputHash() {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(name.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			return HexFormat.of().formatHex(digest.digest(script.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
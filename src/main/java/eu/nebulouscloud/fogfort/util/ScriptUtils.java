@@ -4,8 +4,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 
+import eu.nebulouscloud.fogfort.dto.ClusterApplication;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -38,30 +42,198 @@ public class ScriptUtils {
 		return "source /home/" + user + "/.profile";
 	}
 
-	public static String getMasterInstallScripts(String user, Map<String, String> envVars) {
-		String[] urls = {
-				"https://raw.githubusercontent.com/eu-nebulous/sal-scripts/refs/heads/main/installation-scripts-onm/MASTER_INSTALL_SCRIPT.sh",
-				"https://raw.githubusercontent.com/eu-nebulous/sal-scripts/refs/heads/main/installation-scripts-onm/MASTER_PRE_INSTALL_SCRIPT.sh",
-				"https://raw.githubusercontent.com/eu-nebulous/sal-scripts/refs/heads/main/installation-scripts-onm/MASTER_START_SCRIPT.sh" };
-		String script = "";
-		for (String url : urls) {
-			script += getScriptFromUrl(url) + "\n";
+	private static final String SCRIPTS_BASE_URL = "https://raw.githubusercontent.com/eu-nebulous/sal-scripts/refs/heads/main/installation-scripts-onm/";
+	private static final String[] MASTER_PHASES = { "MASTER_INSTALL", "MASTER_PRE_INSTALL", "MASTER_START" };
+	private static final String[] WORKER_PHASES = { "WORKER_INSTALL", "WORKER_PRE_INSTALL", "WORKER_START" };
+	/** Directory, relative to the SSH user's home, phase completion markers are kept in */
+	private static final String PHASE_MARKER_DIRECTORY = ".fogfort/phases";
+
+	private static List<ScriptPhase> getInstallPhases(String[] phaseNames, String user) {
+		List<ScriptPhase> phases = new ArrayList<>();
+		for (String phaseName : phaseNames) {
+			String script = getScriptFromUrl(SCRIPTS_BASE_URL + phaseName + "_SCRIPT.sh");
+			if (script == null) {
+				throw new IllegalStateException("Could not get the " + phaseName + " script");
+			}
+			phases.add(new ScriptPhase(phaseName, getEnvVarsSource(user) + "\n" + script));
 		}
-		return getEnvVarsSource(user) + "\n" + script;
-		//return  "echo 'Hello from master!' && hostname && date";
+		return phases;
 	}
 
-	public static String getWorkerInstallScripts(String user, Map<String, String> envVars) {
-		String[] urls = {
-		"https://raw.githubusercontent.com/eu-nebulous/sal-scripts/refs/heads/main/installation-scripts-onm/WORKER_INSTALL_SCRIPT.sh",
-		"https://raw.githubusercontent.com/eu-nebulous/sal-scripts/refs/heads/main/installation-scripts-onm/WORKER_PRE_INSTALL_SCRIPT.sh",
-		"https://raw.githubusercontent.com/eu-nebulous/sal-scripts/refs/heads/main/installation-scripts-onm/WORKER_START_SCRIPT.sh" };
-		String script = "";
-		for (String url : urls) {
-		script += getScriptFromUrl(url) + "\n";
+	public static List<ScriptPhase> getMasterInstallPhases(String user, Map<String, String> envVars) {
+		return getInstallPhases(MASTER_PHASES, user);
+		//return List.of(new ScriptPhase("MASTER_INSTALL", "echo 'Hello from master!' && hostname && date"));
+	}
+
+	public static List<ScriptPhase> getWorkerInstallPhases(String user, Map<String, String> envVars) {
+		List<ScriptPhase> phases = new ArrayList<>();
+		phases.add(new ScriptPhase("WORKER_ENV", getEnvVarsScript(envVars, user)));
+		phases.addAll(getInstallPhases(WORKER_PHASES, user));
+		return phases;
+		//return List.of(new ScriptPhase("WORKER_INSTALL", "echo 'Hello from worker!' && hostname && date && echo 'Kubeadm join command: $variables_kubeCommand'"));
+	}
+
+	/**
+	 * Gives the last worker install phase, the one that joins the cluster, the
+	 * kubeadm join command it runs. The command is kept out of WORKER_ENV so the
+	 * phases before the join can run while the command is still being created; it
+	 * only takes part in the input hash of the join phase.
+	 * 
+	 * @param phases      The phases built by
+	 *                    {@link #getWorkerInstallPhases(String, Map)}
+	 * @param joinCommand The kubeadm join command
+	 * @return A copy of the phases whose join phase exports the join command
+	 */
+	public static List<ScriptPhase> withJoinCommand(List<ScriptPhase> phases, String joinCommand) {
+		List<ScriptPhase> joinPhases = new ArrayList<>(phases);
+		ScriptPhase joinPhase = joinPhases.get(joinPhases.size() - 1);
+		joinPhases.set(joinPhases.size() - 1, new ScriptPhase(joinPhase.name(),
+				"export variables_kubeCommand=" + quote(joinCommand) + "\n" + joinPhase.script()));
+		return joinPhases;
+	}
+
+	/**
+	 * Quotes a value so the shell passes it on as a single word, unexpanded.
+	 */
+	private static String quote(String value) {
+		return "'" + value.replace("'", "'\\''") + "'";
+	}
+
+	/**
+	 * Quotes every whitespace separated word of a value, each preceded by a space,
+	 * so the shell passes the words on as they are.
+	 */
+	private static String quoteWords(String value) {
+		StringBuilder words = new StringBuilder();
+		for (String word : value.trim().split("\\s+")) {
+			if (!word.isEmpty()) {
+				words.append(' ').append(quote(word));
+			}
+		}
+		return words.toString();
+	}
+
+	/**
+	 * The worker install phases that do not depend on a cluster, run ahead of time
+	 * on warm pool nodes. They are identical to those of
+	 * {@link #getWorkerInstallPhases(String, Map)}, so once the node joins a
+	 * cluster their completion markers let them be skipped.
+	 * 
+	 * @param user The SSH user of the node
+	 * @return The WORKER_INSTALL and WORKER_PRE_INSTALL phases
+	 */
+	public static List<ScriptPhase> getWorkerWarmUpPhases(String user) {
+		return getInstallPhases(new String[] { WORKER_PHASES[0], WORKER_PHASES[1] }, user);
+	}
+
+	/**
+	 * Wraps a phase so it can be rerun safely. The phase body runs in a subshell;
+	 * on success a marker holding the phase input hash is written on the node,
+	 * and a later run of a phase whose marker holds the same hash exits at once.
+	 * Variables the body sets do not outlive the phase.
+	 * 
+	 * @param phase The phase to wrap
+	 * @return The script to run on the node
+	 */
+	public static String getPhaseScript(ScriptPhase phase) {
+		String marker = "$HOME/" + PHASE_MARKER_DIRECTORY + "/" + phase.name() + ".done";
+		String hash = phase.getInputHash();
+		return "if [ \"$(cat " + marker + " 2>/dev/null)\" = \"" + hash + "\" ]; then\n" //
+				+ "  echo \"Phase " + phase.name() + " already completed, skipping\"\n" //
+				+ "  exit 0\n" //
+				+ "fi\n" //
+				+ "(\n" + phase.script() + "\n)\n" //
+				+ "rc=$?\n" //
+				+ "if [ $rc -eq 0 ]; then\n" //
+				+ "  mkdir -p $HOME/" + PHASE_MARKER_DIRECTORY + " && echo \"" + hash + "\" > " + marker + "\n" //
+				+ "fi\n" //
+				+ "exit $rc\n";
+	}
+
+	/**
+	 * Builds a script, run on the master, that drains and deletes the given
+	 * workers from the Kubernetes cluster in parallel. A worker is matched by its
+	 * name or by one of its addresses; workers that are not part of the cluster
+	 * are skipped, and a worker whose drain fails is deleted anyway.
+	 * 
+	 * @param nodeAddresses The address of each worker, by node name
+	 * @return The script to run on the master
+	 */
+	public static String getDrainNodesScript(Map<String, String> nodeAddresses) {
+		StringBuilder script = new StringBuilder();
+		script.append("drain_node() {\n");
+		script.append("  k8s_node=$(kubectl get nodes -o jsonpath='{range .items[*]}{.metadata.name}{\" \"}"
+				+ "{.status.addresses[*].address}{\"\\n\"}{end}' | awk -v name=\"$1\" -v address=\"$2\" "
+				+ "'{ for (i = 1; i <= NF; i++) if ($i == name || (address != \"\" && $i == address)) "
+				+ "{ print $1; exit } }')\n");
+		script.append("  if [ -z \"$k8s_node\" ]; then echo \"Node $1 is not part of the cluster, skipping\"; return 0; fi\n");
+		script.append("  kubectl drain \"$k8s_node\" --ignore-daemonsets --delete-emptydir-data --force --timeout=120s"
+				+ " || echo \"Drain of $k8s_node failed, deleting it anyway\"\n");
+		script.append("  kubectl delete node \"$k8s_node\"\n");
+		script.append("}\n");
+		script.append("pids=\"\"\n");
+		for (Map.Entry<String, String> entry : nodeAddresses.entrySet()) {
+			script.append("drain_node " + quote(entry.getKey()) + " "
+					+ quote(entry.getValue() == null ? "" : entry.getValue()) + " &\n");
+			script.append("pids=\"$pids $!\"\n");
+		}
+		script.append("rc=0\n");
+		script.append("for pid in $pids; do wait $pid || rc=1; done\n");
+		script.append("exit $rc\n");
+		return script.toString();
+	}
+
+	/** Directory, relative to the SSH user's home, application manifests are kept in */
+	private static final String APPLICATION_DIRECTORY = ".fogfort/apps";
+
+	/**
+	 * Builds a script, run on the master, that applies the given applications one
+	 * after the other. Manifests (kubectl, kubevela) are written to a path named
+	 * after their content hash, unless a manifest with that hash is already
+	 * there; for helm the application file is the chart reference. The chart
+	 * reference, the application name and every word of the flags are quoted, so
+	 * the shell does not expand them. Every application applied successfully is
+	 * reported as an {@code APPLIED_<appName>} script result holding its hash,
+	 * and the script fails if any application failed.
+	 * 
+	 * @param applications The applications to apply, by content hash
+	 * @return The script to run on the master
+	 */
+	public static String getApplyApplicationsScript(Map<String, ClusterApplication> applications) {
+		StringBuilder script = new StringBuilder();
+		script.append("mkdir -p $HOME/" + APPLICATION_DIRECTORY + "\n");
+		script.append("rc=0\n");
+		for (Map.Entry<String, ClusterApplication> entry : applications.entrySet()) {
+			String hash = entry.getKey();
+			ClusterApplication application = entry.getValue();
+			String flags = application.getFlags() != null ? quoteWords(application.getFlags()) : "";
+			String command;
+			if (application.getPackageManager().equals("helm")) {
+				command = "helm upgrade --install " + quote(application.getAppName()) + " "
+						+ quote(application.getAppFile()) + flags;
+			} else {
+				String file = "$HOME/" + APPLICATION_DIRECTORY + "/" + hash + ".yaml";
+				script.append("if [ ! -f " + file + " ]; then\n");
+				script.append("  base64 -d > " + file + ".tmp <<'NEB_APP_EOF' && mv -f " + file + ".tmp " + file + "\n");
+				script.append(Base64.getMimeEncoder(76, new byte[] { '\n' })
+						.encodeToString(application.getAppFile().getBytes(StandardCharsets.UTF_8)) + "\n");
+				script.append("NEB_APP_EOF\n");
+				script.append("fi\n");
+				command = (application.getPackageManager().equals("kubevela") ? "vela up -f " : "kubectl apply -f ")
+						+ file + flags;
+			}
+			script.append("echo " + quote("Applying " + application.getAppName() + " with "
+					+ application.getPackageManager()) + "\n");
+			script.append("if " + command + "; then\n");
+			script.append("  echo " + quote("!!NEB_SCRIPT_RESULT_APPLIED_" + application.getAppName() + ":" + hash + "!!")
+					+ "\n");
+			script.append("else\n");
+			script.append("  echo " + quote("Applying " + application.getAppName() + " failed") + " >&2\n");
+			script.append("  rc=1\n");
+			script.append("fi\n");
 		}
-		return getEnvVarsSource(user) + "\n" + script;
-		//return  "echo 'Hello from worker!' && hostname && date && echo 'Kubeadm join command: $variables_kubeCommand'";
+		script.append("exit $rc\n");
+		return script.toString();
 	}
 
 	public static String getKubeadmJoinCommandScript() {
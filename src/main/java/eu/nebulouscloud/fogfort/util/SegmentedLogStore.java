@@ -0,0 +1,634 @@
+package eu.nebulouscloud.fogfort.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stores task output logs in large append-only segment files.
+ *
+ * Each log is a list of extents (segment, offset, length) kept in an in-memory
+ * index. Appends reserve a range at the end of the active segment, which is
+ * sealed and replaced once it reaches the configured size, and write their data
+ * outside the index lock, so appends to different logs write in parallel;
+ * appends to the same log are serialized by its lock stripe. An append that
+ * directly follows the last extent of the same log extends it. Linking a log
+ * into another only copies its extents, no data. The active segment file grows
+ * in chunks, and segments are read through memory mappings remapped once per
+ * chunk. A segment is deleted once no log references it any more.
+ *
+ * Index changes are recorded in a journal, replayed on startup and then
+ * rewritten with the live extents only. The journal is also rewritten while
+ * the store is open, once its dead records outnumber the live extents.
+ */
+@Slf4j
+public class SegmentedLogStore implements AutoCloseable {
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String JOURNAL = "index.journal";
+
+	private static final byte OP_APPEND = 1;
+	private static final byte OP_LINK = 2;
+	private static final byte OP_DELETE = 3;
+
+	private static final int APPEND_LOCK_STRIPES = 64;
+	/** How much the active segment file grows at a time */
+	private static final long ALLOCATION_CHUNK_BYTES = 4L * 1024 * 1024;
+	/** Dead journal records tolerated whatever the number of live extents */
+	private static final long MIN_DEAD_JOURNAL_RECORDS = 10000;
+
+	private record Extent(int segment, long offset, long length) {
+	}
+
+	private record LengthWaiter(long length, CompletableFuture<Void> future) {
+	}
+
+	/** The mapped part of a segment, remapped when a read goes past it */
+	private static class SegmentMapping {
+		final FileChannel channel;
+		MappedByteBuffer buffer;
+
+		SegmentMapping(FileChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * A segment appends write to: the active one, or a sealed one with appends
+	 * still writing their reserved ranges. Its channel is closed once it is sealed
+	 * and no append writes to it.
+	 */
+	private static class WritableSegment {
+		final int number;
+		final FileChannel channel;
+		/** End of the ranges reserved so far */
+		long size;
+		/** Length of the file, a multiple of the allocation chunk */
+		long allocated;
+		int writers;
+		boolean sealed;
+
+		WritableSegment(int number, FileChannel channel) throws IOException {
+			this.number = number;
+			this.channel = channel;
+			this.size = channel.size();
+			this.allocated = size;
+		}
+	}
+
+	private final Path directory;
+	private final long maxSegmentBytes;
+	private final Map<String, List<Extent>> index = new HashMap<>();
+	/** Number of extents referencing each segment */
+	private final Map<Integer, Integer> segmentReferences = new HashMap<>();
+	private final Map<Integer, SegmentMapping> mappings = new HashMap<>();
+	/** Long-polls waiting for logs to grow */
+	private final Map<String, List<LengthWaiter>> lengthWaiters = new HashMap<>();
+	/** Guards the index, the segments and the journal */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Serialize appends, links and deletes of the logs hashed to each */
+	private final ReentrantLock[] appendLocks = new ReentrantLock[APPEND_LOCK_STRIPES];
+	private final long allocationChunkBytes;
+	private final long minDeadJournalRecords;
+	private WritableSegment activeSegment;
+	private DataOutputStream journal;
+	/** Records in the journal, live or dead */
+	private long journalRecords;
+	/** Extents in the index, each written as one record by a journal rewrite */
+	private long liveExtents;
+
+	public SegmentedLogStore(Path directory, long maxSegmentBytes) throws IOException {
+		this(directory, maxSegmentBytes, MIN_DEAD_JOURNAL_RECORDS);
+	}
+
+	/**
+	 * @param minDeadJournalRecords Dead journal records tolerated before the
+	 *                              journal is rewritten, however few extents are
+	 *                              live
+	 */
+	SegmentedLogStore(Path directory, long maxSegmentBytes, long minDeadJournalRecords) throws IOException {
+		this.directory = directory;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.allocationChunkBytes = Math.max(1, Math.min(ALLOCATION_CHUNK_BYTES, maxSegmentBytes));
+		this.minDeadJournalRecords = minDeadJournalRecords;
+		for (int i = 0; i < appendLocks.length; i++) {
+			appendLocks[i] = new ReentrantLock();
+		}
+		Files.createDirectories(directory);
+		replayJournal();
+		rewriteJournal();
+		int lastSegment = 0;
+		try (var files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Integer segment = getSegmentNumber(file);
+				if (segment == null) {
+					continue;
+				}
+				if (!segmentReferences.containsKey(segment)) {
+					Files.delete(file);
+				}
+				lastSegment = Math.max(lastSegment, segment);
+			}
+		}
+		openSegment(lastSegment + 1);
+		log.info("Opened log store {} with {} logs", directory, index.size());
+	}
+
+	/**
+	 * Appends data to a log, creating the log if needed.
+	 */
+	public void append(String name, byte[] data, int off, int len) throws IOException {
+		ReentrantLock appendLock = appendLock(name);
+		appendLock.lock();
+		try {
+			WritableSegment segment;
+			long offset;
+			lock.lock();
+			try {
+				index.computeIfAbsent(name, k -> new ArrayList<>());
+				if (len == 0) {
+					return;
+				}
+				segment = reserve(len);
+				offset = segment.size - len;
+			} finally {
+				lock.unlock();
+			}
+
+			boolean written = false;
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(data, off, len);
+				while (buffer.hasRemaining()) {
+					segment.channel.write(buffer, offset + buffer.position() - off);
+				}
+				written = true;
+			} finally {
+				List<CompletableFuture<Void>> satisfied = List.of();
+				lock.lock();
+				try {
+					release(segment);
+					if (written) {
+						publish(name, segment.number, offset, len);
+						satisfied = getSatisfiedWaiters(name);
+					} else {
+						reference(segment.number, -1);
+					}
+				} finally {
+					lock.unlock();
+				}
+				satisfied.forEach(future -> future.complete(null));
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Reserves a range at the end of the active segment, replacing the segment if
+	 * the range does not fit and growing its file if needed. The range references
+	 * the segment until it is published; called with the lock held.
+	 *
+	 * @return The segment, whose size ends with the range
+	 */
+	private WritableSegment reserve(int len) throws IOException {
+		if (activeSegment.size > 0 && activeSegment.size + len > maxSegmentBytes) {
+			openSegment(activeSegment.number + 1);
+		}
+		WritableSegment segment = activeSegment;
+		segment.size += len;
+		if (segment.size > segment.allocated) {
+			// Extend the file past the range, so readers remap once per chunk
+			long allocated = (segment.size + allocationChunkBytes - 1) / allocationChunkBytes * allocationChunkBytes;
+			segment.channel.write(ByteBuffer.allocate(1), allocated - 1);
+			segment.allocated = allocated;
+		}
+		segment.writers++;
+		reference(segment.number, 1);
+		return segment;
+	}
+
+	/** Ends a write to a reserved range; called with the lock held */
+	private void release(WritableSegment segment) throws IOException {
+		segment.writers--;
+		if (segment.sealed && segment.writers == 0) {
+			segment.channel.close();
+		}
+	}
+
+	/**
+	 * Adds a written range to a log and records it in the journal. The reference
+	 * of the range to its segment is kept if it becomes an extent of its own;
+	 * called with the lock held.
+	 */
+	private void publish(String name, int segment, long offset, long len) throws IOException {
+		List<Extent> extents = index.computeIfAbsent(name, k -> new ArrayList<>());
+		Extent last = extents.isEmpty() ? null : extents.get(extents.size() - 1);
+		if (last != null && last.segment() == segment && last.offset() + last.length() == offset) {
+			extents.set(extents.size() - 1, new Extent(segment, last.offset(), last.length() + len));
+			reference(segment, -1);
+		} else {
+			extents.add(new Extent(segment, offset, len));
+			liveExtents++;
+		}
+		journal.writeByte(OP_APPEND);
+		journal.writeUTF(name);
+		journal.writeInt(segment);
+		journal.writeLong(offset);
+		journal.writeLong(len);
+		journalWritten();
+	}
+
+	/**
+	 * Appends the content of a log to another and deletes it, by linking its
+	 * extents.
+	 */
+	public void link(String sourceName, String destinationName) throws IOException {
+		// Stripes are always taken in index order so two links cannot deadlock
+		ReentrantLock first = appendLock(sourceName);
+		ReentrantLock second = appendLock(destinationName);
+		if (Math.floorMod(sourceName.hashCode(), APPEND_LOCK_STRIPES) > Math.floorMod(destinationName.hashCode(),
+				APPEND_LOCK_STRIPES)) {
+			first = second;
+			second = appendLock(sourceName);
+		}
+		first.lock();
+		second.lock();
+		try {
+			List<CompletableFuture<Void>> satisfied;
+			lock.lock();
+			try {
+				applyLink(sourceName, destinationName);
+				journal.writeByte(OP_LINK);
+				journal.writeUTF(sourceName);
+				journal.writeUTF(destinationName);
+				journalWritten();
+				satisfied = getSatisfiedWaiters(destinationName);
+			} finally {
+				lock.unlock();
+			}
+			satisfied.forEach(future -> future.complete(null));
+		} finally {
+			second.unlock();
+			first.unlock();
+		}
+	}
+
+	public void delete(String name) throws IOException {
+		ReentrantLock appendLock = appendLock(name);
+		appendLock.lock();
+		lock.lock();
+		try {
+			if (applyDelete(name)) {
+				journal.writeByte(OP_DELETE);
+				journal.writeUTF(name);
+				journalWritten();
+			}
+		} finally {
+			lock.unlock();
+			appendLock.unlock();
+		}
+	}
+
+	private ReentrantLock appendLock(String name) {
+		return appendLocks[Math.floorMod(name.hashCode(), APPEND_LOCK_STRIPES)];
+	}
+
+	/**
+	 * Flushes a record written to the journal, and rewrites the journal once its
+	 * dead records outnumber the live extents; called with the lock held.
+	 */
+	private void journalWritten() throws IOException {
+		journal.flush();
+		journalRecords++;
+		long deadRecords = journalRecords - liveExtents;
+		if (deadRecords > Math.max(minDeadJournalRecords, liveExtents)) {
+			log.debug("Compacting log store journal {}: {} dead records, {} live extents", directory, deadRecords,
+					liveExtents);
+			rewriteJournal();
+		}
+	}
+
+	/**
+	 * @return The number of records in the journal
+	 */
+	long getJournalRecords() {
+		lock.lock();
+		try {
+			return journalRecords;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean contains(String name) {
+		lock.lock();
+		try {
+			return index.containsKey(name);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The length of a log, 0 if it does not exist
+	 */
+	public long length(String name) {
+		lock.lock();
+		try {
+			return lengthOf(name);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return A stream over the content the log has at the time of the call,
+	 *         starting at the given offset
+	 */
+	public InputStream read(String name, long from) throws IOException {
+		List<ByteBuffer> slices = slices(name, from, Long.MAX_VALUE);
+		return new InputStream() {
+			private int current;
+
+			@Override
+			public int read() {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				while (current < slices.size() && !slices.get(current).hasRemaining()) {
+					current++;
+				}
+				if (current == slices.size()) {
+					return -1;
+				}
+				ByteBuffer slice = slices.get(current);
+				int count = Math.min(len, slice.remaining());
+				slice.get(b, off, count);
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * @return The content of the log between two offsets, as mapped buffers, at
+	 *         most up to its current length
+	 */
+	public List<ByteBuffer> slices(String name, long from, long to) throws IOException {
+		List<ByteBuffer> slices = new ArrayList<>();
+		lock.lock();
+		try {
+			long start = 0;
+			for (Extent extent : index.getOrDefault(name, List.of())) {
+				long end = start + extent.length();
+				if (end > from && start < to) {
+					long skip = Math.max(0, from - start);
+					long length = Math.min(end, to) - start - skip;
+					slices.add(slice(extent, skip, length));
+				}
+				start = end;
+			}
+		} finally {
+			lock.unlock();
+		}
+		return slices;
+	}
+
+	/**
+	 * @return A future completed once the log is longer than the given length.
+	 *         Cancelling it stops the wait.
+	 */
+	public CompletableFuture<Void> awaitLength(String name, long length) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		lock.lock();
+		try {
+			if (lengthOf(name) > length) {
+				future.complete(null);
+				return future;
+			}
+			List<LengthWaiter> waiters = lengthWaiters.computeIfAbsent(name, k -> new ArrayList<>());
+			LengthWaiter waiter = new LengthWaiter(length, future);
+			waiters.add(waiter);
+			future.whenComplete((result, e) -> {
+				lock.lock();
+				try {
+					waiters.remove(waiter);
+					if (waiters.isEmpty()) {
+						lengthWaiters.remove(name, waiters);
+					}
+				} finally {
+					lock.unlock();
+				}
+			});
+		} finally {
+			lock.unlock();
+		}
+		return future;
+	}
+
+	/** Waiters of a log the new length satisfies; called with the lock held */
+	private List<CompletableFuture<Void>> getSatisfiedWaiters(String name) {
+		List<LengthWaiter> waiters = lengthWaiters.get(name);
+		if (waiters == null) {
+			return List.of();
+		}
+		long length = lengthOf(name);
+		return waiters.stream().filter(waiter -> length > waiter.length()).map(LengthWaiter::future).toList();
+	}
+
+	private long lengthOf(String name) {
+		return index.getOrDefault(name, List.of()).stream().mapToLong(Extent::length).sum();
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			journal.close();
+			activeSegment.channel.close();
+			for (SegmentMapping mapping : mappings.values()) {
+				mapping.channel.close();
+			}
+			mappings.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Maps the segment of an extent as far as needed; called with the lock held */
+	private ByteBuffer slice(Extent extent, long skip, long length) throws IOException {
+		SegmentMapping mapping = mappings.get(extent.segment());
+		if (mapping == null) {
+			mapping = new SegmentMapping(FileChannel.open(getSegmentPath(extent.segment()), StandardOpenOption.READ));
+			mappings.put(extent.segment(), mapping);
+		}
+		long end = extent.offset() + extent.length();
+		if (mapping.buffer == null || mapping.buffer.capacity() < end) {
+			// The file of the active segment is allocated a chunk ahead of its data
+			mapping.buffer = mapping.channel.map(FileChannel.MapMode.READ_ONLY, 0, mapping.channel.size());
+		}
+		return mapping.buffer.slice((int) (extent.offset() + skip), (int) length);
+	}
+
+	private void applyLink(String sourceName, String destinationName) {
+		List<Extent> source = index.remove(sourceName);
+		List<Extent> destination = index.computeIfAbsent(destinationName, k -> new ArrayList<>());
+		if (source != null) {
+			destination.addAll(source);
+		}
+	}
+
+	private boolean applyDelete(String name) throws IOException {
+		List<Extent> extents = index.remove(name);
+		if (extents == null) {
+			return false;
+		}
+		liveExtents -= extents.size();
+		for (Extent extent : extents) {
+			reference(extent.segment(), -1);
+		}
+		return true;
+	}
+
+	/** Counts references to a segment, deleting it when it is sealed and unused */
+	private void reference(int segment, int delta) throws IOException {
+		int references = segmentReferences.merge(segment, delta, Integer::sum);
+		if (references > 0) {
+			return;
+		}
+		segmentReferences.remove(segment);
+		if (segment != activeSegment.number && journal != null) {
+			SegmentMapping mapping = mappings.remove(segment);
+			if (mapping != null) {
+				mapping.channel.close();
+			}
+			Files.deleteIfExists(getSegmentPath(segment));
+		}
+	}
+
+	/** Seals the active segment and opens the given one; called with the lock held */
+	private void openSegment(int segment) throws IOException {
+		WritableSegment previous = activeSegment;
+		activeSegment = new WritableSegment(segment, FileChannel.open(getSegmentPath(segment),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+		if (previous == null) {
+			return;
+		}
+		previous.sealed = true;
+		if (previous.writers == 0) {
+			previous.channel.close();
+		}
+		// Reserved ranges reference their segment, so it is unused only once written
+		if (!segmentReferences.containsKey(previous.number)) {
+			SegmentMapping mapping = mappings.remove(previous.number);
+			if (mapping != null) {
+				mapping.channel.close();
+			}
+			Files.deleteIfExists(getSegmentPath(previous.number));
+		}
+	}
+
+	private void replayJournal() throws IOException {
+		Path journalPath = directory.resolve(JOURNAL);
+		if (!Files.exists(journalPath)) {
+			return;
+		}
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+			while (true) {
+				byte op = input.readByte();
+				switch (op) {
+				case OP_APPEND -> {
+					String name = input.readUTF();
+					Extent extent = new Extent(input.readInt(), input.readLong(), input.readLong());
+					List<Extent> extents = index.computeIfAbsent(name, k -> new ArrayList<>());
+					Extent last = extents.isEmpty() ? null : extents.get(extents.size() - 1);
+					if (last != null && last.segment() == extent.segment()
+							&& last.offset() + last.length() == extent.offset()) {
+						extents.set(extents.size() - 1,
+								new Extent(last.segment(), last.offset(), last.length() + extent.length()));
+					} else {
+						extents.add(extent);
+					}
+				}
+				case OP_LINK -> applyLink(input.readUTF(), input.readUTF());
+				case OP_DELETE -> index.remove(input.readUTF());
+				default -> throw new IOException("Corrupt log store journal, unknown operation " + op);
+				}
+			}
+		} catch (EOFException e) {
+			// End of the journal, or a record cut short by a crash
+		}
+		for (List<Extent> extents : index.values()) {
+			for (Extent extent : extents) {
+				segmentReferences.merge(extent.segment(), 1, Integer::sum);
+			}
+			liveExtents += extents.size();
+		}
+	}
+
+	/** Rewrites the journal with the live extents, one append record each */
+	private void rewriteJournal() throws IOException {
+		if (journal != null) {
+			journal.close();
+		}
+		Path journalPath = directory.resolve(JOURNAL);
+		Path compacted = directory.resolve(JOURNAL + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(compacted, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))))) {
+			for (Map.Entry<String, List<Extent>> entry : index.entrySet()) {
+				for (Extent extent : entry.getValue()) {
+					output.writeByte(OP_APPEND);
+					output.writeUTF(entry.getKey());
+					output.writeInt(extent.segment());
+					output.writeLong(extent.offset());
+					output.writeLong(extent.length());
+				}
+			}
+		}
+		Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		journalRecords = liveExtents;
+		journal = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+				FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND))));
+	}
+
+	private Path getSegmentPath(int segment) {
+		return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+	}
+
+	private static Integer getSegmentNumber(Path file) {
+		String fileName = file.getFileName().toString();
+		if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+			return null;
+		}
+		try {
+			return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(),
+					fileName.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
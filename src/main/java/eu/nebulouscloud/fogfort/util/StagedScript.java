@@ -0,0 +1,80 @@
+package eu.nebulouscloud.fogfort.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import lombok.Getter;
+
+/**
+ * A script prepared for staging on a node. Instead of being sent as the exec
+ * command, the script is uploaded gzip-compressed to a content-addressed path
+ * ({@value #STAGING_DIRECTORY}/&lt;sha256&gt;.sh) under the user's home,
+ * verified against its checksum on the node and then run by path. A script
+ * whose path already exists on the node does not need to be uploaded again.
+ */
+@Getter
+public class StagedScript {
+
+	/** Directory, relative to the SSH user's home, scripts are staged in */
+	public static final String STAGING_DIRECTORY = ".fogfort/scripts";
+
+	private final String hash;
+	private final int size;
+	private final byte[] compressed;
+	/** Unique upload path, so concurrent uploads of the same script don't collide */
+	private final String uploadPath;
+
+	public StagedScript(String script) {
+		byte[] content = script.getBytes(StandardCharsets.UTF_8);
+		this.size = content.length;
+		try {
+			this.hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+		ByteArrayOutputStream compressedOutput = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressedOutput)) {
+			gzip.write(content);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to compress script", e);
+		}
+		this.compressed = compressedOutput.toByteArray();
+		this.uploadPath = STAGING_DIRECTORY + "/" + hash + "." + UUID.randomUUID() + ".sh.gz";
+	}
+
+	/**
+	 * @return The path the verified script is run from on the node
+	 */
+	public String getScriptPath() {
+		return STAGING_DIRECTORY + "/" + hash + ".sh";
+	}
+
+	/**
+	 * Builds the exec command running the staged script.
+	 *
+	 * @param uploaded Whether the compressed script was uploaded to
+	 *                 {@link #getUploadPath()} and still has to be unpacked and
+	 *                 verified, or was already present at {@link #getScriptPath()}
+	 * @return The command to run
+	 */
+	public String getRunCommand(boolean uploaded) {
+		String scriptPath = getScriptPath();
+		if (!uploaded) {
+			return "bash " + scriptPath;
+		}
+		String tmpPath = uploadPath.substring(0, uploadPath.length() - ".gz".length());
+		return "gunzip -c " + uploadPath + " > " + tmpPath //
+				+ " && echo '" + hash + "  " + tmpPath + "' | sha256sum -c --status" //
+				+ " && mv -f " + tmpPath + " " + scriptPath //
+				+ " && rm -f " + uploadPath //
+				+ " || { echo 'Staged script " + hash + " failed its checksum' >&2; rm -f " + tmpPath + " "
+				+ uploadPath + "; exit 1; }" //
+				+ "; bash " + scriptPath;
+	}
+}
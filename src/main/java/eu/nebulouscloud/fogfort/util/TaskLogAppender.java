@@ -0,0 +1,235 @@
+package eu.nebulouscloud.fogfort.util;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.nebulouscloud.fogfort.config.FogFortApplicationConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Appends messages to task output log files from a single background writer.
+ *
+ * Messages are enqueued into a bounded lock-free ring buffer. The writer drains
+ * it every flush interval, or earlier when the buffer fills up or a flush is
+ * requested, and appends the messages of each file with a single write.
+ * {@link #flush()} waits until every message enqueued before the call has been
+ * written, so readers and direct writers of a log file flush first.
+ */
+@Slf4j
+public class TaskLogAppender {
+
+	private static final int DEFAULT_RING_BUFFER_SIZE = 16384;
+	private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+
+	private static TaskLogAppender instance;
+
+	public static synchronized TaskLogAppender getInstance() {
+		if (instance == null) {
+			instance = new TaskLogAppender(DEFAULT_RING_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+		}
+		return instance;
+	}
+
+	public static synchronized void init(FogFortApplicationConfiguration fogFortApplicationConfiguration) {
+		if (instance == null) {
+			instance = new TaskLogAppender(fogFortApplicationConfiguration.getTaskLogRingBufferSize(),
+					fogFortApplicationConfiguration.getTaskLogFlushIntervalMillis());
+		} else {
+			// The ring buffer cannot be resized once messages may have been enqueued
+			int capacity = RingBuffer.capacityFor(fogFortApplicationConfiguration.getTaskLogRingBufferSize());
+			if (capacity != instance.ringBuffer.capacity()) {
+				log.warn("Task log ring buffer size {} ignored, the buffer already holds {} messages",
+						fogFortApplicationConfiguration.getTaskLogRingBufferSize(), instance.ringBuffer.capacity());
+			}
+			instance.flushIntervalNanos = TimeUnit.MILLISECONDS
+					.toNanos(fogFortApplicationConfiguration.getTaskLogFlushIntervalMillis());
+		}
+	}
+
+	record LogRecord(String outputLogFileName, String message) {
+	}
+
+	/**
+	 * Appends a batch of messages to a task output log file.
+	 */
+	interface LogWriter {
+		void write(String output, String outputLogFileName) throws IOException;
+	}
+
+	/**
+	 * Bounded multi-producer single-consumer queue. Each slot carries a sequence
+	 * number telling whether it is free for the producer claiming the position or
+	 * published for the consumer.
+	 */
+	static final class RingBuffer {
+		private final AtomicReferenceArray<LogRecord> slots;
+		private final AtomicLongArray sequences;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();
+		/** Only read and written by the consumer */
+		private long head;
+
+		RingBuffer(int size) {
+			int capacity = capacityFor(size);
+			slots = new AtomicReferenceArray<>(capacity);
+			sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				sequences.set(i, i);
+			}
+			mask = capacity - 1;
+		}
+
+		/**
+		 * @return The smallest power of two, at least 2, that holds the given number
+		 *         of messages
+		 */
+		static int capacityFor(int size) {
+			return Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+
+		/**
+		 * @return false if the buffer is full
+		 */
+		boolean offer(LogRecord record) {
+			long position = tail.get();
+			while (true) {
+				int index = (int) position & mask;
+				long difference = sequences.get(index) - position;
+				if (difference == 0) {
+					if (tail.compareAndSet(position, position + 1)) {
+						slots.set(index, record);
+						sequences.set(index, position + 1);
+						return true;
+					}
+					position = tail.get();
+				} else if (difference < 0) {
+					return false;
+				} else {
+					position = tail.get();
+				}
+			}
+		}
+
+		LogRecord poll() {
+			int index = (int) head & mask;
+			if (sequences.get(index) != head + 1) {
+				return null;
+			}
+			LogRecord record = slots.get(index);
+			slots.set(index, null);
+			sequences.set(index, head + mask + 1);
+			head++;
+			return record;
+		}
+
+		/** Number of positions claimed by producers so far */
+		long claimed() {
+			return tail.get();
+		}
+
+		/** Number of records taken by the consumer so far */
+		long consumed() {
+			return head;
+		}
+	}
+
+	private final RingBuffer ringBuffer;
+	private final LogWriter logWriter;
+	private volatile long flushIntervalNanos;
+	private final Thread writer;
+	/** Number of records written to their files so far */
+	private volatile long written;
+	private final AtomicInteger flushWaiters = new AtomicInteger();
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private final Condition flushed = flushLock.newCondition();
+
+	TaskLogAppender(int ringBufferSize, long flushIntervalMillis) {
+		this(ringBufferSize, flushIntervalMillis, (output, outputLogFileName) -> LogFileUtils.getInstance()
+				.writeOutputLog(output, outputLogFileName));
+	}
+
+	TaskLogAppender(int ringBufferSize, long flushIntervalMillis, LogWriter logWriter) {
+		this.ringBuffer = new RingBuffer(ringBufferSize);
+		this.logWriter = logWriter;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.writer = Thread.ofPlatform().name("task-log-writer").daemon().start(this::run);
+	}
+
+	/**
+	 * Enqueues a message to be appended, followed by a line separator, to a task
+	 * output log file. Waits for room if the buffer is full.
+	 */
+	public void append(String outputLogFileName, String message) {
+		LogRecord record = new LogRecord(outputLogFileName, message);
+		while (!ringBuffer.offer(record)) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+		}
+	}
+
+	/**
+	 * Waits until every message enqueued before the call is written.
+	 */
+	public void flush() {
+		long target = ringBuffer.claimed();
+		if (written >= target) {
+			return;
+		}
+		flushWaiters.incrementAndGet();
+		flushLock.lock();
+		try {
+			while (written < target) {
+				LockSupport.unpark(writer);
+				flushed.await(10, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			flushLock.unlock();
+			flushWaiters.decrementAndGet();
+		}
+	}
+
+	private void run() {
+		Map<String, StringBuilder> batches = new LinkedHashMap<>();
+		while (true) {
+			LogRecord record;
+			while ((record = ringBuffer.poll()) != null) {
+				batches.computeIfAbsent(record.outputLogFileName(), k -> new StringBuilder()).append(record.message())
+						.append(System.lineSeparator());
+			}
+			for (Map.Entry<String, StringBuilder> batch : batches.entrySet()) {
+				try {
+					logWriter.write(batch.getValue().toString(), batch.getKey());
+				} catch (IOException | RuntimeException e) {
+					log.error("Failed to write to taskExecution output log file: {} : {}", batch.getKey(),
+							e.getMessage());
+				}
+			}
+			batches.clear();
+			written = ringBuffer.consumed();
+			if (flushWaiters.get() > 0) {
+				flushLock.lock();
+				try {
+					flushed.signalAll();
+				} finally {
+					flushLock.unlock();
+				}
+			}
+			LockSupport.parkNanos(flushIntervalNanos);
+		}
+	}
+}
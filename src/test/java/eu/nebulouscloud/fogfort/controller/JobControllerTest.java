@@ -0,0 +1,360 @@
+package eu.nebulouscloud.fogfort.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.web.PagedModel;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.sun.net.httpserver.HttpServer;
+
+import eu.nebulouscloud.fogfort.dto.JobNotification;
+import eu.nebulouscloud.fogfort.dto.JobSummary;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.jobs.ClusterExecJob;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.JobType;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.dto.LogSearchHit;
+import eu.nebulouscloud.fogfort.service.JobArchiveService;
+import eu.nebulouscloud.fogfort.service.JobNotificationService;
+import eu.nebulouscloud.fogfort.service.LogSearchService;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import tools.jackson.databind.JsonNode;
+
+/**
+ * Lists job summaries of a cluster page by page and with filters, and checks
+ * the task counts. Reads a job and its log once archived, and searches logs.
+ * Waits for a job to end, and receives its signed callback on a local server,
+ * once per end. Callback URLs are refused without a secret to sign them with.
+ * Long-polls an execution log until it grows.
+ */
+@SpringBootTest(properties = { "fogfort.webhooks.secret=test-secret", "fogfort.webhooks.initial-backoff-millis=50" })
+@ActiveProfiles("test")
+@DirtiesContext
+class JobControllerTest {
+
+	@Autowired
+	private JobController jobController;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private JobArchiveService jobArchiveService;
+	@Autowired
+	private LogSearchService logSearchService;
+	@Autowired
+	private JobNotificationService jobNotificationService;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void testJobSummaries() {
+		Cluster cluster = new Cluster();
+		cluster.setName("summaries-" + UUID.randomUUID().toString().substring(0, 8));
+		String clusterId = clusterRepository.save(cluster).getClusterId();
+		long now = System.currentTimeMillis();
+		List<String> jobIds = new ArrayList<>();
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			Cluster saved = clusterRepository.findById(clusterId).orElseThrow();
+			for (int i = 0; i < 5; i++) {
+				Job job = new ClusterExecJob();
+				job.setCluster(saved);
+				job.setCreatedAt(new Date(now + i * 1000L));
+				job.setStatus(i == 4 ? JobStatus.IN_PROGRESS : JobStatus.COMPLETED);
+				job.setTasks(new ArrayList<>());
+				for (int t = 0; t < 3; t++) {
+					Task task = new Task();
+					task.setJob(job);
+					task.setStatus(t == 0 && i == 4 ? JobStatus.IN_PROGRESS : JobStatus.COMPLETED);
+					job.getTasks().add(task);
+				}
+				jobIds.add(jobRepository.save(job).getJobId());
+			}
+		});
+
+		PagedModel<JobSummary> first = jobController
+				.getJobSummaries(0, 2, null, JobType.CLUSTER_EXEC, clusterId, null, null).getBody();
+		assertEquals(5, first.getMetadata().totalElements());
+		assertEquals(3, first.getMetadata().totalPages());
+		// Newest first
+		assertEquals(List.of(jobIds.get(4), jobIds.get(3)),
+				first.getContent().stream().map(JobSummary::getJobId).toList());
+		JobSummary newest = first.getContent().get(0);
+		assertEquals(cluster.getName(), newest.getClusterName());
+		assertEquals(3, newest.getTaskCount());
+		assertEquals(1L, newest.getTaskCountsByStatus().get(JobStatus.IN_PROGRESS));
+		assertEquals(2L, newest.getTaskCountsByStatus().get(JobStatus.COMPLETED));
+
+		PagedModel<JobSummary> last = jobController
+				.getJobSummaries(2, 2, null, null, clusterId, null, null).getBody();
+		assertEquals(List.of(jobIds.get(0)), last.getContent().stream().map(JobSummary::getJobId).toList());
+
+		PagedModel<JobSummary> inProgress = jobController
+				.getJobSummaries(0, 10, JobStatus.IN_PROGRESS, null, clusterId, null, null).getBody();
+		assertEquals(List.of(jobIds.get(4)), inProgress.getContent().stream().map(JobSummary::getJobId).toList());
+
+		PagedModel<JobSummary> range = jobController.getJobSummaries(0, 10, null, null, clusterId,
+				new Date(now + 1000), new Date(now + 3000)).getBody();
+		assertEquals(List.of(jobIds.get(2), jobIds.get(1)),
+				range.getContent().stream().map(JobSummary::getJobId).toList());
+
+		assertTrue(jobController.getJobSummaries(0, 10, null, JobType.SCALE_IN, clusterId, null, null).getBody()
+				.getContent().isEmpty());
+	}
+
+	@Test
+	void testArchivedJob() throws Exception {
+		Cluster cluster = new Cluster();
+		cluster.setName("archive-" + UUID.randomUUID().toString().substring(0, 8));
+		String clusterId = clusterRepository.save(cluster).getClusterId();
+		Date endedAt = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(40));
+		Task.TaskExecution execution = new Task.TaskExecution(endedAt);
+		execution.setEnd(endedAt);
+		LogFileUtils.getInstance().appendOutputLog("archived output\n", execution.getOutputLogFileName());
+		String[] idsW = new String[2];
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			Job job = new ClusterExecJob();
+			job.setCluster(clusterRepository.findById(clusterId).orElseThrow());
+			job.setCreatedAt(endedAt);
+			job.setEndedAt(endedAt);
+			job.setStatus(JobStatus.COMPLETED);
+			job.setTasks(new ArrayList<>());
+			Task task = new Task();
+			task.setJob(job);
+			task.setStatus(JobStatus.COMPLETED);
+			task.setExecutions(new ArrayList<>(List.of(execution)));
+			job.getTasks().add(task);
+			job = jobRepository.save(job);
+			idsW[0] = job.getJobId();
+			idsW[1] = job.getTasks().get(0).getId();
+		});
+
+		assertTrue(jobArchiveService.archiveJobs(new Date(endedAt.getTime() + 1000)) >= 1);
+		assertFalse(jobRepository.existsById(idsW[0]));
+		assertEquals(0, LogFileUtils.getInstance().getLogLength(execution.getOutputLogFileName()));
+
+		JsonNode archived = (JsonNode) jobController.getJob(idsW[0]).getBody();
+		assertEquals(idsW[0], archived.get("jobId").asString());
+		assertEquals(clusterId, archived.get("clusterId").asString());
+		assertEquals(idsW[1], archived.get("tasks").get(0).get("id").asString());
+		assertTrue(jobController.getArchivedJobIds().getBody().values().stream()
+				.anyMatch(jobIds -> jobIds.contains(idsW[0])));
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		logBody(jobController.getExecutionLog(idsW[1], 0, 9L, 0, null, null)).writeTo(output);
+		assertEquals("output\n", output.toString(StandardCharsets.UTF_8));
+
+		// Archived jobs have ended, waiting for them returns at once
+		ResponseEntity<?> waited = (ResponseEntity<?>) jobController.waitForJob(idsW[0], 60000).getResult();
+		assertEquals(HttpStatus.OK, waited.getStatusCode());
+		JobNotification notification = (JobNotification) waited.getBody();
+		assertEquals(JobStatus.COMPLETED, notification.getStatus());
+		assertEquals(clusterId, notification.getClusterId());
+		assertEquals(endedAt, notification.getEndedAt());
+	}
+
+	@Test
+	void testLongPollLog() throws Exception {
+		Task.TaskExecution execution = new Task.TaskExecution(new Date());
+		LogFileUtils.getInstance().appendOutputLog("first\n", execution.getOutputLogFileName());
+		String taskId = new TransactionTemplate(transactionManager).execute(status -> {
+			Job job = new ClusterExecJob();
+			job.setCreatedAt(new Date());
+			job.setStatus(JobStatus.IN_PROGRESS);
+			job.setTasks(new ArrayList<>());
+			Task task = new Task();
+			task.setJob(job);
+			task.setStatus(JobStatus.IN_PROGRESS);
+			task.setExecutions(new ArrayList<>(List.of(execution)));
+			job.getTasks().add(task);
+			return jobRepository.save(job).getTasks().get(0).getId();
+		});
+
+		DeferredResult<ResponseEntity<StreamingResponseBody>> waiting = jobController.getExecutionLog(taskId, 0, 6L,
+				60000, null, null);
+		// No thread waits for the log to grow
+		assertFalse(waiting.hasResult());
+		LogFileUtils.getInstance().appendOutputLog("second\n", execution.getOutputLogFileName());
+		for (int i = 0; i < 100 && !waiting.hasResult(); i++) {
+			Thread.sleep(50);
+		}
+		ResponseEntity<?> grown = (ResponseEntity<?>) waiting.getResult();
+		assertEquals(HttpStatus.OK, grown.getStatusCode());
+		assertEquals("13", grown.getHeaders().getFirst("X-Log-Length"));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		((StreamingResponseBody) grown.getBody()).writeTo(output);
+		assertEquals("second\n", output.toString(StandardCharsets.UTF_8));
+
+		ResponseEntity<?> unchanged = (ResponseEntity<?>) jobController
+				.getExecutionLog(taskId, 0, null, 60000, null, "\"6\"").getResult();
+		assertEquals(HttpStatus.OK, unchanged.getStatusCode());
+		ResponseEntity<?> notModified = (ResponseEntity<?>) jobController
+				.getExecutionLog(taskId, 0, null, 0, null, "\"13\"").getResult();
+		assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+	}
+
+	private static StreamingResponseBody logBody(DeferredResult<ResponseEntity<StreamingResponseBody>> result) {
+		return (StreamingResponseBody) ((ResponseEntity<?>) result.getResult()).getBody();
+	}
+
+	@Test
+	void testWaitAndCallback() throws Exception {
+		BlockingQueue<String[]> received = new LinkedBlockingQueue<>();
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/callback", exchange -> {
+			received.add(new String[] { new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8),
+					exchange.getRequestHeaders().getFirst(JobNotificationService.SIGNATURE_HEADER) });
+			// The first delivery fails and is retried
+			exchange.sendResponseHeaders(requests.incrementAndGet() == 1 ? 503 : 204, -1);
+			exchange.close();
+		});
+		server.start();
+		try {
+			String jobId = new TransactionTemplate(transactionManager).execute(status -> {
+				Job job = new ClusterExecJob();
+				job.setCreatedAt(new Date());
+				job.setStatus(JobStatus.IN_PROGRESS);
+				return jobRepository.save(job).getJobId();
+			});
+			jobController.setJobCallback(jobId,
+					"http://127.0.0.1:" + server.getAddress().getPort() + "/callback?token=abc");
+
+			DeferredResult<ResponseEntity<JobNotification>> immediate = jobController.waitForJob(jobId, 0);
+			assertEquals(HttpStatus.ACCEPTED, ((ResponseEntity<?>) immediate.getResult()).getStatusCode());
+			DeferredResult<ResponseEntity<JobNotification>> waiting = jobController.waitForJob(jobId, 60000);
+			assertFalse(waiting.hasResult());
+
+			new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+				Job job = jobRepository.findById(jobId).orElseThrow();
+				job.setStatus(JobStatus.FAILED);
+				job.setEndedAt(new Date());
+			});
+			// Completed when the transaction committed
+			ResponseEntity<?> waited = (ResponseEntity<?>) waiting.getResult();
+			assertEquals(HttpStatus.OK, waited.getStatusCode());
+			assertEquals(JobStatus.FAILED, ((JobNotification) waited.getBody()).getStatus());
+			assertEquals(JobType.CLUSTER_EXEC, ((JobNotification) waited.getBody()).getJobType());
+
+			String[] first = received.poll(30, TimeUnit.SECONDS);
+			String[] retried = received.poll(30, TimeUnit.SECONDS);
+			assertEquals(first[0], retried[0]);
+			assertTrue(retried[0].contains(jobId));
+			assertTrue(retried[0].contains("FAILED"));
+			assertEquals(jobNotificationService.sign(retried[0].getBytes(StandardCharsets.UTF_8)), retried[1]);
+			assertTrue(retried[1].startsWith("sha256="));
+
+			// Saving the ended job again does not notify it again
+			new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+				Job job = jobRepository.findById(jobId).orElseThrow();
+				job.setUpdatedAt(new Date());
+			});
+			assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+
+			// Setting a callback URL on the ended job does
+			jobController.setJobCallback(jobId,
+					"http://127.0.0.1:" + server.getAddress().getPort() + "/callback?token=def");
+			assertEquals(first[0], received.poll(30, TimeUnit.SECONDS)[0]);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	void testCallbackNeedsSecret() {
+		ReflectionTestUtils.setField(jobNotificationService, "secret", "");
+		try {
+			assertThrows(IllegalArgumentException.class,
+					() -> jobController.setJobCallback("any-job", "http://127.0.0.1/callback"));
+		} finally {
+			ReflectionTestUtils.setField(jobNotificationService, "secret", "test-secret");
+		}
+	}
+
+	@Test
+	void testLogSearch() throws Exception {
+		String marker = "marker" + UUID.randomUUID().toString().replace("-", "");
+		List<Task.TaskExecution> executions = new ArrayList<>();
+		String[] logs = { "Setting up kubeadm\nE: Unable to locate package " + marker + "\n",
+				"unable " + marker + " to locate package\nstill unable " + marker + "\n" };
+		for (String log : logs) {
+			Task.TaskExecution execution = new Task.TaskExecution(new Date());
+			execution.setEnd(new Date());
+			LogFileUtils.getInstance().appendOutputLog(log, execution.getOutputLogFileName());
+			executions.add(execution);
+		}
+		String[] idsW = new String[2];
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			Job job = new ClusterExecJob();
+			job.setCreatedAt(new Date());
+			job.setStatus(JobStatus.FAILED);
+			job.setTasks(new ArrayList<>());
+			Task task = new Task();
+			task.setJob(job);
+			task.setTargetNodeId("node-1");
+			task.setStatus(JobStatus.FAILED);
+			task.setExecutions(new ArrayList<>(executions));
+			job.getTasks().add(task);
+			job = jobRepository.save(job);
+			idsW[0] = job.getJobId();
+			idsW[1] = job.getTasks().get(0).getId();
+		});
+		assertTrue(logSearchService.indexEndedExecutions() >= 2);
+
+		List<LogSearchHit> hits = jobController.searchLogs(marker + " unable", 10).getBody();
+		assertEquals(3, hits.size());
+		// Newest execution and line first
+		assertEquals(1, hits.get(0).getExecutionIndex());
+		assertEquals(logs[1].indexOf('\n') + 1, hits.get(0).getLineOffset());
+		assertEquals("still unable " + marker, hits.get(0).getLine());
+		assertEquals(1, hits.get(1).getExecutionIndex());
+		assertEquals(0, hits.get(1).getLineOffset());
+		assertEquals(0, hits.get(2).getExecutionIndex());
+
+		List<LogSearchHit> phraseHits = jobController.searchLogs("\"unable to locate\" " + marker, 10).getBody();
+		assertEquals(1, phraseHits.size());
+		LogSearchHit hit = phraseHits.get(0);
+		assertEquals(idsW[0], hit.getJobId());
+		assertEquals(idsW[1], hit.getTaskId());
+		assertEquals("node-1", hit.getNodeId());
+		assertEquals(0, hit.getExecutionIndex());
+		assertEquals(19, hit.getLineOffset());
+		assertEquals("E: Unable to locate package " + marker, hit.getLine());
+
+		// The lines of the newest execution miss the phrase, the search goes on to older ones
+		assertEquals(List.of(hit.getLine()), jobController.searchLogs("\"unable to locate\" " + marker, 1).getBody()
+				.stream().map(LogSearchHit::getLine).toList());
+	}
+}
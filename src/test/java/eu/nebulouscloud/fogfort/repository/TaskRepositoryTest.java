@@ -0,0 +1,147 @@
+package eu.nebulouscloud.fogfort.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.model.jobs.Task.TaskExecution;
+
+/**
+ * Records the SQL written when executions are added to a task and finished, and
+ * checks that only the rows and columns that changed are written.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DirtiesContext
+class TaskRepositoryTest {
+
+	@TestConfiguration
+	static class StatementRecording {
+		@Bean
+		static BeanPostProcessor recordStatements() {
+			return new BeanPostProcessor() {
+				@Override
+				public Object postProcessBeforeInitialization(Object bean, String beanName) {
+					if (bean instanceof LocalContainerEntityManagerFactoryBean entityManagerFactory) {
+						entityManagerFactory.getJpaPropertyMap().put(AvailableSettings.STATEMENT_INSPECTOR,
+								new RecordingStatementInspector());
+					}
+					return bean;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Keeps the inserts, updates and deletes sent to the database.
+	 */
+	static class RecordingStatementInspector implements StatementInspector {
+		private static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+		@Override
+		public String inspect(String sql) {
+			String statement = sql.toLowerCase(Locale.ROOT);
+			if (!statement.startsWith("select")) {
+				STATEMENTS.add(statement);
+			}
+			return sql;
+		}
+	}
+
+	@Autowired
+	private TaskRepository taskRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void testExecutionsAreWrittenOneRowAtATime() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		String taskId = transactionTemplate.execute(status -> {
+			Task task = new Task();
+			task.setDescription("targeted updates");
+			task.setStatus(JobStatus.IN_PROGRESS);
+			task.setExecutions(new ArrayList<>());
+			task.getExecutions().add(finished(new TaskExecution(new Date())));
+			return taskRepository.save(task).getId();
+		});
+
+		// A retry inserts its execution and leaves the first one alone
+		List<String> statements = recordStatements(transactionTemplate, () -> {
+			Task task = taskRepository.findById(taskId).orElseThrow();
+			task.setCurrentRetry(1);
+			task.getExecutions().add(new TaskExecution(new Date()));
+		});
+		assertEquals(1, count(statements, "insert into task_execution"), statements.toString());
+		assertEquals(0, count(statements, "delete from task_execution"), statements.toString());
+		String taskUpdate = only(statements, "update task set");
+		assertTrue(taskUpdate.contains("currentretry"), taskUpdate);
+		assertFalse(taskUpdate.contains("description"), taskUpdate);
+
+		// Finishing it updates the columns that changed, in its row only
+		statements = recordStatements(transactionTemplate, () -> {
+			Task task = taskRepository.findById(taskId).orElseThrow();
+			finished(task.getExecutions().get(1));
+			task.setStatus(JobStatus.COMPLETED);
+		});
+		assertEquals(0, count(statements, "insert into task_execution"), statements.toString());
+		assertEquals(0, count(statements, "delete from task_execution"), statements.toString());
+		String executionUpdate = only(statements, "update task_execution set");
+		assertTrue(executionUpdate.contains("exitstatus"), executionUpdate);
+		assertFalse(executionUpdate.contains("outputlogfilename"), executionUpdate);
+		assertFalse(executionUpdate.contains("start"), executionUpdate);
+		String statusUpdate = only(statements, "update task set");
+		assertTrue(statusUpdate.contains("status"), statusUpdate);
+		assertFalse(statusUpdate.contains("description"), statusUpdate);
+
+		transactionTemplate.executeWithoutResult(status -> {
+			List<TaskExecution> executions = taskRepository.findById(taskId).orElseThrow().getExecutions();
+			assertEquals(2, executions.size());
+			assertTrue(executions.stream().allMatch(TaskExecution::terminated));
+		});
+	}
+
+	private static TaskExecution finished(TaskExecution execution) {
+		execution.setEnd(new Date());
+		execution.setSuccess(true);
+		execution.setExitStatus(0);
+		return execution;
+	}
+
+	private static List<String> recordStatements(TransactionTemplate transactionTemplate, Runnable change) {
+		RecordingStatementInspector.STATEMENTS.clear();
+		transactionTemplate.executeWithoutResult(status -> change.run());
+		return new ArrayList<>(RecordingStatementInspector.STATEMENTS);
+	}
+
+	private static long count(List<String> statements, String prefix) {
+		return statements.stream().filter(statement -> statement.startsWith(prefix)).count();
+	}
+
+	private static String only(List<String> statements, String prefix) {
+		List<String> matching = statements.stream().filter(statement -> statement.startsWith(prefix)).toList();
+		assertEquals(1, matching.size(), statements.toString());
+		return matching.get(0);
+	}
+}
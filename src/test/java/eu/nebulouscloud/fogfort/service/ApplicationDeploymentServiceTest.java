@@ -0,0 +1,147 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+
+import eu.nebulouscloud.fogfort.dto.ClusterApplication;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+
+/**
+ * Applies applications to a cluster whose master is an embedded SSH server.
+ * The server echoes the apply script back, result markers included, so every
+ * application it is sent counts as applied.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DirtiesContext
+class ApplicationDeploymentServiceTest {
+
+	private static EmbeddedSSHServer sshServer;
+
+	@Autowired
+	private ApplicationDeploymentService applicationDeploymentService;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private NodeRepository nodeRepository;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private String clusterId;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		sshServer = new EmbeddedSSHServer();
+	}
+
+	@AfterAll
+	static void stopServer() throws Exception {
+		sshServer.close();
+	}
+
+	@BeforeEach
+	void defineCluster() {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		Node master = new Node();
+		master.setName("master-" + suffix);
+		master.setSshConnectionParameters(sshServer.getConnectionParameters());
+		Cluster cluster = new Cluster();
+		cluster.setName("apps-" + suffix);
+		cluster.setMasterNodeName(master.getName());
+		cluster.setNodes(new ArrayList<>());
+		cluster.getNodes().add(nodeRepository.save(master));
+		clusterId = clusterRepository.save(cluster).getClusterId();
+	}
+
+	@Test
+	void testBatchingUnchangedSkipAndForce() throws Exception {
+		String jobId = applicationDeploymentService.submit(clusterId, application("web", "kind: Deployment"));
+		assertEquals(jobId, applicationDeploymentService.submit(clusterId, application("db", "kind: StatefulSet")),
+				"applications submitted together were not batched");
+		Job job = waitForJob(jobId);
+		assertEquals(JobStatus.COMPLETED, job.getStatus());
+		assertEquals(1, job.getTasks().size(), "the batch was not applied in one script");
+		assertEquals("applied", job.getVariables().get("application.web"));
+		assertEquals("applied", job.getVariables().get("application.db"));
+
+		job = waitForJob(applicationDeploymentService.submit(clusterId, application("web", "kind: Deployment")));
+		assertEquals(JobStatus.COMPLETED, job.getStatus());
+		assertTrue(job.getTasks().isEmpty(), "an unchanged application was applied again");
+		assertEquals("unchanged", job.getVariables().get("application.web"));
+
+		ClusterApplication forced = application("web", "kind: Deployment");
+		forced.setForce(true);
+		job = waitForJob(applicationDeploymentService.submit(clusterId, forced));
+		assertEquals(1, job.getTasks().size(), "a forced application was skipped");
+		assertEquals("applied", job.getVariables().get("application.web"));
+
+		job = waitForJob(
+				applicationDeploymentService.submit(clusterId, application("web", "kind: Deployment\nreplicas: 2")));
+		assertEquals(1, job.getTasks().size());
+		assertEquals("applied", job.getVariables().get("application.web"));
+	}
+
+	@Test
+	void testHelmArgumentsAreQuoted() throws Exception {
+		Job job = waitForJob(applicationDeploymentService.submit(clusterId,
+				new ClusterApplication("repo/chart; touch pwned", "helm", "web", "apply", "--set a=$(id)  -n apps",
+						false)));
+		assertEquals(JobStatus.COMPLETED, job.getStatus());
+		Task task = job.getTasks().get(0);
+		try (InputStream input = LogFileUtils.getInstance()
+				.getLogInputStream(task.getExecutions().get(task.getExecutions().size() - 1).getOutputLogFileName())) {
+			String content = StreamUtils.copyToString(input, StandardCharsets.UTF_8);
+			assertTrue(content.contains(
+					"helm upgrade --install 'web' 'repo/chart; touch pwned' '--set' 'a=$(id)' '-n' 'apps'; then"),
+					content);
+		}
+	}
+
+	private static ClusterApplication application(String appName, String appFile) {
+		return new ClusterApplication(appFile, "kubectl", appName, "apply", null, false);
+	}
+
+	private Job waitForJob(String jobId) throws InterruptedException {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		for (int i = 0; i < 300; i++) {
+			Job job = template.execute(status -> {
+				Job j = jobRepository.findById(jobId).orElseThrow();
+				j.getTasks().forEach(task -> task.getExecutions().size());
+				j.getVariables().size();
+				return j;
+			});
+			if (job.getEndedAt() != null) {
+				return job;
+			}
+			Thread.sleep(100);
+		}
+		throw new AssertionError("Job " + jobId + " did not end");
+	}
+}
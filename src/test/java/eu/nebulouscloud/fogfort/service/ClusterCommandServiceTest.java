@@ -0,0 +1,148 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+
+import eu.nebulouscloud.fogfort.dto.ClusterCommand;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+
+/**
+ * Runs scripts on a cluster whose nodes are all served by an embedded SSH
+ * server and checks the exit codes, the job and the aggregated log once the job
+ * ended.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DirtiesContext
+class ClusterCommandServiceTest {
+
+	private static EmbeddedSSHServer sshServer;
+
+	@Autowired
+	private ClusterCommandService clusterCommandService;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private NodeRepository nodeRepository;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private String clusterId;
+	private List<String> nodeNames;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		sshServer = new EmbeddedSSHServer();
+	}
+
+	@AfterAll
+	static void stopServer() throws Exception {
+		sshServer.close();
+	}
+
+	@BeforeEach
+	void defineCluster() {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		nodeNames = List.of("master-" + suffix, "worker-a-" + suffix, "worker-b-" + suffix);
+		Cluster cluster = new Cluster();
+		cluster.setName("exec-" + suffix);
+		cluster.setMasterNodeName(nodeNames.get(0));
+		cluster.setNodes(new ArrayList<>());
+		for (String nodeName : nodeNames) {
+			Node node = new Node();
+			node.setName(nodeName);
+			node.setSshConnectionParameters(sshServer.getConnectionParameters());
+			cluster.getNodes().add(nodeRepository.save(node));
+		}
+		clusterId = clusterRepository.save(cluster).getClusterId();
+	}
+
+	@Test
+	void testRunOnAllNodes() throws Exception {
+		String jobId = clusterCommandService.run(clusterId, new ClusterCommand("echo hello", null, 2, 10000L));
+
+		Job job = waitForJob(jobId);
+		assertEquals(JobStatus.COMPLETED, job.getStatus());
+		for (String nodeName : nodeNames) {
+			assertEquals("0", job.getVariables().get("exitCode." + nodeName));
+		}
+		assertEquals(1, job.getTasks().size());
+		Task task = job.getTasks().get(0);
+		assertEquals(JobStatus.COMPLETED, task.getStatus());
+		try (InputStream input = LogFileUtils.getInstance()
+				.getLogInputStream(task.getExecutions().get(0).getOutputLogFileName())) {
+			String content = StreamUtils.copyToString(input, StandardCharsets.UTF_8);
+			for (String nodeName : nodeNames) {
+				assertTrue(content.contains("[" + nodeName + "] echo hello\n"), content);
+				assertTrue(content.contains("[" + nodeName + "] exited with status 0\n"), content);
+			}
+			assertTrue(content.lines().allMatch(line -> nodeNames.stream().anyMatch(
+					nodeName -> line.startsWith("[" + nodeName + "] "))), "a line is not prefixed: " + content);
+		}
+	}
+
+	@Test
+	void testRunOnSelectedNodes() throws Exception {
+		String jobId = clusterCommandService.run(clusterId,
+				new ClusterCommand("exit 3", List.of(nodeNames.get(2)), null, 10000L));
+
+		Job job = waitForJob(jobId);
+		assertEquals(JobStatus.FAILED, job.getStatus());
+		assertEquals("3", job.getVariables().get("exitCode." + nodeNames.get(2)));
+		assertNull(job.getVariables().get("exitCode." + nodeNames.get(0)));
+	}
+
+	@Test
+	void testReturnsBeforeTheScriptEnded() throws Exception {
+		String jobId = clusterCommandService.run(clusterId, new ClusterCommand("sleep 2", null, null, 10000L));
+
+		assertEquals(JobStatus.IN_PROGRESS, jobRepository.findById(jobId).orElseThrow().getStatus());
+		assertEquals(JobStatus.COMPLETED, waitForJob(jobId).getStatus());
+	}
+
+	private Job waitForJob(String jobId) throws InterruptedException {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		for (int i = 0; i < 300; i++) {
+			Job job = template.execute(status -> {
+				Job j = jobRepository.findById(jobId).orElseThrow();
+				j.getTasks().forEach(task -> task.getExecutions().size());
+				j.getVariables().size();
+				return j;
+			});
+			if (job.getEndedAt() != null) {
+				return job;
+			}
+			Thread.sleep(100);
+		}
+		throw new AssertionError("Job " + jobId + " did not end");
+	}
+}
@@ -0,0 +1,211 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+
+import eu.nebulouscloud.fogfort.cloud.AWSCloudProvider;
+import eu.nebulouscloud.fogfort.dto.CloudProviderType;
+import eu.nebulouscloud.fogfort.model.Cloud;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.ClusterStatus;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.NodeCandidate;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.CloudRepository;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.NodeCandidateRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
+
+/**
+ * Tears down a cluster whose workers are spread over two clouds of a stubbed
+ * provider. The master is an embedded SSH server that echoes the drain script
+ * back, so the script it was sent can be read from the task log.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DirtiesContext
+class ClusterTeardownServiceTest {
+
+	private static EmbeddedSSHServer sshServer;
+
+	@MockitoBean
+	private AWSCloudProvider cloudProvider;
+
+	@Autowired
+	private ClusterTeardownService clusterTeardownService;
+	@Autowired
+	private CloudRepository cloudRepository;
+	@Autowired
+	private NodeCandidateRepository nodeCandidateRepository;
+	@Autowired
+	private NodeRepository nodeRepository;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private String suffix;
+	private String cloudA;
+	private String cloudB;
+	private String clusterId;
+	private List<String> workerIds;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		sshServer = new EmbeddedSSHServer();
+	}
+
+	@AfterAll
+	static void stopServer() throws Exception {
+		sshServer.close();
+	}
+
+	@BeforeEach
+	void defineCluster() {
+		suffix = UUID.randomUUID().toString().substring(0, 8);
+		cloudA = "a-" + suffix;
+		cloudB = "b-" + suffix;
+		NodeCandidate candidateA = saveNodeCandidate(cloudA);
+		NodeCandidate candidateB = saveNodeCandidate(cloudB);
+
+		Cluster cluster = new Cluster();
+		cluster.setName("teardown-" + suffix);
+		cluster.setNodes(new ArrayList<>());
+		Node master = saveNode("master-" + suffix, candidateA);
+		master.setSshConnectionParameters(sshServer.getConnectionParameters());
+		cluster.setMasterNodeName(master.getName());
+		cluster.getNodes().add(nodeRepository.save(master));
+		workerIds = new ArrayList<>();
+		for (String name : List.of("worker-a0-", "worker-a1-", "worker-b0'-")) {
+			Node worker = saveNode(name + suffix, name.startsWith("worker-a") ? candidateA : candidateB);
+			cluster.getNodes().add(worker);
+			workerIds.add(worker.getId());
+		}
+		cluster.setStatus(ClusterStatus.SCALING);
+		clusterId = clusterRepository.save(cluster).getClusterId();
+
+		when(cloudProvider.deleteNodes(any(), any()))
+				.thenAnswer(invocation -> new TaskExecutionWithResult<Void>(new Date()).withResult(null));
+	}
+
+	@Test
+	void testScaleInDrainsOnceAndTerminatesPerCloud() throws Exception {
+		String jobId = clusterTeardownService.runTeardown(clusterId, workerIds);
+
+		verify(cloudProvider).deleteNodes(argThat(cloud -> cloud.getCloudId().equals(cloudA)),
+				argThat(nodes -> nodes.size() == 2));
+		verify(cloudProvider).deleteNodes(argThat(cloud -> cloud.getCloudId().equals(cloudB)),
+				argThat(nodes -> nodes.size() == 1));
+		verify(cloudProvider, never()).deleteNode(any(), any());
+
+		String log = new TransactionTemplate(transactionManager).execute(status -> {
+			Job job = jobRepository.findById(jobId).orElseThrow();
+			assertEquals(JobStatus.COMPLETED, job.getStatus());
+			Cluster cluster = clusterRepository.findById(clusterId).orElseThrow();
+			assertEquals(ClusterStatus.DEPLOYED, cluster.getStatus());
+			assertEquals(List.of("master-" + suffix), cluster.getNodes().stream().map(Node::getName).toList());
+			// One drain script for all workers
+			assertEquals(1, job.getTasks().size());
+			Task task = job.getTasks().get(0);
+			return task.getExecutions().get(0).getOutputLogFileName();
+		});
+		try (InputStream input = LogFileUtils.getInstance().getLogInputStream(log)) {
+			String content = StreamUtils.copyToString(input, StandardCharsets.UTF_8);
+			for (String name : List.of("worker-a0-", "worker-a1-", "worker-b0'-")) {
+				// Names are quoted, so a quote in one does not end the word
+				assertTrue(content.contains("drain_node '" + (name + suffix).replace("'", "'\\''") + "' ''"),
+						content);
+			}
+		}
+	}
+
+	@Test
+	void testFailedTerminationKeepsNodes() {
+		when(cloudProvider.deleteNodes(argThat(cloud -> cloud != null && cloud.getCloudId().equals(cloudB)), any()))
+				.thenAnswer(invocation -> new TaskExecutionWithResult<Void>(new Date())
+						.withException(new RuntimeException("throttled")));
+
+		String jobId = clusterTeardownService.runTeardown(clusterId, workerIds);
+
+		assertEquals(JobStatus.FAILED, jobRepository.findById(jobId).orElseThrow().getStatus());
+		new TransactionTemplate(transactionManager).execute(status -> {
+			Cluster cluster = clusterRepository.findById(clusterId).orElseThrow();
+			assertEquals(ClusterStatus.FAILED, cluster.getStatus());
+			assertEquals(List.of("master-" + suffix, "worker-b0'-" + suffix),
+					cluster.getNodes().stream().map(Node::getName).toList());
+			return null;
+		});
+	}
+
+	@Test
+	void testDeleteClusterSkipsDrain() {
+		String jobId = clusterTeardownService.runTeardown(clusterId, null);
+
+		verify(cloudProvider).deleteNodes(argThat(cloud -> cloud.getCloudId().equals(cloudA)),
+				argThat(nodes -> nodes.size() == 3));
+		verify(cloudProvider).deleteNodes(argThat(cloud -> cloud.getCloudId().equals(cloudB)),
+				argThat(nodes -> nodes.size() == 1));
+		assertTrue(clusterRepository.findById(clusterId).isEmpty());
+		new TransactionTemplate(transactionManager).execute(status -> {
+			Job job = jobRepository.findById(jobId).orElseThrow();
+			assertEquals(JobStatus.COMPLETED, job.getStatus());
+			assertNull(job.getCluster());
+			assertEquals("teardown-" + suffix, job.getVariables().get("clusterName"));
+			assertTrue(job.getTasks().isEmpty());
+			return null;
+		});
+	}
+
+	private NodeCandidate saveNodeCandidate(String cloudId) {
+		Cloud cloud = new Cloud();
+		cloud.setCloudId(cloudId);
+		cloud.setCloudProvider(CloudProviderType.AWS_EC2);
+		cloudRepository.save(cloud);
+		NodeCandidate nodeCandidate = new NodeCandidate();
+		nodeCandidate.setCloud(cloud);
+		return nodeCandidateRepository.save(nodeCandidate);
+	}
+
+	private Node saveNode(String name, NodeCandidate nodeCandidate) {
+		Node node = new Node();
+		node.setName(name);
+		node.setNodeCandidate(nodeCandidate);
+		node.setDeploymentStep(DeploymentStep.JOINED);
+		node.setProviderId("i-" + name);
+		return nodeRepository.save(node);
+	}
+}
@@ -0,0 +1,330 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.cloud.AWSCloudProvider;
+import eu.nebulouscloud.fogfort.cloud.CloudProvider.NodeCreationDetails;
+import eu.nebulouscloud.fogfort.dto.CloudProviderType;
+import eu.nebulouscloud.fogfort.model.Cloud;
+import eu.nebulouscloud.fogfort.model.Cluster;
+import eu.nebulouscloud.fogfort.model.ClusterStatus;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.NodeCandidate;
+import eu.nebulouscloud.fogfort.model.jobs.ClusterExecJob;
+import eu.nebulouscloud.fogfort.model.jobs.DeployClusterJob;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.CloudRepository;
+import eu.nebulouscloud.fogfort.repository.ClusterRepository;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.NodeCandidateRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.ScriptPhase;
+import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
+
+/**
+ * Runs install script phases on a node served by an embedded SSH server that
+ * runs them with bash. Checks that a failed phase is retried without rerunning
+ * the phases before it, that completed phases are skipped when the script is
+ * run again, and that the task ends FAILED whichever way a phase fails. Worker
+ * instances come from a stubbed cloud provider and are served by the same
+ * server.
+ */
+@SpringBootTest(properties = { "fogfort.deployment.script-phase-retry-delay-millis=10",
+		"fogfort.deployment.speculative-spare-workers=1" })
+@ActiveProfiles("test")
+@DirtiesContext
+class DeployClusterServiceTest {
+
+	private static EmbeddedSSHServer sshServer;
+
+	@MockitoBean
+	private AWSCloudProvider cloudProvider;
+	@MockitoSpyBean
+	private DeployClusterService deployClusterService;
+	@Autowired
+	private JobSchedulerService jobSchedulerService;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private NodeRepository nodeRepository;
+	@Autowired
+	private ClusterRepository clusterRepository;
+	@Autowired
+	private CloudRepository cloudRepository;
+	@Autowired
+	private NodeCandidateRepository nodeCandidateRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private String suffix;
+	private String jobId;
+	private String nodeId;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		sshServer = new EmbeddedSSHServer(true);
+	}
+
+	@AfterAll
+	static void stopServer() throws Exception {
+		sshServer.close();
+	}
+
+	@BeforeEach
+	void createJobAndNode() {
+		suffix = UUID.randomUUID().toString().substring(0, 8);
+		Job job = new ClusterExecJob();
+		job.setCreatedAt(new Date());
+		job.setStatus(JobStatus.IN_PROGRESS);
+		jobId = jobRepository.save(job).getJobId();
+		Node node = new Node();
+		node.setName("node-" + suffix);
+		node.setSshConnectionParameters(sshServer.getConnectionParameters());
+		nodeId = nodeRepository.save(node).getId();
+	}
+
+	@Test
+	void testRetryAndResume() throws Exception {
+		List<ScriptPhase> phases = List.of(new ScriptPhase("FIRST_" + suffix, "echo first >> $HOME/runs-" + suffix),
+				new ScriptPhase("FLAKY_" + suffix,
+						"if [ ! -f $HOME/flaky-" + suffix + " ]; then touch $HOME/flaky-" + suffix + "; exit 1; fi"),
+				new ScriptPhase("LAST_" + suffix, "echo last"));
+
+		Task task = jobSchedulerService
+				.getTask(deployClusterService.executeScriptPhasesAtNode(jobId, nodeId, "Install", phases).join());
+		assertEquals(JobStatus.COMPLETED, task.getStatus());
+		assertEquals(1, task.getCurrentRetry());
+		assertEquals(List.of("FIRST_", "FLAKY_", "FLAKY_", "LAST_"),
+				task.getExecutions().stream().map(e -> e.getPhase().replace(suffix, "")).toList());
+		assertEquals(List.of(true, false, true, true),
+				task.getExecutions().stream().map(Task.TaskExecution::isSuccess).toList());
+		assertEquals(DeploymentStep.JOINED, nodeRepository.findById(nodeId).orElseThrow().getDeploymentStep());
+
+		// Run again, the phases find their completion markers
+		Task resumed = jobSchedulerService
+				.getTask(deployClusterService.executeScriptPhasesAtNode(jobId, nodeId, "Install", phases).join());
+		assertEquals(JobStatus.COMPLETED, resumed.getStatus());
+		assertEquals(3, resumed.getExecutions().size());
+		assertEquals(List.of("first"), Files.readAllLines(sshServer.getHome().resolve("runs-" + suffix)));
+	}
+
+	@Test
+	void testFailedAfterRetries() {
+		List<ScriptPhase> phases = List.of(new ScriptPhase("FAILING_" + suffix, "exit 1"));
+		assertThrows(CompletionException.class,
+				() -> deployClusterService.executeScriptPhasesAtNode(jobId, nodeId, "Install", phases).join());
+
+		Task task = readOnlyTask();
+		assertEquals(JobStatus.FAILED, task.getStatus());
+		// The first run and the two retries
+		assertEquals(3, task.getExecutions().size());
+		assertEquals(2, task.getCurrentRetry());
+	}
+
+	@Test
+	void testFailedWhenPhaseCannotRun() {
+		// A phase without a body cannot be wrapped into a script
+		List<ScriptPhase> phases = List.of(new ScriptPhase("FIRST_" + suffix, "echo first"),
+				new ScriptPhase("BROKEN_" + suffix, null));
+		assertThrows(CompletionException.class,
+				() -> deployClusterService.executeScriptPhasesAtNode(jobId, nodeId, "Install", phases).join());
+
+		Task task = readOnlyTask();
+		assertEquals(JobStatus.FAILED, task.getStatus());
+		assertNotNull(task.getEndedAt());
+		assertEquals(2, task.getExecutions().size());
+		assertNotNull(task.getExecutions().get(1).getEnd());
+	}
+
+	@Test
+	void testWorkersInstallWhileJoinCommandIsCreated() throws Exception {
+		Cluster cluster = defineCluster(1);
+		DeployClusterJob deployJob = new DeployClusterJob();
+		deployJob.setCluster(cluster);
+		deployJob.setCreatedAt(new Date());
+		deployJob.setStatus(JobStatus.IN_PROGRESS);
+		deployJob.setVariables(new HashMap<>());
+		String deployJobId = jobRepository.save(deployJob).getJobId();
+
+		CompletableFuture<String> joinCommand = new CompletableFuture<>();
+		doReturn(joinCommand).when(deployClusterService).getKubeadmJoinCommand(deployJobId);
+		doReturn(List.of(new ScriptPhase("WORKER_ENV_" + suffix, "echo env"),
+				new ScriptPhase("WORKER_START_" + suffix, "echo \"$variables_kubeCommand\" > $HOME/joined-" + suffix)))
+				.when(deployClusterService).getWorkerInstallPhases(deployJobId);
+
+		CompletableFuture<Void> wave = deployClusterService.createWorkerNodes(deployJobId);
+		String workerId = cluster.getWorkerNodes().get(0).getId();
+		long deadline = System.currentTimeMillis() + 30000;
+		while (nodeRepository.findById(workerId).orElseThrow().getDeploymentStep() != DeploymentStep.INSTALLED
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		// Provisioned and installed before the join command exists
+		assertEquals(DeploymentStep.INSTALLED, nodeRepository.findById(workerId).orElseThrow().getDeploymentStep());
+		assertFalse(wave.isDone());
+
+		joinCommand.complete("kubeadm join 10.0.0.1:6443 --token 'abc'");
+		wave.get(30, TimeUnit.SECONDS);
+		assertEquals(DeploymentStep.JOINED, nodeRepository.findById(workerId).orElseThrow().getDeploymentStep());
+		assertEquals(List.of("kubeadm join 10.0.0.1:6443 --token 'abc'"),
+				Files.readAllLines(sshServer.getHome().resolve("joined-" + suffix)));
+	}
+
+	@Test
+	void testResumedWaveDiscardsSpareAndStraggler() throws Exception {
+		Cluster cluster = defineCluster(1);
+		// Left by a wave interrupted by a restart
+		Node spare = new Node();
+		spare.setName("cluster-" + suffix + "-spare");
+		spare.setNodeCandidate(cluster.getWorkerNodes().get(0).getNodeCandidate());
+		spare.setProviderId("i-spare-" + suffix);
+		spare.setSpeculative(true);
+		Node straggler = new Node();
+		straggler.setName("worker-" + suffix + "-straggler");
+		straggler.setNodeCandidate(spare.getNodeCandidate());
+		straggler.setSpeculative(true);
+		cluster.getNodes().add(nodeRepository.save(spare));
+		cluster.getNodes().add(nodeRepository.save(straggler));
+		clusterRepository.save(cluster);
+		assertEquals(1, cluster.getWorkerNodes().size());
+		String workerId = cluster.getWorkerNodes().get(0).getId();
+
+		DeployClusterJob deployJob = new DeployClusterJob();
+		deployJob.setCluster(cluster);
+		deployJob.setCreatedAt(new Date());
+		deployJob.setStatus(JobStatus.IN_PROGRESS);
+		deployJob.setVariables(new HashMap<>());
+		String deployJobId = jobRepository.save(deployJob).getJobId();
+		doReturn(CompletableFuture.completedFuture("kubeadm join 10.0.0.1:6443")).when(deployClusterService)
+				.getKubeadmJoinCommand(deployJobId);
+		doReturn(List.of(new ScriptPhase("WORKER_ENV_" + suffix, "echo env"),
+				new ScriptPhase("WORKER_START_" + suffix, "echo joined"))).when(deployClusterService)
+				.getWorkerInstallPhases(deployJobId);
+
+		deployClusterService.createWorkerNodes(deployJobId).get(30, TimeUnit.SECONDS);
+		verify(cloudProvider).deleteNode(any(), argThat(node -> spare.getProviderId().equals(node.getProviderId())));
+		assertEquals(DeploymentStep.JOINED, nodeRepository.findById(workerId).orElseThrow().getDeploymentStep());
+		// Neither was deployed as a worker, and the spare of this wave is discarded too
+		String clusterId = cluster.getClusterId();
+		Set<String> nodeIds = new TransactionTemplate(transactionManager).execute(status -> clusterRepository
+				.findById(clusterId).orElseThrow().getNodes().stream().map(Node::getId).collect(Collectors.toSet()));
+		assertEquals(Set.of(nodeId, workerId), nodeIds);
+	}
+
+	@Test
+	void testScaleOutRequestsMergeIntoOneWave() throws Exception {
+		Cluster cluster = defineCluster(2);
+		CompletableFuture<String> joinCommand = new CompletableFuture<>();
+		doReturn(joinCommand).when(deployClusterService).getKubeadmJoinCommand(anyString());
+		doReturn(List.of(new ScriptPhase("WORKER_ENV_" + suffix, "echo env"),
+				new ScriptPhase("WORKER_START_" + suffix, "echo joined"))).when(deployClusterService)
+				.getWorkerInstallPhases(anyString());
+		List<String> workerIds = cluster.getWorkerNodes().stream().map(Node::getId).toList();
+
+		// The first wave waits for the join command, so the second request merges into it
+		String jobId = deployClusterService.addToScaleOutWave(cluster.getClusterId(), null,
+				List.of(workerIds.get(0)));
+		assertEquals(jobId,
+				deployClusterService.addToScaleOutWave(cluster.getClusterId(), null, List.of(workerIds.get(1))));
+
+		joinCommand.complete("kubeadm join 10.0.0.1:6443");
+		long deadline = System.currentTimeMillis() + 30000;
+		while (jobRepository.findById(jobId).orElseThrow().getStatus() == JobStatus.IN_PROGRESS
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(JobStatus.COMPLETED, jobRepository.findById(jobId).orElseThrow().getStatus());
+		for (String workerId : workerIds) {
+			assertEquals(DeploymentStep.JOINED, nodeRepository.findById(workerId).orElseThrow().getDeploymentStep());
+		}
+		assertEquals(ClusterStatus.DEPLOYED,
+				clusterRepository.findById(cluster.getClusterId()).orElseThrow().getStatus());
+
+		// Once the wave has ended, a request starts a new one
+		assertNotEquals(jobId, deployClusterService.addToScaleOutWave(cluster.getClusterId(), null, List.of()));
+	}
+
+	/**
+	 * Defines a cluster whose master is the node of the test and whose workers
+	 * are instances the stubbed cloud provider hands out on the SSH server.
+	 */
+	private Cluster defineCluster(int workers) {
+		Cloud cloud = new Cloud();
+		cloud.setCloudId("cloud-" + suffix);
+		cloud.setCloudProvider(CloudProviderType.AWS_EC2);
+		cloudRepository.save(cloud);
+		NodeCandidate nodeCandidate = new NodeCandidate();
+		nodeCandidate.setCloud(cloud);
+		nodeCandidate = nodeCandidateRepository.save(nodeCandidate);
+		Cluster cluster = new Cluster();
+		cluster.setName("cluster-" + suffix);
+		cluster.setNodes(new ArrayList<>());
+		Node master = nodeRepository.findById(nodeId).orElseThrow();
+		cluster.setMasterNodeName(master.getName());
+		cluster.getNodes().add(master);
+		for (int i = 0; i < workers; i++) {
+			Node worker = new Node();
+			worker.setName("worker-" + suffix + "-" + i);
+			worker.setNodeCandidate(nodeCandidate);
+			cluster.getNodes().add(nodeRepository.save(worker));
+		}
+		when(cloudProvider.createNode(any(), any(), anyString()))
+				.thenAnswer(invocation -> new TaskExecutionWithResult<NodeCreationDetails>(new Date())
+						.withResult(new NodeCreationDetails(sshServer.getConnectionParameters(),
+								"i-" + UUID.randomUUID(), "127.0.0.1")));
+		when(cloudProvider.deleteNode(any(), any()))
+				.thenAnswer(invocation -> new TaskExecutionWithResult<Void>(new Date()).withResult(null));
+		return clusterRepository.save(cluster);
+	}
+
+	/**
+	 * @return The only task of the job, as written to the database
+	 */
+	private Task readOnlyTask() {
+		jobSchedulerService.forgetJob(jobId);
+		return new TransactionTemplate(transactionManager).execute(status -> {
+			List<Task> tasks = new ArrayList<>(jobRepository.findById(jobId).orElseThrow().getTasks());
+			assertEquals(1, tasks.size());
+			tasks.get(0).getExecutions().size();
+			return tasks.get(0);
+		});
+	}
+}
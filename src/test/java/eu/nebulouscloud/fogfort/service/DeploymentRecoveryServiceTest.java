@@ -0,0 +1,149 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import eu.nebulouscloud.fogfort.cloud.AWSCloudProvider;
+import eu.nebulouscloud.fogfort.cloud.CloudProvider.NodeCreationDetails;
+import eu.nebulouscloud.fogfort.dto.CloudProviderType;
+import eu.nebulouscloud.fogfort.model.Cloud;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.NodeCandidate;
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import eu.nebulouscloud.fogfort.repository.CloudRepository;
+import eu.nebulouscloud.fogfort.repository.NodeCandidateRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
+
+/**
+ * Reconciles persisted nodes with the instances a stubbed cloud provider
+ * reports for them through findNode, including nodes stored before their
+ * deployment step was recorded.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DirtiesContext
+class DeploymentRecoveryServiceTest {
+
+	@MockitoBean
+	private AWSCloudProvider cloudProvider;
+
+	@Autowired
+	private DeploymentRecoveryService deploymentRecoveryService;
+	@Autowired
+	private CloudRepository cloudRepository;
+	@Autowired
+	private NodeCandidateRepository nodeCandidateRepository;
+	@Autowired
+	private NodeRepository nodeRepository;
+
+	private NodeCandidate nodeCandidate;
+
+	@BeforeEach
+	void defineCloud() {
+		Cloud cloud = new Cloud();
+		cloud.setCloudId("recovery-" + UUID.randomUUID().toString().substring(0, 8));
+		cloud.setCloudProvider(CloudProviderType.AWS_EC2);
+		cloudRepository.save(cloud);
+		nodeCandidate = new NodeCandidate();
+		nodeCandidate.setCloud(cloud);
+		nodeCandidate = nodeCandidateRepository.save(nodeCandidate);
+	}
+
+	@Test
+	void testAdoptsLaunchedInstance() {
+		String nodeId = saveNode(DeploymentStep.NONE, null);
+		SSHConnectionParameters ssh = new SSHConnectionParameters();
+		ssh.setUsername("ubuntu");
+		findNodeReturns(nodeId, new NodeCreationDetails(ssh, "i-adopted", "10.0.0.7"));
+
+		deploymentRecoveryService.reconcileNode(nodeId);
+
+		Node node = nodeRepository.findById(nodeId).orElseThrow();
+		assertEquals(DeploymentStep.PROVISIONED, node.getDeploymentStep());
+		assertEquals(Node.NodeStatus.CREATED, node.getStatus());
+		assertEquals("i-adopted", node.getProviderId());
+		assertEquals("ubuntu", node.getSshConnectionParameters().getUsername());
+	}
+
+	@Test
+	void testNodeStoredWithoutStepIsNotProvisioned() {
+		// Rows stored before deployment steps were recorded have none
+		String nodeId = saveNode(null, null);
+		assertEquals(DeploymentStep.NONE, nodeRepository.findById(nodeId).orElseThrow().getDeploymentStep());
+		findNodeReturns(nodeId, new NodeCreationDetails(new SSHConnectionParameters(), "i-legacy", "10.0.0.9"));
+
+		deploymentRecoveryService.reconcileNode(nodeId);
+
+		Node node = nodeRepository.findById(nodeId).orElseThrow();
+		assertEquals(DeploymentStep.PROVISIONED, node.getDeploymentStep());
+		assertEquals("i-legacy", node.getProviderId());
+	}
+
+	@Test
+	void testReprovisionsMissingInstance() {
+		String nodeId = saveNode(DeploymentStep.INSTALLED, "i-gone");
+		findNodeReturns(nodeId, null);
+
+		deploymentRecoveryService.reconcileNode(nodeId);
+
+		Node node = nodeRepository.findById(nodeId).orElseThrow();
+		assertEquals(DeploymentStep.NONE, node.getDeploymentStep());
+		assertEquals(Node.NodeStatus.PENDING, node.getStatus());
+		assertNull(node.getProviderId());
+		assertNull(node.getSshConnectionParameters());
+	}
+
+	@Test
+	void testKeepsRecordedInstance() {
+		String nodeId = saveNode(DeploymentStep.SSH_READY, "i-running");
+		findNodeReturns(nodeId, new NodeCreationDetails(new SSHConnectionParameters(), "i-running", "10.0.0.8"));
+
+		deploymentRecoveryService.reconcileNode(nodeId);
+
+		Node node = nodeRepository.findById(nodeId).orElseThrow();
+		assertEquals(DeploymentStep.SSH_READY, node.getDeploymentStep());
+		assertEquals("i-running", node.getProviderId());
+	}
+
+	@Test
+	void testFailedLookupLeavesNodeUntouched() {
+		String nodeId = saveNode(DeploymentStep.NONE, null);
+		when(cloudProvider.findNode(any(), argThat(node -> nodeId.equals(node.getId()))))
+				.thenReturn(new TaskExecutionWithResult<NodeCreationDetails>(new Date())
+						.withException(new RuntimeException("throttled")));
+
+		assertThrows(RuntimeException.class, () -> deploymentRecoveryService.reconcileNode(nodeId));
+		assertEquals(DeploymentStep.NONE, nodeRepository.findById(nodeId).orElseThrow().getDeploymentStep());
+	}
+
+	private String saveNode(DeploymentStep step, String providerId) {
+		Node node = new Node();
+		node.setName("node-" + UUID.randomUUID().toString().substring(0, 8));
+		node.setNodeCandidate(nodeCandidate);
+		node.setDeploymentStep(step);
+		node.setProviderId(providerId);
+		return nodeRepository.save(node).getId();
+	}
+
+	private void findNodeReturns(String nodeId, NodeCreationDetails details) {
+		when(cloudProvider.findNode(any(), argThat(node -> nodeId.equals(node.getId()))))
+				.thenReturn(new TaskExecutionWithResult<NodeCreationDetails>(new Date()).withResult(details));
+	}
+}
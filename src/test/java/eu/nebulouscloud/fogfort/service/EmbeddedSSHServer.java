@@ -0,0 +1,250 @@
+package eu.nebulouscloud.fogfort.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+
+import eu.nebulouscloud.fogfort.dto.IpAddress;
+import eu.nebulouscloud.fogfort.dto.IpAddressType;
+import eu.nebulouscloud.fogfort.dto.IpVersion;
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+
+/**
+ * In-process SSH server used by tests that need a node to run scripts on. Every
+ * exec request is answered by echoing the command back and exiting with status
+ * 0, or with the status given by a command of the form {@code exit <status>}.
+ * A command of the form {@code sleep <seconds>} waits before exiting. SFTP is
+ * served from a temporary directory standing in for the user's home. A server
+ * created with a shell runs the commands with bash instead, in that home.
+ */
+class EmbeddedSSHServer implements AutoCloseable {
+
+	private final SshServer sshServer;
+	private final String privateKey;
+	private final AtomicInteger openedSessions = new AtomicInteger();
+	private final Path home;
+	private volatile CountDownLatch authenticationHold;
+
+	EmbeddedSSHServer() throws Exception {
+		this(false);
+	}
+
+	EmbeddedSSHServer(boolean shell) throws Exception {
+		KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+		ByteArrayOutputStream privateKeyOutput = new ByteArrayOutputStream();
+		keyPair.writePrivateKey(privateKeyOutput);
+		privateKey = privateKeyOutput.toString(StandardCharsets.UTF_8);
+
+		sshServer = SshServer.setUpDefaultServer();
+		sshServer.setHost("127.0.0.1");
+		sshServer.setPort(0);
+		sshServer.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+		sshServer.setPublickeyAuthenticator((username, key, session) -> {
+			CountDownLatch hold = authenticationHold;
+			if (hold != null) {
+				try {
+					hold.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return true;
+		});
+		home = Files.createTempDirectory("fogfort-ssh-home");
+		sshServer.setCommandFactory(
+				(channel, command) -> shell ? new ShellCommand(command, home) : new EchoCommand(command));
+		sshServer.setFileSystemFactory(new VirtualFileSystemFactory(home));
+		sshServer.setSubsystemFactories(List.of(new SftpSubsystemFactory()));
+		sshServer.addSessionListener(new SessionListener() {
+			@Override
+			public void sessionCreated(Session session) {
+				openedSessions.incrementAndGet();
+			}
+		});
+		sshServer.start();
+	}
+
+	SSHConnectionParameters getConnectionParameters() {
+		SSHConnectionParameters sshParams = new SSHConnectionParameters();
+		IpAddress ipAddress = new IpAddress();
+		ipAddress.setIpAddressType(IpAddressType.PUBLIC_IP);
+		ipAddress.setIpVersion(IpVersion.V4);
+		ipAddress.setValue("127.0.0.1");
+		sshParams.setIpAddress(ipAddress);
+		sshParams.setUsername("fogfort");
+		sshParams.setPort(String.valueOf(sshServer.getPort()));
+		sshParams.setPrivateKey(privateKey);
+		return sshParams;
+	}
+
+	/**
+	 * @return The directory SFTP clients see as their home
+	 */
+	Path getHome() {
+		return home;
+	}
+
+	int getPort() {
+		return sshServer.getPort();
+	}
+
+	String getPrivateKey() {
+		return privateKey;
+	}
+
+	/**
+	 * @return The number of SSH sessions opened against this server so far
+	 */
+	int getOpenedSessions() {
+		return openedSessions.get();
+	}
+
+	/**
+	 * Makes authentications wait until the latch is counted down, null to let them
+	 * through at once.
+	 */
+	void holdAuthentication(CountDownLatch hold) {
+		authenticationHold = hold;
+	}
+
+	void resetOpenedSessions() {
+		openedSessions.set(0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		sshServer.stop(true);
+	}
+
+	private static class EchoCommand implements Command {
+		private final String command;
+		private OutputStream out;
+		private ExitCallback exitCallback;
+
+		EchoCommand(String command) {
+			this.command = command;
+		}
+
+		@Override
+		public void start(ChannelSession channel, Environment env) {
+			CompletableFuture.runAsync(() -> {
+				int exitStatus = 0;
+				try {
+					if (command.startsWith("exit ")) {
+						exitStatus = Integer.parseInt(command.substring("exit ".length()).trim());
+					} else if (command.startsWith("sleep ")) {
+						Thread.sleep(1000L * Integer.parseInt(command.substring("sleep ".length()).trim()));
+					}
+					out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+					out.flush();
+				} catch (IOException | NumberFormatException e) {
+					exitStatus = 1;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				exitCallback.onExit(exitStatus);
+			});
+		}
+
+		@Override
+		public void destroy(ChannelSession channel) {
+		}
+
+		@Override
+		public void setInputStream(InputStream in) {
+		}
+
+		@Override
+		public void setOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void setErrorStream(OutputStream err) {
+		}
+
+		@Override
+		public void setExitCallback(ExitCallback callback) {
+			this.exitCallback = callback;
+		}
+	}
+
+	private static class ShellCommand implements Command {
+		private final String command;
+		private final Path home;
+		private OutputStream out;
+		private ExitCallback exitCallback;
+
+		ShellCommand(String command, Path home) {
+			this.command = command;
+			this.home = home;
+		}
+
+		@Override
+		public void start(ChannelSession channel, Environment env) {
+			CompletableFuture.runAsync(() -> {
+				int exitStatus;
+				try {
+					ProcessBuilder processBuilder = new ProcessBuilder("bash", "-c", command).directory(home.toFile())
+							.redirectErrorStream(true);
+					processBuilder.environment().put("HOME", home.toString());
+					Process process = processBuilder.start();
+					process.getInputStream().transferTo(out);
+					out.flush();
+					exitStatus = process.waitFor();
+				} catch (IOException e) {
+					exitStatus = 1;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				exitCallback.onExit(exitStatus);
+			});
+		}
+
+		@Override
+		public void destroy(ChannelSession channel) {
+		}
+
+		@Override
+		public void setInputStream(InputStream in) {
+		}
+
+		@Override
+		public void setOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void setErrorStream(OutputStream err) {
+		}
+
+		@Override
+		public void setExitCallback(ExitCallback callback) {
+			this.exitCallback = callback;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.model.jobs.ClusterExecJob;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.util.LogFileUtils;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Archives jobs that ended long ago, reads them and their logs back, from the
+ * running service and from one that indexes the archives on startup, and checks
+ * that each run writes archives of its own.
+ */
+@SpringBootTest(properties = "fogfort.jobs.retention-days=0")
+@ActiveProfiles("test")
+@DirtiesContext
+class JobArchiveServiceTest {
+
+	private static final LocalDate DAY = LocalDate.of(2001, 3, 4);
+
+	@Autowired
+	private JobArchiveService jobArchiveService;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${fogfort.jobs.archive-directory}")
+	private String archiveDirectory;
+
+	@Test
+	void testArchiveReadBackAndRetention() throws Exception {
+		String[] first = saveEndedJob(DAY, "first output\n");
+		String[] second = saveEndedJob(DAY, "second output\n");
+		// Ended after the retention limit, kept in the database
+		String[] kept = saveEndedJob(DAY.plusDays(2), "kept output\n");
+		List<Path> archivesBefore = listArchives(DAY);
+
+		assertEquals(2, jobArchiveService.archiveJobs(startOf(DAY.plusDays(1))));
+		assertFalse(jobRepository.existsById(first[0]));
+		assertFalse(jobRepository.existsById(second[0]));
+		assertTrue(jobRepository.existsById(kept[0]));
+		assertFalse(jobArchiveService.isArchivedTask(kept[1]));
+		assertEquals(0, LogFileUtils.getInstance().getLogLength(first[2]));
+
+		List<Path> archives = listArchives(DAY);
+		assertEquals(archivesBefore.size() + 1, archives.size());
+		Path firstArchive = archives.stream().filter(archive -> !archivesBefore.contains(archive)).findFirst()
+				.orElseThrow();
+		byte[] firstArchiveContent = Files.readAllBytes(firstArchive);
+
+		JsonNode archived = jobArchiveService.getArchivedJob(first[0]).orElseThrow();
+		assertEquals(first[0], archived.get("jobId").asString());
+		assertEquals(first[1], archived.get("tasks").get(0).get("id").asString());
+		assertEquals("second output\n", readArchivedLog(jobArchiveService, second[1]));
+
+		// A later run for the same day adds an archive and leaves the first one as it is
+		String[] third = saveEndedJob(DAY, "third output\n");
+		assertEquals(1, jobArchiveService.archiveJobs(startOf(DAY.plusDays(1))));
+		assertEquals(archivesBefore.size() + 2, listArchives(DAY).size());
+		assertArrayEquals(firstArchiveContent, Files.readAllBytes(firstArchive));
+		assertTrue(jobArchiveService.getArchivedJobIds().get(DAY.toString())
+				.containsAll(List.of(first[0], second[0], third[0])));
+
+		// Archives are indexed again on startup
+		JobArchiveService restarted = new JobArchiveService();
+		ReflectionTestUtils.setField(restarted, "objectMapper", objectMapper);
+		ReflectionTestUtils.setField(restarted, "archiveDirectory", archiveDirectory);
+		restarted.init();
+		assertEquals(third[0], restarted.getArchivedJob(third[0]).orElseThrow().get("jobId").asString());
+		assertEquals("first output\n", readArchivedLog(restarted, first[1]));
+		assertTrue(restarted.getArchivedJobIds().get(DAY.toString()).contains(second[0]));
+	}
+
+	/**
+	 * @return The ids of the job and its task, and the log name of its execution
+	 */
+	private String[] saveEndedJob(LocalDate day, String output) throws Exception {
+		Date endedAt = startOf(day);
+		Task.TaskExecution execution = new Task.TaskExecution(endedAt);
+		execution.setEnd(endedAt);
+		LogFileUtils.getInstance().appendOutputLog(output, execution.getOutputLogFileName());
+		return new TransactionTemplate(transactionManager).execute(status -> {
+			Job job = new ClusterExecJob();
+			job.setCreatedAt(endedAt);
+			job.setEndedAt(endedAt);
+			job.setStatus(JobStatus.COMPLETED);
+			job.setTasks(new ArrayList<>());
+			Task task = new Task();
+			task.setJob(job);
+			task.setStatus(JobStatus.COMPLETED);
+			task.setExecutions(new ArrayList<>(List.of(execution)));
+			job.getTasks().add(task);
+			job = jobRepository.save(job);
+			return new String[] { job.getJobId(), job.getTasks().get(0).getId(), execution.getOutputLogFileName() };
+		});
+	}
+
+	private static Date startOf(LocalDate day) {
+		return Date.from(day.atStartOfDay(ZoneOffset.UTC).toInstant().plusSeconds(3600));
+	}
+
+	private List<Path> listArchives(LocalDate day) throws Exception {
+		try (Stream<Path> files = Files.list(Path.of(archiveDirectory))) {
+			return files.filter(file -> file.getFileName().toString().startsWith("jobs-" + day + "-")).toList();
+		}
+	}
+
+	private static String readArchivedLog(JobArchiveService jobArchiveService, String taskId) throws Exception {
+		try (InputStream input = jobArchiveService.getArchivedLog(taskId, 0).orElseThrow().content()) {
+			return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
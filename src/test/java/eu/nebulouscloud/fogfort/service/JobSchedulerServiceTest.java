@@ -0,0 +1,96 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.model.jobs.ClusterExecJob;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.model.jobs.Task;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+import eu.nebulouscloud.fogfort.repository.TaskRepository;
+
+/**
+ * Checks that task state changes are read back from memory at once, and only
+ * written to the database by a flush. The scheduled flush is pushed out of the
+ * way so that the test decides when it happens.
+ */
+@SpringBootTest(properties = "fogfort.jobs.state-flush-interval-millis=600000")
+@ActiveProfiles("test")
+@DirtiesContext
+class JobSchedulerServiceTest {
+
+	@Autowired
+	private JobSchedulerService jobSchedulerService;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private TaskRepository taskRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void testWriteBehind() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		final String[] jobIdW = new String[1];
+		String taskId = transactionTemplate.execute(status -> {
+			Job job = new ClusterExecJob();
+			job.setCreatedAt(new Date());
+			job.setStatus(JobStatus.IN_PROGRESS);
+			job = jobRepository.save(job);
+			jobIdW[0] = job.getJobId();
+			Task task = new Task();
+			task.setJob(job);
+			task.setCreatedAt(new Date());
+			task.setStatus(JobStatus.IN_PROGRESS);
+			task.setExecutions(new ArrayList<>());
+			task = taskRepository.save(task);
+			jobSchedulerService.track(task);
+			return task.getId();
+		});
+
+		for (String phase : new String[] { "INSTALL", "START" }) {
+			Task.TaskExecution execution = new Task.TaskExecution(new Date());
+			execution.setPhase(phase);
+			execution.setSuccess(true);
+			execution.setEnd(new Date());
+			jobSchedulerService.updateTask(taskId, task -> task.getExecutions().add(execution));
+		}
+		jobSchedulerService.updateTask(taskId, task -> {
+			task.setStatus(JobStatus.COMPLETED);
+			task.setEndedAt(new Date());
+		});
+
+		Task cached = jobSchedulerService.getTask(taskId);
+		assertEquals(JobStatus.COMPLETED, cached.getStatus());
+		assertEquals(2, cached.getExecutions().size());
+		assertEquals(JobStatus.IN_PROGRESS, readTask(transactionTemplate, taskId).getStatus());
+
+		// Ending the job writes what is pending
+		jobSchedulerService.forgetJob(jobIdW[0]);
+		Task stored = readTask(transactionTemplate, taskId);
+		assertEquals(JobStatus.COMPLETED, stored.getStatus());
+		assertEquals(2, stored.getExecutions().size());
+		assertEquals("START", stored.getExecutions().get(1).getPhase());
+		assertTrue(stored.getExecutions().get(1).isSuccess());
+	}
+
+	private Task readTask(TransactionTemplate transactionTemplate, String taskId) {
+		return transactionTemplate.execute(status -> {
+			Task task = taskRepository.findById(taskId).orElseThrow();
+			task.getExecutions().size();
+			return task;
+		});
+	}
+}
@@ -0,0 +1,103 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import eu.nebulouscloud.fogfort.model.jobs.Task.TaskExecution;
+
+/**
+ * Runs scripts through the MINA SSHD backend against an embedded SSH server,
+ * including a load test where the server stands in for 1,000 nodes (one user
+ * per node, so every node gets its own session). The context is discarded
+ * afterwards to release those sessions.
+ */
+@SpringBootTest(properties = { "fogfort.ssh.backend=mina", "fogfort.ssh.mina.io-threads=4" })
+@ActiveProfiles("test")
+@DirtiesContext
+class MinaNodeScriptBackendTest {
+
+	private static final int NODE_COUNT = 1000;
+
+	private static EmbeddedSSHServer sshServer;
+
+	@Autowired
+	private NodeScriptRunner nodeScriptRunner;
+
+	@Autowired
+	private MinaNodeScriptBackend minaNodeScriptBackend;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		sshServer = new EmbeddedSSHServer();
+	}
+
+	@AfterAll
+	static void stopServer() throws Exception {
+		sshServer.close();
+	}
+
+	@Test
+	void testRunScript() throws Exception {
+		TaskExecution result = new TaskExecution();
+		nodeScriptRunner.runScript("echo hello", sshServer.getConnectionParameters(), result, 10000L).get(30,
+				TimeUnit.SECONDS);
+		assertTrue(result.isSuccess());
+
+		TaskExecution failed = new TaskExecution();
+		nodeScriptRunner.runScript("exit 3", sshServer.getConnectionParameters(), failed, 10000L).get(30,
+				TimeUnit.SECONDS);
+		assertFalse(failed.isSuccess());
+	}
+
+	@Test
+	void testRunScriptTimeout() throws Exception {
+		TaskExecution result = new TaskExecution();
+		nodeScriptRunner.runScript("sleep 30", sshServer.getConnectionParameters(), result, 1000L).get(10,
+				TimeUnit.SECONDS);
+		assertFalse(result.isSuccess());
+	}
+
+	@Test
+	void loadTestThousandNodes() throws Exception {
+		int sessionsBefore = minaNodeScriptBackend.getSessionCount();
+		List<TaskExecution> results = new ArrayList<>();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < NODE_COUNT; i++) {
+			SSHConnectionParameters sshParams = sshServer.getConnectionParameters();
+			sshParams.setUsername("node-" + i);
+			TaskExecution result = new TaskExecution();
+			results.add(result);
+			futures.add(nodeScriptRunner.runScript("echo node-" + i, sshParams, result, 120000L));
+		}
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(180, TimeUnit.SECONDS);
+
+		long failed = results.stream().filter(result -> !result.isSuccess()).count();
+		assertEquals(0, failed, failed + " of " + NODE_COUNT + " scripts failed");
+		assertEquals(NODE_COUNT, minaNodeScriptBackend.getSessionCount() - sessionsBefore);
+		// The configured four NIO threads serve every session
+		long eventLoopThreads = Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().contains("SshClient") && thread.getName().contains("nio2-thread"))
+				.count();
+		assertTrue(eventLoopThreads <= 4, eventLoopThreads + " SSH client event loop threads");
+		// Every execution has ended with the exit status of its script
+		for (TaskExecution result : results) {
+			assertTrue(result.terminated());
+			assertEquals(Integer.valueOf(0), result.getExitStatus());
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package eu.nebulouscloud.fogfort.service;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -135,4 +139,51 @@ class NodeScriptRunnerTest {
 			System.err.println("Error: " + result.getOutputLogFileName());
 		}
 	}
+
+	/**
+	 * Runs a script against an embedded SSH server and checks that completion is
+	 * reported as soon as the script exits rather than on a polling interval.
+	 */
+	@Test
+	void testRunScriptCompletesOnExit() throws Exception {
+		try (EmbeddedSSHServer sshServer = new EmbeddedSSHServer()) {
+			TaskExecution result = new TaskExecution();
+			long start = System.currentTimeMillis();
+			nodeScriptRunner.runScript("echo done", sshServer.getConnectionParameters(), result, 10000L).get(30,
+					TimeUnit.SECONDS);
+			assertTrue(result.isSuccess());
+			assertTrue(System.currentTimeMillis() - start < 2000, "script completion was not reported promptly");
+
+			result = new TaskExecution();
+			nodeScriptRunner.runScript("exit 3", sshServer.getConnectionParameters(), result, 10000L).get(30,
+					TimeUnit.SECONDS);
+			assertFalse(result.isSuccess());
+		}
+	}
+
+	@Test
+	void testRunScriptTimeout() throws Exception {
+		try (EmbeddedSSHServer sshServer = new EmbeddedSSHServer()) {
+			TaskExecution result = new TaskExecution();
+			nodeScriptRunner.runScript("sleep 30", sshServer.getConnectionParameters(), result, 1000L).get(10,
+					TimeUnit.SECONDS);
+			assertFalse(result.isSuccess());
+			assertTrue(result.terminated());
+		}
+	}
+
+	/**
+	 * Checks that result markers in the script output are captured on the task
+	 * execution while the output streams in.
+	 */
+	@Test
+	void testRunScriptCapturesResults() throws Exception {
+		try (EmbeddedSSHServer sshServer = new EmbeddedSSHServer()) {
+			TaskExecution result = new TaskExecution();
+			nodeScriptRunner.runScript("echo !!NEB_SCRIPT_RESULT_KUBERNETES_JOIN_TOKEN:kubeadm join 10.0.0.1:6443!!",
+					sshServer.getConnectionParameters(), result, 10000L).get(30, TimeUnit.SECONDS);
+			assertTrue(result.isSuccess());
+			assertEquals("kubeadm join 10.0.0.1:6443", result.getScriptResults().get("KUBERNETES_JOIN_TOKEN"));
+		}
+	}
 }
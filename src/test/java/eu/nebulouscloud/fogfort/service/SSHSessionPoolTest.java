@@ -0,0 +1,151 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import eu.nebulouscloud.fogfort.model.SSHConnectionParameters;
+import eu.nebulouscloud.fogfort.model.jobs.Task.TaskExecution;
+
+/**
+ * Runs scripts through the pooled NodeScriptRunner against an embedded SSH
+ * server and checks that sessions are reused, and that returning a session
+ * does not wait for another one being connected to the same node. The cost saved per script is
+ * measured by SSHSessionBenchmark.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class SSHSessionPoolTest {
+
+	private static final int SCRIPT_COUNT = 10;
+
+	private static EmbeddedSSHServer sshServer;
+
+	@Autowired
+	private NodeScriptRunner nodeScriptRunner;
+
+	@Autowired
+	private SSHSessionPool sshSessionPool;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		sshServer = new EmbeddedSSHServer();
+	}
+
+	@AfterAll
+	static void stopServer() throws Exception {
+		sshServer.close();
+	}
+
+	@BeforeEach
+	void resetCounters() {
+		sshServer.resetOpenedSessions();
+	}
+
+	@Test
+	void testSequentialScriptsShareOneSession() throws Exception {
+		SSHConnectionParameters sshParams = sshServer.getConnectionParameters();
+		for (int i = 0; i < SCRIPT_COUNT; i++) {
+			TaskExecution result = new TaskExecution();
+			nodeScriptRunner.runScript("echo " + i, sshParams, result, 10000L).get(30, TimeUnit.SECONDS);
+			assertTrue(result.isSuccess());
+		}
+		// The session may already be pooled by a previous test
+		assertTrue(sshServer.getOpenedSessions() <= 1, "opened " + sshServer.getOpenedSessions() + " sessions");
+	}
+
+	@Test
+	void testConcurrentScriptsAreMultiplexed() throws Exception {
+		SSHConnectionParameters sshParams = sshServer.getConnectionParameters();
+		List<TaskExecution> results = new ArrayList<>();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			TaskExecution result = new TaskExecution();
+			results.add(result);
+			futures.add(nodeScriptRunner.runScript("echo " + i, sshParams, result, 10000L));
+		}
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+		results.forEach(result -> assertTrue(result.isSuccess()));
+		// 16 scripts over sessions carrying up to 8 channels each
+		assertTrue(sshServer.getOpenedSessions() <= 2, "opened " + sshServer.getOpenedSessions() + " sessions");
+	}
+
+	@Test
+	void testLeasesReuseThePooledSession() throws Exception {
+		SSHConnectionParameters sshParams = sshServer.getConnectionParameters();
+		Session first;
+		try (SSHSessionPool.Lease lease = sshSessionPool.lease(sshParams)) {
+			first = lease.getSession();
+		}
+		int sessionCount = sshSessionPool.getSessionCount();
+		for (int i = 0; i < SCRIPT_COUNT; i++) {
+			try (SSHSessionPool.Lease lease = sshSessionPool.lease(sshParams)) {
+				assertSame(first, lease.getSession());
+				assertTrue(lease.getSession().isConnected());
+			}
+		}
+		assertEquals(sessionCount, sshSessionPool.getSessionCount());
+		assertTrue(sshServer.getOpenedSessions() <= 1, "opened " + sshServer.getOpenedSessions() + " sessions");
+	}
+
+	@Test
+	void testReleaseDoesNotWaitForAConnect() throws Exception {
+		int maxChannelsPerSession = (int) ReflectionTestUtils.getField(sshSessionPool, "maxChannelsPerSession");
+		ReflectionTestUtils.setField(sshSessionPool, "maxChannelsPerSession", 1);
+		CountDownLatch hold = new CountDownLatch(1);
+		try (EmbeddedSSHServer slowServer = new EmbeddedSSHServer()) {
+			SSHConnectionParameters sshParams = slowServer.getConnectionParameters();
+			SSHSessionPool.Lease first = sshSessionPool.lease(sshParams);
+
+			// The pooled session is full, the next leases wait for a new one
+			slowServer.holdAuthentication(hold);
+			CompletableFuture<SSHSessionPool.Lease> second = CompletableFuture.supplyAsync(() -> lease(sshParams));
+			CompletableFuture<SSHSessionPool.Lease> third = CompletableFuture.supplyAsync(() -> lease(sshParams));
+			long deadline = System.currentTimeMillis() + 10000;
+			while (slowServer.getOpenedSessions() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(2, slowServer.getOpenedSessions());
+
+			CompletableFuture.runAsync(first::close).get(2, TimeUnit.SECONDS);
+			hold.countDown();
+			SSHSessionPool.Lease secondLease = second.get(30, TimeUnit.SECONDS);
+			SSHSessionPool.Lease thirdLease = third.get(30, TimeUnit.SECONDS);
+			// One took the released session, the other the one connected meanwhile
+			assertEquals(2, slowServer.getOpenedSessions());
+			assertNotSame(secondLease.getSession(), thirdLease.getSession());
+			secondLease.invalidate();
+			thirdLease.invalidate();
+		} finally {
+			hold.countDown();
+			ReflectionTestUtils.setField(sshSessionPool, "maxChannelsPerSession", maxChannelsPerSession);
+		}
+	}
+
+	private SSHSessionPool.Lease lease(SSHConnectionParameters sshParams) {
+		try {
+			return sshSessionPool.lease(sshParams);
+		} catch (JSchException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import eu.nebulouscloud.fogfort.model.jobs.Task.TaskExecution;
+import eu.nebulouscloud.fogfort.util.StagedScript;
+
+/**
+ * Runs scripts with SFTP staging enabled against an embedded SSH server and
+ * checks what ends up in the staging directory.
+ */
+@SpringBootTest(properties = "fogfort.ssh.script-staging=true")
+@ActiveProfiles("test")
+@DirtiesContext
+class ScriptStagingTest {
+
+	private static EmbeddedSSHServer sshServer;
+
+	@Autowired
+	private NodeScriptRunner nodeScriptRunner;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		sshServer = new EmbeddedSSHServer();
+	}
+
+	@AfterAll
+	static void stopServer() throws Exception {
+		sshServer.close();
+	}
+
+	@Test
+	void testScriptIsUploadedOnceCompressed() throws Exception {
+		String script = "echo staged";
+		String hash = new StagedScript(script).getHash();
+		Path stagingDirectory = sshServer.getHome().resolve(StagedScript.STAGING_DIRECTORY);
+
+		TaskExecution result = new TaskExecution();
+		nodeScriptRunner.runScript(script, sshServer.getConnectionParameters(), result, 10000L).get(30,
+				TimeUnit.SECONDS);
+		assertTrue(result.isSuccess());
+		List<Path> uploads = uploads(stagingDirectory, hash);
+		assertEquals(1, uploads.size());
+		try (InputStream input = new GZIPInputStream(Files.newInputStream(uploads.get(0)))) {
+			assertArrayEquals(script.getBytes(StandardCharsets.UTF_8), input.readAllBytes());
+		}
+
+		// The embedded server only echoes commands, so unpack the script as the node would
+		Files.writeString(stagingDirectory.resolve(hash + ".sh"), script);
+		Files.delete(uploads.get(0));
+
+		result = new TaskExecution();
+		nodeScriptRunner.runScript(script, sshServer.getConnectionParameters(), result, 10000L).get(30,
+				TimeUnit.SECONDS);
+		assertTrue(result.isSuccess());
+		assertTrue(uploads(stagingDirectory, hash).isEmpty(), "an already staged script was uploaded again");
+	}
+
+	private static List<Path> uploads(Path stagingDirectory, String hash) throws Exception {
+		try (Stream<Path> files = Files.list(stagingDirectory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith(hash)
+					&& file.getFileName().toString().endsWith(".sh.gz")).toList();
+		}
+	}
+}
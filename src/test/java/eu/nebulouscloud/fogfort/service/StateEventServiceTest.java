@@ -0,0 +1,169 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.dto.StateEvent;
+import eu.nebulouscloud.fogfort.model.jobs.ClusterExecJob;
+import eu.nebulouscloud.fogfort.model.jobs.Job;
+import eu.nebulouscloud.fogfort.model.jobs.JobStatus;
+import eu.nebulouscloud.fogfort.repository.JobRepository;
+
+/**
+ * Follows the event stream while a job is saved, and checks that only its
+ * status changes are sent, and that a reconnecting client gets what it missed.
+ * The statuses kept to detect changes are forgotten once a job ended.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "fogfort.security.disabled=true")
+@ActiveProfiles("test")
+@DirtiesContext
+class StateEventServiceTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private StateEventService stateEventService;
+	@Autowired
+	private JobRepository jobRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void testStatusChangesAndResume() throws Exception {
+		BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		HttpClient client = HttpClient.newHttpClient();
+		// Subscribed once the response headers are received
+		InputStream stream = openStream(client, null);
+		Thread reader = Thread.ofVirtual().start(() -> readEvents(stream, events));
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+		Job job = new ClusterExecJob();
+		job.setCreatedAt(new Date());
+		job.setStatus(JobStatus.CREATED);
+		String jobId = transactionTemplate.execute(status -> jobRepository.save(job).getJobId());
+		String created = nextJobEvent(events, jobId);
+		assertTrue(created.contains("\"action\":\"CREATED\""), created);
+
+		// A change that keeps the status is not sent
+		updateJob(transactionTemplate, jobId, JobStatus.CREATED);
+		updateJob(transactionTemplate, jobId, JobStatus.IN_PROGRESS);
+		String updated = nextJobEvent(events, jobId);
+		assertTrue(updated.contains("\"status\":\"IN_PROGRESS\""), updated);
+		String lastEventId = updated.substring(0, updated.indexOf(' '));
+
+		stream.close();
+		reader.join(5000);
+		updateJob(transactionTemplate, jobId, JobStatus.COMPLETED);
+
+		// Resuming after the last event received replays the missed change
+		events.clear();
+		InputStream resumed = openStream(client, lastEventId);
+		Thread.ofVirtual().start(() -> readEvents(resumed, events));
+		String missed = nextJobEvent(events, jobId);
+		assertTrue(missed.contains("\"status\":\"COMPLETED\""), missed);
+		assertEquals(Long.parseLong(lastEventId) + 1, Long.parseLong(missed.substring(0, missed.indexOf(' '))));
+		assertNull(nextJobEvent(events, jobId, 500));
+		resumed.close();
+	}
+
+	@Test
+	void testForgetsStatusesOfEndedJobs() {
+		int tracked = stateEventService.getTrackedStatusCount();
+		stateEventService.publish(StateEvent.EntityType.JOB, StateEvent.Action.UPDATED, "ended-job", "job",
+				JobStatus.IN_PROGRESS.name(), "ended-job");
+		stateEventService.publish(StateEvent.EntityType.TASK, StateEvent.Action.UPDATED, "ended-task", "task",
+				"IN_PROGRESS", "ended-job");
+		assertEquals(tracked + 2, stateEventService.getTrackedStatusCount());
+
+		stateEventService.publish(StateEvent.EntityType.JOB, StateEvent.Action.UPDATED, "ended-job", "job",
+				JobStatus.FAILED.name(), "ended-job");
+		assertEquals(tracked, stateEventService.getTrackedStatusCount());
+	}
+
+	private void updateJob(TransactionTemplate transactionTemplate, String jobId, JobStatus jobStatus) {
+		transactionTemplate.executeWithoutResult(status -> {
+			Job job = jobRepository.findById(jobId).orElseThrow();
+			job.setStatus(jobStatus);
+			job.setUpdatedAt(new Date());
+		});
+	}
+
+	private InputStream openStream(HttpClient client, String lastEventId) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/sal/sal/events"));
+		if (lastEventId != null) {
+			request.header("Last-Event-ID", lastEventId);
+		}
+		HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+		assertEquals(200, response.statusCode());
+		return response.body();
+	}
+
+	/**
+	 * Queues the state events of a stream as "<id> <data>".
+	 */
+	private static void readEvents(InputStream stream, BlockingQueue<String> events) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+			String id = null;
+			String name = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("id:")) {
+					id = line.substring(3);
+				} else if (line.startsWith("event:")) {
+					name = line.substring(6);
+				} else if (line.startsWith("data:") && "state".equals(name)) {
+					events.add(id + " " + line.substring(5));
+				} else if (line.isEmpty()) {
+					id = null;
+					name = null;
+				}
+			}
+		} catch (Exception e) {
+			// Closed by the test
+		}
+	}
+
+	private static String nextJobEvent(BlockingQueue<String> events, String jobId) throws InterruptedException {
+		String event = nextJobEvent(events, jobId, 10000);
+		assertNotNull(event, "No event for job " + jobId);
+		return event;
+	}
+
+	private static String nextJobEvent(BlockingQueue<String> events, String jobId, long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		String event;
+		while ((event = events.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) != null) {
+			if (event.contains("\"type\":\"JOB\"") && event.contains("\"id\":\"" + jobId + "\"")) {
+				return event;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,184 @@
+package eu.nebulouscloud.fogfort.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.nebulouscloud.fogfort.cloud.AWSCloudProvider;
+import eu.nebulouscloud.fogfort.dto.CloudProviderType;
+import eu.nebulouscloud.fogfort.model.Cloud;
+import eu.nebulouscloud.fogfort.model.Node;
+import eu.nebulouscloud.fogfort.model.Node.DeploymentStep;
+import eu.nebulouscloud.fogfort.model.Node.NodeStatus;
+import eu.nebulouscloud.fogfort.model.NodeCandidate;
+import eu.nebulouscloud.fogfort.repository.CloudRepository;
+import eu.nebulouscloud.fogfort.repository.NodeCandidateRepository;
+import eu.nebulouscloud.fogfort.repository.NodeRepository;
+import eu.nebulouscloud.fogfort.util.TaskExecutionWithResult;
+
+/**
+ * Claims and discards warm pool nodes of a node candidate whose pool is
+ * configured by the test. Replenishment is stubbed out; the test only checks
+ * when it is requested.
+ */
+@SpringBootTest(properties = "fogfort.warm-pool.sizes={'none': 0}")
+@ActiveProfiles("test")
+@DirtiesContext
+class WarmPoolServiceTest {
+
+	@MockitoBean
+	private AWSCloudProvider cloudProvider;
+	@MockitoSpyBean
+	private WarmPoolService warmPoolService;
+
+	@Autowired
+	private CloudRepository cloudRepository;
+	@Autowired
+	private NodeCandidateRepository nodeCandidateRepository;
+	@Autowired
+	private NodeRepository nodeRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private NodeCandidate nodeCandidate;
+
+	@BeforeEach
+	void definePool() {
+		Cloud cloud = new Cloud();
+		cloud.setCloudId("pool-" + UUID.randomUUID().toString().substring(0, 8));
+		cloud.setCloudProvider(CloudProviderType.AWS_EC2);
+		cloudRepository.save(cloud);
+		nodeCandidate = new NodeCandidate();
+		nodeCandidate.setCloud(cloud);
+		nodeCandidate = nodeCandidateRepository.save(nodeCandidate);
+		ReflectionTestUtils.setField(warmPoolService, "poolSizes", Map.of(nodeCandidate.getId(), 1));
+		doNothing().when(warmPoolService).replenish();
+		clearInvocations(warmPoolService);
+		when(cloudProvider.deleteNode(any(), any()))
+				.thenAnswer(invocation -> new TaskExecutionWithResult<Void>(new Date()).withResult(null));
+	}
+
+	@Test
+	void testConcurrentClaimsTakeANodeOnce() throws Exception {
+		saveWarmNode(DeploymentStep.INSTALLED);
+		CyclicBarrier barrier = new CyclicBarrier(2);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<CompletableFuture<Boolean>> claims = List.of(
+					CompletableFuture.supplyAsync(() -> claimAfter(barrier), executor),
+					CompletableFuture.supplyAsync(() -> claimAfter(barrier), executor));
+			long claimed = 0;
+			for (CompletableFuture<Boolean> claim : claims) {
+				claimed += claim.get(30, TimeUnit.SECONDS) ? 1 : 0;
+			}
+			assertEquals(1, claimed);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue(nodeRepository.findByStatusAndNodeCandidateId(NodeStatus.WARM, nodeCandidate.getId()).isEmpty());
+	}
+
+	@Test
+	void testNodesNotReadyAreNotClaimed() {
+		String warmNodeId = saveWarmNode(DeploymentStep.PROVISIONED);
+		assertFalse(claim());
+		assertEquals(NodeStatus.WARM, nodeRepository.findById(warmNodeId).orElseThrow().getStatus());
+	}
+
+	@Test
+	void testReplenishesOnceTheClaimCommits() {
+		saveWarmNode(DeploymentStep.INSTALLED);
+		new TransactionTemplate(transactionManager).execute(status -> {
+			Node node = newClusterNode();
+			assertTrue(warmPoolService.claimInto(node));
+			verify(warmPoolService, never()).replenish();
+			nodeRepository.save(node);
+			return null;
+		});
+		verify(warmPoolService, timeout(5000)).replenish();
+	}
+
+	@Test
+	void testDiscardLeavesClaimedNodeAlone() {
+		String warmNodeId = saveWarmNode(DeploymentStep.INSTALLED);
+		String otherNodeId = saveWarmNode(DeploymentStep.PROVISIONED);
+		Node claimed = new TransactionTemplate(transactionManager).execute(status -> {
+			Node node = newClusterNode();
+			assertTrue(warmPoolService.claimInto(node));
+			return nodeRepository.save(node);
+		});
+
+		warmPoolService.discard(warmNodeId);
+		verify(cloudProvider, never()).deleteNode(any(), any());
+		assertEquals(NodeStatus.CREATED, nodeRepository.findById(claimed.getId()).orElseThrow().getStatus());
+
+		// A node still in the pool is terminated and removed
+		warmPoolService.discard(otherNodeId);
+		verify(cloudProvider).deleteNode(any(), any());
+		assertTrue(nodeRepository.findById(otherNodeId).isEmpty());
+	}
+
+	private boolean claimAfter(CyclicBarrier barrier) {
+		try {
+			barrier.await(10, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return claim();
+	}
+
+	private boolean claim() {
+		return new TransactionTemplate(transactionManager).execute(status -> {
+			Node node = newClusterNode();
+			boolean claimed = warmPoolService.claimInto(node);
+			nodeRepository.save(node);
+			return claimed;
+		});
+	}
+
+	private Node newClusterNode() {
+		Node node = new Node();
+		node.setName("worker-" + UUID.randomUUID().toString().substring(0, 8));
+		node.setNodeCandidate(nodeCandidate);
+		return node;
+	}
+
+	private String saveWarmNode(DeploymentStep step) {
+		Node node = new Node();
+		node.setName("warm-" + UUID.randomUUID().toString().substring(0, 8));
+		node.setNodeCandidate(nodeCandidate);
+		node.setStatus(NodeStatus.WARM);
+		node.setDeploymentStep(step);
+		node.setProviderId("i-" + UUID.randomUUID().toString().substring(0, 8));
+		return nodeRepository.save(node).getId();
+	}
+}
@@ -0,0 +1,148 @@
+package eu.nebulouscloud.fogfort.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Indexes logs with a tiny buffer, so that every document gets its own
+ * postings file and files get merged, and checks the postings read back, also
+ * after reopening the index and while other threads look terms up. Lines
+ * holding several terms are found newest first, up to a number of documents.
+ */
+class LogIndexTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void testLookupMergeAndReopen() throws Exception {
+		try (LogIndex index = new LogIndex(directory, 1, document -> !document.logName().equals("log-3"))) {
+			for (int i = 0; i < 12; i++) {
+				add(index, i, "Reading package lists...\nE: Unable to locate package kubeadm-" + i + "\n");
+			}
+			add(index, 12, "no newline at the end");
+			// Merged once there were more than 8 files
+			assertTrue(countPostingsFiles() < 12);
+
+			// The postings of the document that is not live were dropped by the merge
+			List<LogIndex.Posting> postings = index.lookup("kubeadm");
+			assertEquals(11, postings.size());
+			assertEquals(new LogIndex.Posting(0, 25), postings.get(0));
+			assertEquals(new LogIndex.Posting(11, 25), postings.get(10));
+			assertEquals(List.of(new LogIndex.Posting(5, 25)), index.lookup("5"));
+			assertEquals(List.of(new LogIndex.Posting(12, 0)), index.lookup("newline"));
+			assertTrue(index.lookup("missing").isEmpty());
+			assertEquals("log-7", index.getDocument(7).logName());
+		}
+
+		try (LogIndex index = new LogIndex(directory, 1000, document -> true)) {
+			assertEquals(13, index.getDocumentCount());
+			assertEquals(11, index.lookup("kubeadm").size());
+			add(index, 13, "kubeadm join failed");
+			// Buffered until committed
+			assertEquals(11, index.lookup("kubeadm").size());
+			index.commit();
+			assertEquals(new LogIndex.Posting(13, 0), index.lookup("kubeadm").get(11));
+			LogIndex.Document document = index.getDocument(13);
+			assertEquals("job-13", document.jobId());
+			assertEquals(null, document.nodeId());
+			assertEquals(2, document.executionIndex());
+		}
+
+		// Documents not committed before closing are indexed again later
+		try (LogIndex index = new LogIndex(directory, 1000, document -> true)) {
+			add(index, 14, "lost");
+		}
+		try (LogIndex index = new LogIndex(directory, 1000, document -> true)) {
+			assertEquals(14, index.getDocumentCount());
+			assertTrue(index.lookup("lost").isEmpty());
+		}
+	}
+
+	@Test
+	void testFindLinesNewestFirst() throws Exception {
+		try (LogIndex index = new LogIndex(directory, 1000, document -> true)) {
+			for (int i = 0; i < 6; i++) {
+				StringBuilder content = new StringBuilder();
+				for (int line = 0; line < 600; line++) {
+					content.append(line % 3 == 0 ? "kubeadm error " : "kubeadm ok ").append(line).append('\n');
+				}
+				add(index, i, content.toString());
+			}
+			add(index, 6, "überprüfung ünter kubeadm\n");
+			index.commit();
+
+			List<LogIndex.Posting> errors = index.lookup("error");
+			List<LogIndex.Posting> expected = new ArrayList<>(
+					errors.stream().filter(posting -> posting.document() >= 4).toList().reversed());
+			assertEquals(expected, index.findLines(List.of("kubeadm", "error"), 2));
+			assertEquals(expected, index.findLines(List.of("error", "kubeadm"), 2));
+			assertEquals(errors.reversed(), index.findLines(List.of("error"), 100));
+
+			// Terms written with more than one byte per character
+			assertEquals(List.of(new LogIndex.Posting(6, 0)), index.findLines(List.of("ünter", "kubeadm"), 1));
+			assertEquals(List.of(new LogIndex.Posting(6, 0)), index.lookup("überprüfung"));
+			assertTrue(index.findLines(List.of("ünter", "error"), 10).isEmpty());
+			assertTrue(index.findLines(List.of("missing", "kubeadm"), 10).isEmpty());
+		}
+	}
+
+	@Test
+	void testLookupsWhileCommittingAndMerging() throws Exception {
+		try (LogIndex index = new LogIndex(directory, 1, document -> true)) {
+			AtomicBoolean done = new AtomicBoolean();
+			CompletableFuture<Integer> reader = CompletableFuture.supplyAsync(() -> {
+				int found = 0;
+				try {
+					while (!done.get()) {
+						int lines = index.findLines(List.of("unable", "kubeadm"), Integer.MAX_VALUE).size();
+						assertTrue(lines >= found, lines + " lines after " + found);
+						found = lines;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return found;
+			});
+			for (int i = 0; i < 200; i++) {
+				add(index, i, "Reading package lists...\nE: Unable to locate package kubeadm-" + i + "\n");
+			}
+			done.set(true);
+			reader.get(30, TimeUnit.SECONDS);
+			assertEquals(200, index.findLines(List.of("unable", "kubeadm"), Integer.MAX_VALUE).size());
+		}
+	}
+
+	@Test
+	void testTokenize() {
+		assertEquals(List.of("e", "unable", "to", "fetch", "http", "deb", "debian", "org"),
+				LogIndex.tokenize("E: Unable to fetch http://deb.debian.org"));
+	}
+
+	private static void add(LogIndex index, int i, String content) throws IOException {
+		index.add(new LogIndex.Document("job-" + i, "task-" + i, null, 2, "log-" + i, i),
+				new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private long countPostingsFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".idx")).count();
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package eu.nebulouscloud.fogfort.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Appends, links and deletes logs in a store with small segments, from one or
+ * several threads, and checks what is read back, also after reopening the
+ * store.
+ */
+class SegmentedLogStoreTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void testLinkAndReopen() throws Exception {
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 64)) {
+			append(store, "parent", "parent line 1\n");
+			append(store, "child", "child line 1\n");
+			append(store, "parent", "parent line 2\n");
+			for (int i = 0; i < 10; i++) {
+				append(store, "child", "child line " + (i + 2) + "\n");
+			}
+			assertTrue(countSegments() > 1);
+
+			store.link("child", "parent");
+			assertFalse(store.contains("child"));
+			String expected = "parent line 1\nparent line 2\nchild line 1\n" + childLines(2, 11);
+			assertEquals(expected, read(store, "parent", 0));
+			assertEquals(expected.substring(20), read(store, "parent", 20));
+			assertEquals(expected.length(), store.length("parent"));
+		}
+
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 64)) {
+			assertEquals("parent line 1\nparent line 2\nchild line 1\n" + childLines(2, 11), read(store, "parent", 0));
+			append(store, "parent", "after reopen\n");
+			assertTrue(read(store, "parent", 0).endsWith("child line 11\nafter reopen\n"));
+
+			store.delete("parent");
+			assertEquals("", read(store, "parent", 0));
+		}
+
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 64)) {
+			assertFalse(store.contains("parent"));
+			// Only the active segment is left once nothing references the others
+			assertEquals(1, countSegments());
+		}
+	}
+
+	@Test
+	void testJournalIsCompactedWhileOpen() throws Exception {
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 1024 * 1024, 10)) {
+			for (int i = 0; i < 500; i++) {
+				append(store, "log", "line " + i + "\n");
+			}
+			// Every append extends the single extent of the log
+			assertTrue(store.getJournalRecords() <= 11, "journal records: " + store.getJournalRecords());
+			append(store, "other", "other line\n");
+			store.delete("other");
+		}
+
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 1024 * 1024, 10)) {
+			assertEquals(lines(500), read(store, "log", 0));
+			assertFalse(store.contains("other"));
+			assertEquals(1, store.getJournalRecords());
+		}
+	}
+
+	@Test
+	void testConcurrentAppends() throws Exception {
+		int threads = 8;
+		int linesPerThread = 300;
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 4096)) {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int t = 0; t < threads; t++) {
+					// Two threads share each log, the others write logs of their own
+					String name = t < 2 ? "shared" : "log-" + t;
+					String prefix = t + ":";
+					futures.add(executor.submit(() -> {
+						for (int i = 0; i < linesPerThread; i++) {
+							append(store, name, prefix + i + "\n");
+						}
+						return null;
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get(60, TimeUnit.SECONDS);
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+			assertTrue(countSegments() > 1);
+			for (int t = 2; t < threads; t++) {
+				assertEquals(lines(t + ":", linesPerThread), read(store, "log-" + t, 0));
+			}
+			// Lines of each thread keep their order in the shared log
+			String shared = read(store, "shared", 0);
+			assertEquals(2 * linesPerThread, shared.lines().count());
+			for (String prefix : List.of("0:", "1:")) {
+				assertEquals(lines(prefix, linesPerThread), shared.lines().filter(line -> line.startsWith(prefix))
+						.map(line -> line + "\n").reduce("", String::concat));
+			}
+		}
+
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 4096)) {
+			assertEquals(lines("5:", linesPerThread), read(store, "log-5", 0));
+		}
+	}
+
+	@Test
+	void testActiveSegmentGrowsInChunks() throws Exception {
+		try (SegmentedLogStore store = new SegmentedLogStore(directory, 64 * 1024 * 1024)) {
+			append(store, "log", "first\n");
+			assertEquals("first\n", read(store, "log", 0));
+			long allocated = segmentSizes().get(0);
+			assertTrue(allocated > 1024 * 1024, "allocated: " + allocated);
+			append(store, "log", "second\n");
+			assertEquals("first\nsecond\n", read(store, "log", 0));
+			assertEquals(List.of(allocated), segmentSizes());
+		}
+	}
+
+	private static String lines(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append("line ").append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String lines(String prefix, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(prefix).append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private List<Long> segmentSizes() throws IOException {
+		List<Long> sizes = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : files.filter(file -> file.getFileName().toString().endsWith(".seg")).toList()) {
+				sizes.add(Files.size(file));
+			}
+		}
+		return sizes;
+	}
+
+	private static void append(SegmentedLogStore store, String name, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		store.append(name, bytes, 0, bytes.length);
+	}
+
+	private static String read(SegmentedLogStore store, String name, long from) throws IOException {
+		try (InputStream input = store.read(name, from)) {
+			return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String childLines(int from, int to) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i <= to; i++) {
+			sb.append("child line ").append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private long countSegments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package eu.nebulouscloud.fogfort.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import eu.nebulouscloud.fogfort.util.TaskLogAppender.LogRecord;
+import eu.nebulouscloud.fogfort.util.TaskLogAppender.RingBuffer;
+
+/**
+ * Fills, wraps and concurrently feeds the ring buffer of the task log appender,
+ * and checks that a flush waits for every message enqueued before it.
+ */
+class TaskLogAppenderTest {
+
+	@Test
+	void testFullBufferRejectsOffers() {
+		RingBuffer ringBuffer = new RingBuffer(3);
+		assertEquals(4, ringBuffer.capacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ringBuffer.offer(record("log", i)));
+		}
+		assertFalse(ringBuffer.offer(record("log", 4)));
+		assertEquals(4, ringBuffer.claimed());
+
+		assertEquals(record("log", 0), ringBuffer.poll());
+		assertTrue(ringBuffer.offer(record("log", 4)));
+		assertFalse(ringBuffer.offer(record("log", 5)));
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(record("log", i), ringBuffer.poll());
+		}
+		assertNull(ringBuffer.poll());
+	}
+
+	@Test
+	void testWrapAround() {
+		RingBuffer ringBuffer = new RingBuffer(4);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(ringBuffer.offer(record("log", 3 * i)));
+			assertTrue(ringBuffer.offer(record("log", 3 * i + 1)));
+			assertTrue(ringBuffer.offer(record("log", 3 * i + 2)));
+			for (int j = 0; j < 3; j++) {
+				assertEquals(record("log", 3 * i + j), ringBuffer.poll());
+			}
+			assertNull(ringBuffer.poll());
+		}
+		assertEquals(300, ringBuffer.claimed());
+		assertEquals(300, ringBuffer.consumed());
+	}
+
+	@Test
+	void testConcurrentProducers() throws Exception {
+		int producers = 4;
+		int messagesPerProducer = 20000;
+		RingBuffer ringBuffer = new RingBuffer(64);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			String producer = "producer-" + p;
+			threads.add(Thread.ofPlatform().start(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < messagesPerProducer; i++) {
+					LogRecord record = record(producer, i);
+					while (!ringBuffer.offer(record)) {
+						Thread.onSpinWait();
+					}
+				}
+			}));
+		}
+
+		start.countDown();
+		Map<String, Integer> next = new ConcurrentHashMap<>();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		int received = 0;
+		while (received < producers * messagesPerProducer) {
+			LogRecord record = ringBuffer.poll();
+			if (record == null) {
+				assertTrue(System.nanoTime() < deadline, "only " + received + " messages received");
+				Thread.onSpinWait();
+				continue;
+			}
+			// Messages of one producer come out in the order it enqueued them
+			int expected = next.getOrDefault(record.outputLogFileName(), 0);
+			assertEquals(String.valueOf(expected), record.message(), record.outputLogFileName());
+			next.put(record.outputLogFileName(), expected + 1);
+			received++;
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+		assertNull(ringBuffer.poll());
+		assertEquals(producers, next.size());
+		assertTrue(next.values().stream().allMatch(count -> count == messagesPerProducer));
+	}
+
+	@Test
+	void testFlushWritesEverythingEnqueuedBefore() {
+		Map<String, StringBuffer> logs = new ConcurrentHashMap<>();
+		// The writer only wakes up when the buffer is full or a flush is requested
+		TaskLogAppender appender = new TaskLogAppender(8, TimeUnit.HOURS.toMillis(1),
+				(output, outputLogFileName) -> logs.computeIfAbsent(outputLogFileName, k -> new StringBuffer())
+						.append(output));
+		for (int i = 0; i < 100; i++) {
+			appender.append("a", String.valueOf(i));
+			appender.append("b", String.valueOf(i));
+		}
+		appender.flush();
+
+		String expected = IntStream.range(0, 100).mapToObj(i -> i + System.lineSeparator())
+				.collect(Collectors.joining());
+		assertEquals(expected, logs.get("a").toString());
+		assertEquals(expected, logs.get("b").toString());
+
+		appender.append("a", "last");
+		appender.flush();
+		assertTrue(logs.get("a").toString().endsWith("99" + System.lineSeparator() + "last" + System.lineSeparator()));
+	}
+
+	private static LogRecord record(String outputLogFileName, int i) {
+		return new LogRecord(outputLogFileName, String.valueOf(i));
+	}
+}